@@ -0,0 +1,111 @@
+package com.battlelancer.seriesguide.test.instrumented;
+
+import android.content.ContentProviderOperation;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
+import com.battlelancer.seriesguide.util.DBUtils;
+import java.util.ArrayList;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares splitting a large batch into windows with {@link DBUtils#applyInWindows} against the
+ * previous implementation draining the batch using {@code remove(0)}. Does not touch the
+ * database, so only measures the cost of splitting.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BatchApplierBenchmark {
+
+    private static final String TAG = "BatchApplierBenchmark";
+    private static final int OP_COUNT = 100000;
+    private static final int WINDOW_SIZE = 50;
+
+    private static ArrayList<ContentProviderOperation> batch;
+
+    @BeforeClass
+    public static void buildBatch() {
+        batch = new ArrayList<>(OP_COUNT);
+        for (int i = 0; i < OP_COUNT; i++) {
+            batch.add(ContentProviderOperation.newUpdate(Episodes.buildEpisodeUri(i))
+                    .withValue(Episodes.WATCHED, 1)
+                    .build());
+        }
+    }
+
+    @Test
+    public void applyInWindows_visitsAllOpsInOrder() throws Exception {
+        final ArrayList<ContentProviderOperation> applied = new ArrayList<>(OP_COUNT);
+        final int[] windowCount = new int[1];
+        DBUtils.applyInWindows(batch, WINDOW_SIZE, new DBUtils.BatchApplier() {
+            @Override
+            public void apply(ArrayList<ContentProviderOperation> window) {
+                assertThat(window.size()).isLessThanOrEqualTo(WINDOW_SIZE);
+                applied.addAll(window);
+                windowCount[0]++;
+            }
+        });
+
+        assertThat(applied).isEqualTo(batch);
+        assertThat(windowCount[0]).isEqualTo(OP_COUNT / WINDOW_SIZE);
+        // input is not modified
+        assertThat(batch).hasSize(OP_COUNT);
+    }
+
+    @Test
+    public void compareWindowsAndDraining() throws Exception {
+        final int[] appliedCount = new int[1];
+        DBUtils.BatchApplier counter = new DBUtils.BatchApplier() {
+            @Override
+            public void apply(ArrayList<ContentProviderOperation> window) {
+                appliedCount[0] += window.size();
+            }
+        };
+
+        long start = SystemClock.elapsedRealtime();
+        DBUtils.applyInWindows(batch, WINDOW_SIZE, counter);
+        long windowsMs = SystemClock.elapsedRealtime() - start;
+        assertThat(appliedCount[0]).isEqualTo(OP_COUNT);
+
+        appliedCount[0] = 0;
+        ArrayList<ContentProviderOperation> copy = new ArrayList<>(batch);
+        start = SystemClock.elapsedRealtime();
+        applyByDraining(copy, counter);
+        long drainingMs = SystemClock.elapsedRealtime() - start;
+        assertThat(appliedCount[0]).isEqualTo(OP_COUNT);
+
+        // only report timings, they vary too much between devices and runs to assert on
+        Log.i(TAG, "Split " + OP_COUNT + " ops into windows of " + WINDOW_SIZE
+                + ": windows " + windowsMs + " ms, remove(0) " + drainingMs + " ms");
+    }
+
+    /**
+     * The previous implementation of {@link DBUtils#applyInSmallBatches}.
+     */
+    private static void applyByDraining(ArrayList<ContentProviderOperation> batch,
+            DBUtils.BatchApplier applier) throws Exception {
+        ArrayList<ContentProviderOperation> smallBatch = new ArrayList<>();
+
+        while (!batch.isEmpty()) {
+            if (batch.size() <= WINDOW_SIZE) {
+                applier.apply(batch);
+                return;
+            }
+
+            for (int count = 0; count < WINDOW_SIZE; count++) {
+                if (batch.isEmpty()) {
+                    break;
+                }
+                smallBatch.add(batch.remove(0));
+            }
+
+            applier.apply(smallBatch);
+
+            smallBatch.clear();
+        }
+    }
+}
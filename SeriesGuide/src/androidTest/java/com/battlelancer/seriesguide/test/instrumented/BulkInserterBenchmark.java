@@ -0,0 +1,172 @@
+package com.battlelancer.seriesguide.test.instrumented;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.battlelancer.seriesguide.provider.BulkInserter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares inserting rows shaped like episodes with {@link BulkInserter} against {@link
+ * SQLiteDatabase#replace(String, String, ContentValues)} in an in-memory database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkInserterBenchmark {
+
+    private static final String TAG = "BulkInserterBenchmark";
+    private static final int ROW_COUNT = 10000;
+    private static final String TABLE = "episodes";
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void createDatabase() {
+        db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + "_id INTEGER PRIMARY KEY,"
+                + "episodetitle TEXT NOT NULL,"
+                + "episodedescription TEXT,"
+                + "episodenumber INTEGER default 0,"
+                + "season INTEGER default 0,"
+                + "dvdnumber REAL,"
+                + "season_id INTEGER,"
+                + "series_id INTEGER,"
+                + "episode_firstairedms INTEGER default -1,"
+                + "directors TEXT,"
+                + "gueststars TEXT,"
+                + "writers TEXT,"
+                + "episodeimage TEXT,"
+                + "episode_imdbid TEXT,"
+                + "episode_lastedit INTEGER"
+                + ");");
+    }
+
+    @After
+    public void closeDatabase() {
+        db.close();
+    }
+
+    @Test
+    public void compareReplaceAndBulkInserter() {
+        ContentValues[] rows = buildRows(0);
+
+        long start = SystemClock.elapsedRealtime();
+        db.beginTransaction();
+        try {
+            for (ContentValues row : rows) {
+                db.replace(TABLE, null, row);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long replaceMs = SystemClock.elapsedRealtime() - start;
+        db.delete(TABLE, null, null);
+
+        start = SystemClock.elapsedRealtime();
+        insertWithBulkInserter(rows);
+        long bulkMs = SystemClock.elapsedRealtime() - start;
+
+        assertThat(countRows()).isEqualTo(ROW_COUNT);
+        // only report timings, they vary too much between devices and runs to assert on
+        Log.i(TAG, "Inserted " + ROW_COUNT + " rows: replace " + replaceMs
+                + " ms, BulkInserter " + bulkMs + " ms");
+    }
+
+    @Test
+    public void lastInsertWins() {
+        insertWithBulkInserter(buildRows(0));
+        // insert again with different values and columns in a different order
+        ContentValues[] changedRows = new ContentValues[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            ContentValues values = new ContentValues();
+            values.put("episodetitle", "Changed " + i);
+            values.put("_id", i);
+            changedRows[i] = values;
+        }
+        insertWithBulkInserter(changedRows);
+
+        assertThat(countRows()).isEqualTo(ROW_COUNT);
+        Cursor query = db.query(TABLE, new String[] { "episodetitle", "episodedescription" },
+                "_id=42", null, null, null, null);
+        assertThat(query.moveToFirst()).isTrue();
+        assertThat(query.getString(0)).isEqualTo("Changed 42");
+        // replaced, so other columns are reset
+        assertThat(query.isNull(1)).isTrue();
+        query.close();
+    }
+
+    @Test
+    public void failedRowIsSkipped() {
+        ContentValues invalid = new ContentValues();
+        invalid.put("_id", 1);
+        invalid.putNull("episodetitle");
+        ContentValues valid = new ContentValues();
+        valid.put("_id", 2);
+        valid.put("episodetitle", "Valid");
+
+        BulkInserter inserter = new BulkInserter(db, TABLE);
+        try {
+            assertThat(inserter.insert(invalid)).isEqualTo(-1);
+            assertThat(inserter.insert(valid)).isEqualTo(2);
+        } finally {
+            inserter.close();
+        }
+        assertThat(countRows()).isEqualTo(1);
+    }
+
+    private void insertWithBulkInserter(ContentValues[] rows) {
+        db.beginTransaction();
+        BulkInserter inserter = new BulkInserter(db, TABLE);
+        try {
+            for (ContentValues row : rows) {
+                inserter.insert(row);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            db.endTransaction();
+        }
+    }
+
+    private int countRows() {
+        Cursor query = db.rawQuery("SELECT COUNT(*) FROM " + TABLE, null);
+        query.moveToFirst();
+        int count = query.getInt(0);
+        query.close();
+        return count;
+    }
+
+    private static ContentValues[] buildRows(int firstId) {
+        ContentValues[] rows = new ContentValues[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            int season = i / 20 + 1;
+            ContentValues values = new ContentValues();
+            values.put("_id", firstId + i);
+            values.put("episodetitle", "Episode " + i);
+            values.put("episodedescription", "An overview of episode " + i + ".");
+            values.put("episodenumber", i % 20 + 1);
+            values.put("season", season);
+            values.putNull("dvdnumber");
+            values.put("season_id", 5000 + season);
+            values.put("series_id", 12345);
+            values.put("episode_firstairedms", 1262304000000L + i * 86400000L);
+            values.put("directors", "Some Director");
+            values.put("gueststars", "|Guest One|Guest Two|");
+            values.put("writers", "|Writer One|");
+            values.put("episodeimage", "episodes/12345/" + i + ".jpg");
+            values.put("episode_imdbid", "tt" + (1000000 + i));
+            values.put("episode_lastedit", 1420070400L);
+            rows[i] = values;
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,138 @@
+package com.battlelancer.seriesguide.test.instrumented;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.battlelancer.seriesguide.provider.BulkUpdater;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares updating flags of rows shaped like episodes with {@link BulkUpdater} by id against
+ * {@link SQLiteDatabase#update(String, ContentValues, String, String[])} with a show, season and
+ * number selection, like when downloading episode flags from Hexagon.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkUpdaterBenchmark {
+
+    private static final String TAG = "BulkUpdaterBenchmark";
+    private static final int ROW_COUNT = 10000;
+    private static final int EPISODES_PER_SEASON = 20;
+    private static final int SHOW_ID = 12345;
+    private static final String TABLE = "episodes";
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void createDatabase() {
+        db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + "_id INTEGER PRIMARY KEY,"
+                + "episodenumber INTEGER default 0,"
+                + "season INTEGER default 0,"
+                + "series_id INTEGER,"
+                + "watched INTEGER DEFAULT 0,"
+                + "episode_collected INTEGER DEFAULT 0"
+                + ");");
+        db.execSQL("CREATE INDEX episodes_show ON " + TABLE + " (series_id);");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ROW_COUNT; i++) {
+                ContentValues values = new ContentValues();
+                values.put("_id", i);
+                values.put("episodenumber", i % EPISODES_PER_SEASON + 1);
+                values.put("season", i / EPISODES_PER_SEASON + 1);
+                values.put("series_id", SHOW_ID);
+                db.insert(TABLE, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @After
+    public void closeDatabase() {
+        db.close();
+    }
+
+    @Test
+    public void compareSelectionAndBulkUpdater() {
+        long start = SystemClock.elapsedRealtime();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ROW_COUNT; i++) {
+                ContentValues values = new ContentValues();
+                values.put("watched", 1);
+                db.update(TABLE, values, "series_id=" + SHOW_ID
+                        + " AND season=" + (i / EPISODES_PER_SEASON + 1)
+                        + " AND episodenumber=" + (i % EPISODES_PER_SEASON + 1), null);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long selectionMs = SystemClock.elapsedRealtime() - start;
+        assertThat(countRows("watched=1")).isEqualTo(ROW_COUNT);
+
+        start = SystemClock.elapsedRealtime();
+        db.beginTransaction();
+        BulkUpdater updater = new BulkUpdater(db, TABLE);
+        try {
+            for (int i = 0; i < ROW_COUNT; i++) {
+                ContentValues values = new ContentValues();
+                values.put("_id", i);
+                values.put("episode_collected", 1);
+                updater.update(values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            updater.close();
+            db.endTransaction();
+        }
+        long bulkMs = SystemClock.elapsedRealtime() - start;
+        assertThat(countRows("episode_collected=1")).isEqualTo(ROW_COUNT);
+
+        // only report timings, they vary too much between devices and runs to assert on
+        Log.i(TAG, "Updated " + ROW_COUNT + " rows: selection " + selectionMs
+                + " ms, BulkUpdater " + bulkMs + " ms");
+    }
+
+    @Test
+    public void missingOrInvalidRowsAreSkipped() {
+        ContentValues missing = new ContentValues();
+        missing.put("_id", ROW_COUNT + 1);
+        missing.put("watched", 1);
+        ContentValues noId = new ContentValues();
+        noId.put("watched", 1);
+        ContentValues valid = new ContentValues();
+        valid.put("watched", 2);
+        valid.put("_id", 42);
+
+        BulkUpdater updater = new BulkUpdater(db, TABLE);
+        try {
+            assertThat(updater.update(missing)).isEqualTo(0);
+            assertThat(updater.update(noId)).isEqualTo(-1);
+            assertThat(updater.update(valid)).isEqualTo(1);
+        } finally {
+            updater.close();
+        }
+        assertThat(countRows("watched>0")).isEqualTo(1);
+        assertThat(countRows("_id=42 AND watched=2")).isEqualTo(1);
+    }
+
+    private int countRows(String selection) {
+        Cursor query = db.rawQuery("SELECT COUNT(*) FROM " + TABLE + " WHERE " + selection, null);
+        query.moveToFirst();
+        int count = query.getInt(0);
+        query.close();
+        return count;
+    }
+}
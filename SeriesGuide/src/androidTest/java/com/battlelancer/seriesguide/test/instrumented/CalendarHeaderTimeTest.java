@@ -0,0 +1,72 @@
+package com.battlelancer.seriesguide.test.instrumented;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+import com.battlelancer.seriesguide.adapters.CalendarAdapter;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
+import java.util.Calendar;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks the day headers computed by {@link CalendarAdapter#buildHeaderTimeColumn(int)} match
+ * those computed with a {@link Calendar} in the local time zone.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CalendarHeaderTimeTest {
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void createDatabase() {
+        db = SQLiteDatabase.create(null);
+    }
+
+    @After
+    public void closeDatabase() {
+        db.close();
+    }
+
+    @Test
+    public void headerTime_matchesCalendar() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2016, Calendar.MARCH, 1, 0, 30, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        // every 7 hours for about a year to cover both sides of daylight saving time changes
+        for (int i = 0; i < 1300; i++) {
+            long releaseTime = calendar.getTimeInMillis();
+            for (int offset : new int[] { -3, 0, 2 }) {
+                assertThat(queryHeaderTime(releaseTime, offset))
+                        .as("release time %s, offset %s", releaseTime, offset)
+                        .isEqualTo(getHeaderTime(releaseTime, offset));
+            }
+            calendar.add(Calendar.HOUR_OF_DAY, 7);
+        }
+    }
+
+    private long queryHeaderTime(long releaseTime, int offset) {
+        Cursor query = db.rawQuery("SELECT " + CalendarAdapter.buildHeaderTimeColumn(offset)
+                + " FROM (SELECT ? AS " + Episodes.FIRSTAIREDMS + ")",
+                new String[] { String.valueOf(releaseTime) });
+        assertThat(query.moveToFirst()).isTrue();
+        long headerTime = query.getLong(0);
+        query.close();
+        return headerTime;
+    }
+
+    private static long getHeaderTime(long releaseTime, int offset) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(releaseTime);
+        calendar.add(Calendar.HOUR_OF_DAY, offset);
+        calendar.set(Calendar.HOUR_OF_DAY, 1);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+}
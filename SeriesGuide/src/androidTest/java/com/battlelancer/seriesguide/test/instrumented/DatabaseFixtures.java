@@ -0,0 +1,77 @@
+package com.battlelancer.seriesguide.test.instrumented;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import com.battlelancer.seriesguide.provider.BulkInserter;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Seasons;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Shows;
+import com.battlelancer.seriesguide.provider.SeriesGuideDatabase;
+import com.battlelancer.seriesguide.provider.SeriesGuideDatabase.Tables;
+import java.util.List;
+
+/**
+ * Shows and episodes to fill a {@link SeriesGuideDatabase} with in tests.
+ */
+public class DatabaseFixtures {
+
+    /**
+     * Creates an in-memory database with the current schema.
+     */
+    public static SQLiteDatabase createDatabase() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        new SeriesGuideDatabase(InstrumentationRegistry.getTargetContext()).onCreate(db);
+        return db;
+    }
+
+    public static ContentValues buildShow(int id) {
+        ContentValues values = new ContentValues();
+        values.put(Shows._ID, id);
+        values.put(Shows.TITLE, "Show " + id);
+        return values;
+    }
+
+    public static void insertShow(SQLiteDatabase db, int id) {
+        db.insertOrThrow(Tables.SHOWS, null, buildShow(id));
+    }
+
+    public static int getSeasonId(int showId, int season) {
+        return showId * 100 + season;
+    }
+
+    /**
+     * Builds an episode titled "Episode id" with an overview, releasing one day after the other
+     * by id.
+     */
+    public static ContentValues buildEpisode(int id, int showId, int season, int number) {
+        ContentValues values = new ContentValues();
+        values.put(Episodes._ID, id);
+        values.put(Episodes.TITLE, "Episode " + id);
+        values.put(Episodes.OVERVIEW, "An overview of the episode, long enough to be indexed.");
+        values.put(Episodes.NUMBER, number);
+        values.put(Episodes.SEASON, season);
+        values.put(Seasons.REF_SEASON_ID, getSeasonId(showId, season));
+        values.put(Shows.REF_SHOW_ID, showId);
+        values.put(Episodes.FIRSTAIREDMS, 1262304000000L + id * 86400000L);
+        return values;
+    }
+
+    /**
+     * Inserts or replaces episodes in a single transaction, like applying a show update during
+     * sync.
+     */
+    public static void insertEpisodes(SQLiteDatabase db, List<ContentValues> episodes) {
+        db.beginTransaction();
+        BulkInserter inserter = new BulkInserter(db, Tables.EPISODES);
+        try {
+            for (ContentValues episode : episodes) {
+                inserter.insert(episode);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            db.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.battlelancer.seriesguide.test.instrumented;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.support.test.runner.AndroidJUnit4;
+import com.battlelancer.seriesguide.dataliberation.model.Show;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Seasons;
+import com.battlelancer.seriesguide.thetvdbapi.EpisodeOpsBuilder;
+import com.battlelancer.seriesguide.thetvdbapi.TvdbEpisodeParser;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that re-syncing unchanged episodes does not build any episode update ops.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EpisodeOpsBuilderTest {
+
+    private static final int SEASON_COUNT = 3;
+    private static final int EPISODES_PER_SEASON = 10;
+    private static final int EPISODE_COUNT = SEASON_COUNT * EPISODES_PER_SEASON;
+
+    @Test
+    public void unchangedResync_onlyBuildsSeasonOps() throws Exception {
+        Show show = buildShow();
+
+        // first sync: all episodes are new
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        EpisodeOpsBuilder builder = parse(show, batch, new HashMap<Integer, Long>(),
+                new HashSet<Integer>(), buildFixture("Episode"));
+        ArrayList<ContentValues> newEpisodes = builder.finish();
+        assertThat(newEpisodes).hasSize(EPISODE_COUNT);
+        assertThat(batch).hasSize(SEASON_COUNT);
+
+        HashMap<Integer, Long> localEpisodeHashes = new HashMap<>();
+        HashSet<Integer> localSeasonIds = new HashSet<>();
+        for (ContentValues values : newEpisodes) {
+            localEpisodeHashes.put(values.getAsInteger(Episodes._ID),
+                    values.getAsLong(Episodes.CONTENT_HASH));
+            localSeasonIds.add(values.getAsInteger(Seasons.REF_SEASON_ID));
+        }
+
+        // unchanged re-sync: only season ops remain
+        batch = new ArrayList<>();
+        builder = parse(show, batch, localEpisodeHashes, localSeasonIds, buildFixture("Episode"));
+        assertThat(builder.finish()).isEmpty();
+        assertThat(batch).hasSize(SEASON_COUNT);
+        assertThat(builder.getSkippedUpdateCount()).isEqualTo(EPISODE_COUNT);
+
+        // stored before hashes existed (0): all episodes are updated once
+        HashMap<Integer, Long> unknownHashes = new HashMap<>();
+        for (Integer episodeId : localEpisodeHashes.keySet()) {
+            unknownHashes.put(episodeId, 0L);
+        }
+        batch = new ArrayList<>();
+        builder = parse(show, batch, unknownHashes, localSeasonIds, buildFixture("Episode"));
+        builder.finish();
+        assertThat(batch).hasSize(EPISODE_COUNT + SEASON_COUNT);
+        assertThat(builder.getSkippedUpdateCount()).isEqualTo(0);
+
+        // changed titles: all episodes are updated
+        batch = new ArrayList<>();
+        builder = parse(show, batch, localEpisodeHashes, localSeasonIds, buildFixture("Chapter"));
+        builder.finish();
+        assertThat(batch).hasSize(EPISODE_COUNT + SEASON_COUNT);
+        assertThat(builder.getSkippedUpdateCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void orphanedEpisodes_areDeleted() throws Exception {
+        HashMap<Integer, Long> localEpisodeHashes = new HashMap<>();
+        localEpisodeHashes.put(42, 1L);
+
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        EpisodeOpsBuilder builder = parse(buildShow(), batch, localEpisodeHashes,
+                new HashSet<Integer>(), buildFixture("Episode"));
+        builder.finish();
+
+        // season inserts and one delete
+        assertThat(batch).hasSize(SEASON_COUNT + 1);
+        assertThat(batch.get(SEASON_COUNT).getUri())
+                .isEqualTo(Episodes.buildEpisodeUri(42));
+    }
+
+    private static Show buildShow() {
+        Show show = new Show();
+        show.tvdb_id = 12345;
+        show.release_time = 2000;
+        show.release_timezone = "America/New_York";
+        show.country = "us";
+        show.network = "ABC";
+        return show;
+    }
+
+    private static EpisodeOpsBuilder parse(Show show, ArrayList<ContentProviderOperation> batch,
+            HashMap<Integer, Long> localEpisodeHashes, HashSet<Integer> localSeasonIds,
+            byte[] fixture) throws Exception {
+        EpisodeOpsBuilder builder = new EpisodeOpsBuilder(null, show, batch,
+                localEpisodeHashes, localSeasonIds);
+        new TvdbEpisodeParser().parse(new ByteArrayInputStream(fixture), builder);
+        return builder;
+    }
+
+    private static byte[] buildFixture(String titlePrefix) throws Exception {
+        StringBuilder xml = new StringBuilder(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<Data>\n");
+        for (int i = 0; i < EPISODE_COUNT; i++) {
+            int season = i / EPISODES_PER_SEASON + 1;
+            xml.append("<Episode>")
+                    .append("<id>").append(100000 + i).append("</id>")
+                    .append("<EpisodeNumber>").append(i % EPISODES_PER_SEASON + 1)
+                    .append("</EpisodeNumber>")
+                    .append("<SeasonNumber>").append(season).append("</SeasonNumber>")
+                    .append("<FirstAired>2010-01-0").append(season).append("</FirstAired>")
+                    .append("<EpisodeName>").append(titlePrefix).append(' ').append(i)
+                    .append("</EpisodeName>")
+                    .append("<Overview>Overview ").append(i).append("</Overview>")
+                    .append("<seasonid>").append(5000 + season).append("</seasonid>")
+                    .append("<seriesid>12345</seriesid>")
+                    .append("<lastupdated>1420070400</lastupdated>")
+                    .append("</Episode>\n");
+        }
+        xml.append("</Data>\n");
+        return xml.toString().getBytes("UTF-8");
+    }
+}
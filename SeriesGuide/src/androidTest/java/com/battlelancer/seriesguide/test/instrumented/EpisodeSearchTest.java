@@ -0,0 +1,104 @@
+package com.battlelancer.seriesguide.test.instrumented;
+
+import android.app.SearchManager;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Shows;
+import com.battlelancer.seriesguide.provider.SeriesGuideDatabase;
+import com.battlelancer.seriesguide.provider.SeriesGuideDatabase.Tables;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks ranking, paging and suggestions of {@link SeriesGuideDatabase#search} and {@link
+ * SeriesGuideDatabase#getSuggestions}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EpisodeSearchTest {
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void createDatabase() {
+        db = DatabaseFixtures.createDatabase();
+
+        insertShow(1, "Alpha Show");
+        insertShow(2, "Beta Show");
+        // overview matches only
+        insertEpisode(10, 1, 1, "Pilot", "The dragon awakes.");
+        insertEpisode(20, 2, 1, "Arrival", "A dragon arrives.");
+        // title matches, in a show sorted after the overview matches
+        insertEpisode(21, 2, 2, "Dragonfire", "Nothing to see here.");
+        insertEpisode(22, 2, 3, "Dragons", "More dragons.");
+        // no match
+        insertEpisode(11, 1, 2, "Finale", "The end.");
+    }
+
+    @After
+    public void closeDatabase() {
+        db.close();
+    }
+
+    @Test
+    public void search_ranksTitleMatchesFirstAndPages() {
+        assertThat(search(null, new String[] { "drag" }, 0, 0))
+                .containsExactly(21, 22, 10, 20);
+        assertThat(search(null, new String[] { "drag" }, 3, 3)).containsExactly(20);
+    }
+
+    @Test
+    public void search_filtersByShow() {
+        assertThat(search(Shows.TITLE + "=?", new String[] { "drag", "Alpha Show" }, 0, 0))
+                .containsExactly(10);
+    }
+
+    @Test
+    public void getSuggestions_onlyTitlesUpToLimit() {
+        Cursor query = SeriesGuideDatabase.getSuggestions("drag", 1, db);
+        assertThat(query).isNotNull();
+        assertThat(query.getCount()).isEqualTo(1);
+        query.moveToFirst();
+        assertThat(query.getString(query.getColumnIndexOrThrow(
+                SearchManager.SUGGEST_COLUMN_TEXT_1))).startsWith("Dragon");
+        query.close();
+
+        query = SeriesGuideDatabase.getSuggestions("drag", 10, db);
+        assertThat(query).isNotNull();
+        assertThat(query.getCount()).isEqualTo(2);
+        query.close();
+    }
+
+    private List<Integer> search(String selection, String[] selectionArgs, int limit,
+            int offset) {
+        Cursor query = SeriesGuideDatabase.search(selection, selectionArgs, limit, offset, db);
+        assertThat(query).isNotNull();
+        List<Integer> ids = new ArrayList<>();
+        while (query.moveToNext()) {
+            ids.add(query.getInt(0));
+        }
+        query.close();
+        return ids;
+    }
+
+    private void insertShow(int id, String title) {
+        ContentValues values = DatabaseFixtures.buildShow(id);
+        values.put(Shows.TITLE, title);
+        db.insertOrThrow(Tables.SHOWS, null, values);
+    }
+
+    private void insertEpisode(int id, int showId, int number, String title, String overview) {
+        ContentValues values = DatabaseFixtures.buildEpisode(id, showId, 1, number);
+        values.put(Episodes.TITLE, title);
+        values.put(Episodes.OVERVIEW, overview);
+        db.insertOrThrow(Tables.EPISODES, null, values);
+    }
+}
@@ -0,0 +1,83 @@
+package com.battlelancer.seriesguide.test.instrumented;
+
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.battlelancer.seriesguide.provider.NotificationCoalescer;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.ListItems;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks {@link NotificationCoalescer} defers notifications until the outermost deferral ends,
+ * then sends each distinct {@link Uri} once and counts the avoided ones.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NotificationCoalescerTest {
+
+    private NotificationCoalescer notifications;
+
+    @Before
+    public void createCoalescer() {
+        notifications = new NotificationCoalescer(
+                InstrumentationRegistry.getTargetContext().getContentResolver());
+    }
+
+    @Test
+    public void merge_dropsDuplicatesAndDescendants() {
+        Uri seasonUri = Episodes.buildEpisodesOfSeasonWithShowUri("42");
+        assertThat(NotificationCoalescer.merge(Arrays.asList(
+                Episodes.buildEpisodeWithShowUri(1),
+                seasonUri,
+                Episodes.CONTENT_URI_WITHSHOW,
+                seasonUri,
+                ListItems.CONTENT_WITH_DETAILS_URI)))
+                .containsExactly(seasonUri, Episodes.CONTENT_URI_WITHSHOW,
+                        ListItems.CONTENT_WITH_DETAILS_URI);
+
+        assertThat(NotificationCoalescer.merge(Arrays.asList(
+                Episodes.buildEpisodeUri(1), Episodes.CONTENT_URI, Episodes.CONTENT_URI_WITHSHOW)))
+                .containsExactly(Episodes.CONTENT_URI);
+    }
+
+    @Test
+    public void notifyChange_withoutDeferralIsSent() {
+        notifications.notifyChange(Episodes.CONTENT_URI_WITHSHOW);
+        notifications.notifyChange(Episodes.CONTENT_URI_WITHSHOW);
+
+        assertThat(notifications.getRequestedCount()).isEqualTo(2);
+        assertThat(notifications.getEmittedCount()).isEqualTo(2);
+        assertThat(notifications.getAvoidedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void notifyChange_deferredUntilOutermostEnd() {
+        notifications.begin();
+        // like sync notifying after each show
+        for (int i = 0; i < 10; i++) {
+            notifications.notifyChange(Episodes.CONTENT_URI_WITHSHOW);
+        }
+
+        notifications.begin();
+        notifications.notifyChange(Episodes.buildEpisodeWithShowUri(1));
+        notifications.notifyChange(ListItems.CONTENT_WITH_DETAILS_URI);
+        notifications.end();
+        assertThat(notifications.getEmittedCount()).isEqualTo(0);
+        assertThat(notifications.getAvoidedCount()).isEqualTo(0);
+
+        notifications.end();
+        assertThat(notifications.getRequestedCount()).isEqualTo(12);
+        assertThat(notifications.getEmittedCount()).isEqualTo(2);
+        assertThat(notifications.getAvoidedCount()).isEqualTo(10);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void end_withoutBegin() {
+        notifications.end();
+    }
+}
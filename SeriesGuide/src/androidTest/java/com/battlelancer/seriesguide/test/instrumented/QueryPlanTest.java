@@ -0,0 +1,216 @@
+package com.battlelancer.seriesguide.test.instrumented;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+import com.battlelancer.seriesguide.adapters.CalendarAdapter;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Activity;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.EpisodeSearch;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.ListItems;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Lists;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Movies;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Seasons;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.ShowStats;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Shows;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.TraktShowIds;
+import com.battlelancer.seriesguide.provider.SeriesGuideProvider;
+import com.battlelancer.seriesguide.util.DBUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@code EXPLAIN QUERY PLAN} for frequently used queries of each episodes and seasons
+ * {@link Uri} supported by {@link SeriesGuideProvider} and fails if any of them scans the whole
+ * episodes or seasons table instead of using an index.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryPlanTest {
+
+    /** Matches "SCAN TABLE episodes" (older SQLite) and "SCAN episodes AS nextep" (newer). */
+    private static final Pattern FULL_SCAN = Pattern.compile(
+            "^SCAN (TABLE )?(episodes|seasons)\\b");
+
+    private SQLiteDatabase db;
+
+    private static class HotQuery {
+        final Uri uri;
+        final String selection;
+        final String groupBy;
+        final String sortOrder;
+
+        HotQuery(Uri uri, String selection, String groupBy, String sortOrder) {
+            this.uri = uri;
+            this.selection = selection;
+            this.groupBy = groupBy;
+            this.sortOrder = sortOrder;
+        }
+
+        HotQuery(Uri uri, String selection, String sortOrder) {
+            this(uri, selection, null, sortOrder);
+        }
+    }
+
+    @Before
+    public void createDatabase() {
+        db = DatabaseFixtures.createDatabase();
+    }
+
+    @After
+    public void closeDatabase() {
+        db.close();
+    }
+
+    @Test
+    public void hotQueries_useIndexes() {
+        List<HotQuery> queries = new ArrayList<>();
+
+        // shows with last watched and next episode
+        queries.add(new HotQuery(Shows.CONTENT_URI_WITH_LAST_EPISODE, null, null));
+        queries.add(new HotQuery(Shows.CONTENT_URI_WITH_NEXT_EPISODE, null, null));
+
+        // single episode
+        queries.add(new HotQuery(Episodes.buildEpisodeUri(1), null, null));
+        queries.add(new HotQuery(Episodes.buildEpisodeWithShowUri(1), null, null));
+
+        // episodes of a show: all, unwatched count, next episode, season counters
+        queries.add(new HotQuery(Episodes.buildEpisodesOfShowUri(1), null, null));
+        queries.add(new HotQuery(Episodes.buildEpisodesOfShowUri(1),
+                Episodes.WATCHED + "=0 AND " + Episodes.FIRSTAIREDMS + "!=-1 AND "
+                        + Episodes.FIRSTAIREDMS + "<=? AND " + Episodes.SELECTION_NO_SPECIALS,
+                null));
+        queries.add(new HotQuery(Episodes.buildEpisodesOfShowUri(1),
+                Episodes.WATCHED + "=0 AND " + Episodes.FIRSTAIREDMS + ">=?",
+                Episodes.FIRSTAIREDMS + " ASC," + Episodes.SEASON + " ASC,"
+                        + Episodes.NUMBER + " ASC"));
+        queries.add(new HotQuery(Episodes.buildEpisodesOfShowBySeasonUri("1"), null,
+                Seasons.REF_SEASON_ID, null));
+
+        // episodes of a season
+        queries.add(new HotQuery(Episodes.buildEpisodesOfSeasonUri("1"), null,
+                Episodes.SORT_NUMBER_ASC));
+        queries.add(new HotQuery(Episodes.buildEpisodesOfSeasonUri("1"),
+                Episodes.SELECTION_UNWATCHED, null));
+        queries.add(new HotQuery(Episodes.buildEpisodesOfSeasonWithShowUri("1"), null,
+                Episodes.SORT_NUMBER_ASC));
+
+        // calendar and notifications
+        queries.add(new HotQuery(Episodes.CONTENT_URI_WITHSHOW,
+                CalendarAdapter.Query.QUERY_UPCOMING, CalendarAdapter.Query.SORTING_UPCOMING));
+        queries.add(new HotQuery(Episodes.CONTENT_URI_WITHSHOW,
+                CalendarAdapter.Query.QUERY_RECENT, CalendarAdapter.Query.SORTING_RECENT));
+
+        // seasons
+        queries.add(new HotQuery(Seasons.buildSeasonUri(1), null, null));
+        queries.add(new HotQuery(Seasons.buildSeasonsOfShowUri(1), null,
+                Seasons.COMBINED + " DESC"));
+
+        StringBuilder failures = new StringBuilder();
+        for (HotQuery query : queries) {
+            String sql = SeriesGuideProvider.buildSelection(query.uri)
+                    .where(query.selection)
+                    .buildQuery(null, query.groupBy, query.sortOrder);
+            appendFullScans(failures, query.uri, sql);
+        }
+
+        // next episode and unwatched count of all shows, correlated sub-queries per show
+        for (boolean isHidingSpecials : new boolean[] { false, true }) {
+            for (boolean isNoReleasedEpisodes : new boolean[] { false, true }) {
+                String sql = SeriesGuideProvider.buildSelection(Shows.CONTENT_URI_WITH_LAST_EPISODE)
+                        .buildQuery(DBUtils.buildShowsNextEpisodeProjection(isHidingSpecials,
+                                isNoReleasedEpisodes, 0), null, null);
+                appendFullScans(failures, Shows.CONTENT_URI_WITH_LAST_EPISODE, sql);
+            }
+        }
+
+        if (failures.length() > 0) {
+            fail("Queries falling back to a full table scan:\n" + failures);
+        }
+    }
+
+    /**
+     * Builds the query of every {@link Uri} supported by {@link
+     * SeriesGuideProvider#buildSelection(Uri)}. Fails if any is invalid or, if it selects by a key,
+     * scans the whole episodes or seasons table.
+     */
+    @Test
+    public void allUris_buildValidQueries() {
+        // queries of a whole table, may scan it
+        List<Uri> tableUris = Arrays.asList(
+                Shows.CONTENT_URI,
+                Shows.CONTENT_URI_FILTER.buildUpon().appendPath("title").build(),
+                Episodes.CONTENT_URI,
+                Episodes.CONTENT_URI_WITHSHOW,
+                Seasons.CONTENT_URI,
+                Lists.CONTENT_URI,
+                ListItems.CONTENT_URI,
+                ListItems.CONTENT_WITH_DETAILS_URI,
+                Movies.CONTENT_URI,
+                Activity.CONTENT_URI,
+                TraktShowIds.CONTENT_URI,
+                ShowStats.CONTENT_URI
+        );
+        // queries selecting by a key
+        List<Uri> keyUris = Arrays.asList(
+                Shows.buildShowUri(1),
+                Shows.CONTENT_URI_WITH_LAST_EPISODE,
+                Shows.CONTENT_URI_WITH_NEXT_EPISODE,
+                Episodes.buildEpisodeUri(1),
+                Episodes.buildEpisodesOfShowUri(1),
+                Episodes.buildEpisodesOfShowBySeasonUri("1"),
+                Episodes.buildEpisodesOfSeasonUri("1"),
+                Episodes.buildEpisodesOfSeasonWithShowUri("1"),
+                Episodes.buildEpisodeWithShowUri(1),
+                Seasons.buildSeasonUri(1),
+                Seasons.buildSeasonsOfShowUri(1),
+                EpisodeSearch.buildDocIdUri("1"),
+                Lists.buildListUri("1"),
+                Lists.buildListsWithListItemUri("1"),
+                ListItems.buildListItemUri("1"),
+                Movies.buildMovieUri(1),
+                TraktShowIds.buildTraktShowIdUri(1)
+        );
+
+        StringBuilder failures = new StringBuilder();
+        for (Uri uri : tableUris) {
+            explainQueryPlan(SeriesGuideProvider.buildSelection(uri).buildQuery(null, null, null));
+        }
+        for (Uri uri : keyUris) {
+            String sql = SeriesGuideProvider.buildSelection(uri).buildQuery(null, null, null);
+            appendFullScans(failures, uri, sql);
+        }
+        if (failures.length() > 0) {
+            fail("Queries falling back to a full table scan:\n" + failures);
+        }
+    }
+
+    private void appendFullScans(StringBuilder failures, Uri uri, String sql) {
+        for (String detail : explainQueryPlan(sql)) {
+            if (FULL_SCAN.matcher(detail).find()) {
+                failures.append(uri).append(": ").append(detail)
+                        .append("\n  ").append(sql).append('\n');
+            }
+        }
+    }
+
+    private List<String> explainQueryPlan(String sql) {
+        // unbound parameters are NULL, the plan does not depend on them
+        Cursor query = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        List<String> details = new ArrayList<>();
+        int detailColumn = query.getColumnIndexOrThrow("detail");
+        while (query.moveToNext()) {
+            details.add(query.getString(detailColumn));
+        }
+        query.close();
+        return details;
+    }
+}
@@ -0,0 +1,112 @@
+package com.battlelancer.seriesguide.test.instrumented;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Activity;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.ListItemTypes;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.ListItems;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Lists;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Seasons;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Shows;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.TraktShowIds;
+import com.battlelancer.seriesguide.provider.SeriesGuideDatabase;
+import com.battlelancer.seriesguide.provider.SeriesGuideDatabase.Tables;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks {@link SeriesGuideDatabase#removeShows(SQLiteDatabase, int[])} removes all rows of the
+ * given shows, but none of other shows.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RemoveShowsTest {
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void createDatabase() {
+        db = DatabaseFixtures.createDatabase();
+
+        for (int show = 1; show <= 3; show++) {
+            DatabaseFixtures.insertShow(db, show);
+            insertTraktId(show);
+            insertListItem(ListItemTypes.SHOW, show);
+            int seasonId = DatabaseFixtures.getSeasonId(show, 1);
+            insertSeason(seasonId, show);
+            insertListItem(ListItemTypes.SEASON, seasonId);
+            for (int number = 1; number <= 2; number++) {
+                int episodeId = show * 10 + number;
+                db.insertOrThrow(Tables.EPISODES, null,
+                        DatabaseFixtures.buildEpisode(episodeId, show, 1, number));
+                insertListItem(ListItemTypes.EPISODE, episodeId);
+                insertActivity(episodeId, show);
+            }
+        }
+    }
+
+    @After
+    public void closeDatabase() {
+        db.close();
+    }
+
+    @Test
+    public void removeShows_removesAllRowsOfShows() {
+        assertThat(SeriesGuideDatabase.removeShows(db, new int[] { 1, 3 })).isEqualTo(2);
+
+        assertThat(count(Tables.SHOWS)).isEqualTo(1);
+        assertThat(count(Tables.SEASONS)).isEqualTo(1);
+        assertThat(count(Tables.EPISODES)).isEqualTo(2);
+        assertThat(count(Tables.EPISODES_SEARCH)).isEqualTo(2);
+        assertThat(count(Tables.LIST_ITEMS)).isEqualTo(1 + 1 + 2);
+        assertThat(count(Tables.ACTIVITY)).isEqualTo(2);
+        assertThat(count(Tables.TRAKT_SHOW_IDS)).isEqualTo(1);
+    }
+
+    @Test
+    public void removeShows_noShows() {
+        assertThat(SeriesGuideDatabase.removeShows(db, new int[] { 42 })).isEqualTo(0);
+        assertThat(count(Tables.EPISODES)).isEqualTo(6);
+    }
+
+    private long count(String table) {
+        return DatabaseUtils.queryNumEntries(db, table);
+    }
+
+    private void insertTraktId(int showId) {
+        ContentValues values = new ContentValues();
+        values.put(TraktShowIds._ID, showId);
+        values.put(TraktShowIds.TRAKT_ID, showId + 1000);
+        values.put(TraktShowIds.LOOKUP_MS, 0);
+        db.insertOrThrow(Tables.TRAKT_SHOW_IDS, null, values);
+    }
+
+    private void insertSeason(int id, int showId) {
+        ContentValues values = new ContentValues();
+        values.put(Seasons._ID, id);
+        values.put(Shows.REF_SHOW_ID, showId);
+        db.insertOrThrow(Tables.SEASONS, null, values);
+    }
+
+    private void insertListItem(int type, int refId) {
+        ContentValues values = new ContentValues();
+        values.put(ListItems.LIST_ITEM_ID, ListItems.generateListItemId(refId, type, "list"));
+        values.put(ListItems.ITEM_REF_ID, String.valueOf(refId));
+        values.put(ListItems.TYPE, type);
+        values.put(Lists.LIST_ID, "list");
+        db.insertOrThrow(Tables.LIST_ITEMS, null, values);
+    }
+
+    private void insertActivity(int episodeId, int showId) {
+        ContentValues values = new ContentValues();
+        values.put(Activity.EPISODE_TVDB_ID, String.valueOf(episodeId));
+        values.put(Activity.SHOW_TVDB_ID, String.valueOf(showId));
+        values.put(Activity.TIMESTAMP_MS, 0);
+        db.insertOrThrow(Tables.ACTIVITY, null, values);
+    }
+}
@@ -0,0 +1,122 @@
+package com.battlelancer.seriesguide.test.instrumented;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
+import com.battlelancer.seriesguide.provider.SeriesGuideDatabase;
+import com.battlelancer.seriesguide.provider.SeriesGuideDatabase.Tables;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks the episode search table is kept in sync by triggers. Compares the end of a sync that
+ * changes some episodes when the search table is kept in sync against rebuilding it afterwards,
+ * like sync did before.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SearchIndexBenchmark {
+
+    private static final String TAG = "SearchIndexBenchmark";
+    private static final int EPISODE_COUNT = 20000;
+    private static final int SYNC_COUNT = 500;
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void createDatabase() {
+        db = DatabaseFixtures.createDatabase();
+        DatabaseFixtures.insertEpisodes(db, buildEpisodes(EPISODE_COUNT, "Title t"));
+    }
+
+    @After
+    public void closeDatabase() {
+        db.close();
+    }
+
+    @Test
+    public void searchTable_followsEpisodeChanges() {
+        assertThat(search("t42")).containsExactly(42);
+
+        // update
+        ContentValues values = new ContentValues();
+        values.put(Episodes.TITLE, "Changed c42");
+        db.update(Tables.EPISODES, values, Episodes._ID + "=42", null);
+        assertThat(search("t42")).isEmpty();
+        assertThat(search("c42")).containsExactly(42);
+
+        // insert or replace, like sync
+        DatabaseFixtures.insertEpisodes(db, buildEpisodes(2, "Replaced r"));
+        assertThat(search("t1")).isEmpty();
+        assertThat(search("r1")).containsExactly(1);
+
+        db.delete(Tables.EPISODES, Episodes._ID + "=44", null);
+        assertThat(search("t44")).isEmpty();
+    }
+
+    @Test
+    public void compareIncrementalAndRebuild() {
+        // before: sync writes episodes, then rebuilds the search table
+        dropSearchTriggers();
+        long start = SystemClock.elapsedRealtime();
+        DatabaseFixtures.insertEpisodes(db, buildEpisodes(SYNC_COUNT, "Before b"));
+        SeriesGuideDatabase.rebuildFtsTable(db); // also re-creates the triggers
+        long rebuildMs = SystemClock.elapsedRealtime() - start;
+        assertThat(search("b0")).containsExactly(0);
+
+        // after: triggers keep the search table in sync while writing episodes
+        start = SystemClock.elapsedRealtime();
+        DatabaseFixtures.insertEpisodes(db, buildEpisodes(SYNC_COUNT, "After a"));
+        long incrementalMs = SystemClock.elapsedRealtime() - start;
+        assertThat(search("b0")).isEmpty();
+        assertThat(search("a0")).containsExactly(0);
+
+        // only report timings, they vary too much between devices and runs to assert on
+        Log.i(TAG, "Synced " + SYNC_COUNT + " of " + EPISODE_COUNT + " episodes: rebuild "
+                + rebuildMs + " ms, incremental " + incrementalMs + " ms");
+    }
+
+    private void dropSearchTriggers() {
+        Cursor query = db.rawQuery("SELECT name FROM sqlite_master WHERE type='trigger'"
+                + " AND tbl_name=?", new String[] { Tables.EPISODES });
+        List<String> triggers = new ArrayList<>();
+        while (query.moveToNext()) {
+            triggers.add(query.getString(0));
+        }
+        query.close();
+        assertThat(triggers).isNotEmpty();
+        for (String trigger : triggers) {
+            db.execSQL("DROP TRIGGER " + trigger);
+        }
+    }
+
+    private List<Integer> search(String term) {
+        Cursor query = db.rawQuery("SELECT docid FROM " + Tables.EPISODES_SEARCH
+                + " WHERE " + Tables.EPISODES_SEARCH + " MATCH ?", new String[] { term });
+        List<Integer> docIds = new ArrayList<>();
+        while (query.moveToNext()) {
+            docIds.add(query.getInt(0));
+        }
+        query.close();
+        return docIds;
+    }
+
+    private static List<ContentValues> buildEpisodes(int count, String titlePrefix) {
+        List<ContentValues> episodes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ContentValues values = DatabaseFixtures.buildEpisode(i, 12345, i / 20 + 1, i % 20 + 1);
+            values.put(Episodes.TITLE, titlePrefix + i);
+            episodes.add(values);
+        }
+        return episodes;
+    }
+}
@@ -0,0 +1,141 @@
+package com.battlelancer.seriesguide.test.instrumented;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.battlelancer.seriesguide.SgApp;
+import com.battlelancer.seriesguide.dataliberation.model.Show;
+import com.battlelancer.seriesguide.thetvdbapi.TraktIdCache;
+import com.battlelancer.seriesguide.thetvdbapi.TvdbTools;
+import com.uwetrottmann.thetvdb.services.TheTvdbSeries;
+import com.uwetrottmann.trakt5.services.Search;
+import com.uwetrottmann.trakt5.services.Shows;
+import dagger.Lazy;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Gets show details with {@link TvdbTools#getShowDetails(int, String)} from a local server
+ * standing in for trakt and TheTVDB. The first request of each chain (trakt id lookup, TheTVDB
+ * series and posters) only gets a response once all three are waiting, so the chains must run
+ * concurrently.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ShowDetailsRequestsTest {
+
+    private static final int SHOW_TVDB_ID = 1;
+    private static final int SHOW_TRAKT_ID = 2;
+    private static final String LANGUAGE = "de";
+
+    private final CountDownLatch chainsStarted = new CountDownLatch(3);
+    private final AtomicBoolean isOverlapping = new AtomicBoolean(true);
+
+    private SgApp app;
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        app = (SgApp) InstrumentationRegistry.getTargetContext().getApplicationContext();
+        // look up the trakt id, do not use a cached one
+        TraktIdCache.invalidate(app, SHOW_TVDB_ID);
+
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                String path = request.getPath();
+                boolean isTranslated = LANGUAGE.equals(request.getHeader("Accept-Language"));
+                if (path.startsWith("/search/tvdb/" + SHOW_TVDB_ID)) {
+                    awaitOtherChains();
+                    return json("[{\"show\":{\"ids\":{\"trakt\":" + SHOW_TRAKT_ID + "}}}]");
+                }
+                if (path.startsWith("/shows/" + SHOW_TRAKT_ID)) {
+                    return json("{\"title\":\"Show\",\"ids\":{\"trakt\":" + SHOW_TRAKT_ID
+                            + "},\"country\":\"us\"}");
+                }
+                if (path.startsWith("/series/" + SHOW_TVDB_ID + "/images/query")) {
+                    if (isTranslated) {
+                        awaitOtherChains();
+                        // no translated posters, causes a fallback request
+                        return new MockResponse().setResponseCode(404);
+                    }
+                    return json("{\"data\":[]}");
+                }
+                if (path.startsWith("/series/" + SHOW_TVDB_ID) && isTranslated) {
+                    awaitOtherChains();
+                    return json("{\"data\":{\"seriesName\":\"Serie\","
+                            + "\"overview\":\"Beschreibung\",\"runtime\":\"30\"}}");
+                }
+                return new MockResponse().setResponseCode(500);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void getShowDetails_runsChainsConcurrently() throws Exception {
+        Retrofit retrofit = new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .addConverterFactory(GsonConverterFactory.create())
+                .build();
+        TvdbTools tvdbTools = new TvdbTools(app,
+                lazy(retrofit.create(TheTvdbSeries.class)),
+                lazy(retrofit.create(Search.class)),
+                lazy(retrofit.create(Shows.class)));
+
+        Show show = tvdbTools.getShowDetails(SHOW_TVDB_ID, LANGUAGE);
+
+        assertThat(isOverlapping.get()).isTrue();
+        assertThat(show.title).isEqualTo("Serie");
+        assertThat(show.runtime).isEqualTo(30);
+        assertThat(show.poster).isNull();
+        assertThat(show.trakt_id).isEqualTo(SHOW_TRAKT_ID);
+        assertThat(show.country).isEqualTo("us");
+        // trakt lookup and summary, TheTVDB series, translated and fallback posters
+        assertThat(server.getRequestCount()).isEqualTo(5);
+    }
+
+    /**
+     * Blocks until the first request of all chains was received. If they do not arrive in time,
+     * the chains run one after another.
+     */
+    private void awaitOtherChains() throws InterruptedException {
+        chainsStarted.countDown();
+        if (!chainsStarted.await(10, TimeUnit.SECONDS)) {
+            isOverlapping.set(false);
+        }
+    }
+
+    private static MockResponse json(String body) {
+        return new MockResponse().setResponseCode(200)
+                .setHeader("Content-Type", "application/json")
+                .setBody(body);
+    }
+
+    private static <T> Lazy<T> lazy(final T service) {
+        return new Lazy<T>() {
+            @Override
+            public T get() {
+                return service;
+            }
+        };
+    }
+}
@@ -0,0 +1,105 @@
+package com.battlelancer.seriesguide.test.instrumented;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+import com.battlelancer.seriesguide.enums.EpisodeFlags;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.ShowStats;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Shows;
+import com.battlelancer.seriesguide.provider.SeriesGuideDatabase;
+import com.battlelancer.seriesguide.provider.SeriesGuideDatabase.Tables;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.battlelancer.seriesguide.test.instrumented.DatabaseFixtures.buildEpisode;
+import static com.battlelancer.seriesguide.test.instrumented.DatabaseFixtures.buildShow;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks the triggers keeping {@link Tables#SHOW_STATS} up to date and {@link
+ * SeriesGuideDatabase#checkShowStats(SQLiteDatabase)}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ShowStatsTest {
+
+    private static final String[] PROJECTION = new String[] {
+            ShowStats.RUNTIME,
+            ShowStats.EPISODES,
+            ShowStats.SPECIALS,
+            ShowStats.WATCHED,
+            ShowStats.COLLECTED
+    };
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void createDatabase() {
+        db = DatabaseFixtures.createDatabase();
+        ContentValues show = buildShow(1);
+        show.put(Shows.RUNTIME, "45");
+        db.insertOrThrow(Tables.SHOWS, null, show);
+        insertEpisode(10, 0, EpisodeFlags.WATCHED, true);
+        insertEpisode(11, 1, EpisodeFlags.WATCHED, false);
+        insertEpisode(12, 1, EpisodeFlags.UNWATCHED, true);
+    }
+
+    @After
+    public void closeDatabase() {
+        db.close();
+    }
+
+    @Test
+    public void stats_followEpisodeChanges() {
+        assertThat(getStats(1)).containsExactly(45, 3, 1, 2, 2);
+
+        ContentValues values = new ContentValues();
+        values.put(Episodes.WATCHED, EpisodeFlags.WATCHED);
+        db.update(Tables.EPISODES, values, Episodes._ID + "=12", null);
+        assertThat(getStats(1)).containsExactly(45, 3, 1, 3, 2);
+
+        // replaced during sync
+        DatabaseFixtures.insertEpisodes(db, Collections.singletonList(
+                buildEpisode(10, 1, 0, 10)));
+        assertThat(getStats(1)).containsExactly(45, 3, 1, 2, 1);
+
+        db.delete(Tables.EPISODES, Episodes._ID + "=11", null);
+        assertThat(getStats(1)).containsExactly(45, 2, 1, 1, 1);
+    }
+
+    @Test
+    public void checkShowStats_fixesWrongStats() {
+        ContentValues values = new ContentValues();
+        values.put(ShowStats.WATCHED, 42);
+        db.update(Tables.SHOW_STATS, values, ShowStats._ID + "=1", null);
+
+        assertThat(SeriesGuideDatabase.checkShowStats(db)).isEqualTo(1);
+        assertThat(getStats(1)).containsExactly(45, 3, 1, 2, 2);
+        assertThat(SeriesGuideDatabase.checkShowStats(db)).isEqualTo(0);
+    }
+
+    private void insertEpisode(int id, int season, int watched, boolean collected) {
+        ContentValues values = buildEpisode(id, 1, season, id);
+        values.put(Episodes.WATCHED, watched);
+        values.put(Episodes.COLLECTED, collected ? 1 : 0);
+        db.insertOrThrow(Tables.EPISODES, null, values);
+    }
+
+    private long[] getStats(int showId) {
+        Cursor query = db.query(Tables.SHOW_STATS, PROJECTION, ShowStats._ID + "=" + showId,
+                null, null, null, null);
+        long[] stats = null;
+        if (query.moveToFirst()) {
+            stats = new long[PROJECTION.length];
+            for (int i = 0; i < PROJECTION.length; i++) {
+                stats[i] = query.getLong(i);
+            }
+        }
+        query.close();
+        return stats;
+    }
+}
@@ -0,0 +1,190 @@
+package com.battlelancer.seriesguide.test.instrumented;
+
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.sax.Element;
+import android.sax.EndElementListener;
+import android.sax.EndTextElementListener;
+import android.sax.RootElement;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Xml;
+import com.battlelancer.seriesguide.thetvdbapi.TvdbEpisodeParser;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the pull parser based {@link TvdbEpisodeParser} against the previous {@code
+ * android.sax} based implementation on a generated, large {@code all/en.zip} fixture.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TvdbEpisodeParserBenchmark {
+
+    private static final int EPISODE_COUNT = 10000;
+    private static final int ITERATIONS = 5;
+
+    /**
+     * The SAX path built one ContentValues entry for each of these elements.
+     */
+    private static final String[] ELEMENTS = {
+            "id", "EpisodeNumber", "absolute_number", "SeasonNumber", "DVD_episodenumber",
+            "FirstAired", "EpisodeName", "Overview", "seasonid", "seriesid", "Director",
+            "GuestStars", "Writer", "filename", "IMDB_ID", "lastupdated"
+    };
+
+    private static byte[] fixture;
+
+    @BeforeClass
+    public static void buildFixture() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        zip.putNextEntry(new ZipEntry("en.xml"));
+        Writer writer = new OutputStreamWriter(zip, "UTF-8");
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<Data>\n<Series>"
+                + "<id>12345</id><SeriesName>Daily Show</SeriesName>"
+                + "<Overview>Not an episode.</Overview></Series>\n");
+        for (int i = 1; i <= EPISODE_COUNT; i++) {
+            int season = i / 200 + 1;
+            writer.write("<Episode>"
+                    + "<id>" + (100000 + i) + "</id>"
+                    + "<EpisodeNumber>" + (i % 200 + 1) + "</EpisodeNumber>"
+                    + "<absolute_number>" + i + "</absolute_number>"
+                    + "<SeasonNumber>" + season + "</SeasonNumber>"
+                    + "<DVD_episodenumber></DVD_episodenumber>"
+                    + "<FirstAired>2010-01-01</FirstAired>"
+                    + "<EpisodeName>Episode " + i + "</EpisodeName>"
+                    + "<Overview>An overview that is long enough to look like a real one, "
+                    + "mentioning guests and topics of episode " + i + ".</Overview>"
+                    + "<seasonid>" + (5000 + season) + "</seasonid>"
+                    + "<seriesid>12345</seriesid>"
+                    + "<Director>Some Director</Director>"
+                    + "<GuestStars>|Guest One|Guest Two|</GuestStars>"
+                    + "<Writer>|Writer One|</Writer>"
+                    + "<filename>episodes/12345/" + (100000 + i) + ".jpg</filename>"
+                    + "<IMDB_ID>tt" + (1000000 + i) + "</IMDB_ID>"
+                    + "<lastupdated>1420070400</lastupdated>"
+                    + "<Language>en</Language>"
+                    + "</Episode>\n");
+        }
+        writer.write("</Data>\n");
+        writer.flush();
+        zip.closeEntry();
+        zip.close();
+        fixture = bytes.toByteArray();
+    }
+
+    @Test
+    public void compareSaxAndPullParser() throws Exception {
+        // warm up
+        int saxCount = parseWithSax();
+        int pullCount = parseWithPullParser();
+        assertThat(saxCount).isEqualTo(EPISODE_COUNT);
+        assertThat(pullCount).isEqualTo(EPISODE_COUNT);
+
+        long saxTotal = 0;
+        long pullTotal = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = SystemClock.elapsedRealtime();
+            parseWithSax();
+            saxTotal += SystemClock.elapsedRealtime() - start;
+
+            start = SystemClock.elapsedRealtime();
+            parseWithPullParser();
+            pullTotal += SystemClock.elapsedRealtime() - start;
+        }
+        System.out.println("Parsed " + EPISODE_COUNT + " episodes, average of " + ITERATIONS
+                + " runs: SAX " + saxTotal / ITERATIONS + " ms, pull parser "
+                + pullTotal / ITERATIONS + " ms");
+    }
+
+    @Test
+    public void pullParserReadsAllFields() throws Exception {
+        final List<String> titles = new ArrayList<>();
+        final TvdbEpisodeParser.Episode[] last = new TvdbEpisodeParser.Episode[1];
+        parse(new TvdbEpisodeParser.Callback() {
+            @Override
+            public void onEpisode(TvdbEpisodeParser.Episode episode) {
+                titles.add(episode.title);
+                last[0] = episode;
+            }
+        });
+
+        assertThat(titles).hasSize(EPISODE_COUNT);
+        assertThat(titles.get(0)).isEqualTo("Episode 1");
+        TvdbEpisodeParser.Episode episode = last[0];
+        assertThat(episode.tvdbId).isEqualTo(100000 + EPISODE_COUNT);
+        assertThat(episode.season).isEqualTo(EPISODE_COUNT / 200 + 1);
+        assertThat(episode.absoluteNumber).isEqualTo(EPISODE_COUNT);
+        assertThat(Double.isNaN(episode.dvdNumber)).isTrue();
+        assertThat(episode.showTvdbId).isEqualTo(12345);
+        assertThat(episode.firstAired).isEqualTo("2010-01-01");
+        assertThat(episode.lastEdited).isEqualTo(1420070400L);
+    }
+
+    private int parseWithSax() throws Exception {
+        final ArrayList<ContentValues> rows = new ArrayList<>();
+        final ContentValues values = new ContentValues();
+        RootElement root = new RootElement("Data");
+        Element episode = root.getChild("Episode");
+        episode.setEndElementListener(new EndElementListener() {
+            @Override
+            public void end() {
+                rows.add(new ContentValues(values));
+                values.clear();
+            }
+        });
+        for (final String name : ELEMENTS) {
+            episode.getChild(name).setEndTextElementListener(new EndTextElementListener() {
+                @Override
+                public void end(String body) {
+                    values.put(name, body.trim());
+                }
+            });
+        }
+
+        ZipInputStream zipin = new ZipInputStream(new ByteArrayInputStream(fixture));
+        zipin.getNextEntry();
+        try {
+            Xml.parse(zipin, Xml.Encoding.UTF_8, root.getContentHandler());
+        } finally {
+            zipin.close();
+        }
+        return rows.size();
+    }
+
+    private int parseWithPullParser() throws Exception {
+        final ArrayList<ContentValues> rows = new ArrayList<>();
+        parse(new TvdbEpisodeParser.Callback() {
+            @Override
+            public void onEpisode(TvdbEpisodeParser.Episode episode) {
+                // like TvdbTools, only build rows for new episodes
+                ContentValues values = new ContentValues();
+                episode.toContentValues(values, 0);
+                rows.add(values);
+            }
+        });
+        return rows.size();
+    }
+
+    private void parse(TvdbEpisodeParser.Callback callback) throws Exception {
+        ZipInputStream zipin = new ZipInputStream(new ByteArrayInputStream(fixture));
+        zipin.getNextEntry();
+        try {
+            new TvdbEpisodeParser().parse(zipin, callback);
+        } finally {
+            zipin.close();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.battlelancer.seriesguide.test.instrumented;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SdkSuppress;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Shows;
+import com.battlelancer.seriesguide.provider.SeriesGuideDatabase;
+import com.battlelancer.seriesguide.provider.SeriesGuideDatabase.Tables;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs loader-like reads while simulating a full sync that writes all episodes of many shows,
+ * each show in a long transaction, then rebuilds the search table. Reports read latency
+ * percentiles with and without a write-ahead log.
+ */
+@RunWith(AndroidJUnit4.class)
+@SdkSuppress(minSdkVersion = 16)
+public class WalStressBenchmark {
+
+    private static final String TAG = "WalStressBenchmark";
+    private static final String DATABASE_NAME = "wal-stress-test";
+    private static final int SHOW_COUNT = 40;
+    private static final int EPISODES_PER_SHOW = 250;
+    private static final int READER_COUNT = 3;
+
+    private Context context;
+
+    private static class Percentiles {
+        final int count;
+        final double p50;
+        final double p90;
+        final double p99;
+        final double max;
+
+        Percentiles(List<Long> latenciesNs) {
+            Collections.sort(latenciesNs);
+            count = latenciesNs.size();
+            p50 = percentileMs(latenciesNs, 0.5);
+            p90 = percentileMs(latenciesNs, 0.9);
+            p99 = percentileMs(latenciesNs, 0.99);
+            max = percentileMs(latenciesNs, 1);
+        }
+
+        private static double percentileMs(List<Long> sortedNs, double percentile) {
+            int index = (int) Math.ceil(percentile * sortedNs.size()) - 1;
+            return sortedNs.get(Math.max(0, index)) / 1000000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s reads: p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms",
+                    count, p50, p90, p99, max);
+        }
+    }
+
+    @Before
+    public void deleteDatabase() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void cleanUp() {
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void readsDuringFullSync() throws InterruptedException {
+        Percentiles rollbackJournal = runReadsDuringSync(false);
+        context.deleteDatabase(DATABASE_NAME);
+        Percentiles writeAheadLog = runReadsDuringSync(true);
+
+        // only report timings, they vary too much between devices and runs to assert on
+        Log.i(TAG, "Rollback journal: " + rollbackJournal);
+        Log.i(TAG, "Write-ahead log:  " + writeAheadLog);
+    }
+
+    private Percentiles runReadsDuringSync(boolean writeAheadLog)
+            throws InterruptedException {
+        SeriesGuideDatabase helper = new SeriesGuideDatabase(context, DATABASE_NAME);
+        helper.setWriteAheadLoggingEnabled(writeAheadLog);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        assertThat(db.isWriteAheadLoggingEnabled()).isEqualTo(writeAheadLog);
+        // a first sync so readers have something to read
+        syncAllShows(db);
+
+        final AtomicBoolean isSyncing = new AtomicBoolean(true);
+        final List<Long> latenciesNs = Collections.synchronizedList(new ArrayList<Long>());
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < READER_COUNT; i++) {
+            final int showId = i;
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (isSyncing.get()) {
+                        long start = System.nanoTime();
+                        readEpisodesOfShow(db, showId);
+                        latenciesNs.add(System.nanoTime() - start);
+                    }
+                }
+            }, "Reader " + i);
+            readers.add(reader);
+            reader.start();
+        }
+
+        syncAllShows(db);
+        SeriesGuideDatabase.rebuildFtsTable(db);
+        isSyncing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        helper.close();
+
+        assertThat(latenciesNs).isNotEmpty();
+        return new Percentiles(new ArrayList<>(latenciesNs));
+    }
+
+    private static void syncAllShows(SQLiteDatabase db) {
+        for (int show = 0; show < SHOW_COUNT; show++) {
+            List<ContentValues> episodes = new ArrayList<>(EPISODES_PER_SHOW);
+            for (int i = 0; i < EPISODES_PER_SHOW; i++) {
+                episodes.add(DatabaseFixtures.buildEpisode(show * EPISODES_PER_SHOW + i, show,
+                        i / 20 + 1, i % 20 + 1));
+            }
+            DatabaseFixtures.insertEpisodes(db, episodes);
+        }
+    }
+
+    /**
+     * Reads a page of episodes of a show and its unwatched count, like a season list loader.
+     */
+    private static void readEpisodesOfShow(SQLiteDatabase db, int showId) {
+        String[] args = new String[] { String.valueOf(showId) };
+        Cursor query = db.query(Tables.EPISODES,
+                new String[] { Episodes._ID, Episodes.TITLE, Episodes.WATCHED },
+                Shows.REF_SHOW_ID + "=?", args, null, null, Episodes.SORT_SEASON_ASC + ","
+                        + Episodes.SORT_NUMBER_ASC, "50");
+        while (query.moveToNext()) {
+            query.getString(1);
+        }
+        query.close();
+
+        query = db.rawQuery("SELECT COUNT(*) FROM " + Tables.EPISODES + " WHERE "
+                + Shows.REF_SHOW_ID + "=? AND " + Episodes.WATCHED + "=0", args);
+        query.moveToFirst();
+        query.close();
+    }
+}
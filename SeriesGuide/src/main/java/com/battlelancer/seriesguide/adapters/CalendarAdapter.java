@@ -3,9 +3,10 @@ package com.battlelancer.seriesguide.adapters;
 import android.app.Activity;
 import android.content.Context;
 import android.database.Cursor;
-import android.support.v4.util.LongSparseArray;
+import android.support.annotation.Nullable;
 import android.support.v4.widget.CursorAdapter;
 import android.text.TextUtils;
+import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -28,7 +29,6 @@ import com.battlelancer.seriesguide.widgets.WatchedBox;
 import com.tonicartos.widget.stickygridheaders.StickyGridHeadersBaseAdapter;
 import com.uwetrottmann.androidutils.CheatSheet;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 
@@ -42,24 +42,35 @@ public class CalendarAdapter extends CursorAdapter implements StickyGridHeadersB
     private LayoutInflater mLayoutInflater;
 
     private List<HeaderData> mHeaders;
-    private boolean mIsShowingHeaders;
-
-    private Calendar mCalendar;
 
     public CalendarAdapter(Activity activity) {
         super(activity, null, 0);
         app = SgApp.from(activity);
         mLayoutInflater = (LayoutInflater) activity
                 .getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        mCalendar = Calendar.getInstance();
     }
 
     /**
-     * Whether to show episodes grouped by day with header. Disable headers for larger data sets as
-     * calculating them is expensive. Make sure to reload the data afterwards.
+     * Returns {@link Query#PROJECTION} with an additional {@link Query#HEADER_TIME} column, so
+     * episodes can be grouped by day without computing the day of each episode when building
+     * headers.
+     */
+    public static String[] buildProjection(Context context) {
+        String[] projection = new String[Query.PROJECTION.length + 1];
+        System.arraycopy(Query.PROJECTION, 0, projection, 0, Query.PROJECTION.length);
+        projection[Query.HEADER_TIME] = buildHeaderTimeColumn(TimeTools.getUserOffset(context));
+        return projection;
+    }
+
+    /**
+     * Returns an expression for the start of the local day, offset by the given hours, an episode
+     * is released at. Like other headers uses 1 AM instead of midnight: upcoming->recent is delayed
+     * 1 hour, so headers would display the wrong relative time close to midnight.
      */
-    public void setIsShowingHeaders(boolean isShowingHeaders) {
-        mIsShowingHeaders = isShowingHeaders;
+    public static String buildHeaderTimeColumn(int userOffsetHours) {
+        return "(strftime('%s'," + Episodes.FIRSTAIREDMS + "/1000+"
+                + userOffsetHours * DateUtils.HOUR_IN_MILLIS / 1000
+                + ",'unixepoch','localtime','start of day','utc')+3600)*1000";
     }
 
     @Override
@@ -148,35 +159,6 @@ public class CalendarAdapter extends CursorAdapter implements StickyGridHeadersB
         return v;
     }
 
-    private long getHeaderId(int position) {
-        Object obj = getItem(position);
-        if (obj != null) {
-            /*
-             * Map all episodes releasing the same day to the same id (which
-             * equals the time midnight of their release day).
-             */
-            @SuppressWarnings("resource")
-            Cursor item = (Cursor) obj;
-            return getHeaderTime(item);
-        }
-        return 0;
-    }
-
-    private long getHeaderTime(Cursor item) {
-        long releaseTime = item.getLong(Query.RELEASE_TIME_MS);
-        Date actualRelease = TimeTools.applyUserOffset(mContext, releaseTime);
-
-        mCalendar.setTime(actualRelease);
-        // not midnight because upcoming->recent is delayed 1 hour
-        // so header would display wrong relative time close to midnight
-        mCalendar.set(Calendar.HOUR_OF_DAY, 1);
-        mCalendar.set(Calendar.MINUTE, 0);
-        mCalendar.set(Calendar.SECOND, 0);
-        mCalendar.set(Calendar.MILLISECOND, 0);
-
-        return mCalendar.getTimeInMillis();
-    }
-
     @Override
     public int getCountForHeader(int position) {
         if (mHeaders != null) {
@@ -217,7 +199,7 @@ public class CalendarAdapter extends CursorAdapter implements StickyGridHeadersB
 
         @SuppressWarnings("resource")
         Cursor item = (Cursor) obj;
-        long headerTime = getHeaderTime(item);
+        long headerTime = item.getLong(Query.HEADER_TIME);
         // display headers like "Mon in 3 days", also "today" when applicable
         holder.day.setText(
                 TimeTools.formatToLocalDayAndRelativeTime(mContext, new Date(headerTime)));
@@ -225,11 +207,14 @@ public class CalendarAdapter extends CursorAdapter implements StickyGridHeadersB
         return convertView;
     }
 
-    @Override
-    public void notifyDataSetChanged() {
-        // re-create headers before letting notifyDataSetChanged reach the AdapterView
-        mHeaders = generateHeaderList();
-        super.notifyDataSetChanged();
+    /**
+     * Like {@link #swapCursor(Cursor)}, but also replaces the headers with ones built off the main
+     * thread, see {@link #buildHeaders(Cursor)}.
+     */
+    public void swapCursor(Cursor newCursor, @Nullable List<HeaderData> headers) {
+        // set headers before swapping notifies the AdapterView
+        mHeaders = headers;
+        swapCursor(newCursor);
     }
 
     @Override
@@ -239,26 +224,30 @@ public class CalendarAdapter extends CursorAdapter implements StickyGridHeadersB
         super.notifyDataSetInvalidated();
     }
 
-    protected List<HeaderData> generateHeaderList() {
-        int count = getCount();
-        if (count == 0 || !mIsShowingHeaders) {
+    /**
+     * Groups the episodes of the given cursor by their {@link Query#HEADER_TIME}, so by day. Reads
+     * all rows, so call off the main thread.
+     */
+    @Nullable
+    public static List<HeaderData> buildHeaders(Cursor cursor) {
+        if (cursor.getCount() == 0) {
             return null;
         }
 
-        // pre-size to 30 as we display 30 days == headers at most
-        LongSparseArray<HeaderData> mapping = new LongSparseArray<>(30);
+        // episodes are sorted by release time, so episodes of a day are next to each other
         List<HeaderData> headers = new ArrayList<>();
-
-        for (int position = 0; position < count; position++) {
-            long headerId = getHeaderId(position);
-            HeaderData headerData = mapping.get(headerId);
-            if (headerData == null) {
+        HeaderData headerData = null;
+        long previousHeaderTime = 0;
+        for (int position = 0; cursor.moveToPosition(position); position++) {
+            long headerTime = cursor.getLong(Query.HEADER_TIME);
+            if (headerData == null || headerTime != previousHeaderTime) {
                 headerData = new HeaderData(position);
                 headers.add(headerData);
+                previousHeaderTime = headerTime;
             }
             headerData.incrementCount();
-            mapping.put(headerId, headerData);
         }
+        cursor.moveToPosition(-1);
 
         return headers;
     }
@@ -307,6 +296,8 @@ public class CalendarAdapter extends CursorAdapter implements StickyGridHeadersB
         int SHOW_TITLE = 8;
         int SHOW_NETWORK = 9;
         int SHOW_POSTER = 10;
+        /** Only available if using {@link #buildProjection(Context)}. */
+        int HEADER_TIME = 11;
     }
 
     static class ViewHolder {
@@ -0,0 +1,101 @@
+package com.battlelancer.seriesguide.backend;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.battlelancer.seriesguide.util.BackgroundPool;
+import com.uwetrottmann.seriesguide.backend.episodes.model.Episode;
+import com.uwetrottmann.seriesguide.backend.episodes.model.EpisodeList;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads pages of episodes from Hexagon one after another. While the caller applies a page,
+ * the next one is already downloaded on a background thread.
+ *
+ * <p> Call {@link #close()} once done.
+ */
+public class HexagonEpisodePages {
+
+    public interface PageRequest {
+        /**
+         * Downloads the page at the given cursor, or the first page if the cursor is {@code
+         * null}. Runs on a background thread.
+         */
+        @Nullable
+        EpisodeList execute(@Nullable String cursor) throws IOException;
+    }
+
+    private final PageRequest request;
+    private final ExecutorService executor;
+    private boolean isStarted;
+    @Nullable private Future<EpisodeList> nextPage;
+
+    public HexagonEpisodePages(@NonNull PageRequest request) {
+        this.request = request;
+        this.executor = BackgroundPool.newFixedThreadPool("HexagonEpisodePages", 1);
+    }
+
+    /**
+     * Blocks until the next page is downloaded, then starts downloading the page after it.
+     *
+     * @return The episodes of the next page, or {@code null} if there are no more episodes.
+     */
+    @Nullable
+    public List<Episode> next() throws IOException, InterruptedException {
+        if (!isStarted) {
+            isStarted = true;
+            nextPage = fetch(null);
+        }
+        if (nextPage == null) {
+            return null;
+        }
+
+        EpisodeList page;
+        try {
+            page = nextPage.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            // unexpected error, crash
+            throw new RuntimeException("Downloading episodes failed unexpectedly", cause);
+        } finally {
+            nextPage = null;
+        }
+        if (page == null) {
+            return null;
+        }
+
+        List<Episode> episodes = page.getEpisodes();
+        if (episodes == null || episodes.size() == 0) {
+            return null;
+        }
+        // check for more items
+        String cursor = page.getCursor();
+        if (cursor != null && cursor.length() > 0) {
+            nextPage = fetch(cursor);
+        }
+        return episodes;
+    }
+
+    /**
+     * Stops downloading the next page, if any.
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private Future<EpisodeList> fetch(@Nullable final String cursor) {
+        return executor.submit(new Callable<EpisodeList>() {
+            @Override
+            public EpisodeList call() throws IOException {
+                return request.execute(cursor);
+            }
+        });
+    }
+}
@@ -25,6 +25,7 @@ import com.battlelancer.seriesguide.provider.SeriesGuideContract.Seasons;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.Shows;
 import com.battlelancer.seriesguide.settings.BackupSettings;
 import com.battlelancer.seriesguide.sync.SgSyncAdapter;
+import com.battlelancer.seriesguide.thetvdbapi.EpisodeArchiveValidators;
 import com.battlelancer.seriesguide.util.DBUtils;
 import com.battlelancer.seriesguide.util.TaskManager;
 import com.google.gson.Gson;
@@ -148,9 +149,6 @@ public class JsonImportTask extends AsyncTask<Void, Integer, Integer> {
             }
         }
 
-        // Renew search table
-        DBUtils.rebuildFtsTable(context);
-
         return SUCCESS;
     }
 
@@ -287,6 +285,8 @@ public class JsonImportTask extends AsyncTask<Void, Integer, Integer> {
             context.getContentResolver().delete(Shows.CONTENT_URI, null, null);
             context.getContentResolver().delete(Seasons.CONTENT_URI, null, null);
             context.getContentResolver().delete(Episodes.CONTENT_URI, null, null);
+            // episodes need to be downloaded again on the next update
+            EpisodeArchiveValidators.clearAll(context);
         } else if (type == JsonExportTask.BACKUP_LISTS) {
             context.getContentResolver().delete(Lists.CONTENT_URI, null, null);
             context.getContentResolver().delete(ListItems.CONTENT_URI, null, null);
@@ -0,0 +1,291 @@
+package com.battlelancer.seriesguide.loaders;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.annotation.Nullable;
+import android.support.v4.content.CursorLoader;
+import com.battlelancer.seriesguide.adapters.CalendarAdapter;
+import com.battlelancer.seriesguide.adapters.model.HeaderData;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
+import com.battlelancer.seriesguide.ui.CalendarFragment;
+import com.battlelancer.seriesguide.ui.CalendarFragment.CalendarType;
+import com.battlelancer.seriesguide.util.DBUtils;
+import java.util.List;
+
+/**
+ * Loads upcoming or recent episodes for {@link CalendarFragment} using the projection of {@link
+ * CalendarAdapter#buildProjection(Context)}.
+ *
+ * <p> With infinite scrolling does not load all episodes, but a sliding window from {@link
+ * #getWindowStart()} to {@link #getWindowEnd()} of about {@link #MAX_WINDOW_SIZE} episodes. To
+ * load the next (or previous) page, looks up the release time of the episode {@link #PAGE_SIZE}
+ * episodes after (or before) the window using the release time index (keyset pagination) instead
+ * of skipping all loaded episodes. If the window grows too large, episodes at its other end are
+ * dropped, to be loaded again when scrolling back. All episodes releasing at a window boundary
+ * are included, so a window never ends in the middle of episodes with the same release time.
+ */
+public class CalendarLoader extends CursorLoader {
+
+    /** Number of episodes to add to the window when loading a page. */
+    public static final int PAGE_SIZE = 50;
+    /** Number of episodes at which to drop episodes at the other end of the window. */
+    public static final int MAX_WINDOW_SIZE = 4 * PAGE_SIZE;
+
+    /** Reload the current window. */
+    public static final int RELOAD = 0;
+    /** Extend the window by a page after its end. */
+    public static final int NEXT_PAGE = 1;
+    /** Extend the window by a page before its start. */
+    public static final int PREVIOUS_PAGE = 2;
+
+    private final String type;
+    private final boolean isInfiniteScrolling;
+    private int page;
+    private Long windowStart;
+    private Long windowEnd;
+    private boolean isAllLoaded;
+    private List<HeaderData> headers;
+
+    /**
+     * @param type A {@link CalendarType}.
+     * @param windowStart The window start of a previous load or null to start with the first
+     * episode.
+     * @param windowEnd The window end of a previous load or null to load the first page.
+     * @param isAllLoaded Whether a previous load already contained all episodes after the start.
+     * @param page Whether to {@link #RELOAD} the given window, or extend it by the {@link
+     * #NEXT_PAGE} or {@link #PREVIOUS_PAGE}. Only extended once, reloads, e.g. because episodes
+     * changed, keep the extended window.
+     */
+    public CalendarLoader(Context context, String type, boolean isInfiniteScrolling,
+            @Nullable Long windowStart, @Nullable Long windowEnd, boolean isAllLoaded, int page) {
+        super(context, Episodes.CONTENT_URI_WITHSHOW, CalendarAdapter.buildProjection(context),
+                null, null, null);
+        this.type = type;
+        this.isInfiniteScrolling = isInfiniteScrolling;
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        this.isAllLoaded = isAllLoaded;
+        this.page = page;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        // infinite or 30 days activity stream
+        String[][] queryArgs = DBUtils.buildActivityQuery(getContext(), type,
+                isInfiniteScrolling ? -1 : 30);
+        String selection = queryArgs[0][0];
+        String[] selectionArgs = queryArgs[1];
+        setSortOrder(queryArgs[2][0]);
+
+        if (!isInfiniteScrolling) {
+            windowStart = null;
+            windowEnd = null;
+            isAllLoaded = true;
+            setSelection(selection);
+            setSelectionArgs(selectionArgs);
+            return loadWithHeaders();
+        }
+
+        Window window = new Window(selection, selectionArgs, CalendarType.RECENT.equals(type));
+        Long newWindowStart = windowStart;
+        Long newWindowEnd = windowEnd;
+        boolean newIsAllLoaded = isAllLoaded;
+        if (page == PREVIOUS_PAGE && newWindowStart != null) {
+            // null if less than a page of episodes left, the window starts with the first episode
+            newWindowStart = window.findPageStart(newWindowStart);
+            Long boundedEnd = window.findBoundedEnd(newWindowStart);
+            if (boundedEnd != null && (newIsAllLoaded || window.isBefore(boundedEnd,
+                    newWindowEnd))) {
+                newWindowEnd = boundedEnd;
+                newIsAllLoaded = false;
+            }
+        } else if (!newIsAllLoaded && (newWindowEnd == null || page == NEXT_PAGE)) {
+            Long pageEnd = window.findPageEnd(newWindowEnd);
+            if (pageEnd != null) {
+                newWindowEnd = pageEnd;
+            } else {
+                // less than a page of episodes left, the window ends with the last episode
+                newIsAllLoaded = true;
+            }
+            Long boundedStart = window.findBoundedStart(newIsAllLoaded ? null : newWindowEnd);
+            if (boundedStart != null && (newWindowStart == null || window.isBefore(newWindowStart,
+                    boundedStart))) {
+                newWindowStart = boundedStart;
+            }
+        }
+
+        StringBuilder windowSelection = new StringBuilder(selection);
+        String[] windowSelectionArgs = selectionArgs;
+        if (newWindowStart != null) {
+            windowSelection.append(" AND ").append(window.atOrAfter());
+            windowSelectionArgs = appendArg(windowSelectionArgs, newWindowStart);
+        }
+        if (!newIsAllLoaded) {
+            windowSelection.append(" AND ").append(window.atOrBefore());
+            windowSelectionArgs = appendArg(windowSelectionArgs, newWindowEnd);
+        }
+        setSelection(windowSelection.toString());
+        setSelectionArgs(windowSelectionArgs);
+
+        Cursor cursor = loadWithHeaders();
+        if (cursor != null) {
+            // keep this window for reloads
+            windowStart = newWindowStart;
+            windowEnd = newWindowEnd;
+            isAllLoaded = newIsAllLoaded;
+            page = RELOAD;
+        }
+        return cursor;
+    }
+
+    private Cursor loadWithHeaders() {
+        Cursor cursor = super.loadInBackground();
+        // the window is bounded, so group it by day here instead of on the main thread
+        headers = cursor != null ? CalendarAdapter.buildHeaders(cursor) : null;
+        return cursor;
+    }
+
+    /**
+     * Builds selections relative to episode release times in the order episodes are displayed:
+     * for recent episodes the latest first.
+     */
+    private class Window {
+
+        private final String selection;
+        private final String[] selectionArgs;
+        private final boolean isRecent;
+
+        Window(String selection, String[] selectionArgs, boolean isRecent) {
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.isRecent = isRecent;
+        }
+
+        String atOrAfter() {
+            return Episodes.FIRSTAIREDMS + (isRecent ? "<=?" : ">=?");
+        }
+
+        String atOrBefore() {
+            return Episodes.FIRSTAIREDMS + (isRecent ? ">=?" : "<=?");
+        }
+
+        boolean isBefore(long releaseTime, long otherReleaseTime) {
+            return isRecent ? releaseTime > otherReleaseTime : releaseTime < otherReleaseTime;
+        }
+
+        /**
+         * Returns the release time of the episode a page after the given window end, or null if
+         * there are not enough episodes left to fill a page.
+         */
+        @Nullable
+        Long findPageEnd(@Nullable Long previousWindowEnd) {
+            String after = Episodes.FIRSTAIREDMS + (isRecent ? "<?" : ">?");
+            return findReleaseTime(previousWindowEnd == null ? null : after, previousWindowEnd,
+                    true, PAGE_SIZE - 1);
+        }
+
+        /**
+         * Returns the release time of the episode a page before the given window start, or null if
+         * there are not enough episodes left to fill a page.
+         */
+        @Nullable
+        Long findPageStart(long previousWindowStart) {
+            String before = Episodes.FIRSTAIREDMS + (isRecent ? ">?" : "<?");
+            return findReleaseTime(before, previousWindowStart, false, PAGE_SIZE - 1);
+        }
+
+        /**
+         * Returns the release time at which to start a window ending at the given release time so
+         * it contains about {@link #MAX_WINDOW_SIZE} episodes, or null if it may start with the
+         * first episode.
+         *
+         * @param windowEnd null if the window ends with the last episode.
+         */
+        @Nullable
+        Long findBoundedStart(@Nullable Long windowEnd) {
+            return findReleaseTime(windowEnd == null ? null : atOrBefore(), windowEnd, false,
+                    MAX_WINDOW_SIZE - 1);
+        }
+
+        /**
+         * Returns the release time at which to end a window starting at the given release time so
+         * it contains about {@link #MAX_WINDOW_SIZE} episodes, or null if it may end with the last
+         * episode.
+         *
+         * @param windowStart null if the window starts with the first episode.
+         */
+        @Nullable
+        Long findBoundedEnd(@Nullable Long windowStart) {
+            return findReleaseTime(windowStart == null ? null : atOrAfter(), windowStart, true,
+                    MAX_WINDOW_SIZE - 1);
+        }
+
+        @Nullable
+        private Long findReleaseTime(@Nullable String boundary, @Nullable Long boundaryTime,
+                boolean isForward, int offset) {
+            String querySelection = selection;
+            String[] querySelectionArgs = selectionArgs;
+            if (boundary != null && boundaryTime != null) {
+                querySelection = selection + " AND " + boundary;
+                querySelectionArgs = appendArg(selectionArgs, boundaryTime);
+            }
+            boolean isAscending = isForward != isRecent;
+            Cursor query = getContext().getContentResolver().query(
+                    SeriesGuideContract.buildLimitUri(Episodes.CONTENT_URI_WITHSHOW, 1, offset),
+                    new String[] { Episodes.FIRSTAIREDMS }, querySelection, querySelectionArgs,
+                    Episodes.FIRSTAIREDMS + (isAscending ? " ASC" : " DESC"));
+            if (query == null) {
+                return null;
+            }
+            Long releaseTime = null;
+            if (query.moveToFirst()) {
+                releaseTime = query.getLong(0);
+            }
+            query.close();
+            return releaseTime;
+        }
+    }
+
+    private static String[] appendArg(String[] selectionArgs, long arg) {
+        String[] args = new String[selectionArgs.length + 1];
+        System.arraycopy(selectionArgs, 0, args, 0, selectionArgs.length);
+        args[selectionArgs.length] = String.valueOf(arg);
+        return args;
+    }
+
+    /**
+     * The release time of the first episodes in the window, or null if it starts with the first
+     * episode. Only valid once loading has finished.
+     */
+    @Nullable
+    public Long getWindowStart() {
+        return windowStart;
+    }
+
+    /**
+     * The release time of the last episodes in the window, or null if no window was loaded yet.
+     * Only valid once loading has finished.
+     */
+    @Nullable
+    public Long getWindowEnd() {
+        return windowEnd;
+    }
+
+    /**
+     * Whether the window contains all episodes after its start. Only valid once loading has
+     * finished.
+     */
+    public boolean isAllLoaded() {
+        return isAllLoaded;
+    }
+
+    /**
+     * Day headers of the loaded episodes, see {@link CalendarAdapter#swapCursor(Cursor, List)}.
+     * Only valid once loading has finished.
+     */
+    @Nullable
+    public List<HeaderData> getHeaders() {
+        return headers;
+    }
+}
@@ -0,0 +1,149 @@
+package com.battlelancer.seriesguide.loaders;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
+import android.support.annotation.Nullable;
+import android.support.v4.content.CursorLoader;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.EpisodeSearch;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads episode search results a page at a time. {@link #loadNextPage()} only queries the
+ * results after those already loaded (using the offset of {@link EpisodeSearch#buildSearchUri(int,
+ * int)}) and appends them, so earlier results are not searched and highlighted again.
+ *
+ * <p> Earlier results are kept as a copy in memory. If the data changes, all loaded results are
+ * queried again at once.
+ */
+public class EpisodeSearchLoader extends CursorLoader {
+
+    /** Number of search results loaded at once. */
+    public static final int PAGE_SIZE = 50;
+
+    private final Object lock = new Object();
+    /** Copies of all results loaded so far, only accessed while holding {@link #lock}. */
+    private List<Object[]> loadedRows;
+    private final int initialCount;
+    private volatile boolean isLoadingNextPage;
+    private volatile boolean hasMoreResults;
+
+    /**
+     * @param initialCount How many results to load initially, e.g. to restore the results of a
+     * previous instance. Loads at least a page.
+     */
+    public EpisodeSearchLoader(Context context, String[] projection, @Nullable String selection,
+            String[] selectionArgs, int initialCount) {
+        super(context, EpisodeSearch.buildSearchUri(PAGE_SIZE, 0), projection, selection,
+                selectionArgs, null);
+        this.initialCount = initialCount;
+    }
+
+    /**
+     * Loads the next page of results and appends it to the current results. Does nothing if
+     * already loading the next page or there are no more results.
+     */
+    public void loadNextPage() {
+        if (isLoadingNextPage || !hasMoreResults) {
+            return;
+        }
+        isLoadingNextPage = true;
+        forceLoad();
+    }
+
+    /**
+     * Whether there might be more results after the loaded ones. Only valid once loading has
+     * finished.
+     */
+    public boolean hasMoreResults() {
+        return hasMoreResults;
+    }
+
+    /**
+     * Whether the next page is currently loading.
+     */
+    public boolean isLoadingNextPage() {
+        return isLoadingNextPage;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        synchronized (lock) {
+            boolean isNextPage = isLoadingNextPage && loadedRows != null;
+            int offset;
+            int limit;
+            if (isNextPage) {
+                offset = loadedRows.size();
+                limit = PAGE_SIZE;
+            } else {
+                // first load or data changed: load all results shown so far
+                offset = 0;
+                limit = Math.max(PAGE_SIZE,
+                        loadedRows != null ? loadedRows.size() : initialCount);
+            }
+            setUri(EpisodeSearch.buildSearchUri(limit, offset));
+
+            Cursor page;
+            try {
+                page = super.loadInBackground();
+            } finally {
+                isLoadingNextPage = false;
+            }
+            if (page == null) {
+                return null;
+            }
+
+            List<Object[]> pageRows = copyRows(page);
+            hasMoreResults = pageRows.size() == limit;
+            if (!isNextPage) {
+                loadedRows = pageRows;
+                return page;
+            }
+
+            // the previous cursor is closed once this one is delivered, so show a copy
+            Cursor previous = buildCursor(page.getColumnNames(), loadedRows);
+            loadedRows.addAll(pageRows);
+            return new MergeCursor(new Cursor[] { previous, page });
+        }
+    }
+
+    private static List<Object[]> copyRows(Cursor cursor) {
+        List<Object[]> rows = new ArrayList<>(cursor.getCount());
+        int columnCount = cursor.getColumnCount();
+        while (cursor.moveToNext()) {
+            Object[] row = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[i] = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[i] = cursor.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        row[i] = cursor.getBlob(i);
+                        break;
+                    case Cursor.FIELD_TYPE_NULL:
+                        row[i] = null;
+                        break;
+                    default:
+                        row[i] = cursor.getString(i);
+                        break;
+                }
+            }
+            rows.add(row);
+        }
+        cursor.moveToPosition(-1);
+        return rows;
+    }
+
+    private static Cursor buildCursor(String[] columnNames, List<Object[]> rows) {
+        MatrixCursor cursor = new MatrixCursor(columnNames, rows.size());
+        for (Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+}
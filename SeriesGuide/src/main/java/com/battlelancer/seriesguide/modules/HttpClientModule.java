@@ -8,6 +8,7 @@ import com.battlelancer.seriesguide.thetvdbapi.SgTheTvdbInterceptor;
 import com.battlelancer.seriesguide.tmdbapi.SgTmdbInterceptor;
 import com.battlelancer.seriesguide.traktapi.SgTraktInterceptor;
 import com.battlelancer.seriesguide.util.AllApisAuthenticator;
+import com.battlelancer.seriesguide.util.RequestScheduler;
 import dagger.Module;
 import dagger.Provides;
 import java.io.File;
@@ -36,6 +37,7 @@ public class HttpClientModule {
         OkHttpClient.Builder builder = new OkHttpClient.Builder();
         builder.connectTimeout(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
         builder.readTimeout(READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        builder.addInterceptor(RequestScheduler.getInstance());
         builder.addInterceptor(new SgTmdbInterceptor());
         builder.addNetworkInterceptor(new SgTheTvdbInterceptor(app));
         builder.addNetworkInterceptor(new SgTraktInterceptor(app));
@@ -0,0 +1,122 @@
+package com.battlelancer.seriesguide.provider;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import timber.log.Timber;
+
+/**
+ * Inserts many rows into a single table, making the last insert win (ON CONFLICT REPLACE) like
+ * {@link SQLiteDatabase#replace(String, String, ContentValues)}. But instead of compiling a new
+ * statement for each row, compiles one statement for each distinct set of columns and re-uses it,
+ * binding values directly.
+ *
+ * <p> Use inside a transaction and {@link #close()} once done.
+ */
+public class BulkInserter {
+
+    private final SQLiteDatabase db;
+    private final String table;
+    private final HashMap<String, CompiledInsert> statements = new HashMap<>();
+    private final ArrayList<String> columns = new ArrayList<>();
+    private final StringBuilder columnsKey = new StringBuilder();
+
+    private static class CompiledInsert {
+        final SQLiteStatement statement;
+        /** Column names in the order they are bound. */
+        final String[] columns;
+
+        CompiledInsert(SQLiteStatement statement, String[] columns) {
+            this.statement = statement;
+            this.columns = columns;
+        }
+    }
+
+    public BulkInserter(@NonNull SQLiteDatabase db, @NonNull String table) {
+        this.db = db;
+        this.table = table;
+    }
+
+    /**
+     * Inserts or replaces a row with the given values.
+     *
+     * @return The row id of the inserted row, or -1 if an error occurred.
+     */
+    public long insert(@NonNull ContentValues values) {
+        if (values.size() == 0) {
+            Timber.e("Error inserting empty values into %s", table);
+            return -1;
+        }
+        CompiledInsert insert = getCompiledInsert(values);
+        SQLiteStatement statement = insert.statement;
+        String[] columns = insert.columns;
+        for (int i = 0; i < columns.length; i++) {
+            DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(columns[i]));
+        }
+        try {
+            return statement.executeInsert();
+        } catch (SQLException e) {
+            // like SQLiteDatabase.replace
+            Timber.e(e, "Error inserting %s", values);
+            return -1;
+        } finally {
+            statement.clearBindings();
+        }
+    }
+
+    /**
+     * Releases all compiled statements.
+     */
+    public void close() {
+        for (CompiledInsert insert : statements.values()) {
+            insert.statement.close();
+        }
+        statements.clear();
+    }
+
+    private CompiledInsert getCompiledInsert(ContentValues values) {
+        // rows usually have the same columns, but not necessarily in the same order
+        columns.clear();
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            columns.add(entry.getKey());
+        }
+        Collections.sort(columns);
+        columnsKey.setLength(0);
+        for (String column : columns) {
+            columnsKey.append(column).append(',');
+        }
+        String key = columnsKey.toString();
+
+        CompiledInsert insert = statements.get(key);
+        if (insert == null) {
+            insert = compileInsert(columns.toArray(new String[columns.size()]));
+            statements.put(key, insert);
+        }
+        return insert;
+    }
+
+    private CompiledInsert compileInsert(String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO ")
+                .append(table)
+                .append('(');
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(')');
+        return new CompiledInsert(db.compileStatement(sql.toString()), columns);
+    }
+}
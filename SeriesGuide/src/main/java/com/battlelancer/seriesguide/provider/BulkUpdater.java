@@ -0,0 +1,123 @@
+package com.battlelancer.seriesguide.provider;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+import android.support.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import timber.log.Timber;
+
+/**
+ * Updates many rows of a single table, each identified by its {@link BaseColumns#_ID}. Like
+ * {@link BulkInserter} instead of building a new statement with a selection for each row,
+ * compiles one statement for each distinct set of columns and re-uses it, binding values
+ * directly.
+ *
+ * <p> Use inside a transaction and {@link #close()} once done.
+ */
+public class BulkUpdater {
+
+    private final SQLiteDatabase db;
+    private final String table;
+    private final HashMap<String, CompiledUpdate> statements = new HashMap<>();
+    private final ArrayList<String> columns = new ArrayList<>();
+    private final StringBuilder columnsKey = new StringBuilder();
+
+    private static class CompiledUpdate {
+        final SQLiteStatement statement;
+        /** Column names in the order they are bound, the row id is bound last. */
+        final String[] columns;
+
+        CompiledUpdate(SQLiteStatement statement, String[] columns) {
+            this.statement = statement;
+            this.columns = columns;
+        }
+    }
+
+    public BulkUpdater(@NonNull SQLiteDatabase db, @NonNull String table) {
+        this.db = db;
+        this.table = table;
+    }
+
+    /**
+     * Updates the row with the {@link BaseColumns#_ID} contained in the given values, sets all
+     * other values.
+     *
+     * @return The number of rows updated, or -1 if an error occurred.
+     */
+    public int update(@NonNull ContentValues values) {
+        Long id = values.getAsLong(BaseColumns._ID);
+        if (id == null || values.size() < 2) {
+            Timber.e("Error updating %s with %s, requires id and values", table, values);
+            return -1;
+        }
+        CompiledUpdate update = getCompiledUpdate(values);
+        SQLiteStatement statement = update.statement;
+        String[] columns = update.columns;
+        for (int i = 0; i < columns.length; i++) {
+            DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(columns[i]));
+        }
+        statement.bindLong(columns.length + 1, id);
+        try {
+            return statement.executeUpdateDelete();
+        } catch (SQLException e) {
+            Timber.e(e, "Error updating %s", values);
+            return -1;
+        } finally {
+            statement.clearBindings();
+        }
+    }
+
+    /**
+     * Releases all compiled statements.
+     */
+    public void close() {
+        for (CompiledUpdate update : statements.values()) {
+            update.statement.close();
+        }
+        statements.clear();
+    }
+
+    private CompiledUpdate getCompiledUpdate(ContentValues values) {
+        // rows usually have the same columns, but not necessarily in the same order
+        columns.clear();
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            if (!BaseColumns._ID.equals(entry.getKey())) {
+                columns.add(entry.getKey());
+            }
+        }
+        Collections.sort(columns);
+        columnsKey.setLength(0);
+        for (String column : columns) {
+            columnsKey.append(column).append(',');
+        }
+        String key = columnsKey.toString();
+
+        CompiledUpdate update = statements.get(key);
+        if (update == null) {
+            update = compileUpdate(columns.toArray(new String[columns.size()]));
+            statements.put(key, update);
+        }
+        return update;
+    }
+
+    private CompiledUpdate compileUpdate(String[] columns) {
+        StringBuilder sql = new StringBuilder("UPDATE ")
+                .append(table)
+                .append(" SET ");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append(columns[i]).append("=?");
+        }
+        sql.append(" WHERE ").append(BaseColumns._ID).append("=?");
+        return new CompiledUpdate(db.compileStatement(sql.toString()), columns);
+    }
+}
@@ -0,0 +1,174 @@
+package com.battlelancer.seriesguide.provider;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import timber.log.Timber;
+
+/**
+ * Sends change notifications for {@link SeriesGuideProvider}. Between {@link #begin()} and {@link
+ * #end()}, e.g. while applying a batch or during sync, notifications requested on the same thread
+ * are deferred instead of making every open loader re-query right away. Once the outermost {@link
+ * #end()} is reached, each distinct {@link Uri} is notified only once, dropping those a pending
+ * notification of a parent {@link Uri} already reaches.
+ *
+ * <p> Notifications on other threads, e.g. the user flagging an episode while sync is running,
+ * are not held back.
+ */
+public class NotificationCoalescer {
+
+    private static NotificationCoalescer _instance;
+
+    private final ContentResolver resolver;
+    private final ThreadLocal<Deferral> deferral = new ThreadLocal<>();
+    private final AtomicLong requestedCount = new AtomicLong();
+    private final AtomicLong emittedCount = new AtomicLong();
+
+    private static class Deferral {
+        int depth;
+        final LinkedHashSet<Uri> pending = new LinkedHashSet<>();
+    }
+
+    @VisibleForTesting
+    public NotificationCoalescer(ContentResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    public static synchronized NotificationCoalescer getInstance(Context context) {
+        if (_instance == null) {
+            _instance = new NotificationCoalescer(
+                    context.getApplicationContext().getContentResolver());
+        }
+        return _instance;
+    }
+
+    /**
+     * Starts deferring notifications on this thread. Calls may be nested, make sure to call {@link
+     * #end()} for each, ideally in a finally block.
+     */
+    public void begin() {
+        Deferral current = deferral.get();
+        if (current == null) {
+            current = new Deferral();
+            deferral.set(current);
+        }
+        current.depth++;
+    }
+
+    /**
+     * Stops deferring notifications on this thread. If this ends the outermost deferral, notifies
+     * all pending {@link Uri}s.
+     */
+    public void end() {
+        Deferral current = deferral.get();
+        if (current == null || current.depth == 0) {
+            throw new IllegalStateException("end() called without begin()");
+        }
+        current.depth--;
+        if (current.depth > 0) {
+            return;
+        }
+        deferral.remove();
+
+        List<Uri> uris = merge(current.pending);
+        for (Uri uri : uris) {
+            emit(uri);
+        }
+        if (current.pending.size() > 0) {
+            Timber.d("Coalesced notifications: sent %s, avoided %s (total %s)", uris.size(),
+                    current.pending.size() - uris.size(), getAvoidedCount());
+        }
+    }
+
+    /**
+     * Notifies observers of the given {@link Uri}, or if notifications are deferred on this thread
+     * remembers it until {@link #end()}.
+     */
+    public void notifyChange(@NonNull Uri uri) {
+        requestedCount.incrementAndGet();
+        Deferral current = deferral.get();
+        if (current != null && current.depth > 0) {
+            current.pending.add(uri);
+        } else {
+            emit(uri);
+        }
+    }
+
+    /**
+     * Returns how many notifications were requested since the app process started.
+     */
+    public long getRequestedCount() {
+        return requestedCount.get();
+    }
+
+    /**
+     * Returns how many notifications were actually sent since the app process started.
+     */
+    public long getEmittedCount() {
+        return emittedCount.get();
+    }
+
+    /**
+     * Returns how many requested notifications, and so loader reloads, were avoided by merging
+     * them.
+     */
+    public long getAvoidedCount() {
+        // deferred notifications not sent, yet, are not counted
+        long pending = 0;
+        Deferral current = deferral.get();
+        if (current != null) {
+            pending = current.pending.size();
+        }
+        return Math.max(0, requestedCount.get() - emittedCount.get() - pending);
+    }
+
+    private void emit(Uri uri) {
+        emittedCount.incrementAndGet();
+        resolver.notifyChange(uri, null);
+    }
+
+    /**
+     * Returns the given {@link Uri}s without duplicates and without those that are a descendant of
+     * another given {@link Uri}. Notifying a {@link Uri} also notifies observers of all its
+     * descendants, so these would be notified twice.
+     */
+    @VisibleForTesting
+    public static List<Uri> merge(Collection<Uri> uris) {
+        List<Uri> merged = new ArrayList<>(uris.size());
+        for (Uri uri : uris) {
+            boolean hasAncestor = false;
+            for (Uri other : uris) {
+                if (isProperAncestor(other, uri)) {
+                    hasAncestor = true;
+                    break;
+                }
+            }
+            if (!hasAncestor && !merged.contains(uri)) {
+                merged.add(uri);
+            }
+        }
+        return merged;
+    }
+
+    private static boolean isProperAncestor(Uri ancestor, Uri uri) {
+        if (!equals(ancestor.getScheme(), uri.getScheme())
+                || !equals(ancestor.getAuthority(), uri.getAuthority())) {
+            return false;
+        }
+        List<String> ancestorSegments = ancestor.getPathSegments();
+        List<String> segments = uri.getPathSegments();
+        return ancestorSegments.size() < segments.size()
+                && segments.subList(0, ancestorSegments.size()).equals(ancestorSegments);
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,243 @@
+package com.battlelancer.seriesguide.provider;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import java.text.DateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long {@link SeriesGuideProvider} operations take, grouped by operation and {@link
+ * Uri} match. For each group keeps a latency histogram and the number of rows returned or
+ * changed. For write operations the duration includes committing their transaction. Keeps the
+ * most recent slow operations including their SQL and arguments.
+ *
+ * <p> Only kept in memory while the app process lives, see {@link #buildReport()} to inspect
+ * them.
+ */
+public class ProviderStats {
+
+    public static final String QUERY = "query";
+    public static final String INSERT = "insert";
+    public static final String BULK_INSERT = "bulkInsert";
+    public static final String UPDATE = "update";
+    public static final String DELETE = "delete";
+    public static final String APPLY_BATCH = "applyBatch";
+
+    /** Operations taking at least this long are added to the slow operation log. */
+    public static final long SLOW_THRESHOLD_MS = 50;
+    /** How many of the most recent slow operations are kept. */
+    public static final int SLOW_LOG_SIZE = 50;
+    /**
+     * Upper bounds of the histogram buckets, the last bucket holds everything taking longer than
+     * the last bound.
+     */
+    private static final long[] BUCKET_BOUNDS_MS = {
+            1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024
+    };
+
+    private static ProviderStats _instance;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final ArrayDeque<SlowOperation> slowLog = new ArrayDeque<>(SLOW_LOG_SIZE);
+
+    public static class Entry {
+        public final String operation;
+        public final int match;
+        /** The first {@link Uri} recorded, to see which {@link Uri}s belong to the match. */
+        public final Uri exampleUri;
+        public final long[] buckets = new long[BUCKET_BOUNDS_MS.length + 1];
+        public long count;
+        public long rows;
+        public long totalNs;
+        public long maxNs;
+
+        Entry(String operation, int match, Uri exampleUri) {
+            this.operation = operation;
+            this.match = match;
+            this.exampleUri = exampleUri;
+        }
+    }
+
+    public static class SlowOperation {
+        public final long timestamp;
+        public final String operation;
+        public final Uri uri;
+        public final long durationNs;
+        public final int rows;
+        @Nullable public final String sql;
+        @Nullable public final String[] args;
+
+        SlowOperation(long timestamp, String operation, Uri uri, long durationNs, int rows,
+                @Nullable String sql, @Nullable String[] args) {
+            this.timestamp = timestamp;
+            this.operation = operation;
+            this.uri = uri;
+            this.durationNs = durationNs;
+            this.rows = rows;
+            this.sql = sql;
+            this.args = args;
+        }
+    }
+
+    @VisibleForTesting
+    public ProviderStats() {
+    }
+
+    public static synchronized ProviderStats getInstance() {
+        if (_instance == null) {
+            _instance = new ProviderStats();
+        }
+        return _instance;
+    }
+
+    /**
+     * Whether an operation taking this long should be added to the slow operation log using
+     * {@link #recordSlow}. Use to only build its SQL if necessary.
+     */
+    public boolean isSlow(long durationNs) {
+        return durationNs >= TimeUnit.MILLISECONDS.toNanos(SLOW_THRESHOLD_MS);
+    }
+
+    /**
+     * Adds an operation to the histogram of its operation and {@link Uri} match.
+     *
+     * @param rows The number of returned, inserted, changed or removed rows, or for batches the
+     * number of operations.
+     */
+    public synchronized void record(String operation, int match, Uri uri, long durationNs,
+            int rows) {
+        String key = operation + " " + match;
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(operation, match, uri);
+            entries.put(key, entry);
+        }
+        entry.count++;
+        entry.rows += Math.max(0, rows);
+        entry.totalNs += durationNs;
+        entry.maxNs = Math.max(entry.maxNs, durationNs);
+        entry.buckets[getBucket(durationNs)]++;
+    }
+
+    /**
+     * Adds an operation to the slow operation log, dropping the oldest one if it is full.
+     *
+     * @param sql The SQL executed, without arguments bound. Null if unknown.
+     */
+    public synchronized void recordSlow(String operation, Uri uri, long durationNs, int rows,
+            @Nullable String sql, @Nullable String[] args) {
+        if (slowLog.size() == SLOW_LOG_SIZE) {
+            slowLog.removeFirst();
+        }
+        slowLog.addLast(new SlowOperation(System.currentTimeMillis(), operation, uri, durationNs,
+                rows, sql, args));
+    }
+
+    private static int getBucket(long durationNs) {
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(durationNs);
+        for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+            if (durationMs < BUCKET_BOUNDS_MS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS_MS.length;
+    }
+
+    /**
+     * Returns copies of all entries, those with the highest total duration first.
+     */
+    @NonNull
+    public synchronized List<Entry> getEntries() {
+        List<Entry> copies = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            Entry copy = new Entry(entry.operation, entry.match, entry.exampleUri);
+            System.arraycopy(entry.buckets, 0, copy.buckets, 0, entry.buckets.length);
+            copy.count = entry.count;
+            copy.rows = entry.rows;
+            copy.totalNs = entry.totalNs;
+            copy.maxNs = entry.maxNs;
+            copies.add(copy);
+        }
+        Collections.sort(copies, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry left, Entry right) {
+                return left.totalNs < right.totalNs ? 1 : (left.totalNs == right.totalNs ? 0 : -1);
+            }
+        });
+        return copies;
+    }
+
+    /**
+     * Returns the slow operation log, the most recent operation first.
+     */
+    @NonNull
+    public synchronized List<SlowOperation> getSlowOperations() {
+        List<SlowOperation> operations = new ArrayList<>(slowLog);
+        Collections.reverse(operations);
+        return operations;
+    }
+
+    public synchronized void reset() {
+        entries.clear();
+        slowLog.clear();
+    }
+
+    /**
+     * Returns a plain text report of all entries and the slow operation log, e.g. to display or
+     * share it.
+     */
+    @NonNull
+    public String buildReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("Buckets (ms): <");
+        for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+            report.append(BUCKET_BOUNDS_MS[i]).append(i < BUCKET_BOUNDS_MS.length - 1 ? " <" : "");
+        }
+        report.append(" >=").append(BUCKET_BOUNDS_MS[BUCKET_BOUNDS_MS.length - 1]).append("\n");
+
+        for (Entry entry : getEntries()) {
+            report.append("\n").append(entry.operation).append(" #").append(entry.match)
+                    .append(" ").append(entry.exampleUri).append("\n");
+            report.append(String.format(Locale.US,
+                    "  count %d, rows %d, total %.1f ms, avg %.2f ms, max %.1f ms\n",
+                    entry.count, entry.rows, toMs(entry.totalNs),
+                    toMs(entry.totalNs) / entry.count, toMs(entry.maxNs)));
+            report.append("  ").append(Arrays.toString(entry.buckets)).append("\n");
+        }
+
+        List<SlowOperation> slowOperations = getSlowOperations();
+        report.append("\nSlow operations (>=").append(SLOW_THRESHOLD_MS).append(" ms): ")
+                .append(slowOperations.size()).append("\n");
+        DateFormat timeFormat = DateFormat.getTimeInstance(DateFormat.MEDIUM, Locale.US);
+        for (SlowOperation operation : slowOperations) {
+            report.append("\n").append(timeFormat.format(new Date(operation.timestamp)))
+                    .append(" ").append(operation.operation).append(" ").append(operation.uri)
+                    .append(String.format(Locale.US, " %.1f ms, rows %d\n",
+                            toMs(operation.durationNs), operation.rows));
+            if (operation.sql != null) {
+                report.append("  ").append(operation.sql).append("\n");
+            }
+            if (operation.args != null && operation.args.length > 0) {
+                report.append("  args ").append(Arrays.toString(operation.args)).append("\n");
+            }
+        }
+
+        return report.toString();
+    }
+
+    private static double toMs(long durationNs) {
+        return durationNs / 1000000.0;
+    }
+}
@@ -385,6 +385,17 @@ public class SeriesGuideContract {
          * Added in db version 27.
          */
         String LAST_EDITED = "episode_lastedit";
+
+        /**
+         * Hash of the episode values as downloaded from TheTVDB, to skip updating unchanged
+         * episodes. Added in db version 40.
+         *
+         * <pre>
+         * Range:   long
+         * Default: 0 (unknown)
+         * </pre>
+         */
+        String CONTENT_HASH = "episode_content_hash";
     }
 
     interface EpisodeSearchColumns {
@@ -523,6 +534,58 @@ public class SeriesGuideContract {
         String SHOW_TVDB_ID = "activity_show";
     }
 
+    interface TraktShowIdsColumns {
+
+        /**
+         * The trakt id of the show with the TheTVDB id stored in {@link BaseColumns#_ID}.
+         */
+        String TRAKT_ID = "trakt_show_trakt_id";
+
+        /**
+         * When the trakt id was last looked up on trakt, in milliseconds.
+         */
+        String LOOKUP_MS = "trakt_show_lookup_time";
+    }
+
+    interface ShowStatsColumns {
+
+        /**
+         * Number of episodes of the show with the TheTVDB id stored in {@link BaseColumns#_ID},
+         * including specials.
+         */
+        String EPISODES = "stats_episodes";
+
+        /**
+         * Number of specials (season 0) of the show.
+         */
+        String SPECIALS = "stats_specials";
+
+        /**
+         * Number of watched episodes of the show, including specials.
+         */
+        String WATCHED = "stats_watched";
+
+        /**
+         * Number of watched specials of the show.
+         */
+        String WATCHED_SPECIALS = "stats_watched_specials";
+
+        /**
+         * Number of collected episodes of the show, including specials.
+         */
+        String COLLECTED = "stats_collected";
+
+        /**
+         * Number of collected specials of the show.
+         */
+        String COLLECTED_SPECIALS = "stats_collected_specials";
+
+        /**
+         * Runtime of an episode of the show in minutes, see {@link ShowsColumns#RUNTIME}.
+         */
+        String RUNTIME = "stats_runtime";
+    }
+
     private static final Uri BASE_CONTENT_URI = Uri.parse("content://"
             + SgApp.CONTENT_AUTHORITY);
 
@@ -536,12 +599,16 @@ public class SeriesGuideContract {
 
     public static final String PATH_OFSEASON = "ofseason";
 
+    public static final String PATH_BYSEASON = "byseason";
+
     public static final String PATH_EPISODESEARCH = "episodesearch";
 
     public static final String PATH_WITHSHOW = "withshow";
 
     public static final String PATH_RENEWFTSTABLE = "renewftstable";
 
+    public static final String PATH_CHECKPOINT = "checkpoint";
+
     public static final String PATH_SEARCH = "search";
 
     public static final String PATH_FILTER = "filter";
@@ -562,6 +629,39 @@ public class SeriesGuideContract {
 
     public static final String PATH_ACTIVITY = "activity";
 
+    public static final String PATH_TRAKT_SHOW_IDS = "traktshowids";
+
+    public static final String PATH_SHOW_STATS = "showstats";
+
+    public static final String PATH_CHECK_SHOW_STATS = "checkshowstats";
+
+    public static final String PATH_REMOVE_SHOWS = "removeshows";
+
+    /**
+     * Query to copy all changes from the write-ahead log into the database file.
+     */
+    public static final Uri CONTENT_URI_CHECKPOINT = BASE_CONTENT_URI.buildUpon()
+            .appendPath(PATH_CHECKPOINT).build();
+
+    /**
+     * Query parameter to limit the number of returned rows, supported by all queries not handled
+     * specially.
+     */
+    public static final String PARAM_LIMIT = "limit";
+
+    /** Query parameter to skip a number of rows, use with {@link #PARAM_LIMIT}. */
+    public static final String PARAM_OFFSET = "offset";
+
+    /**
+     * Adds {@link #PARAM_LIMIT} and {@link #PARAM_OFFSET} to the given query {@link Uri}.
+     */
+    public static Uri buildLimitUri(Uri uri, int limit, int offset) {
+        return uri.buildUpon()
+                .appendQueryParameter(PARAM_LIMIT, String.valueOf(limit))
+                .appendQueryParameter(PARAM_OFFSET, String.valueOf(offset))
+                .build();
+    }
+
     public static class Shows implements ShowsColumns, BaseColumns {
 
         public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
@@ -580,6 +680,14 @@ public class SeriesGuideContract {
                 .appendPath(PATH_FILTER)
                 .build();
 
+        /**
+         * Delete to remove the shows whose TVDb ids are given as selection args, including their
+         * seasons, episodes, list items and activity, in a single transaction.
+         */
+        public static final Uri CONTENT_URI_REMOVE = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_REMOVE_SHOWS)
+                .build();
+
         /**
          * Use if multiple items get returned
          */
@@ -626,6 +734,13 @@ public class SeriesGuideContract {
         public static final Uri CONTENT_URI_WITHSHOW = CONTENT_URI.buildUpon()
                 .appendPath(PATH_WITHSHOW).build();
 
+        /**
+         * Not queryable, but notifying it reaches loaders of {@link
+         * #buildEpisodesOfSeasonWithShowUri(String)} of all seasons.
+         */
+        public static final Uri CONTENT_URI_OFSEASON_WITHSHOW = CONTENT_URI.buildUpon()
+                .appendPath(PATH_OFSEASON).appendPath(PATH_WITHSHOW).build();
+
         /**
          * Use if multiple items get returned
          */
@@ -712,6 +827,15 @@ public class SeriesGuideContract {
             return buildEpisodesOfShowUri(String.valueOf(showTvdbId));
         }
 
+        /**
+         * Episodes of a show grouped by {@link Seasons#REF_SEASON_ID}. Use with an aggregate
+         * projection to get one row per season.
+         */
+        public static Uri buildEpisodesOfShowBySeasonUri(String showTvdbId) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_OFSHOW).appendPath(PATH_BYSEASON)
+                    .appendPath(showTvdbId).build();
+        }
+
         public static Uri buildEpisodeWithShowUri(String episodeId) {
             return CONTENT_URI_WITHSHOW.buildUpon().appendPath(episodeId).build();
         }
@@ -769,6 +893,23 @@ public class SeriesGuideContract {
         public static final Uri CONTENT_URI_RENEWFTSTABLE = BASE_CONTENT_URI.buildUpon()
                 .appendPath(PATH_RENEWFTSTABLE).build();
 
+        /** Query parameter to limit the number of search results. */
+        public static final String PARAM_LIMIT = "limit";
+
+        /** Query parameter to skip a number of search results, use with {@link #PARAM_LIMIT}. */
+        public static final String PARAM_OFFSET = "offset";
+
+        /**
+         * Search returning at most {@code limit} results, skipping the first {@code offset}
+         * results.
+         */
+        public static Uri buildSearchUri(int limit, int offset) {
+            return CONTENT_URI_SEARCH.buildUpon()
+                    .appendQueryParameter(PARAM_LIMIT, String.valueOf(limit))
+                    .appendQueryParameter(PARAM_OFFSET, String.valueOf(offset))
+                    .build();
+        }
+
         public static Uri buildDocIdUri(String rowId) {
             return CONTENT_URI.buildUpon().appendPath(rowId).build();
         }
@@ -964,6 +1105,60 @@ public class SeriesGuideContract {
         }
     }
 
+    /**
+     * Caches which trakt show id a TheTVDB show id maps to.
+     */
+    public static class TraktShowIds implements TraktShowIdsColumns, BaseColumns {
+
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_TRAKT_SHOW_IDS)
+                .build();
+
+        /**
+         * Use if multiple items get returned
+         */
+        public static final String CONTENT_TYPE
+                = "vnd.android.cursor.dir/vnd.seriesguide.traktshowid";
+
+        /**
+         * Use if a single item is returned
+         */
+        public static final String CONTENT_ITEM_TYPE
+                = "vnd.android.cursor.item/vnd.seriesguide.traktshowid";
+
+        public static Uri buildTraktShowIdUri(int showTvdbId) {
+            return CONTENT_URI.buildUpon().appendPath(String.valueOf(showTvdbId)).build();
+        }
+
+        public static String getShowTvdbId(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /**
+     * Statistics per show, kept up to date by the database when episodes or shows change. Only
+     * query, do not change directly.
+     */
+    public static class ShowStats implements ShowStatsColumns, BaseColumns {
+
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_SHOW_STATS)
+                .build();
+
+        /**
+         * Query to re-calculate the statistics of all shows, e.g. in case they are wrong.
+         */
+        public static final Uri CONTENT_URI_CHECK = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_CHECK_SHOW_STATS)
+                .build();
+
+        /**
+         * Use if multiple items get returned
+         */
+        public static final String CONTENT_TYPE
+                = "vnd.android.cursor.dir/vnd.seriesguide.showstats";
+    }
+
     private SeriesGuideContract() {
     }
 }
@@ -4,11 +4,14 @@ import android.app.SearchManager;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.provider.BaseColumns;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import com.battlelancer.seriesguide.enums.EpisodeFlags;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.EpisodeSearch;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.EpisodeSearchColumns;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
@@ -18,6 +21,7 @@ import com.battlelancer.seriesguide.provider.SeriesGuideContract.Lists;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.ListsColumns;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.MoviesColumns;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.SeasonsColumns;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.ShowStatsColumns;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.Shows;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.ShowsColumns;
 import com.battlelancer.seriesguide.util.DBUtils;
@@ -30,9 +34,11 @@ import org.joda.time.LocalTime;
 import timber.log.Timber;
 
 import static com.battlelancer.seriesguide.provider.SeriesGuideContract.ActivityColumns;
+import static com.battlelancer.seriesguide.provider.SeriesGuideContract.ListItemTypes;
 import static com.battlelancer.seriesguide.provider.SeriesGuideContract.ListItems;
 import static com.battlelancer.seriesguide.provider.SeriesGuideContract.Movies;
 import static com.battlelancer.seriesguide.provider.SeriesGuideContract.Seasons;
+import static com.battlelancer.seriesguide.provider.SeriesGuideContract.TraktShowIdsColumns;
 
 public class SeriesGuideDatabase extends SQLiteOpenHelper {
 
@@ -138,7 +144,37 @@ public class SeriesGuideDatabase extends SQLiteOpenHelper {
      */
     private static final int DBVER_39_SHOW_LAST_WATCHED = 39;
 
-    public static final int DATABASE_VERSION = DBVER_39_SHOW_LAST_WATCHED;
+    /**
+     * Added content hash column to episodes table.
+     */
+    private static final int DBVER_40_EPISODE_CONTENT_HASH = 40;
+
+    /**
+     * Added table to cache trakt ids of shows.
+     */
+    private static final int DBVER_41_TRAKT_SHOW_IDS = 41;
+
+    /**
+     * Added indexes on the episodes and seasons tables.
+     */
+    private static final int DBVER_42_INDEXES = 42;
+
+    /**
+     * Added triggers to keep the episode search table in sync with the episodes table.
+     */
+    private static final int DBVER_43_SEARCH_TRIGGERS = 43;
+
+    /**
+     * Re-created the episode search table with prefix indexes.
+     */
+    private static final int DBVER_44_SEARCH_PREFIX_INDEX = 44;
+
+    /**
+     * Added table with statistics per show, kept up to date with triggers.
+     */
+    private static final int DBVER_45_SHOW_STATS = 45;
+
+    public static final int DATABASE_VERSION = DBVER_45_SHOW_STATS;
 
     /**
      * Qualifies column names by prefixing their {@link Tables} name.
@@ -209,6 +245,10 @@ public class SeriesGuideDatabase extends SQLiteOpenHelper {
         String MOVIES = "movies";
 
         String ACTIVITY = "activity";
+
+        String TRAKT_SHOW_IDS = "trakt_show_ids";
+
+        String SHOW_STATS = "show_stats";
     }
 
     private interface Selections {
@@ -426,7 +466,9 @@ public class SeriesGuideDatabase extends SQLiteOpenHelper {
 
             + EpisodesColumns.LAST_EDITED + " INTEGER DEFAULT 0,"
 
-            + EpisodesColumns.ABSOLUTE_NUMBER + " INTEGER"
+            + EpisodesColumns.ABSOLUTE_NUMBER + " INTEGER,"
+
+            + EpisodesColumns.CONTENT_HASH + " INTEGER DEFAULT 0"
 
             + ");";
 
@@ -436,6 +478,9 @@ public class SeriesGuideDatabase extends SQLiteOpenHelper {
             // set episodes table as external content table
             + "content='" + Tables.EPISODES + "',"
 
+            // index prefixes, searches always look for words starting with the search term
+            + "prefix='2,3',"
+
             + EpisodeSearchColumns.TITLE + ","
 
             + EpisodeSearchColumns.OVERVIEW
@@ -452,6 +497,83 @@ public class SeriesGuideDatabase extends SQLiteOpenHelper {
 
             + ");";
 
+    /**
+     * Removes the search entry of an episode about to be replaced, e.g. by an INSERT OR REPLACE.
+     * Only if the episode exists, an FTS4 table with external content must not be asked to
+     * remove entries it does not have. As recursive triggers are off, the delete trigger does not
+     * fire on replace.
+     */
+    private static final String CREATE_SEARCH_BEFORE_INSERT_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS episodes_search_bi BEFORE INSERT ON " + Tables.EPISODES
+                    + " BEGIN DELETE FROM " + Tables.EPISODES_SEARCH
+                    + " WHERE " + EpisodeSearchColumns._DOCID + "=new." + Episodes._ID
+                    + " AND EXISTS (SELECT 1 FROM " + Tables.EPISODES
+                    + " WHERE " + Episodes._ID + "=new." + Episodes._ID + ");"
+                    + " END;";
+
+    private static final String CREATE_SEARCH_AFTER_INSERT_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS episodes_search_ai AFTER INSERT ON " + Tables.EPISODES
+                    + " BEGIN " + SearchTriggers.INSERT_NEW + " END;";
+
+    /**
+     * Only if searchable columns change, so e.g. changing watched flags does not touch the search
+     * table.
+     */
+    private static final String CREATE_SEARCH_BEFORE_UPDATE_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS episodes_search_bu BEFORE UPDATE OF "
+                    + SearchTriggers.COLUMNS + " ON " + Tables.EPISODES
+                    + " BEGIN " + SearchTriggers.DELETE_OLD + " END;";
+
+    private static final String CREATE_SEARCH_AFTER_UPDATE_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS episodes_search_au AFTER UPDATE OF "
+                    + SearchTriggers.COLUMNS + " ON " + Tables.EPISODES
+                    + " BEGIN " + SearchTriggers.INSERT_NEW + " END;";
+
+    /**
+     * Like {@link #CREATE_SEARCH_AFTER_INSERT_TRIGGER}, but only adds the title, for a search
+     * table built by {@link #rebuildBasicFtsTableIcs(SQLiteDatabase)}.
+     */
+    private static final String CREATE_SEARCH_AFTER_INSERT_TRIGGER_BASIC =
+            "CREATE TRIGGER IF NOT EXISTS episodes_search_ai AFTER INSERT ON " + Tables.EPISODES
+                    + " BEGIN " + SearchTriggers.INSERT_NEW_TITLE + " END;";
+
+    private static final String CREATE_SEARCH_AFTER_UPDATE_TRIGGER_BASIC =
+            "CREATE TRIGGER IF NOT EXISTS episodes_search_au AFTER UPDATE OF "
+                    + SearchTriggers.COLUMNS + " ON " + Tables.EPISODES
+                    + " BEGIN " + SearchTriggers.INSERT_NEW_TITLE + " END;";
+
+    private static final String CREATE_SEARCH_BEFORE_DELETE_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS episodes_search_bd BEFORE DELETE ON " + Tables.EPISODES
+                    + " BEGIN " + SearchTriggers.DELETE_OLD + " END;";
+
+    /** Names of all triggers keeping the search table in sync. */
+    private static final String[] SEARCH_TRIGGERS = {
+            "episodes_search_bi", "episodes_search_ai", "episodes_search_bu",
+            "episodes_search_au", "episodes_search_bd"
+    };
+
+    /**
+     * Statements used by the search table triggers. Entries of an FTS4 table with external
+     * content must be removed before the content row changes or is deleted.
+     */
+    private interface SearchTriggers {
+        String COLUMNS = EpisodeSearchColumns.TITLE + "," + EpisodeSearchColumns.OVERVIEW;
+
+        String DELETE_OLD = "DELETE FROM " + Tables.EPISODES_SEARCH
+                + " WHERE " + EpisodeSearchColumns._DOCID + "=old." + Episodes._ID + ";";
+
+        String INSERT_NEW = "INSERT INTO " + Tables.EPISODES_SEARCH
+                + "(" + EpisodeSearchColumns._DOCID + "," + COLUMNS + ")"
+                + " VALUES (new." + Episodes._ID
+                + ",new." + EpisodeSearchColumns.TITLE
+                + ",new." + EpisodeSearchColumns.OVERVIEW + ");";
+
+        String INSERT_NEW_TITLE = "INSERT INTO " + Tables.EPISODES_SEARCH
+                + "(" + EpisodeSearchColumns._DOCID + "," + EpisodeSearchColumns.TITLE + ")"
+                + " VALUES (new." + Episodes._ID
+                + ",new." + EpisodeSearchColumns.TITLE + ");";
+    }
+
     private static final String CREATE_LISTS_TABLE = "CREATE TABLE " + Tables.LISTS
             + " ("
 
@@ -544,8 +666,218 @@ public class SeriesGuideDatabase extends SQLiteOpenHelper {
             + "UNIQUE (" + ActivityColumns.EPISODE_TVDB_ID + ") ON CONFLICT REPLACE"
             + ");";
 
+    private static final String CREATE_TRAKT_SHOW_IDS_TABLE = "CREATE TABLE "
+            + Tables.TRAKT_SHOW_IDS
+            + " ("
+            + BaseColumns._ID + " INTEGER PRIMARY KEY ON CONFLICT REPLACE,"
+            + TraktShowIdsColumns.TRAKT_ID + " INTEGER NOT NULL,"
+            + TraktShowIdsColumns.LOOKUP_MS + " INTEGER NOT NULL"
+            + ");";
+
+    private static final String CREATE_SHOW_STATS_TABLE = "CREATE TABLE "
+            + Tables.SHOW_STATS
+            + " ("
+            + BaseColumns._ID + " INTEGER PRIMARY KEY ON CONFLICT REPLACE,"
+            + ShowStatsColumns.RUNTIME + " INTEGER NOT NULL DEFAULT 0,"
+            + ShowStatsColumns.EPISODES + " INTEGER NOT NULL DEFAULT 0,"
+            + ShowStatsColumns.SPECIALS + " INTEGER NOT NULL DEFAULT 0,"
+            + ShowStatsColumns.WATCHED + " INTEGER NOT NULL DEFAULT 0,"
+            + ShowStatsColumns.WATCHED_SPECIALS + " INTEGER NOT NULL DEFAULT 0,"
+            + ShowStatsColumns.COLLECTED + " INTEGER NOT NULL DEFAULT 0,"
+            + ShowStatsColumns.COLLECTED_SPECIALS + " INTEGER NOT NULL DEFAULT 0"
+            + ");";
+
+    /**
+     * Removes the counts of an episode about to be replaced, e.g. by an INSERT OR REPLACE. As
+     * recursive triggers are off, the delete trigger does not fire on replace.
+     */
+    private static final String CREATE_SHOW_STATS_BEFORE_INSERT_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS episodes_stats_bi BEFORE INSERT ON " + Tables.EPISODES
+                    + " BEGIN " + ShowStatsTriggers.buildUpdate("-",
+                    ShowStatsTriggers.existingEpisode(Shows.REF_SHOW_ID),
+                    ShowStatsTriggers.existingEpisode(Episodes.SEASON),
+                    ShowStatsTriggers.existingEpisode(Episodes.WATCHED),
+                    ShowStatsTriggers.existingEpisode(Episodes.COLLECTED))
+                    + " END;";
+
+    private static final String CREATE_SHOW_STATS_AFTER_INSERT_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS episodes_stats_ai AFTER INSERT ON " + Tables.EPISODES
+                    + " BEGIN " + ShowStatsTriggers.buildUpdate("+", "new.") + " END;";
+
+    /**
+     * Only if counted columns change, so e.g. updating episode descriptions does not touch the
+     * stats table.
+     */
+    private static final String CREATE_SHOW_STATS_AFTER_UPDATE_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS episodes_stats_au AFTER UPDATE OF "
+                    + Shows.REF_SHOW_ID + "," + Episodes.SEASON + "," + Episodes.WATCHED + ","
+                    + Episodes.COLLECTED + " ON " + Tables.EPISODES
+                    + " BEGIN " + ShowStatsTriggers.buildUpdate("-", "old.")
+                    + ShowStatsTriggers.buildUpdate("+", "new.") + " END;";
+
+    private static final String CREATE_SHOW_STATS_AFTER_DELETE_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS episodes_stats_ad AFTER DELETE ON " + Tables.EPISODES
+                    + " BEGIN " + ShowStatsTriggers.buildUpdate("-", "old.") + " END;";
+
+    /**
+     * Counts episodes that might already exist, e.g. when re-adding a show or on replace.
+     */
+    private static final String CREATE_SHOW_STATS_SHOW_INSERT_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS series_stats_ai AFTER INSERT ON " + Tables.SHOWS
+                    + " BEGIN INSERT OR REPLACE INTO " + Tables.SHOW_STATS
+                    + " (" + ShowStatsTriggers.COLUMNS + ")"
+                    + " SELECT new." + Shows._ID + ","
+                    + ShowStatsTriggers.buildRuntime("new.") + ","
+                    + ShowStatsTriggers.buildCounts("")
+                    + " FROM " + Tables.EPISODES
+                    + " WHERE " + Shows.REF_SHOW_ID + "=new." + Shows._ID + ";"
+                    + " END;";
+
+    private static final String CREATE_SHOW_STATS_SHOW_UPDATE_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS series_stats_au AFTER UPDATE OF " + Shows.RUNTIME
+                    + " ON " + Tables.SHOWS
+                    + " BEGIN UPDATE " + Tables.SHOW_STATS
+                    + " SET " + ShowStatsColumns.RUNTIME + "="
+                    + ShowStatsTriggers.buildRuntime("new.")
+                    + " WHERE " + BaseColumns._ID + "=new." + Shows._ID + ";"
+                    + " END;";
+
+    private static final String CREATE_SHOW_STATS_SHOW_DELETE_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS series_stats_ad AFTER DELETE ON " + Tables.SHOWS
+                    + " BEGIN DELETE FROM " + Tables.SHOW_STATS
+                    + " WHERE " + BaseColumns._ID + "=old." + Shows._ID + ";"
+                    + " END;";
+
+    /**
+     * Builds statements used by the show stats triggers. Counts are changed by the difference of
+     * a single episode, so flagging or syncing episodes does not have to count all episodes of a
+     * show again.
+     */
+    private static class ShowStatsTriggers {
+
+        static final String COLUMNS = BaseColumns._ID + ","
+                + ShowStatsColumns.RUNTIME + ","
+                + ShowStatsColumns.EPISODES + ","
+                + ShowStatsColumns.SPECIALS + ","
+                + ShowStatsColumns.WATCHED + ","
+                + ShowStatsColumns.WATCHED_SPECIALS + ","
+                + ShowStatsColumns.COLLECTED + ","
+                + ShowStatsColumns.COLLECTED_SPECIALS;
+
+        /**
+         * The value of the given column of the episode with the id of the new row, NULL if it does
+         * not exist.
+         */
+        static String existingEpisode(String column) {
+            return "(SELECT " + column + " FROM " + Tables.EPISODES
+                    + " WHERE " + Episodes._ID + "=new." + Episodes._ID + ")";
+        }
+
+        static String buildUpdate(String sign, String row) {
+            return buildUpdate(sign, row + Shows.REF_SHOW_ID, row + Episodes.SEASON,
+                    row + Episodes.WATCHED, row + Episodes.COLLECTED);
+        }
+
+        /**
+         * Adds ({@code sign} is "+") or removes ("-") the counts of an episode to or from the
+         * stats of its show. Uses IS instead of =, so NULL values are not counted instead of
+         * making the counts NULL.
+         */
+        static String buildUpdate(String sign, String showId, String season, String watched,
+                String collected) {
+            String isSpecial = season + " IS 0";
+            String isWatched = watched + " IS " + EpisodeFlags.WATCHED;
+            String isCollected = collected + " IS 1";
+            return "UPDATE " + Tables.SHOW_STATS + " SET "
+                    + buildChange(ShowStatsColumns.EPISODES, sign, "1") + ","
+                    + buildChange(ShowStatsColumns.SPECIALS, sign, isSpecial) + ","
+                    + buildChange(ShowStatsColumns.WATCHED, sign, isWatched) + ","
+                    + buildChange(ShowStatsColumns.WATCHED_SPECIALS, sign,
+                    isWatched + " AND " + isSpecial) + ","
+                    + buildChange(ShowStatsColumns.COLLECTED, sign, isCollected) + ","
+                    + buildChange(ShowStatsColumns.COLLECTED_SPECIALS, sign,
+                    isCollected + " AND " + isSpecial)
+                    + " WHERE " + BaseColumns._ID + "=" + showId + ";";
+        }
+
+        private static String buildChange(String column, String sign, String condition) {
+            return column + "=" + column + sign + "(" + condition + ")";
+        }
+
+        /**
+         * Counts episodes in the order of {@link #COLUMNS}, without id and runtime. {@code
+         * episodes} is the prefix of episodes columns, e.g. to qualify them.
+         */
+        static String buildCounts(String episodes) {
+            String isSpecial = episodes + Episodes.SEASON + " IS 0";
+            String isWatched = episodes + Episodes.WATCHED + " IS " + EpisodeFlags.WATCHED;
+            String isCollected = episodes + Episodes.COLLECTED + " IS 1";
+            return "COUNT(" + episodes + Episodes._ID + ") AS " + ShowStatsColumns.EPISODES + ","
+                    + buildSum(isSpecial, ShowStatsColumns.SPECIALS) + ","
+                    + buildSum(isWatched, ShowStatsColumns.WATCHED) + ","
+                    + buildSum(isWatched + " AND " + isSpecial,
+                    ShowStatsColumns.WATCHED_SPECIALS) + ","
+                    + buildSum(isCollected, ShowStatsColumns.COLLECTED) + ","
+                    + buildSum(isCollected + " AND " + isSpecial,
+                    ShowStatsColumns.COLLECTED_SPECIALS);
+        }
+
+        private static String buildSum(String condition, String alias) {
+            return "IFNULL(SUM(" + condition + "),0) AS " + alias;
+        }
+
+        /**
+         * The show runtime is stored as text, empty if unknown.
+         */
+        static String buildRuntime(String shows) {
+            return "IFNULL(CAST(" + shows + Shows.RUNTIME + " AS INTEGER),0)";
+        }
+    }
+
+    /**
+     * Episodes of a show by watched flag and release time: most per show queries, like finding
+     * the next episode or counting unwatched episodes, filter by these.
+     */
+    private static final String CREATE_EPISODES_SHOW_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + "episodes_show_watched_released ON " + Tables.EPISODES + " ("
+            + Shows.REF_SHOW_ID + "," + Episodes.WATCHED + "," + Episodes.FIRSTAIREDMS + ");";
+
+    /**
+     * Episodes of a season, e.g. for the episode list or season watch counters.
+     */
+    private static final String CREATE_EPISODES_SEASON_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + "episodes_season ON " + Tables.EPISODES + " ("
+            + Seasons.REF_SEASON_ID + ");";
+
+    /**
+     * Episodes by release time, e.g. for the calendar and notifications.
+     */
+    private static final String CREATE_EPISODES_RELEASED_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + "episodes_released ON " + Tables.EPISODES + " ("
+            + Episodes.FIRSTAIREDMS + ");";
+
+    /**
+     * Seasons of a show, ordered by number.
+     */
+    private static final String CREATE_SEASONS_SHOW_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + "seasons_show ON " + Tables.SEASONS + " ("
+            + Shows.REF_SHOW_ID + "," + Seasons.COMBINED + ");";
+
     public SeriesGuideDatabase(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Like {@link #SeriesGuideDatabase(Context)}, but uses a database file with the given name.
+     */
+    @VisibleForTesting
+    public SeriesGuideDatabase(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        if (AndroidUtils.isJellyBeanOrHigher()) {
+            // write-ahead log: readers use a pool of connections and are not blocked by writers,
+            // e.g. loaders can query while sync writes episodes in a long transaction
+            setWriteAheadLoggingEnabled(true);
+        }
     }
 
     @Override
@@ -561,6 +893,7 @@ public class SeriesGuideDatabase extends SQLiteOpenHelper {
         } else {
             db.execSQL(CREATE_SEARCH_TABLE_API_ICS);
         }
+        createSearchTriggers(db, false);
 
         db.execSQL(CREATE_LISTS_TABLE);
 
@@ -569,6 +902,44 @@ public class SeriesGuideDatabase extends SQLiteOpenHelper {
         db.execSQL(CREATE_MOVIES_TABLE);
 
         db.execSQL(CREATE_ACTIVITY_TABLE);
+
+        db.execSQL(CREATE_TRAKT_SHOW_IDS_TABLE);
+
+        db.execSQL(CREATE_SHOW_STATS_TABLE);
+        createShowStatsTriggers(db);
+
+        createIndexes(db);
+    }
+
+    private static void createIndexes(SQLiteDatabase db) {
+        db.execSQL(CREATE_EPISODES_SHOW_INDEX);
+        db.execSQL(CREATE_EPISODES_SEASON_INDEX);
+        db.execSQL(CREATE_EPISODES_RELEASED_INDEX);
+        db.execSQL(CREATE_SEASONS_SHOW_INDEX);
+    }
+
+    /**
+     * @param isTitleOnly If the search table only contains episode titles, see {@link
+     * #rebuildBasicFtsTableIcs(SQLiteDatabase)}. Then triggers only add titles as well.
+     */
+    private static void createSearchTriggers(SQLiteDatabase db, boolean isTitleOnly) {
+        db.execSQL(CREATE_SEARCH_BEFORE_INSERT_TRIGGER);
+        db.execSQL(isTitleOnly ? CREATE_SEARCH_AFTER_INSERT_TRIGGER_BASIC
+                : CREATE_SEARCH_AFTER_INSERT_TRIGGER);
+        db.execSQL(CREATE_SEARCH_BEFORE_UPDATE_TRIGGER);
+        db.execSQL(isTitleOnly ? CREATE_SEARCH_AFTER_UPDATE_TRIGGER_BASIC
+                : CREATE_SEARCH_AFTER_UPDATE_TRIGGER);
+        db.execSQL(CREATE_SEARCH_BEFORE_DELETE_TRIGGER);
+    }
+
+    private static void createShowStatsTriggers(SQLiteDatabase db) {
+        db.execSQL(CREATE_SHOW_STATS_BEFORE_INSERT_TRIGGER);
+        db.execSQL(CREATE_SHOW_STATS_AFTER_INSERT_TRIGGER);
+        db.execSQL(CREATE_SHOW_STATS_AFTER_UPDATE_TRIGGER);
+        db.execSQL(CREATE_SHOW_STATS_AFTER_DELETE_TRIGGER);
+        db.execSQL(CREATE_SHOW_STATS_SHOW_INSERT_TRIGGER);
+        db.execSQL(CREATE_SHOW_STATS_SHOW_UPDATE_TRIGGER);
+        db.execSQL(CREATE_SHOW_STATS_SHOW_DELETE_TRIGGER);
     }
 
     @Override
@@ -630,7 +1001,19 @@ public class SeriesGuideDatabase extends SQLiteOpenHelper {
                 upgradeToThirtyEight(db);
             case DBVER_38_SHOW_TRAKT_ID:
                 upgradeToThirtyNine(db);
-                version = DBVER_39_SHOW_LAST_WATCHED;
+            case DBVER_39_SHOW_LAST_WATCHED:
+                upgradeToForty(db);
+            case DBVER_40_EPISODE_CONTENT_HASH:
+                upgradeToFortyOne(db);
+            case DBVER_41_TRAKT_SHOW_IDS:
+                upgradeToFortyTwo(db);
+            case DBVER_42_INDEXES:
+                // search triggers are created when re-creating the search table for version 44
+            case DBVER_43_SEARCH_TRIGGERS:
+                upgradeToFortyFour(db);
+            case DBVER_44_SEARCH_PREFIX_INDEX:
+                upgradeToFortyFive(db);
+                version = DBVER_45_SHOW_STATS;
         }
 
         // drop all tables if version is not right
@@ -652,12 +1035,62 @@ public class SeriesGuideDatabase extends SQLiteOpenHelper {
         db.execSQL("DROP TABLE IF EXISTS " + Tables.LIST_ITEMS);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.MOVIES);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.ACTIVITY);
+        db.execSQL("DROP TABLE IF EXISTS " + Tables.TRAKT_SHOW_IDS);
+        db.execSQL("DROP TABLE IF EXISTS " + Tables.SHOW_STATS);
 
         db.execSQL("DROP TABLE IF EXISTS " + Tables.EPISODES_SEARCH);
 
         onCreate(db);
     }
 
+    /**
+     * See {@link #DBVER_45_SHOW_STATS}.
+     */
+    private static void upgradeToFortyFive(SQLiteDatabase db) {
+        if (!isTableExisting(db, Tables.SHOW_STATS)) {
+            db.execSQL(CREATE_SHOW_STATS_TABLE);
+        }
+        createShowStatsTriggers(db);
+        // fill once, afterwards kept up to date by triggers
+        checkShowStats(db);
+    }
+
+    /**
+     * See {@link #DBVER_44_SEARCH_PREFIX_INDEX}.
+     */
+    private static void upgradeToFortyFour(SQLiteDatabase db) {
+        // re-creates the search table with the current definition and its triggers (see
+        // DBVER_43_SEARCH_TRIGGERS), so it matches the episodes table before it is maintained
+        // incrementally
+        rebuildFtsTable(db);
+    }
+
+    /**
+     * See {@link #DBVER_42_INDEXES}.
+     */
+    private static void upgradeToFortyTwo(SQLiteDatabase db) {
+        createIndexes(db);
+    }
+
+    /**
+     * See {@link #DBVER_41_TRAKT_SHOW_IDS}.
+     */
+    private static void upgradeToFortyOne(SQLiteDatabase db) {
+        if (!isTableExisting(db, Tables.TRAKT_SHOW_IDS)) {
+            db.execSQL(CREATE_TRAKT_SHOW_IDS_TABLE);
+        }
+    }
+
+    /**
+     * See {@link #DBVER_40_EPISODE_CONTENT_HASH}.
+     */
+    private static void upgradeToForty(SQLiteDatabase db) {
+        if (isTableColumnMissing(db, Tables.EPISODES, Episodes.CONTENT_HASH)) {
+            db.execSQL("ALTER TABLE " + Tables.EPISODES + " ADD COLUMN "
+                    + Episodes.CONTENT_HASH + " INTEGER DEFAULT 0;");
+        }
+    }
+
     /**
      * See {@link #DBVER_39_SHOW_LAST_WATCHED}.
      */
@@ -1113,9 +1546,12 @@ public class SeriesGuideDatabase extends SQLiteOpenHelper {
     /**
      * Drops the current {@link Tables#EPISODES_SEARCH} table and re-creates it with current data
      * from {@link Tables#EPISODES}.
+     *
+     * <p> The search table is kept in sync by triggers on {@link Tables#EPISODES}, so this is only
+     * required to repair it.
      */
     public static void rebuildFtsTable(SQLiteDatabase db) {
-        if (!recreateFtsTable(db)) {
+        if (!recreateFtsTable(db, false)) {
             return;
         }
 
@@ -1174,7 +1610,8 @@ public class SeriesGuideDatabase extends SQLiteOpenHelper {
      * title, not the overviews to conserve space.
      */
     private static void rebuildBasicFtsTableIcs(SQLiteDatabase db) {
-        if (!recreateFtsTable(db)) {
+        // also only add titles of changed episodes
+        if (!recreateFtsTable(db, true)) {
             return;
         }
 
@@ -1197,7 +1634,124 @@ public class SeriesGuideDatabase extends SQLiteOpenHelper {
     }
 
 
-    private static boolean recreateFtsTable(SQLiteDatabase db) {
+    /**
+     * Counts episodes of all shows from scratch and replaces the contents of {@link
+     * Tables#SHOW_STATS} with the results, e.g. in case the stats were changed by something other
+     * than the triggers.
+     *
+     * @return The number of shows whose stats were wrong or missing, plus the number of stats
+     * of shows that no longer exist. -1 if checking failed.
+     */
+    public static int checkShowStats(SQLiteDatabase db) {
+        String actualStats = "SELECT " + Qualified.SHOWS_ID + " AS " + BaseColumns._ID + ","
+                + ShowStatsTriggers.buildRuntime(Tables.SHOWS + ".")
+                + " AS " + ShowStatsColumns.RUNTIME + ","
+                + ShowStatsTriggers.buildCounts(Tables.EPISODES + ".")
+                + " FROM " + Tables.SHOWS + " LEFT OUTER JOIN " + Tables.EPISODES
+                + " ON " + Qualified.EPISODES_SHOW_ID + "=" + Qualified.SHOWS_ID
+                + " GROUP BY " + Qualified.SHOWS_ID;
+        try {
+            db.beginTransaction();
+            try {
+                // actual stats not matching a stored row exactly
+                String columns = ShowStatsTriggers.COLUMNS;
+                long wrongCount = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM ("
+                        + "SELECT " + columns + " FROM (" + actualStats + ")"
+                        + " EXCEPT SELECT " + columns + " FROM " + Tables.SHOW_STATS
+                        + ")", null);
+                long staleCount = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM "
+                        + Tables.SHOW_STATS + " WHERE " + BaseColumns._ID + " NOT IN ("
+                        + "SELECT " + Shows._ID + " FROM " + Tables.SHOWS + ")", null);
+
+                db.delete(Tables.SHOW_STATS, null, null);
+                db.execSQL("INSERT INTO " + Tables.SHOW_STATS + " (" + columns + ") "
+                        + actualStats);
+                db.setTransactionSuccessful();
+
+                if (wrongCount > 0 || staleCount > 0) {
+                    Timber.w("checkShowStats: fixed %s wrong or missing, removed %s stale",
+                            wrongCount, staleCount);
+                }
+                return (int) (wrongCount + staleCount);
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLiteException e) {
+            Timber.e(e, "checkShowStats: failed.");
+            DBUtils.postDatabaseError(e);
+            return -1;
+        }
+    }
+
+    /**
+     * Removes the given shows with set-based statements in a single transaction: list items of
+     * the shows, their seasons and episodes, episodes (search table rows are removed by triggers),
+     * seasons, activity, cached trakt ids and the shows themselves.
+     *
+     * @return The number of removed shows, -1 if removing failed.
+     */
+    public static int removeShows(SQLiteDatabase db, int[] showTvdbIds) {
+        if (showTvdbIds.length == 0) {
+            return 0;
+        }
+        StringBuilder ids = new StringBuilder();
+        for (int i = 0; i < showTvdbIds.length; i++) {
+            if (i > 0) {
+                ids.append(",");
+            }
+            ids.append(showTvdbIds[i]);
+        }
+        String showIdsIn = " IN (" + ids + ")";
+        try {
+            db.beginTransaction();
+            try {
+                db.delete(Tables.LIST_ITEMS, "(" + ListItems.TYPE + "=" + ListItemTypes.SHOW
+                        + " AND " + ListItems.ITEM_REF_ID + showIdsIn + ") OR ("
+                        + ListItems.TYPE + "=" + ListItemTypes.SEASON
+                        + " AND " + ListItems.ITEM_REF_ID + " IN (SELECT " + Seasons._ID
+                        + " FROM " + Tables.SEASONS
+                        + " WHERE " + Shows.REF_SHOW_ID + showIdsIn + ")) OR ("
+                        + ListItems.TYPE + "=" + ListItemTypes.EPISODE
+                        + " AND " + ListItems.ITEM_REF_ID + " IN (SELECT " + Episodes._ID
+                        + " FROM " + Tables.EPISODES
+                        + " WHERE " + Shows.REF_SHOW_ID + showIdsIn + "))", null);
+                // remove shows first, so stats triggers do not update stats for each episode
+                int count = db.delete(Tables.SHOWS, Shows._ID + showIdsIn, null);
+                db.delete(Tables.EPISODES, Shows.REF_SHOW_ID + showIdsIn, null);
+                db.delete(Tables.SEASONS, Shows.REF_SHOW_ID + showIdsIn, null);
+                db.delete(Tables.ACTIVITY, ActivityColumns.SHOW_TVDB_ID + showIdsIn, null);
+                db.delete(Tables.TRAKT_SHOW_IDS, BaseColumns._ID + showIdsIn, null);
+                db.setTransactionSuccessful();
+                return count;
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLiteException e) {
+            Timber.e(e, "removeShows: failed.");
+            DBUtils.postDatabaseError(e);
+            return -1;
+        }
+    }
+
+    /**
+     * Copies all changes from the write-ahead log into the database file, e.g. so it can be
+     * copied as a backup. Does nothing if the database does not use a write-ahead log.
+     */
+    public static void checkpoint(SQLiteDatabase db) {
+        try {
+            // PRAGMA returns a row, so can not use execSQL
+            Cursor query = db.rawQuery("PRAGMA wal_checkpoint(FULL)", null);
+            if (query.moveToFirst() && query.getInt(0) != 0) {
+                Timber.e("checkpoint: blocked, not all changes copied.");
+            }
+            query.close();
+        } catch (SQLiteException e) {
+            Timber.e(e, "checkpoint: failed.");
+            DBUtils.postDatabaseError(e);
+        }
+    }
+
+    private static boolean recreateFtsTable(SQLiteDatabase db, boolean isTitleOnly) {
         try {
             db.beginTransaction();
             try {
@@ -1207,6 +1761,11 @@ public class SeriesGuideDatabase extends SQLiteOpenHelper {
                 } else {
                     db.execSQL(CREATE_SEARCH_TABLE_API_ICS);
                 }
+                // triggers belong to the episodes table, drop them to switch their variant
+                for (String trigger : SEARCH_TRIGGERS) {
+                    db.execSQL("DROP TRIGGER IF EXISTS " + trigger);
+                }
+                createSearchTriggers(db, isTitleOnly);
                 db.setTransactionSuccessful();
             } finally {
                 db.endTransaction();
@@ -1219,135 +1778,137 @@ public class SeriesGuideDatabase extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * Returns a page of episodes matching the search term in {@code selectionArgs[0]}. Further
+     * selection args are bound to the given selection, which may filter by {@link Shows#TITLE}.
+     *
+     * <p> Episodes with a matching title are ranked before those only matching in their overview,
+     * then results are ordered by show title, season and number. Only a page of matching episode
+     * ids is selected first, the expensive snippets are then only computed for this page.
+     *
+     * @param limit Maximum number of results, or 0 for all.
+     * @param offset Number of results to skip.
+     */
     @Nullable
-    public static Cursor search(String selection, String[] selectionArgs, SQLiteDatabase db) {
-        // select
-        // _id,episodetitle,episodedescription,number,season,watched,seriestitle
-        // from (
-        // (select _id as sid,seriestitle from series)
-        // join
-        // (select
-        // _id,episodedescription,series_id,episodetitle,number,season,watched
-        // from(select rowid,snippet(searchtable) as episodedescription from
-        // searchtable where searchtable match 'QUERY')
-        // join (select
-        // _id,series_id,episodetitle,number,season,watched from episodes)
-        // on _id=rowid)
-        // on sid=series_id)
+    public static Cursor search(String selection, String[] selectionArgs, int limit, int offset,
+            SQLiteDatabase db) {
+        // select page._id,page.episodetitle,snippet(searchtable) as episodedescription,...
+        // from searchtable
+        // cross join (
+        //   select episodes._id,episodetitle,...,seriestitle,
+        //   (case when episodes._id in (select docid from searchtable where searchtable match
+        //   'episodetitle:QUERY') then 0 else 1 end) as search_rank
+        //   from episodes join series on series._id=series_id
+        //   where episodes._id in (select docid from searchtable where searchtable match 'QUERY')
+        //   order by search_rank,seriestitle,season,number
+        //   limit LIMIT offset OFFSET
+        // ) as page on docid=page._id
+        // where searchtable match 'QUERY'
+        // order by search_rank,seriestitle,season,number
+
+        String matchTerm = buildPrefixMatch(selectionArgs[0]);
 
         StringBuilder query = new StringBuilder();
-        // select final result columns
+        // select final result columns, compute snippets only for the page
         query.append("SELECT ");
-        query.append(Episodes._ID).append(",");
-        query.append(Episodes.TITLE).append(",");
-        query.append(Episodes.OVERVIEW).append(",");
+        query.append(SearchPageQuery.PAGE_ID).append(",");
+        query.append(SearchPageQuery.PAGE).append(".").append(Episodes.TITLE).append(",");
+        query.append("snippet(" + Tables.EPISODES_SEARCH + ",'<b>','</b>','...')").append(" AS ")
+                .append(Episodes.OVERVIEW).append(",");
         query.append(Episodes.NUMBER).append(",");
         query.append(Episodes.SEASON).append(",");
         query.append(Episodes.WATCHED).append(",");
         query.append(Shows.TITLE);
-
-        query.append(" FROM ");
-        query.append("(");
-
-        // join all shows...
-        query.append("(");
-        query.append("SELECT ").append(BaseColumns._ID).append(" as sid,").append(Shows.TITLE);
-        query.append(" FROM ").append(Tables.SHOWS);
-        query.append(")");
-
-        query.append(" JOIN ");
-
-        // ...with matching episodes
-        query.append("(");
-        query.append("SELECT ");
-        query.append(Episodes._ID).append(",");
-        query.append(Episodes.TITLE).append(",");
-        query.append(Episodes.OVERVIEW).append(",");
-        query.append(Episodes.NUMBER).append(",");
-        query.append(Episodes.SEASON).append(",");
-        query.append(Episodes.WATCHED).append(",");
-        query.append(Shows.REF_SHOW_ID);
-        query.append(" FROM ");
-        // join searchtable results...
-        query.append("(");
-        query.append("SELECT ");
-        query.append(EpisodeSearch._DOCID).append(",");
-        query.append("snippet(" + Tables.EPISODES_SEARCH + ",'<b>','</b>','...')").append(" AS ")
-                .append(Episodes.OVERVIEW);
+        // the search table has to be the outer loop to compute snippets
         query.append(" FROM ").append(Tables.EPISODES_SEARCH);
-        query.append(" WHERE ").append(Tables.EPISODES_SEARCH).append(" MATCH ?");
-        query.append(")");
-        query.append(" JOIN ");
-        // ...with episodes table
-        query.append("(");
+        query.append(" CROSS JOIN (");
+
+        // select a page of matching episodes...
         query.append("SELECT ");
-        query.append(Episodes._ID).append(",");
+        query.append(Qualified.EPISODES_ID).append(" AS ").append(Episodes._ID).append(",");
         query.append(Episodes.TITLE).append(",");
         query.append(Episodes.NUMBER).append(",");
         query.append(Episodes.SEASON).append(",");
         query.append(Episodes.WATCHED).append(",");
-        query.append(Shows.REF_SHOW_ID);
-        query.append(" FROM ").append(Tables.EPISODES);
-        query.append(")");
-        query.append(" ON ").append(Episodes._ID).append("=").append(EpisodeSearch._DOCID);
-
-        query.append(")");
-        query.append(" ON ").append("sid=").append(Shows.REF_SHOW_ID);
-        query.append(")");
-
+        query.append(Shows.TITLE).append(",");
+        // ...ranking title matches first
+        query.append("(CASE WHEN ").append(Qualified.EPISODES_ID)
+                .append(" IN (").append(SearchPageQuery.SELECT_MATCHING_DOCIDS).append(")")
+                .append(" THEN 0 ELSE 1 END) AS ").append(SearchPageQuery.RANK);
+        query.append(" FROM ").append(Tables.EPISODES)
+                .append(" JOIN ").append(Tables.SHOWS)
+                .append(" ON ").append(Qualified.SHOWS_ID).append("=")
+                .append(Qualified.EPISODES_SHOW_ID);
+        query.append(" WHERE ").append(Qualified.EPISODES_ID)
+                .append(" IN (").append(SearchPageQuery.SELECT_MATCHING_DOCIDS).append(")");
         // append given selection
         if (selection != null) {
-            query.append(" WHERE ");
-            query.append("(").append(selection).append(")");
+            query.append(" AND (").append(selection).append(")");
         }
+        query.append(" ORDER BY ").append(SearchPageQuery.ORDER);
+        if (limit > 0) {
+            query.append(" LIMIT ").append(limit).append(" OFFSET ").append(offset);
+        }
+        query.append(") AS ").append(SearchPageQuery.PAGE);
 
-        // ordering
-        query.append(" ORDER BY ");
-        query.append(Shows.SORT_TITLE).append(",");
-        query.append(Episodes.SEASON).append(" ASC,");
-        query.append(Episodes.NUMBER).append(" ASC");
+        query.append(" ON ").append(EpisodeSearch._DOCID).append("=")
+                .append(SearchPageQuery.PAGE_ID);
+        query.append(" WHERE ").append(Tables.EPISODES_SEARCH).append(" MATCH ?");
+        query.append(" ORDER BY ").append(SearchPageQuery.ORDER);
 
-        // ensure to strip double quotation marks (would break the MATCH query)
-        String searchTerm = selectionArgs[0];
-        if (searchTerm != null) {
-            searchTerm = searchTerm.replace("\"", "");
-        }
-        // search for anything starting with the given search term
-        selectionArgs[0] = "\"" + searchTerm + "*\"";
+        // bind in order: title match for rank, match for page, selection, match for snippets
+        String[] args = new String[selectionArgs.length + 3];
+        args[0] = EpisodeSearch.TITLE + ":" + matchTerm;
+        args[1] = matchTerm;
+        System.arraycopy(selectionArgs, 1, args, 2, selectionArgs.length - 1);
+        args[args.length - 1] = matchTerm;
 
         try {
-            return db.rawQuery(query.toString(), selectionArgs);
+            return db.rawQuery(query.toString(), args);
         } catch (SQLiteException e) {
             Timber.e(e, "search: failed, database error.");
             return null;
         }
     }
 
-    @Nullable
-    public static Cursor getSuggestions(String searchTerm, SQLiteDatabase db) {
-        String query = "select _id," + Episodes.TITLE + " as "
-                + SearchManager.SUGGEST_COLUMN_TEXT_1 + "," + Shows.TITLE + " as "
-                + SearchManager.SUGGEST_COLUMN_TEXT_2 + "," + "_id as "
-                + SearchManager.SUGGEST_COLUMN_INTENT_DATA_ID
-                + " from ((select _id as sid," + Shows.TITLE + " from " + Tables.SHOWS + ")"
-                + " join "
-                + "(select _id," + Episodes.TITLE + "," + Shows.REF_SHOW_ID
-                + " from " + "(select docid" + " from " + Tables.EPISODES_SEARCH
-                + " where " + Tables.EPISODES_SEARCH + " match " + "?)"
-                + " join "
-                + "(select _id," + Episodes.TITLE + "," + Shows.REF_SHOW_ID + " from episodes)"
-                + "on _id=docid)"
-                + "on sid=" + Shows.REF_SHOW_ID + ")";
+    private interface SearchPageQuery {
+        String PAGE = "page";
+        String PAGE_ID = PAGE + "." + Episodes._ID;
+        String RANK = "search_rank";
 
-        // ensure to strip double quotation marks (would break the MATCH query)
-        if (searchTerm != null) {
-            searchTerm = searchTerm.replace("\"", "");
-        }
+        String SELECT_MATCHING_DOCIDS = "SELECT " + EpisodeSearch._DOCID
+                + " FROM " + Tables.EPISODES_SEARCH
+                + " WHERE " + Tables.EPISODES_SEARCH + " MATCH ?";
+
+        String ORDER = RANK + " ASC,"
+                + Shows.SORT_TITLE + ","
+                + Episodes.SEASON + " ASC,"
+                + Episodes.NUMBER + " ASC";
+    }
+
+    /**
+     * Returns up to {@code limit} episodes whose title starts with or contains a word starting
+     * with the search term. To be fast while typing only matches titles and stops looking once
+     * enough episodes are found.
+     */
+    @Nullable
+    public static Cursor getSuggestions(String searchTerm, int limit, SQLiteDatabase db) {
+        String query = "SELECT " + Qualified.EPISODES_ID + ","
+                + Episodes.TITLE + " AS " + SearchManager.SUGGEST_COLUMN_TEXT_1 + ","
+                + Shows.TITLE + " AS " + SearchManager.SUGGEST_COLUMN_TEXT_2 + ","
+                + Qualified.EPISODES_ID + " AS " + SearchManager.SUGGEST_COLUMN_INTENT_DATA_ID
+                + " FROM " + Tables.EPISODES
+                + " JOIN " + Tables.SHOWS
+                + " ON " + Qualified.SHOWS_ID + "=" + Qualified.EPISODES_SHOW_ID
+                + " WHERE " + Qualified.EPISODES_ID + " IN ("
+                + "SELECT " + EpisodeSearch._DOCID + " FROM " + Tables.EPISODES_SEARCH
+                + " WHERE " + Tables.EPISODES_SEARCH + " MATCH ?"
+                + " LIMIT " + limit + ")"
+                + " LIMIT " + limit;
 
         try {
-            // search for anything starting with the given search term
             return db.rawQuery(query, new String[] {
-                    "\"" + searchTerm + "*\""
+                    EpisodeSearch.TITLE + ":" + buildPrefixMatch(searchTerm)
             });
         } catch (SQLiteException e) {
             Timber.e(e, "getSuggestions: failed, database error.");
@@ -1355,6 +1916,17 @@ public class SeriesGuideDatabase extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * Builds a phrase matching anything starting with the given search term.
+     */
+    private static String buildPrefixMatch(String searchTerm) {
+        // ensure to strip double quotation marks (would break the MATCH query)
+        if (searchTerm != null) {
+            searchTerm = searchTerm.replace("\"", "");
+        }
+        return "\"" + searchTerm + "*\"";
+    }
+
     /**
      * Checks whether a table exists in the given database.
      */
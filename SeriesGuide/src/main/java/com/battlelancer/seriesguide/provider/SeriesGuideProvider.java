@@ -18,6 +18,8 @@ import android.net.Uri;
 import android.preference.PreferenceManager;
 import android.provider.BaseColumns;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import com.battlelancer.seriesguide.SgApp;
 import com.battlelancer.seriesguide.ui.SeriesGuidePreferences;
 import com.battlelancer.seriesguide.util.SelectionBuilder;
@@ -32,7 +34,9 @@ import static com.battlelancer.seriesguide.provider.SeriesGuideContract.ListItem
 import static com.battlelancer.seriesguide.provider.SeriesGuideContract.Lists;
 import static com.battlelancer.seriesguide.provider.SeriesGuideContract.Movies;
 import static com.battlelancer.seriesguide.provider.SeriesGuideContract.Seasons;
+import static com.battlelancer.seriesguide.provider.SeriesGuideContract.ShowStats;
 import static com.battlelancer.seriesguide.provider.SeriesGuideContract.Shows;
+import static com.battlelancer.seriesguide.provider.SeriesGuideContract.TraktShowIds;
 import static com.battlelancer.seriesguide.provider.SeriesGuideDatabase.Tables;
 
 public class SeriesGuideProvider extends ContentProvider {
@@ -65,6 +69,8 @@ public class SeriesGuideProvider extends ContentProvider {
 
     private static final int EPISODES_ID_WITHSHOW = 206;
 
+    private static final int EPISODES_OFSHOW_BYSEASON = 207;
+
     private static final int SEASONS = 300;
 
     private static final int SEASONS_ID = 301;
@@ -97,6 +103,21 @@ public class SeriesGuideProvider extends ContentProvider {
 
     private static final int RENEW_FTSTABLE = 1000;
 
+    private static final int CHECKPOINT = 1001;
+
+    private static final int REMOVE_SHOWS = 1002;
+
+    private static final int TRAKT_SHOW_IDS = 1100;
+
+    private static final int TRAKT_SHOW_IDS_ID = 1101;
+
+    private static final int SHOW_STATS = 1200;
+
+    private static final int CHECK_SHOW_STATS = 1201;
+
+    /** Number of search suggestions if the search dialog does not request a limit. */
+    private static final int SUGGESTIONS_LIMIT = 10;
+
     /**
      * Build and return a {@link UriMatcher} that catches all {@link Uri} variations supported by
      * this {@link ContentProvider}.
@@ -125,6 +146,10 @@ public class SeriesGuideProvider extends ContentProvider {
         matcher.addURI(authority,
                 SeriesGuideContract.PATH_EPISODES + "/" + SeriesGuideContract.PATH_OFSEASON
                         + "/*", EPISODES_OFSEASON);
+        matcher.addURI(authority,
+                SeriesGuideContract.PATH_EPISODES + "/" + SeriesGuideContract.PATH_OFSHOW
+                        + "/" + SeriesGuideContract.PATH_BYSEASON + "/*",
+                EPISODES_OFSHOW_BYSEASON);
         matcher.addURI(authority,
                 SeriesGuideContract.PATH_EPISODES + "/" + SeriesGuideContract.PATH_OFSHOW
                         + "/*", EPISODES_OFSHOW);
@@ -162,6 +187,14 @@ public class SeriesGuideProvider extends ContentProvider {
         // Activity
         matcher.addURI(authority, SeriesGuideContract.PATH_ACTIVITY, ACTIVITY);
 
+        // trakt show ids
+        matcher.addURI(authority, SeriesGuideContract.PATH_TRAKT_SHOW_IDS, TRAKT_SHOW_IDS);
+        matcher.addURI(authority, SeriesGuideContract.PATH_TRAKT_SHOW_IDS + "/*",
+                TRAKT_SHOW_IDS_ID);
+
+        // Show stats
+        matcher.addURI(authority, SeriesGuideContract.PATH_SHOW_STATS, SHOW_STATS);
+
         // Search
         matcher.addURI(authority, SeriesGuideContract.PATH_EPISODESEARCH + "/"
                 + SeriesGuideContract.PATH_SEARCH, EPISODESEARCH);
@@ -173,6 +206,9 @@ public class SeriesGuideProvider extends ContentProvider {
 
         // Ops
         matcher.addURI(authority, SeriesGuideContract.PATH_RENEWFTSTABLE, RENEW_FTSTABLE);
+        matcher.addURI(authority, SeriesGuideContract.PATH_CHECKPOINT, CHECKPOINT);
+        matcher.addURI(authority, SeriesGuideContract.PATH_CHECK_SHOW_STATS, CHECK_SHOW_STATS);
+        matcher.addURI(authority, SeriesGuideContract.PATH_REMOVE_SHOWS, REMOVE_SHOWS);
 
         return matcher;
     }
@@ -181,6 +217,10 @@ public class SeriesGuideProvider extends ContentProvider {
 
     private SeriesGuideDatabase mDbHelper;
 
+    private NotificationCoalescer mNotifications;
+
+    private ProviderStats mStats;
+
     protected SQLiteDatabase mDb;
 
     @Override
@@ -203,6 +243,10 @@ public class SeriesGuideProvider extends ContentProvider {
 
         mDbHelper = new SeriesGuideDatabase(context);
 
+        mNotifications = NotificationCoalescer.getInstance(context);
+
+        mStats = ProviderStats.getInstance();
+
         PreferenceManager.getDefaultSharedPreferences(context)
                 .registerOnSharedPreferenceChangeListener(mImportListener);
 
@@ -232,13 +276,43 @@ public class SeriesGuideProvider extends ContentProvider {
         if (LOGV) {
             Timber.v("query(uri=%s, proj=%s)", uri, Arrays.toString(projection));
         }
-        // always get writable database, might have to be upgraded
-        final SQLiteDatabase db = mDbHelper.getWritableDatabase();
-
+        final long startNs = System.nanoTime();
         final int match = sUriMatcher.match(uri);
+
+        Cursor query = query(uri, match, projection, selection, selectionArgs, sortOrder);
+        // run the query now instead of on first access, so its duration can be recorded
+        int rows = query != null ? query.getCount() : 0;
+
+        long durationNs = recordStats(ProviderStats.QUERY, match, uri, startNs, rows);
+        if (mStats.isSlow(durationNs)) {
+            SelectionBuilder builder = buildSelectionIfSupported(uri, match, selection,
+                    selectionArgs);
+            mStats.recordSlow(ProviderStats.QUERY, uri, durationNs, rows, builder == null ? null
+                            : builder.buildQuery(projection == null ? null : projection.clone(),
+                                    getGroupBy(match), sortOrder),
+                    builder == null ? selectionArgs : builder.getSelectionArgs());
+        }
+
+        return query;
+    }
+
+    private Cursor query(Uri uri, int match, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        // opens the database writable, it might have to be upgraded; but with a write-ahead log
+        // queries not in a transaction use a pool of read connections, so do not wait on writers
+        final SQLiteDatabase db = mDbHelper.getReadableDatabase();
+
         switch (match) {
             case RENEW_FTSTABLE: {
-                SeriesGuideDatabase.rebuildFtsTable(db);
+                SeriesGuideDatabase.rebuildFtsTable(mDbHelper.getWritableDatabase());
+                return null;
+            }
+            case CHECKPOINT: {
+                SeriesGuideDatabase.checkpoint(mDbHelper.getWritableDatabase());
+                return null;
+            }
+            case CHECK_SHOW_STATS: {
+                SeriesGuideDatabase.checkShowStats(mDbHelper.getWritableDatabase());
                 return null;
             }
             case EPISODESEARCH: {
@@ -246,14 +320,18 @@ public class SeriesGuideProvider extends ContentProvider {
                     throw new IllegalArgumentException(
                             "selectionArgs must be provided for the Uri: " + uri);
                 }
-                return SeriesGuideDatabase.search(selection, selectionArgs, db);
+                return SeriesGuideDatabase.search(selection, selectionArgs,
+                        getIntQueryParameter(uri, EpisodeSearch.PARAM_LIMIT, 0),
+                        getIntQueryParameter(uri, EpisodeSearch.PARAM_OFFSET, 0), db);
             }
             case SEARCH_SUGGEST: {
                 if (selectionArgs == null) {
                     throw new IllegalArgumentException(
                             "selectionArgs must be provided for the Uri: " + uri);
                 }
-                return SeriesGuideDatabase.getSuggestions(selectionArgs[0], db);
+                return SeriesGuideDatabase.getSuggestions(selectionArgs[0],
+                        getIntQueryParameter(uri, SearchManager.SUGGEST_PARAMETER_LIMIT,
+                                SUGGESTIONS_LIMIT), db);
             }
             default: {
                 // Most cases are handled with simple SelectionBuilder
@@ -263,7 +341,8 @@ public class SeriesGuideProvider extends ContentProvider {
                     query = builder
                             .map(BaseColumns._COUNT, "count(*)") // support count base column
                             .where(selection, selectionArgs)
-                            .query(db, projection, sortOrder);
+                            .query(db, projection, getGroupBy(match), null, sortOrder,
+                                    buildLimit(uri));
                 } catch (SQLiteException e) {
                     Timber.e(e, "Failed to query with uri=%s", uri);
                 }
@@ -276,6 +355,63 @@ public class SeriesGuideProvider extends ContentProvider {
         }
     }
 
+    @Nullable
+    private static String getGroupBy(int match) {
+        return match == EPISODES_OFSHOW_BYSEASON ? Seasons.REF_SEASON_ID : null;
+    }
+
+    /**
+     * Returns the selection of the given {@link Uri} or null if it is not queried using a {@link
+     * SelectionBuilder}.
+     */
+    @Nullable
+    private static SelectionBuilder buildSelectionIfSupported(Uri uri, int match,
+            String selection, String[] selectionArgs) {
+        try {
+            return buildSelection(uri, match).where(selection, selectionArgs);
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Adds an operation started at the given time to {@link ProviderStats}.
+     *
+     * @return The duration of the operation.
+     */
+    private long recordStats(String operation, int match, Uri uri, long startNs, int rows) {
+        long durationNs = System.nanoTime() - startNs;
+        mStats.record(operation, match, uri, durationNs, rows);
+        return durationNs;
+    }
+
+    /**
+     * Returns a limit clause built from {@link SeriesGuideContract#PARAM_LIMIT} and {@link
+     * SeriesGuideContract#PARAM_OFFSET}, or null if there is no limit.
+     */
+    @Nullable
+    private static String buildLimit(Uri uri) {
+        int limit = getIntQueryParameter(uri, SeriesGuideContract.PARAM_LIMIT, 0);
+        if (limit <= 0) {
+            return null;
+        }
+        int offset = getIntQueryParameter(uri, SeriesGuideContract.PARAM_OFFSET, 0);
+        return offset > 0 ? offset + "," + limit : String.valueOf(limit);
+    }
+
+    private static int getIntQueryParameter(Uri uri, String key, int defaultValue) {
+        String value = uri.getQueryParameter(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Timber.e(e, "Invalid %s parameter for uri=%s", key, uri);
+            return defaultValue;
+        }
+    }
+
     @Override
     public String getType(@NonNull Uri uri) {
         final int match = sUriMatcher.match(uri);
@@ -289,6 +425,7 @@ public class SeriesGuideProvider extends ContentProvider {
                 return Shows.CONTENT_ITEM_TYPE;
             case EPISODES:
             case EPISODES_OFSHOW:
+            case EPISODES_OFSHOW_BYSEASON:
             case EPISODES_OFSEASON:
             case EPISODES_OFSEASON_WITHSHOW:
             case EPISODES_WITHSHOW:
@@ -317,9 +454,18 @@ public class SeriesGuideProvider extends ContentProvider {
                 return Movies.CONTENT_ITEM_TYPE;
             case ACTIVITY:
                 return Activity.CONTENT_TYPE;
+            case TRAKT_SHOW_IDS:
+                return TraktShowIds.CONTENT_TYPE;
+            case TRAKT_SHOW_IDS_ID:
+                return TraktShowIds.CONTENT_ITEM_TYPE;
+            case SHOW_STATS:
+                return ShowStats.CONTENT_TYPE;
             case SEARCH_SUGGEST:
                 return SearchManager.SUGGEST_MIME_TYPE;
             case RENEW_FTSTABLE:
+            case CHECKPOINT:
+            case CHECK_SHOW_STATS:
+            case REMOVE_SHOWS:
                 return Episodes.CONTENT_TYPE; // however there is nothing returned
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -328,6 +474,7 @@ public class SeriesGuideProvider extends ContentProvider {
 
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
+        final long startNs = System.nanoTime();
         Uri newItemUri;
 
         final SQLiteDatabase db = mDbHelper.getWritableDatabase();
@@ -344,8 +491,14 @@ public class SeriesGuideProvider extends ContentProvider {
         }
 
         if (newItemUri != null) {
-            //noinspection ConstantConditions
-            getContext().getContentResolver().notifyChange(uri, null);
+            mNotifications.notifyChange(uri);
+        }
+
+        long durationNs = recordStats(ProviderStats.INSERT, sUriMatcher.match(uri), uri, startNs,
+                newItemUri != null ? 1 : 0);
+        if (mStats.isSlow(durationNs)) {
+            mStats.recordSlow(ProviderStats.INSERT, uri, durationNs, newItemUri != null ? 1 : 0,
+                    null, null);
         }
 
         return newItemUri;
@@ -353,18 +506,35 @@ public class SeriesGuideProvider extends ContentProvider {
 
     @Override
     public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        final long startNs = System.nanoTime();
         int numValues = values.length;
         boolean notifyChange = false;
 
         final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        final int match = sUriMatcher.match(uri);
+        final String fastPathTable = getBulkInsertTable(match);
         db.beginTransaction();
         try {
-            for (int i = 0; i < numValues; i++) {
-                Uri result = insertInTransaction(db, uri, values[i], true);
-                if (result != null) {
-                    notifyChange = true;
+            if (fastPathTable != null) {
+                BulkInserter inserter = new BulkInserter(db, fastPathTable);
+                try {
+                    for (int i = 0; i < numValues; i++) {
+                        if (inserter.insert(values[i]) >= 0) {
+                            notifyChange = true;
+                        }
+                        db.yieldIfContendedSafely();
+                    }
+                } finally {
+                    inserter.close();
+                }
+            } else {
+                for (int i = 0; i < numValues; i++) {
+                    Uri result = insertInTransaction(db, uri, values[i], true);
+                    if (result != null) {
+                        notifyChange = true;
+                    }
+                    db.yieldIfContendedSafely();
                 }
-                db.yieldIfContendedSafely();
             }
             db.setTransactionSuccessful();
         } finally {
@@ -372,13 +542,90 @@ public class SeriesGuideProvider extends ContentProvider {
         }
 
         if (notifyChange) {
-            //noinspection ConstantConditions
-            getContext().getContentResolver().notifyChange(uri, null);
+            mNotifications.notifyChange(uri);
+        }
+
+        long durationNs = recordStats(ProviderStats.BULK_INSERT, match, uri, startNs, numValues);
+        if (mStats.isSlow(durationNs)) {
+            mStats.recordSlow(ProviderStats.BULK_INSERT, uri, durationNs, numValues,
+                    fastPathTable != null ? "INSERT OR REPLACE INTO " + fastPathTable : null,
+                    null);
         }
 
         return numValues;
     }
 
+    /**
+     * Returns the table to bulk insert into using re-used compiled statements, see {@link
+     * BulkInserter}. Like {@link #insertInTransaction} for bulk inserts makes the last insert
+     * win.
+     *
+     * @return {@code null} if there is no fast path for the given match.
+     */
+    private static String getBulkInsertTable(int match) {
+        switch (match) {
+            case EPISODES:
+                return Tables.EPISODES;
+            case SEASONS:
+                return Tables.SEASONS;
+            case MOVIES:
+                return Tables.MOVIES;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Updates many rows by their {@link BaseColumns#_ID} in a single transaction using re-used
+     * compiled statements, see {@link BulkUpdater}. Each values must contain the id of the row to
+     * update. Rows that do not exist are skipped.
+     *
+     * <p> Only for use within this process, e.g. to apply many updates without building a
+     * selection for each row. Currently only supports {@link Episodes#CONTENT_URI}.
+     *
+     * @return The number of rows updated.
+     */
+    public int bulkUpdate(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        final long startNs = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        if (match != EPISODES) {
+            throw new UnsupportedOperationException("Unsupported bulk update uri: " + uri);
+        }
+        int count = 0;
+
+        final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            BulkUpdater updater = new BulkUpdater(db, Tables.EPISODES);
+            try {
+                for (ContentValues rowValues : values) {
+                    int updated = updater.update(rowValues);
+                    if (updated > 0) {
+                        count += updated;
+                    }
+                    db.yieldIfContendedSafely();
+                }
+            } finally {
+                updater.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (count > 0) {
+            mNotifications.notifyChange(uri);
+        }
+
+        long durationNs = recordStats(ProviderStats.UPDATE, match, uri, startNs, count);
+        if (mStats.isSlow(durationNs)) {
+            mStats.recordSlow(ProviderStats.UPDATE, uri, durationNs, count,
+                    "UPDATE " + Tables.EPISODES + " ... WHERE " + BaseColumns._ID + "=?", null);
+        }
+
+        return count;
+    }
+
     /**
      * @param bulkInsert It seems to happen on occasion that TVDB has duplicate episodes, also
      * backup files may contain duplicates. Handle them by making the last insert win (ON CONFLICT
@@ -469,6 +716,15 @@ public class SeriesGuideProvider extends ContentProvider {
                 notifyUri = Activity.buildActivityUri(values.getAsString(Activity.EPISODE_TVDB_ID));
                 break;
             }
+            case TRAKT_SHOW_IDS: {
+                long id = db.insert(Tables.TRAKT_SHOW_IDS, null, values);
+                if (id < 0) {
+                    break;
+                }
+                notifyUri = TraktShowIds.buildTraktShowIdUri(
+                        values.getAsInteger(TraktShowIds._ID));
+                break;
+            }
             default: {
                 throw new IllegalArgumentException("Unknown uri: " + uri);
             }
@@ -486,29 +742,34 @@ public class SeriesGuideProvider extends ContentProvider {
         if (LOGV) {
             Timber.v("update(uri=%s, values=%s)", uri, values.toString());
         }
+        final long startNs = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        final SelectionBuilder builder = buildSelection(uri, match)
+                .where(selection, selectionArgs);
         int count = 0;
 
         if (!applyingBatch()) {
             final SQLiteDatabase db = mDbHelper.getWritableDatabase();
             db.beginTransaction();
             try {
-                count = buildSelection(uri, sUriMatcher.match(uri))
-                        .where(selection, selectionArgs)
-                        .update(db, values);
+                count = builder.update(db, values);
                 db.setTransactionSuccessful();
             } finally {
                 db.endTransaction();
             }
         } else {
             mDb = mDbHelper.getWritableDatabase();
-            count = buildSelection(uri, sUriMatcher.match(uri))
-                    .where(selection, selectionArgs)
-                    .update(mDb, values);
+            count = builder.update(mDb, values);
         }
 
         if (count > 0) {
-            //noinspection ConstantConditions
-            getContext().getContentResolver().notifyChange(uri, null);
+            mNotifications.notifyChange(uri);
+        }
+
+        long durationNs = recordStats(ProviderStats.UPDATE, match, uri, startNs, count);
+        if (mStats.isSlow(durationNs)) {
+            mStats.recordSlow(ProviderStats.UPDATE, uri, durationNs, count,
+                    builder.buildUpdate(values), builder.getSelectionArgs());
         }
 
         return count;
@@ -522,29 +783,70 @@ public class SeriesGuideProvider extends ContentProvider {
         if (LOGV) {
             Timber.v("delete(uri=%s)", uri);
         }
+        final long startNs = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        if (match == REMOVE_SHOWS) {
+            int count = removeShows(selectionArgs);
+            long durationNs = recordStats(ProviderStats.DELETE, match, uri, startNs, count);
+            if (mStats.isSlow(durationNs)) {
+                mStats.recordSlow(ProviderStats.DELETE, uri, durationNs, count, null,
+                        selectionArgs);
+            }
+            return count;
+        }
+        final SelectionBuilder builder = buildSelection(uri, match)
+                .where(selection, selectionArgs);
         int count = 0;
 
         if (!applyingBatch()) {
             final SQLiteDatabase db = mDbHelper.getWritableDatabase();
             db.beginTransaction();
             try {
-                count = buildSelection(uri, sUriMatcher.match(uri))
-                        .where(selection, selectionArgs)
-                        .delete(db);
+                count = builder.delete(db);
                 db.setTransactionSuccessful();
             } finally {
                 db.endTransaction();
             }
         } else {
             mDb = mDbHelper.getWritableDatabase();
-            count = buildSelection(uri, sUriMatcher.match(uri))
-                    .where(selection, selectionArgs)
-                    .delete(mDb);
+            count = builder.delete(mDb);
+        }
+
+        if (count > 0) {
+            mNotifications.notifyChange(uri);
+        }
+
+        long durationNs = recordStats(ProviderStats.DELETE, match, uri, startNs, count);
+        if (mStats.isSlow(durationNs)) {
+            mStats.recordSlow(ProviderStats.DELETE, uri, durationNs, count, builder.buildDelete(),
+                    builder.getSelectionArgs());
+        }
+
+        return count;
+    }
+
+    private int removeShows(String[] showTvdbIds) {
+        if (showTvdbIds == null) {
+            throw new IllegalArgumentException("show TVDb ids must be provided as selectionArgs");
+        }
+        int[] ids = new int[showTvdbIds.length];
+        for (int i = 0; i < showTvdbIds.length; i++) {
+            try {
+                ids[i] = Integer.parseInt(showTvdbIds[i]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid show TVDb id " + showTvdbIds[i]);
+            }
         }
 
+        // nests in the transaction of a batch if applying one
+        int count = SeriesGuideDatabase.removeShows(mDbHelper.getWritableDatabase(), ids);
+
         if (count > 0) {
-            //noinspection ConstantConditions
-            getContext().getContentResolver().notifyChange(uri, null);
+            mNotifications.notifyChange(Shows.CONTENT_URI);
+            mNotifications.notifyChange(Seasons.CONTENT_URI);
+            mNotifications.notifyChange(Episodes.CONTENT_URI);
+            mNotifications.notifyChange(ListItems.CONTENT_URI);
+            mNotifications.notifyChange(Activity.CONTENT_URI);
         }
 
         return count;
@@ -559,19 +861,38 @@ public class SeriesGuideProvider extends ContentProvider {
     public ContentProviderResult[] applyBatch(
             @NonNull ArrayList<ContentProviderOperation> operations)
             throws OperationApplicationException {
+        return applyBatch(operations, 0);
+    }
+
+    /**
+     * Like {@link #applyBatch(ArrayList)}, but also lets other threads access the database every
+     * given number of operations. Changes before such a yield point are committed.
+     *
+     * <p> Only for use within this process, e.g. to apply large batches without splitting them.
+     *
+     * @param yieldInterval If 0, only yields if an operation allows it.
+     */
+    @NonNull
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations, int yieldInterval)
+            throws OperationApplicationException {
         final int numOperations = operations.size();
         if (numOperations == 0) {
             return new ContentProviderResult[0];
         }
 
+        final long startNs = System.nanoTime();
         mDb = mDbHelper.getWritableDatabase();
         mDb.beginTransaction();
+        // notify each changed uri only once after applying all operations
+        mNotifications.begin();
         try {
             mApplyingBatch.set(true);
             final ContentProviderResult[] results = new ContentProviderResult[numOperations];
             for (int i = 0; i < numOperations; i++) {
                 final ContentProviderOperation operation = operations.get(i);
-                if (i > 0 && operation.isYieldAllowed()) {
+                if (i > 0 && (operation.isYieldAllowed()
+                        || (yieldInterval > 0 && i % yieldInterval == 0))) {
                     mDb.yieldIfContendedSafely();
                 }
                 results[i] = operation.apply(this, results, i);
@@ -580,7 +901,19 @@ public class SeriesGuideProvider extends ContentProvider {
             return results;
         } finally {
             mApplyingBatch.set(false);
-            mDb.endTransaction();
+            try {
+                mDb.endTransaction();
+            } finally {
+                mNotifications.end();
+            }
+            // the duration of the whole transaction, its operations are also recorded on their own
+            Uri uri = operations.get(0).getUri();
+            long durationNs = recordStats(ProviderStats.APPLY_BATCH, sUriMatcher.match(uri), uri,
+                    startNs, numOperations);
+            if (mStats.isSlow(durationNs)) {
+                mStats.recordSlow(ProviderStats.APPLY_BATCH, uri, durationNs, numOperations,
+                        null, null);
+            }
         }
     }
 
@@ -588,6 +921,15 @@ public class SeriesGuideProvider extends ContentProvider {
         return mApplyingBatch.get() != null && mApplyingBatch.get();
     }
 
+    /**
+     * Builds the selection used to query the given {@link Uri}, for example to inspect the query
+     * plan of each supported {@link Uri} in tests.
+     */
+    @VisibleForTesting
+    public static SelectionBuilder buildSelection(Uri uri) {
+        return buildSelection(uri, buildUriMatcher().match(uri));
+    }
+
     /**
      * Builds selection using a {@link SelectionBuilder} to match the requested {@link Uri}.
      */
@@ -627,6 +969,10 @@ public class SeriesGuideProvider extends ContentProvider {
                 final String showId = uri.getPathSegments().get(2);
                 return builder.table(Tables.EPISODES).where(Shows.REF_SHOW_ID + "=?", showId);
             }
+            case EPISODES_OFSHOW_BYSEASON: {
+                final String showId = uri.getPathSegments().get(3);
+                return builder.table(Tables.EPISODES).where(Shows.REF_SHOW_ID + "=?", showId);
+            }
             case EPISODES_OFSEASON: {
                 final String seasonId = uri.getPathSegments().get(2);
                 return builder.table(Tables.EPISODES).where(Seasons.REF_SEASON_ID + "=?", seasonId);
@@ -704,6 +1050,17 @@ public class SeriesGuideProvider extends ContentProvider {
             case ACTIVITY: {
                 return builder.table(Tables.ACTIVITY);
             }
+            case TRAKT_SHOW_IDS: {
+                return builder.table(Tables.TRAKT_SHOW_IDS);
+            }
+            case TRAKT_SHOW_IDS_ID: {
+                final String showTvdbId = TraktShowIds.getShowTvdbId(uri);
+                return builder.table(Tables.TRAKT_SHOW_IDS)
+                        .where(TraktShowIds._ID + "=?", showTvdbId);
+            }
+            case SHOW_STATS: {
+                return builder.table(Tables.SHOW_STATS);
+            }
             default: {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
             }
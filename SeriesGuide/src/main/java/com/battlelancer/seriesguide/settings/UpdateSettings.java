@@ -4,6 +4,7 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
+import android.text.format.DateUtils;
 
 public class UpdateSettings {
 
@@ -15,6 +16,19 @@ public class UpdateSettings {
 
     public static final String KEY_FAILED_COUNTER = "com.battlelancer.seriesguide.failedcounter";
 
+    public static final String KEY_TVDB_UPDATES_TIME
+            = "com.battlelancer.seriesguide.tvdb.updatestime";
+
+    public static final String KEY_UPDATE_CONCURRENCY
+            = "com.battlelancer.seriesguide.sync.concurrency";
+
+    public static final String KEY_TRAKT_ID_TTL_DAYS
+            = "com.battlelancer.seriesguide.sync.traktidttl";
+
+    private static final int UPDATE_CONCURRENCY_DEFAULT = 3;
+    private static final int UPDATE_CONCURRENCY_MAX = 8;
+    private static final int TRAKT_ID_TTL_DAYS_DEFAULT = 7;
+
     /**
      * Whether the user wants us to download larger chunks of data (e.g. images) only over a Wi-Fi
      * connection.
@@ -44,4 +58,38 @@ public class UpdateSettings {
         return PreferenceManager.getDefaultSharedPreferences(context).getInt(KEY_FAILED_COUNTER, 0);
     }
 
+    /**
+     * How many shows are downloaded at the same time when syncing. Between 1 and {@link
+     * #UPDATE_CONCURRENCY_MAX}, defaults to {@link #UPDATE_CONCURRENCY_DEFAULT}.
+     */
+    public static int getUpdateConcurrency(Context context) {
+        int concurrency = PreferenceManager.getDefaultSharedPreferences(context)
+                .getInt(KEY_UPDATE_CONCURRENCY, UPDATE_CONCURRENCY_DEFAULT);
+        return Math.max(1, Math.min(concurrency, UPDATE_CONCURRENCY_MAX));
+    }
+
+    /**
+     * How long a cached trakt id of a show is used before looking it up again, in milliseconds.
+     * Defaults to {@link #TRAKT_ID_TTL_DAYS_DEFAULT} days. If 0, always looks up trakt ids.
+     */
+    public static long getTraktIdTtl(Context context) {
+        int days = PreferenceManager.getDefaultSharedPreferences(context)
+                .getInt(KEY_TRAKT_ID_TTL_DAYS, TRAKT_ID_TTL_DAYS_DEFAULT);
+        return Math.max(0, days) * DateUtils.DAY_IN_MILLIS;
+    }
+
+    /**
+     * TheTVDB server time (Unix time in seconds) of the last successful delta sync based on changed
+     * series, or 0 if there was none.
+     */
+    public static long getLastTvdbUpdatesTime(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getLong(KEY_TVDB_UPDATES_TIME, 0);
+    }
+
+    public static void setLastTvdbUpdatesTime(Context context, long serverTimeSec) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putLong(KEY_TVDB_UPDATES_TIME, serverTimeSec)
+                .apply();
+    }
 }
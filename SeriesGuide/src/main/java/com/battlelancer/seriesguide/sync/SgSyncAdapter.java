@@ -21,17 +21,20 @@ import com.battlelancer.seriesguide.R;
 import com.battlelancer.seriesguide.SgApp;
 import com.battlelancer.seriesguide.backend.HexagonTools;
 import com.battlelancer.seriesguide.items.SearchResult;
+import com.battlelancer.seriesguide.provider.NotificationCoalescer;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.Shows;
 import com.battlelancer.seriesguide.settings.TmdbSettings;
 import com.battlelancer.seriesguide.settings.TraktCredentials;
 import com.battlelancer.seriesguide.settings.TraktSettings;
 import com.battlelancer.seriesguide.settings.UpdateSettings;
+import com.battlelancer.seriesguide.thetvdbapi.TraktIdCache;
 import com.battlelancer.seriesguide.thetvdbapi.TvdbException;
 import com.battlelancer.seriesguide.thetvdbapi.TvdbTools;
+import com.battlelancer.seriesguide.thetvdbapi.TvdbUpdates;
 import com.battlelancer.seriesguide.tmdbapi.SgTmdb;
-import com.battlelancer.seriesguide.util.DBUtils;
 import com.battlelancer.seriesguide.util.MovieTools;
+import com.battlelancer.seriesguide.util.RequestScheduler;
 import com.battlelancer.seriesguide.util.ShowTools;
 import com.battlelancer.seriesguide.util.TaskManager;
 import com.battlelancer.seriesguide.util.TraktTools;
@@ -47,7 +50,6 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Inject;
 import retrofit2.Response;
 import timber.log.Timber;
@@ -59,6 +61,8 @@ public class SgSyncAdapter extends AbstractThreadedSyncAdapter {
 
     private final SgApp app;
     @Inject Lazy<ConfigurationService> tmdbConfigService;
+    @Nullable private volatile ShowUpdatePipeline currentShowUpdatePipeline;
+    @Nullable private volatile SyncPhases currentTraktSyncPhases;
 
     public enum SyncType {
 
@@ -96,6 +100,10 @@ public class SgSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     private static final int DEFAULT_SYNC_INTERVAL_MINUTES = 20;
+    /** How many trakt sync phases run at the same time. */
+    private static final int TRAKT_SYNC_CONCURRENCY = 3;
+    private static final String PHASE_WATCHED_EPISODES = "watched episodes";
+    private static final String PHASE_COLLECTED_EPISODES = "collected episodes";
 
     /**
      * Calls {@link ContentResolver} {@code .requestSyncIfConnected()} if there is no pending sync
@@ -242,10 +250,27 @@ public class SgSyncAdapter extends AbstractThreadedSyncAdapter {
         SUCCESS, INCOMPLETE
     }
 
+    @Override
+    public void onSyncCanceled() {
+        super.onSyncCanceled();
+        ShowUpdatePipeline showUpdatePipeline = currentShowUpdatePipeline;
+        if (showUpdatePipeline != null) {
+            showUpdatePipeline.cancel();
+        }
+        SyncPhases traktSyncPhases = currentTraktSyncPhases;
+        if (traktSyncPhases != null) {
+            traktSyncPhases.cancel();
+        }
+        app.getMovieTools().cancelAddingMovies();
+    }
+
     @SuppressLint("CommitPrefEdits")
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority,
             ContentProviderClient provider, SyncResult syncResult) {
+        // sync runs on its own thread, let requests of the user go first
+        RequestScheduler.setBackground(true);
+
         // determine type of sync
         final boolean syncImmediately = extras.getBoolean(SyncInitBundle.SYNC_IMMEDIATE, false);
         final SyncType syncType = SyncType.from(
@@ -263,6 +288,7 @@ public class SgSyncAdapter extends AbstractThreadedSyncAdapter {
 
         // build a list of shows to update
         int[] showsToUpdate;
+        long tvdbUpdatesTime = 0;
         if (syncType == SyncType.SINGLE) {
             int showTvdbId = extras.getInt(SyncInitBundle.SYNC_SHOW_TVDB_ID, 0);
             if (showTvdbId == 0) {
@@ -272,124 +298,125 @@ public class SgSyncAdapter extends AbstractThreadedSyncAdapter {
             showsToUpdate = new int[] {
                     showTvdbId
             };
+            if (syncImmediately) {
+                // user requested update, also check if the trakt id has changed
+                TraktIdCache.invalidate(getContext(), showTvdbId);
+            }
         } else {
-            showsToUpdate = getShowsToUpdate(syncType, currentTime);
-            if (showsToUpdate == null) {
+            if (syncType == SyncType.FULL && syncImmediately) {
+                // user requested update, also check if trakt ids have changed
+                TraktIdCache.invalidateAll(getContext());
+            }
+            TvdbUpdates.Selection selection = getShowsToUpdate(syncType, currentTime);
+            if (selection == null) {
                 Timber.e("Syncing...ABORT_SHOW_QUERY_FAILED");
                 return;
             }
+            showsToUpdate = selection.showTvdbIds;
+            tvdbUpdatesTime = selection.serverTimeSec;
         }
 
         // from here on we need more sophisticated abort handling, so keep track of errors
         UpdateResult resultCode = UpdateResult.SUCCESS;
 
-        // loop through shows and download latest data from TVDb
-        Timber.d("Syncing...TVDb");
-        final AtomicInteger updateCount = new AtomicInteger();
-        final ContentResolver resolver = getContext().getContentResolver();
-        for (int i = updateCount.get(); i < showsToUpdate.length; i++) {
-            int id = showsToUpdate[i];
-
-            // stop sync if connectivity is lost
-            if (!AndroidUtils.isNetworkConnected(getContext())) {
-                resultCode = UpdateResult.INCOMPLETE;
-                break;
-            }
-
+        // send changes to open loaders only once sync is done, merging duplicates
+        final NotificationCoalescer notifications = NotificationCoalescer.getInstance(app);
+        notifications.begin();
+        try {
+            // download latest data from TVDb, several shows at once
+            Timber.d("Syncing...TVDb");
+            final ShowUpdatePipeline showUpdatePipeline = new ShowUpdatePipeline(app,
+                    UpdateSettings.getUpdateConcurrency(getContext()));
+            currentShowUpdatePipeline = showUpdatePipeline;
             try {
-                TvdbTools.getInstance(app).updateShow(id);
-
-                // make sure other loaders (activity, overview, details) are notified
-                resolver.notifyChange(Episodes.CONTENT_URI_WITHSHOW, null);
-            } catch (TvdbException e) {
-                // failed, continue with other shows
-                resultCode = UpdateResult.INCOMPLETE;
-                Timber.e(e, "Updating show failed");
+                resultCode = showUpdatePipeline.run(showsToUpdate);
+            } finally {
+                currentShowUpdatePipeline = null;
+            }
+            if (resultCode == UpdateResult.SUCCESS && tvdbUpdatesTime > 0) {
+                // all changed shows are updated, next time only ask for changes after this
+                UpdateSettings.setLastTvdbUpdatesTime(getContext(), tvdbUpdatesTime);
             }
 
-            updateCount.incrementAndGet();
-        }
-
-        // do some more things if this is not a quick update
-        if (syncType != SyncType.SINGLE) {
-            final SharedPreferences prefs = PreferenceManager
-                    .getDefaultSharedPreferences(getContext());
+            // do some more things if this is not a quick update
+            if (syncType != SyncType.SINGLE) {
+                final SharedPreferences prefs = PreferenceManager
+                        .getDefaultSharedPreferences(getContext());
 
-            // get latest TMDb configuration
-            Timber.d("Syncing...TMDb config");
-            getTmdbConfiguration(prefs);
+                // get latest TMDb configuration
+                Timber.d("Syncing...TMDb config");
+                getTmdbConfiguration(prefs);
 
-            // sync with Hexagon or trakt
-            final HashSet<Integer> showsExisting = ShowTools.getShowTvdbIdsAsSet(getContext());
-            final HashMap<Integer, SearchResult> showsNew = new HashMap<>();
-            if (showsExisting == null) {
-                resultCode = UpdateResult.INCOMPLETE;
-            } else {
-                if (HexagonTools.isSignedIn(getContext())) {
-                    // sync with hexagon...
-                    Timber.d("Syncing...Hexagon");
-                    boolean success = HexagonTools.syncWithHexagon(app, showsExisting, showsNew);
-                    // don't overwrite failure
-                    if (resultCode == UpdateResult.SUCCESS) {
-                        resultCode = success ? UpdateResult.SUCCESS : UpdateResult.INCOMPLETE;
-                    }
+                // sync with Hexagon or trakt
+                final HashSet<Integer> showsExisting = ShowTools.getShowTvdbIdsAsSet(getContext());
+                final HashMap<Integer, SearchResult> showsNew = new HashMap<>();
+                if (showsExisting == null) {
+                    resultCode = UpdateResult.INCOMPLETE;
                 } else {
-                    // ...OR sync with trakt
-                    Timber.d("Syncing...trakt");
-                    UpdateResult resultTrakt = performTraktSync(showsExisting, currentTime);
-                    // don't overwrite failure
-                    if (resultCode == UpdateResult.SUCCESS) {
-                        resultCode = resultTrakt;
+                    if (HexagonTools.isSignedIn(getContext())) {
+                        // sync with hexagon...
+                        Timber.d("Syncing...Hexagon");
+                        boolean success = HexagonTools.syncWithHexagon(app, showsExisting,
+                                showsNew);
+                        // don't overwrite failure
+                        if (resultCode == UpdateResult.SUCCESS) {
+                            resultCode = success ? UpdateResult.SUCCESS : UpdateResult.INCOMPLETE;
+                        }
+                    } else {
+                        // ...OR sync with trakt
+                        Timber.d("Syncing...trakt");
+                        UpdateResult resultTrakt = performTraktSync(showsExisting, currentTime);
+                        // don't overwrite failure
+                        if (resultCode == UpdateResult.SUCCESS) {
+                            resultCode = resultTrakt;
+                        }
+
+                        // add shows newly discovered on trakt
+                        if (showsNew.size() > 0) {
+                            List<SearchResult> showsNewList = new LinkedList<>(showsNew.values());
+                            TaskManager.getInstance(getContext())
+                                    .performAddTask(app, showsNewList, true, false);
+                        }
                     }
 
-                    // add shows newly discovered on trakt
-                    if (showsNew.size() > 0) {
-                        List<SearchResult> showsNewList = new LinkedList<>(showsNew.values());
-                        TaskManager.getInstance(getContext())
-                                .performAddTask(app, showsNewList, true, false);
-                    }
+                    // make sure other loaders (activity, overview, details) are notified
+                    notifications.notifyChange(Episodes.CONTENT_URI_WITHSHOW);
                 }
 
-                // make sure other loaders (activity, overview, details) are notified of changes
-                resolver.notifyChange(Episodes.CONTENT_URI_WITHSHOW, null);
-            }
-
-            // renew search table if shows were updated and it will not be renewed by add task
-            if (updateCount.get() > 0 && showsToUpdate.length > 0 && showsNew.size() == 0) {
-                DBUtils.rebuildFtsTable(getContext());
-            }
+                // update next episodes for all shows
+                TaskManager.getInstance(getContext()).tryNextEpisodeUpdateTask();
 
-            // update next episodes for all shows
-            TaskManager.getInstance(getContext()).tryNextEpisodeUpdateTask();
-
-            // store time of update, set retry counter on failure
-            if (resultCode == UpdateResult.SUCCESS) {
-                // we were successful, reset failed counter
-                prefs.edit().putLong(UpdateSettings.KEY_LASTUPDATE, currentTime)
-                        .putInt(UpdateSettings.KEY_FAILED_COUNTER, 0).commit();
-            } else {
-                int failed = UpdateSettings.getFailedNumberOfUpdates(getContext());
-
-                /*
-                 * Back off by 2**(failure + 2) * minutes. Purposely set a fake
-                 * last update time, because the next update will be triggered
-                 * UPDATE_INTERVAL minutes after the last update time. This way
-                 * we can trigger it earlier (4min up to 32min).
-                 */
-                long fakeLastUpdateTime;
-                if (failed < 4) {
-                    fakeLastUpdateTime = currentTime
-                            - ((DEFAULT_SYNC_INTERVAL_MINUTES - (int) Math.pow(2, failed + 2))
-                            * DateUtils.MINUTE_IN_MILLIS);
+                // store time of update, set retry counter on failure
+                if (resultCode == UpdateResult.SUCCESS) {
+                    // we were successful, reset failed counter
+                    prefs.edit().putLong(UpdateSettings.KEY_LASTUPDATE, currentTime)
+                            .putInt(UpdateSettings.KEY_FAILED_COUNTER, 0).commit();
                 } else {
-                    fakeLastUpdateTime = currentTime;
-                }
+                    int failed = UpdateSettings.getFailedNumberOfUpdates(getContext());
+
+                    /*
+                     * Back off by 2**(failure + 2) * minutes. Purposely set a fake
+                     * last update time, because the next update will be triggered
+                     * UPDATE_INTERVAL minutes after the last update time. This way
+                     * we can trigger it earlier (4min up to 32min).
+                     */
+                    long fakeLastUpdateTime;
+                    if (failed < 4) {
+                        fakeLastUpdateTime = currentTime
+                                - ((DEFAULT_SYNC_INTERVAL_MINUTES - (int) Math.pow(2, failed + 2))
+                                * DateUtils.MINUTE_IN_MILLIS);
+                    } else {
+                        fakeLastUpdateTime = currentTime;
+                    }
 
-                failed += 1;
-                prefs.edit()
-                        .putLong(UpdateSettings.KEY_LASTUPDATE, fakeLastUpdateTime)
-                        .putInt(UpdateSettings.KEY_FAILED_COUNTER, failed).commit();
+                    failed += 1;
+                    prefs.edit()
+                            .putLong(UpdateSettings.KEY_LASTUPDATE, fakeLastUpdateTime)
+                            .putInt(UpdateSettings.KEY_FAILED_COUNTER, failed).commit();
+                }
             }
+        } finally {
+            notifications.end();
         }
 
         // There could have been new episodes added after an update
@@ -399,10 +426,10 @@ public class SgSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Returns an array of show ids to update.
+     * Returns the ids of shows to update.
      */
     @Nullable
-    private int[] getShowsToUpdate(SyncType syncType, long currentTime) {
+    private TvdbUpdates.Selection getShowsToUpdate(SyncType syncType, long currentTime) {
         switch (syncType) {
             case FULL: {
                 // get all show IDs for a full update
@@ -422,12 +449,50 @@ public class SgSyncAdapter extends AbstractThreadedSyncAdapter {
                     i++;
                 }
                 showsQuery.close();
-                return showIds;
+                return new TvdbUpdates.Selection(showIds, 0);
             }
             case DELTA:
             default:
-                // Get shows which have not been updated for a certain time.
-                return TvdbTools.deltaUpdateShows(currentTime, getContext());
+                return getShowsToUpdateDelta(currentTime);
+        }
+    }
+
+    /**
+     * Get shows TheTVDB reports as changed since the last delta sync. If that is not possible,
+     * falls back to shows which have not been updated for a certain time, or to all shows to
+     * start tracking changes.
+     */
+    @Nullable
+    private TvdbUpdates.Selection getShowsToUpdateDelta(long currentTime) {
+        TvdbTools tvdbTools = TvdbTools.getInstance(app);
+        long lastServerTime = UpdateSettings.getLastTvdbUpdatesTime(getContext());
+        HashMap<Integer, Long> localShows = TvdbTools.getShowsLastUpdated(getContext());
+        if (localShows == null) {
+            return null;
+        }
+        try {
+            TvdbUpdates.Selection selection = TvdbUpdates.selectShows(tvdbTools, localShows,
+                    lastServerTime, currentTime);
+            if (selection != null) {
+                Timber.d("Syncing...%s of %s shows changed on TVDb",
+                        selection.showTvdbIds.length, localShows.size());
+                return selection;
+            }
+        } catch (TvdbException e) {
+            Timber.e(e, "Getting changed shows failed");
+        }
+
+        // fall back to time thresholds, or all shows to start tracking changes
+        int[] dueShowTvdbIds = TvdbTools.deltaUpdateShows(currentTime, getContext());
+        try {
+            TvdbUpdates.Selection selection = TvdbUpdates.selectShowsWithoutFeed(tvdbTools,
+                    localShows, dueShowTvdbIds, lastServerTime, currentTime);
+            Timber.d("Syncing...%s of %s shows without TVDb changes",
+                    selection.showTvdbIds.length, localShows.size());
+            return selection;
+        } catch (TvdbException e) {
+            Timber.e(e, "Getting TVDb server time failed");
+            return new TvdbUpdates.Selection(dueShowTvdbIds, 0);
         }
     }
 
@@ -454,7 +519,8 @@ public class SgSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
-    private UpdateResult performTraktSync(HashSet<Integer> localShows, long currentTime) {
+    @SuppressLint("CommitPrefEdits")
+    private UpdateResult performTraktSync(final HashSet<Integer> localShows, long currentTime) {
         if (!TraktCredentials.get(getContext()).hasCredentials()) {
             Timber.d("performTraktSync: no auth, skip");
             return UpdateResult.SUCCESS;
@@ -465,112 +531,126 @@ public class SgSyncAdapter extends AbstractThreadedSyncAdapter {
         }
 
         // get last activity timestamps
-        TraktTools traktTools = app.getTraktTools();
-        LastActivities lastActivity = traktTools.getLastActivity();
+        final TraktTools traktTools = app.getTraktTools();
+        final LastActivities lastActivity = traktTools.getLastActivity();
         if (lastActivity == null) {
             // trakt is likely offline or busy, try later
             Timber.e("performTraktSync: last activity download failed");
             return UpdateResult.INCOMPLETE;
         }
 
-        if (!AndroidUtils.isNetworkConnected(getContext())) {
-            return UpdateResult.INCOMPLETE;
-        }
-
+        // phases change different columns or tables, so run them at the same time
+        // each only stores its last activity timestamp if successful
+        final SyncPhases phases = new SyncPhases(TRAKT_SYNC_CONCURRENCY, getContext());
+        // do we need to merge data instead of overwriting with data from trakt?
+        final boolean isInitialSync = !TraktSettings.hasMergedEpisodes(getContext());
         if (localShows.size() == 0) {
             Timber.d("performTraktSync: no local shows, skip shows");
         } else {
             // download and upload episode watched and collected flags
-            if (performTraktEpisodeSync(localShows, lastActivity.episodes, currentTime)
-                    != UpdateResult.SUCCESS) {
-                return UpdateResult.INCOMPLETE;
-            }
-
-            if (!AndroidUtils.isNetworkConnected(getContext())) {
-                return UpdateResult.INCOMPLETE;
-            }
+            phases.add(PHASE_WATCHED_EPISODES, new SyncPhases.Phase() {
+                @Override
+                public UpdateResult run() {
+                    return performTraktEpisodeSync(localShows, lastActivity.episodes,
+                            isInitialSync, TraktTools.Flag.WATCHED);
+                }
+            });
+            phases.add(PHASE_COLLECTED_EPISODES, new SyncPhases.Phase() {
+                @Override
+                public UpdateResult run() {
+                    return performTraktEpisodeSync(localShows, lastActivity.episodes,
+                            isInitialSync, TraktTools.Flag.COLLECTED);
+                }
+            });
 
             // download show ratings
-            if (traktTools.downloadShowRatings(lastActivity.shows.rated_at)
-                    != UpdateResult.SUCCESS) {
-                return UpdateResult.INCOMPLETE;
-            }
-
-            if (!AndroidUtils.isNetworkConnected(getContext())) {
-                return UpdateResult.INCOMPLETE;
-            }
+            phases.add("show ratings", new SyncPhases.Phase() {
+                @Override
+                public UpdateResult run() {
+                    return traktTools.downloadShowRatings(lastActivity.shows.rated_at);
+                }
+            });
 
             // download episode ratings
-            if (traktTools.downloadEpisodeRatings(lastActivity.episodes.rated_at)
-                    != UpdateResult.SUCCESS) {
-                return UpdateResult.INCOMPLETE;
-            }
-
-            if (!AndroidUtils.isNetworkConnected(getContext())) {
-                return UpdateResult.INCOMPLETE;
-            }
+            phases.add("episode ratings", new SyncPhases.Phase() {
+                @Override
+                public UpdateResult run() {
+                    return traktTools.downloadEpisodeRatings(lastActivity.episodes.rated_at);
+                }
+            });
         }
 
-        // sync watchlist and collection with trakt
-        if (app.getMovieTools().syncMovieListsWithTrakt(lastActivity.movies)
-                != UpdateResult.SUCCESS) {
-            return UpdateResult.INCOMPLETE;
-        }
+        // movies may be added by any movie step and removed once all are done, so run in order
+        phases.add("movies", new SyncPhases.Phase() {
+            @Override
+            public UpdateResult run() {
+                // sync watchlist and collection with trakt
+                if (app.getMovieTools().syncMovieListsWithTrakt(lastActivity.movies)
+                        != UpdateResult.SUCCESS) {
+                    return UpdateResult.INCOMPLETE;
+                }
 
-        if (!AndroidUtils.isNetworkConnected(getContext())) {
-            return UpdateResult.INCOMPLETE;
-        }
+                if (!AndroidUtils.isNetworkConnected(getContext())) {
+                    return UpdateResult.INCOMPLETE;
+                }
 
-        // download watched movies
-        if (traktTools.downloadWatchedMovies(lastActivity.movies.watched_at)
-                != UpdateResult.SUCCESS) {
-            return UpdateResult.INCOMPLETE;
-        }
+                // download watched movies
+                if (traktTools.downloadWatchedMovies(lastActivity.movies.watched_at)
+                        != UpdateResult.SUCCESS) {
+                    return UpdateResult.INCOMPLETE;
+                }
 
-        // clean up any useless movies (not watched or not in any list)
-        MovieTools.deleteUnusedMovies(getContext());
+                // clean up any useless movies (not watched or not in any list)
+                MovieTools.deleteUnusedMovies(getContext());
 
-        if (!AndroidUtils.isNetworkConnected(getContext())) {
-            return UpdateResult.INCOMPLETE;
+                if (!AndroidUtils.isNetworkConnected(getContext())) {
+                    return UpdateResult.INCOMPLETE;
+                }
+
+                // download movie ratings
+                return traktTools.downloadMovieRatings(lastActivity.movies.rated_at);
+            }
+        });
+
+        currentTraktSyncPhases = phases;
+        UpdateResult resultCode;
+        try {
+            resultCode = phases.run();
+        } finally {
+            currentTraktSyncPhases = null;
         }
 
-        // download movie ratings
-        return traktTools.downloadMovieRatings(lastActivity.movies.rated_at);
+        if (phases.getResult(PHASE_WATCHED_EPISODES) == UpdateResult.SUCCESS
+                && phases.getResult(PHASE_COLLECTED_EPISODES) == UpdateResult.SUCCESS) {
+            SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(
+                    getContext()).edit();
+            if (isInitialSync) {
+                // success, set initial sync as complete
+                editor.putBoolean(TraktSettings.KEY_HAS_MERGED_EPISODES, true);
+            }
+            // success, set last sync time to now
+            editor.putLong(TraktSettings.KEY_LAST_FULL_EPISODE_SYNC, currentTime);
+            editor.commit();
+        }
+
+        return resultCode;
     }
 
     /**
-     * Downloads and uploads episode watched and collected flags.
+     * Downloads and uploads episode watched or collected flags.
      *
      * <p> Do <b>NOT</b> call if there are no local shows to avoid unnecessary work.
      */
-    @SuppressLint("CommitPrefEdits")
     private UpdateResult performTraktEpisodeSync(@NonNull HashSet<Integer> localShows,
-            @NonNull LastActivityMore lastActivity, long currentTime) {
-        // do we need to merge data instead of overwriting with data from trakt?
-        boolean isInitialSync = !TraktSettings.hasMergedEpisodes(getContext());
-
-        // download watched and collected flags
+            @NonNull LastActivityMore lastActivity, boolean isInitialSync,
+            @NonNull TraktTools.Flag flag) {
+        // download watched or collected flags
         // if initial sync, upload any flags missing on trakt
         // otherwise clear all local flags not on trakt
         int resultCode = app.getTraktTools().syncEpisodeFlags(localShows, lastActivity,
-                isInitialSync);
-
-        if (resultCode < 0) {
-            return UpdateResult.INCOMPLETE;
-        }
-
-        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(
-                getContext()).edit();
-        if (isInitialSync) {
-            // success, set initial sync as complete
-            editor.putBoolean(TraktSettings.KEY_HAS_MERGED_EPISODES, true);
-        }
-
-        // success, set last sync time to now
-        editor.putLong(TraktSettings.KEY_LAST_FULL_EPISODE_SYNC, currentTime);
-        editor.commit();
+                isInitialSync, flag);
 
-        return UpdateResult.SUCCESS;
+        return resultCode < 0 ? UpdateResult.INCOMPLETE : UpdateResult.SUCCESS;
     }
 
     private static boolean isTimeForSync(Context context, long currentTime) {
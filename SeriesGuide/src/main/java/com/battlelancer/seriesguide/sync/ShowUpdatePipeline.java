@@ -0,0 +1,223 @@
+package com.battlelancer.seriesguide.sync;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import com.battlelancer.seriesguide.SgApp;
+import com.battlelancer.seriesguide.provider.NotificationCoalescer;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
+import com.battlelancer.seriesguide.sync.SgSyncAdapter.UpdateResult;
+import com.battlelancer.seriesguide.thetvdbapi.TraktIdCache;
+import com.battlelancer.seriesguide.thetvdbapi.TvdbException;
+import com.battlelancer.seriesguide.thetvdbapi.TvdbTools;
+import com.battlelancer.seriesguide.util.BackgroundPool;
+import com.uwetrottmann.androidutils.AndroidUtils;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import timber.log.Timber;
+
+/**
+ * Updates shows from TheTVDB by downloading and parsing several shows at once on a bounded pool
+ * of worker threads. The resulting database changes are applied one show at a time on the thread
+ * calling {@link #run(int[])}, so there is only ever a single writer.
+ *
+ * <p> At most twice the concurrency level of shows are downloaded but not yet written, to bound
+ * memory use if writing is slower than downloading.
+ */
+public class ShowUpdatePipeline {
+
+    /**
+     * How long it took to download and to store a single show.
+     */
+    public static class ShowTiming {
+        public final int showTvdbId;
+        public final long fetchMs;
+        public final long applyMs;
+        public final boolean success;
+
+        ShowTiming(int showTvdbId, long fetchMs, long applyMs, boolean success) {
+            this.showTvdbId = showTvdbId;
+            this.fetchMs = fetchMs;
+            this.applyMs = applyMs;
+            this.success = success;
+        }
+    }
+
+    private static class FetchResult {
+        final int showTvdbId;
+        final TvdbTools.ShowUpdate update;
+        final TvdbException exception;
+        final long fetchMs;
+
+        FetchResult(int showTvdbId, TvdbTools.ShowUpdate update, TvdbException exception,
+                long fetchMs) {
+            this.showTvdbId = showTvdbId;
+            this.update = update;
+            this.exception = exception;
+            this.fetchMs = fetchMs;
+        }
+    }
+
+    private final SgApp app;
+    private final int concurrency;
+    private final AtomicInteger updateCount = new AtomicInteger();
+    private final AtomicInteger skippedEpisodeUpdates = new AtomicInteger();
+    private final List<ShowTiming> timings = Collections.synchronizedList(
+            new ArrayList<ShowTiming>());
+    private volatile boolean isCanceled;
+
+    /**
+     * @param concurrency How many shows to download and parse at the same time, at least 1.
+     */
+    public ShowUpdatePipeline(SgApp app, int concurrency) {
+        this.app = app;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Stops downloading further shows. Shows already downloaded are not written. {@link
+     * #run(int[])} will return {@link UpdateResult#INCOMPLETE}.
+     */
+    public void cancel() {
+        isCanceled = true;
+    }
+
+    /**
+     * Number of shows processed so far, including those that failed to update.
+     */
+    public int getUpdateCount() {
+        return updateCount.get();
+    }
+
+    /**
+     * Number of existing episodes not updated so far because their values did not change.
+     */
+    public int getSkippedEpisodeUpdates() {
+        return skippedEpisodeUpdates.get();
+    }
+
+    /**
+     * Timings of all shows processed so far, in the order they were written.
+     */
+    @NonNull
+    public List<ShowTiming> getTimings() {
+        synchronized (timings) {
+            return new ArrayList<>(timings);
+        }
+    }
+
+    /**
+     * Updates the given shows, blocks until done. Stops early if canceled or connectivity is lost.
+     *
+     * @return {@link UpdateResult#INCOMPLETE} if any show failed to update or the update was
+     * stopped early.
+     */
+    public UpdateResult run(int[] showTvdbIds) {
+        if (showTvdbIds.length == 0) {
+            return UpdateResult.SUCCESS;
+        }
+
+        UpdateResult resultCode = UpdateResult.SUCCESS;
+        final long startTime = SystemClock.elapsedRealtime();
+        final NotificationCoalescer notifications = NotificationCoalescer.getInstance(app);
+        final TvdbTools tvdbTools = TvdbTools.getInstance(app);
+
+        BackgroundPool<FetchResult> pool = new BackgroundPool<>("ShowUpdate",
+                Math.min(concurrency, showTvdbIds.length), concurrency * 2);
+        int submitted = 0;
+
+        // notify loaders once all shows are written instead of after each show
+        notifications.begin();
+        try {
+            while (submitted < showTvdbIds.length || pool.hasInFlight()) {
+                // stop sync if canceled or connectivity is lost
+                if (isCanceled || !AndroidUtils.isNetworkConnected(app)) {
+                    resultCode = UpdateResult.INCOMPLETE;
+                    break;
+                }
+
+                // keep workers busy
+                while (submitted < showTvdbIds.length && pool.canSubmit()) {
+                    pool.submit(buildFetchTask(tvdbTools, showTvdbIds[submitted]));
+                    submitted++;
+                }
+
+                // write the next downloaded show
+                FetchResult result = pool.take();
+
+                long applyMs = 0;
+                boolean success = false;
+                if (result.exception != null) {
+                    // failed, continue with other shows
+                    resultCode = UpdateResult.INCOMPLETE;
+                    Timber.e(result.exception, "Updating show failed");
+                } else if (result.update != null) {
+                    long applyStart = SystemClock.elapsedRealtime();
+                    try {
+                        tvdbTools.applyShowUpdate(result.update);
+                        success = true;
+                        skippedEpisodeUpdates.addAndGet(result.update.skippedEpisodeUpdates);
+                        // make sure other loaders (activity, overview, details) are notified
+                        notifications.notifyChange(Episodes.CONTENT_URI_WITHSHOW);
+                    } catch (TvdbException e) {
+                        resultCode = UpdateResult.INCOMPLETE;
+                        Timber.e(e, "Updating show failed");
+                    }
+                    applyMs = SystemClock.elapsedRealtime() - applyStart;
+                } else {
+                    // show language could not be determined, nothing to update
+                    success = true;
+                }
+
+                timings.add(new ShowTiming(result.showTvdbId, result.fetchMs, applyMs, success));
+                Timber.d("Updated show %s: fetch %s ms, apply %s ms, %s", result.showTvdbId,
+                        result.fetchMs, applyMs, success ? "SUCCESS" : "FAILED");
+                updateCount.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            // sync was canceled
+            resultCode = UpdateResult.INCOMPLETE;
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // unexpected error, not using a TvdbException: crash
+            throw new RuntimeException("Updating show failed unexpectedly", e.getCause());
+        } finally {
+            pool.shutdown();
+            notifications.end();
+        }
+        if (isCanceled) {
+            resultCode = UpdateResult.INCOMPLETE;
+        }
+
+        Timber.i("Updated %s of %s shows in %s ms with %s workers, skipped %s unchanged episodes",
+                updateCount.get(), showTvdbIds.length, SystemClock.elapsedRealtime() - startTime,
+                concurrency, skippedEpisodeUpdates.get());
+        Timber.i("Cached trakt ids: %s hits, %s misses", TraktIdCache.getHitCount(),
+                TraktIdCache.getMissCount());
+
+        return resultCode;
+    }
+
+    private Callable<FetchResult> buildFetchTask(final TvdbTools tvdbTools, final int showTvdbId) {
+        return new Callable<FetchResult>() {
+            @Override
+            public FetchResult call() {
+                long fetchStart = SystemClock.elapsedRealtime();
+                TvdbTools.ShowUpdate update = null;
+                TvdbException exception = null;
+                if (!isCanceled) {
+                    try {
+                        update = tvdbTools.fetchShowUpdate(showTvdbId);
+                    } catch (TvdbException e) {
+                        exception = e;
+                    }
+                }
+                return new FetchResult(showTvdbId, update, exception,
+                        SystemClock.elapsedRealtime() - fetchStart);
+            }
+        };
+    }
+}
@@ -0,0 +1,161 @@
+package com.battlelancer.seriesguide.sync;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.battlelancer.seriesguide.provider.NotificationCoalescer;
+import com.battlelancer.seriesguide.sync.SgSyncAdapter.UpdateResult;
+import com.battlelancer.seriesguide.util.BackgroundPool;
+import com.battlelancer.seriesguide.util.RequestScheduler;
+import com.uwetrottmann.androidutils.AndroidUtils;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import timber.log.Timber;
+
+/**
+ * Runs independent phases of a sync, e.g. those touching different tables or columns, at the
+ * same time on a small pool of worker threads. Blocks until all are done and merges their results
+ * into a single {@link UpdateResult}.
+ *
+ * <p> Phases still write through the content provider. The database has a single writer
+ * connection, so their transactions are applied one after another while downloads overlap.
+ * Phases that depend on each other must be chained inside a single phase.
+ */
+public class SyncPhases {
+
+    public interface Phase {
+        /**
+         * Runs on a worker thread. Should store its own progress, e.g. last activity timestamps,
+         * only if successful.
+         */
+        UpdateResult run();
+    }
+
+    @Nullable private final Context context;
+    private final int concurrency;
+    private final LinkedHashMap<String, Phase> phases = new LinkedHashMap<>();
+    private final Map<String, UpdateResult> results = new LinkedHashMap<>();
+    private volatile boolean isCanceled;
+
+    /**
+     * @param concurrency How many phases to run at the same time, at least 1.
+     * @param context If not null, phases are not started without a network connection and
+     * notifications of each phase are deferred until it is done, see {@link
+     * NotificationCoalescer}.
+     */
+    public SyncPhases(int concurrency, @Nullable Context context) {
+        this.context = context;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Adds a phase, phases are started in the order they were added.
+     */
+    public SyncPhases add(@NonNull String name, @NonNull Phase phase) {
+        phases.put(name, phase);
+        return this;
+    }
+
+    /**
+     * Phases not yet started will not run and result in {@link UpdateResult#INCOMPLETE}.
+     */
+    public void cancel() {
+        isCanceled = true;
+    }
+
+    /**
+     * The result of the given phase, or {@code null} if it was not added or {@link #run()} has
+     * not returned, yet.
+     */
+    @Nullable
+    public synchronized UpdateResult getResult(@NonNull String name) {
+        return results.get(name);
+    }
+
+    /**
+     * Runs all phases, blocks until all are done.
+     *
+     * @return {@link UpdateResult#SUCCESS} only if all phases were successful.
+     */
+    public UpdateResult run() {
+        if (phases.isEmpty()) {
+            return UpdateResult.SUCCESS;
+        }
+
+        ExecutorService executor = BackgroundPool.newFixedThreadPool("SyncPhase",
+                Math.min(concurrency, phases.size()));
+        List<String> names = new ArrayList<>(phases.keySet());
+        List<Future<UpdateResult>> futures = new ArrayList<>(names.size());
+        try {
+            for (String name : names) {
+                futures.add(executor.submit(
+                        RequestScheduler.withCurrentPriority(buildTask(name, phases.get(name)))));
+            }
+
+            UpdateResult resultCode = UpdateResult.SUCCESS;
+            for (int i = 0; i < names.size(); i++) {
+                UpdateResult result;
+                try {
+                    result = futures.get(i).get();
+                } catch (InterruptedException e) {
+                    // sync was canceled, do not wait for remaining phases
+                    Thread.currentThread().interrupt();
+                    isCanceled = true;
+                    return UpdateResult.INCOMPLETE;
+                } catch (ExecutionException e) {
+                    // unexpected error, phases report expected failures as result: crash
+                    throw new RuntimeException("Sync phase " + names.get(i) + " failed",
+                            e.getCause());
+                }
+                synchronized (this) {
+                    results.put(names.get(i), result);
+                }
+                if (result != UpdateResult.SUCCESS) {
+                    resultCode = UpdateResult.INCOMPLETE;
+                }
+            }
+            return resultCode;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Callable<UpdateResult> buildTask(final String name, final Phase phase) {
+        return new Callable<UpdateResult>() {
+            @Override
+            public UpdateResult call() {
+                if (isCanceled) {
+                    return UpdateResult.INCOMPLETE;
+                }
+                if (context != null && !AndroidUtils.isNetworkConnected(context)) {
+                    Timber.d("%s: no network connection, skip", name);
+                    return UpdateResult.INCOMPLETE;
+                }
+
+                long startTime = System.currentTimeMillis();
+                NotificationCoalescer notifications = context != null
+                        ? NotificationCoalescer.getInstance(context) : null;
+                if (notifications != null) {
+                    notifications.begin();
+                }
+                UpdateResult result;
+                try {
+                    result = phase.run();
+                } finally {
+                    if (notifications != null) {
+                        notifications.end();
+                    }
+                }
+                Timber.d("%s: %s in %s ms", name, result,
+                        System.currentTimeMillis() - startTime);
+                return result;
+            }
+        };
+    }
+}
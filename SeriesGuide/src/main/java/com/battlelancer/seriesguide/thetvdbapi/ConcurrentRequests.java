@@ -0,0 +1,80 @@
+package com.battlelancer.seriesguide.thetvdbapi;
+
+import android.support.annotation.NonNull;
+import com.battlelancer.seriesguide.util.RequestScheduler;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs independent blocking network requests concurrently, so a caller can issue them at once and
+ * then wait for all of them. Failures are reported as {@link TvdbException} when waiting.
+ *
+ * <p> Requests run on a shared, unbounded pool of threads which are dropped when idle. The number
+ * of threads is bounded by the callers, e.g. the number of shows updated at once.
+ */
+public class ConcurrentRequests {
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactory() {
+                private final AtomicInteger threadCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable,
+                            "Request #" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private ConcurrentRequests() {
+    }
+
+    /**
+     * Starts running the given request on another thread, with the {@link RequestScheduler}
+     * priority of the calling thread.
+     */
+    @NonNull
+    public static <T> Future<T> submit(@NonNull Callable<T> request) {
+        return EXECUTOR.submit(RequestScheduler.withCurrentPriority(request));
+    }
+
+    /**
+     * Blocks until the given request is done and returns its result. A {@link TvdbException} or
+     * {@link RuntimeException} thrown by the request is re-thrown as is, any other exception is
+     * wrapped in a {@link TvdbException}.
+     */
+    public static <T> T await(@NonNull Future<T> request, String logTag) throws TvdbException {
+        try {
+            return request.get();
+        } catch (InterruptedException e) {
+            request.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new TvdbException(logTag + "interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TvdbException) {
+                throw (TvdbException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new TvdbException(logTag + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Cancels the given requests, e.g. because another request failed and their results are not
+     * needed. Interrupts them if running.
+     */
+    public static void cancel(Future<?>... requests) {
+        for (Future<?> request : requests) {
+            request.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.battlelancer.seriesguide.thetvdbapi;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+/**
+ * HTTP cache validators ({@code ETag} and {@code Last-Modified}) of the last episode archive
+ * ({@code all/<lang>.zip}) of a show that was successfully stored to the database. Stored per
+ * show in a preferences file, together with the language of the archive.
+ *
+ * <p> Episode release times are calculated using show properties, so also stores a string
+ * identifying those. If the language or those properties change, the validators are not used and
+ * the archive is downloaded again.
+ */
+public class EpisodeArchiveValidators {
+
+    private static final String PREFERENCE_FILE = "thetvdb-episode-validators";
+    private static final String KEY_PREFIX_ETAG = "etag-";
+    private static final String KEY_PREFIX_LAST_MODIFIED = "lastmodified-";
+    private static final String KEY_PREFIX_EPISODE_STATE = "state-";
+
+    final int showTvdbId;
+    final String language;
+    final String episodeState;
+    @Nullable String etag;
+    @Nullable String lastModified;
+
+    private EpisodeArchiveValidators(int showTvdbId, String language, String episodeState) {
+        this.showTvdbId = showTvdbId;
+        this.language = language;
+        this.episodeState = episodeState;
+    }
+
+    /**
+     * Returns validators for the given show and language. They are empty if none are stored or
+     * the stored episode state does not match.
+     *
+     * @param episodeState Identifies all show properties episode values depend on.
+     */
+    @NonNull
+    static EpisodeArchiveValidators get(Context context, int showTvdbId, String language,
+            @NonNull String episodeState) {
+        EpisodeArchiveValidators validators = new EpisodeArchiveValidators(showTvdbId, language,
+                episodeState);
+        SharedPreferences prefs = getPreferences(context);
+        String key = String.valueOf(showTvdbId);
+        if (validators.buildState().equals(
+                prefs.getString(KEY_PREFIX_EPISODE_STATE + key, null))) {
+            validators.etag = prefs.getString(KEY_PREFIX_ETAG + key, null);
+            validators.lastModified = prefs.getString(KEY_PREFIX_LAST_MODIFIED + key, null);
+        }
+        return validators;
+    }
+
+    /**
+     * Returns empty validators for the given show and language, use if the archive should always
+     * be downloaded, e.g. when adding a show.
+     */
+    @NonNull
+    static EpisodeArchiveValidators empty(int showTvdbId, String language,
+            @NonNull String episodeState) {
+        return new EpisodeArchiveValidators(showTvdbId, language, episodeState);
+    }
+
+    /**
+     * Removes any stored validators of the given show, e.g. because it was removed.
+     */
+    public static void clear(Context context, int showTvdbId) {
+        String key = String.valueOf(showTvdbId);
+        getPreferences(context).edit()
+                .remove(KEY_PREFIX_ETAG + key)
+                .remove(KEY_PREFIX_LAST_MODIFIED + key)
+                .remove(KEY_PREFIX_EPISODE_STATE + key)
+                .apply();
+    }
+
+    /**
+     * Removes the stored validators of all shows, e.g. because the episodes table was replaced
+     * by a backup.
+     */
+    public static void clearAll(Context context) {
+        getPreferences(context).edit().clear().commit();
+    }
+
+    boolean isEmpty() {
+        return TextUtils.isEmpty(etag) && TextUtils.isEmpty(lastModified);
+    }
+
+    /**
+     * Stores these validators, or removes any stored ones if empty. Call only once the episodes
+     * were successfully stored to the database.
+     */
+    void save(Context context) {
+        if (isEmpty()) {
+            clear(context, showTvdbId);
+            return;
+        }
+        String key = String.valueOf(showTvdbId);
+        getPreferences(context).edit()
+                .putString(KEY_PREFIX_ETAG + key, etag)
+                .putString(KEY_PREFIX_LAST_MODIFIED + key, lastModified)
+                .putString(KEY_PREFIX_EPISODE_STATE + key, buildState())
+                .apply();
+    }
+
+    private String buildState() {
+        return language + "|" + episodeState;
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFERENCE_FILE, Context.MODE_PRIVATE);
+    }
+}
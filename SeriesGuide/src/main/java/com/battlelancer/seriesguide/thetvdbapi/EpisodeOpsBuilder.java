@@ -0,0 +1,136 @@
+package com.battlelancer.seriesguide.thetvdbapi;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.battlelancer.seriesguide.dataliberation.model.Show;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
+import com.battlelancer.seriesguide.util.DBUtils;
+import com.battlelancer.seriesguide.util.TimeTools;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TimeZone;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalTime;
+
+/**
+ * Builds database changes for the episodes of a show as they are parsed. Collects values of new
+ * episodes and adds ops to update changed episodes, to insert or update seasons and to delete
+ * orphaned episodes to the given batch.
+ *
+ * <p> Existing episodes are only updated if their {@link Episodes#CONTENT_HASH} differs from the
+ * hash of the parsed values, see {@link TvdbEpisodeParser.Episode#contentHash(long)}.
+ */
+public class EpisodeOpsBuilder implements TvdbEpisodeParser.Callback {
+
+    private final Context context;
+    private final Show show;
+    private final ArrayList<ContentProviderOperation> batch;
+    private final HashMap<Integer, Long> localEpisodeHashes;
+    private final HashSet<Integer> localSeasonIds;
+
+    private final DateTimeZone showTimeZone;
+    private final LocalTime showReleaseTime;
+    private final String deviceTimeZone;
+
+    private final ArrayList<ContentValues> newEpisodesValues = new ArrayList<>();
+    private final HashSet<Integer> parsedEpisodeIds = new HashSet<>();
+    // store updated seasons to avoid duplicate ops
+    private final HashSet<Integer> seasonIdsToUpdate = new HashSet<>();
+    private final ContentValues values = new ContentValues();
+    private int skippedUpdateCount;
+
+    /**
+     * @param localEpisodeHashes Maps ids of the episodes of the show in the database to their
+     * content hash, see {@link DBUtils#getEpisodeMapForShow(Context, int)}.
+     * @param localSeasonIds Ids of the seasons of the show in the database.
+     */
+    public EpisodeOpsBuilder(@Nullable Context context, @NonNull Show show,
+            @NonNull ArrayList<ContentProviderOperation> batch,
+            @NonNull HashMap<Integer, Long> localEpisodeHashes,
+            @NonNull HashSet<Integer> localSeasonIds) {
+        this.context = context;
+        this.show = show;
+        this.batch = batch;
+        this.localEpisodeHashes = localEpisodeHashes;
+        this.localSeasonIds = localSeasonIds;
+        this.showTimeZone = TimeTools.getDateTimeZone(show.release_timezone);
+        this.showReleaseTime = TimeTools.getShowReleaseTime(show.release_time);
+        this.deviceTimeZone = TimeZone.getDefault().getID();
+    }
+
+    @Override
+    public void onEpisode(TvdbEpisodeParser.Episode episode) {
+        int episodeId = episode.tvdbId;
+        if (episodeId <= 0) {
+            // invalid id, skip
+            return;
+        }
+
+        // don't clean up this episode
+        parsedEpisodeIds.add(episodeId);
+
+        long releaseDateTime = TimeTools.parseEpisodeReleaseDate(context, showTimeZone,
+                episode.firstAired, showReleaseTime, show.country, show.network, deviceTimeZone);
+
+        // only build values if they are actually needed
+        boolean valuesBuilt = false;
+
+        // decide whether to insert or update
+        Long localHash = localEpisodeHashes.get(episodeId);
+        if (localHash != null) {
+            // update uses provider ops which take a long time, only update if values changed
+            if (localHash != episode.contentHash(releaseDateTime)) {
+                episode.toContentValues(values, releaseDateTime);
+                valuesBuilt = true;
+                batch.add(DBUtils.buildEpisodeUpdateOp(values));
+            } else {
+                skippedUpdateCount++;
+            }
+        } else {
+            // episode does not exist, yet
+            ContentValues newValues = new ContentValues();
+            episode.toContentValues(newValues, releaseDateTime);
+            newEpisodesValues.add(newValues);
+        }
+
+        int seasonId = episode.seasonTvdbId;
+        if (seasonId > 0 && !seasonIdsToUpdate.contains(seasonId)) {
+            // add insert/update op for season
+            if (!valuesBuilt) {
+                episode.toContentValues(values, releaseDateTime);
+            }
+            batch.add(DBUtils.buildSeasonOp(values, !localSeasonIds.contains(seasonId)));
+            seasonIdsToUpdate.add(seasonId);
+        }
+    }
+
+    /**
+     * Call once all episodes were parsed. Adds delete ops for local episodes that were not
+     * parsed to the batch.
+     *
+     * @return Values of all new episodes, to insert in bulk.
+     */
+    @NonNull
+    public ArrayList<ContentValues> finish() {
+        for (Map.Entry<Integer, Long> localEpisode : localEpisodeHashes.entrySet()) {
+            Integer episodeId = localEpisode.getKey();
+            if (!parsedEpisodeIds.contains(episodeId)) {
+                batch.add(ContentProviderOperation.newDelete(Episodes.buildEpisodeUri(episodeId))
+                        .build());
+            }
+        }
+        return newEpisodesValues;
+    }
+
+    /**
+     * Number of existing episodes that were not updated because their values did not change.
+     */
+    public int getSkippedUpdateCount() {
+        return skippedUpdateCount;
+    }
+}
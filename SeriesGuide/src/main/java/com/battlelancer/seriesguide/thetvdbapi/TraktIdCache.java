@@ -0,0 +1,99 @@
+package com.battlelancer.seriesguide.thetvdbapi;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.annotation.Nullable;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.TraktShowIds;
+import com.battlelancer.seriesguide.settings.UpdateSettings;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers which trakt id TheTVDB shows map to, so updating a show does not have to look it up
+ * on trakt each time. Mappings sometimes get fixed on trakt, so they are looked up again once
+ * older than {@link UpdateSettings#getTraktIdTtl(Context)}, or if invalidated.
+ */
+public class TraktIdCache {
+
+    private static final String[] PROJECTION = new String[] {
+            TraktShowIds.TRAKT_ID,
+            TraktShowIds.LOOKUP_MS
+    };
+
+    private static final AtomicInteger hitCount = new AtomicInteger();
+    private static final AtomicInteger missCount = new AtomicInteger();
+
+    private TraktIdCache() {
+    }
+
+    /**
+     * Returns the trakt id of the given show if it was looked up recently enough.
+     *
+     * @return {@code null} if it should be looked up on trakt.
+     */
+    @Nullable
+    static Integer get(Context context, int showTvdbId) {
+        long ttl = UpdateSettings.getTraktIdTtl(context);
+        Integer traktId = null;
+        if (ttl > 0) {
+            Cursor query = context.getContentResolver()
+                    .query(TraktShowIds.buildTraktShowIdUri(showTvdbId), PROJECTION, null, null,
+                            null);
+            if (query != null) {
+                if (query.moveToFirst()
+                        && System.currentTimeMillis() - query.getLong(1) < ttl) {
+                    traktId = query.getInt(0);
+                }
+                query.close();
+            }
+        }
+
+        if (traktId != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return traktId;
+    }
+
+    /**
+     * Stores the trakt id of the given show, just looked up on trakt.
+     */
+    static void put(Context context, int showTvdbId, int traktId) {
+        ContentValues values = new ContentValues();
+        values.put(TraktShowIds._ID, showTvdbId);
+        values.put(TraktShowIds.TRAKT_ID, traktId);
+        values.put(TraktShowIds.LOOKUP_MS, System.currentTimeMillis());
+        context.getContentResolver().insert(TraktShowIds.CONTENT_URI, values);
+    }
+
+    /**
+     * Removes the cached trakt id of the given show, so it is looked up the next time the show is
+     * updated.
+     */
+    public static void invalidate(Context context, int showTvdbId) {
+        context.getContentResolver()
+                .delete(TraktShowIds.buildTraktShowIdUri(showTvdbId), null, null);
+    }
+
+    /**
+     * Removes all cached trakt ids.
+     */
+    public static void invalidateAll(Context context) {
+        context.getContentResolver().delete(TraktShowIds.CONTENT_URI, null, null);
+    }
+
+    /**
+     * How often a cached trakt id was used since the app was started.
+     */
+    public static int getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * How often a trakt id was not cached or outdated since the app was started.
+     */
+    public static int getMissCount() {
+        return missCount.get();
+    }
+}
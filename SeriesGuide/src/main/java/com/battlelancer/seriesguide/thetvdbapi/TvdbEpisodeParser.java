@@ -0,0 +1,327 @@
+package com.battlelancer.seriesguide.thetvdbapi;
+
+import android.content.ContentValues;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Xml;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Seasons;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.Shows;
+import java.io.IOException;
+import java.io.InputStream;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Streams episodes out of a TheTVDB episode XML file (like the first entry of {@code
+ * all/<lang>.zip}) using a pull parser.
+ *
+ * <p> A single mutable {@link Episode} record is re-used for all episodes of a file, numeric
+ * fields are parsed into primitives. Callers should copy any data they want to keep before
+ * returning from {@link Callback#onEpisode(Episode)}.
+ */
+public class TvdbEpisodeParser {
+
+    public interface Callback {
+        /**
+         * Called once for each episode element. The given record is re-used for the next episode
+         * after this returns.
+         */
+        void onEpisode(Episode episode);
+    }
+
+    /**
+     * Mutable episode record as found in TheTVDB XML. Numeric fields that are missing or can not
+     * be parsed are set to their default values.
+     */
+    public static class Episode {
+
+        public int tvdbId;
+        public int number;
+        /** 0 if unknown. */
+        public int absoluteNumber;
+        public int season;
+        /** {@link Double#NaN} if unknown. */
+        public double dvdNumber;
+        /** Raw release date string, like 2015-01-31. */
+        @Nullable public String firstAired;
+        @Nullable public String title;
+        @Nullable public String overview;
+        public int seasonTvdbId;
+        public int showTvdbId;
+        @Nullable public String directors;
+        @Nullable public String guestStars;
+        @Nullable public String writers;
+        @Nullable public String image;
+        @Nullable public String imdbId;
+        public long lastEdited;
+
+        public Episode() {
+            reset();
+        }
+
+        void reset() {
+            tvdbId = 0;
+            number = 0;
+            absoluteNumber = 0;
+            season = 0;
+            dvdNumber = Double.NaN;
+            firstAired = null;
+            title = null;
+            overview = null;
+            seasonTvdbId = 0;
+            showTvdbId = 0;
+            directors = null;
+            guestStars = null;
+            writers = null;
+            image = null;
+            imdbId = null;
+            lastEdited = 0;
+        }
+
+        /**
+         * Clears and fills the given {@link ContentValues} with the values of this record, ready
+         * to insert or update a row in the episodes table.
+         *
+         * @param firstReleaseMs The release date as returned by {@link
+         * com.battlelancer.seriesguide.util.TimeTools#parseEpisodeReleaseDate}.
+         */
+        public void toContentValues(@NonNull ContentValues values, long firstReleaseMs) {
+            values.clear();
+            values.put(Episodes._ID, tvdbId);
+            values.put(Episodes.NUMBER, number);
+            if (absoluteNumber > 0) {
+                values.put(Episodes.ABSOLUTE_NUMBER, absoluteNumber);
+            } else {
+                values.putNull(Episodes.ABSOLUTE_NUMBER);
+            }
+            values.put(Episodes.SEASON, season);
+            if (Double.isNaN(dvdNumber)) {
+                values.putNull(Episodes.DVDNUMBER);
+            } else {
+                values.put(Episodes.DVDNUMBER, dvdNumber);
+            }
+            values.put(Episodes.FIRSTAIREDMS, firstReleaseMs);
+            values.put(Episodes.TITLE, title != null ? title : "");
+            values.put(Episodes.OVERVIEW, overview);
+            values.put(Seasons.REF_SEASON_ID, seasonTvdbId);
+            values.put(Shows.REF_SHOW_ID, showTvdbId);
+            values.put(Episodes.DIRECTORS, directors != null ? directors : "");
+            values.put(Episodes.GUESTSTARS, guestStars != null ? guestStars : "");
+            values.put(Episodes.WRITERS, writers != null ? writers : "");
+            values.put(Episodes.IMAGE, image != null ? image : "");
+            values.put(Episodes.IMDBID, imdbId != null ? imdbId : "");
+            values.put(Episodes.LAST_EDITED, lastEdited);
+            values.put(Episodes.CONTENT_HASH, contentHash(firstReleaseMs));
+        }
+
+        /**
+         * Returns a 64-bit FNV-1a hash over all values stored for an episode, except the last
+         * edited time. Never returns 0, which is used if the hash is unknown.
+         */
+        public long contentHash(long firstReleaseMs) {
+            long hash = FNV_OFFSET_BASIS;
+            hash = hash(hash, tvdbId);
+            hash = hash(hash, number);
+            hash = hash(hash, absoluteNumber);
+            hash = hash(hash, season);
+            hash = hash(hash, Double.doubleToLongBits(dvdNumber));
+            hash = hash(hash, firstReleaseMs);
+            hash = hash(hash, title);
+            hash = hash(hash, overview);
+            hash = hash(hash, seasonTvdbId);
+            hash = hash(hash, showTvdbId);
+            hash = hash(hash, directors);
+            hash = hash(hash, guestStars);
+            hash = hash(hash, writers);
+            hash = hash(hash, image);
+            hash = hash(hash, imdbId);
+            return hash == 0 ? 1 : hash;
+        }
+
+        private static long hash(long hash, long value) {
+            for (int i = 0; i < 8; i++) {
+                hash ^= (value >>> (i * 8)) & 0xff;
+                hash *= FNV_PRIME;
+            }
+            return hash;
+        }
+
+        private static long hash(long hash, @Nullable String value) {
+            if (value == null) {
+                // distinguish from empty string
+                return hash(hash, -1L);
+            }
+            int length = value.length();
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                hash ^= c & 0xff;
+                hash *= FNV_PRIME;
+                hash ^= c >>> 8;
+                hash *= FNV_PRIME;
+            }
+            // separate from next value
+            return hash(hash, length);
+        }
+    }
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final String TAG_DATA = "Data";
+    private static final String TAG_EPISODE = "Episode";
+
+    private final Episode episode = new Episode();
+
+    /**
+     * Parses the given UTF-8 encoded XML stream, calling back for each episode. Does not close the
+     * stream.
+     */
+    public void parse(@NonNull InputStream input, @NonNull Callback callback)
+            throws XmlPullParserException, IOException {
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+        parser.setInput(input, "UTF-8");
+        parse(parser, callback);
+    }
+
+    /**
+     * Like {@link #parse(InputStream, Callback)}, but uses the given, already set up parser.
+     */
+    public void parse(@NonNull XmlPullParser parser, @NonNull Callback callback)
+            throws XmlPullParserException, IOException {
+        parser.nextTag();
+        parser.require(XmlPullParser.START_TAG, null, TAG_DATA);
+        while (parser.nextTag() == XmlPullParser.START_TAG) {
+            if (TAG_EPISODE.equals(parser.getName())) {
+                readEpisode(parser);
+                callback.onEpisode(episode);
+            } else {
+                // e.g. the Series element
+                skip(parser);
+            }
+        }
+    }
+
+    private void readEpisode(XmlPullParser parser) throws XmlPullParserException, IOException {
+        episode.reset();
+        while (parser.nextTag() == XmlPullParser.START_TAG) {
+            String name = parser.getName();
+            switch (name) {
+                case "id":
+                    episode.tvdbId = parseInt(parser.nextText(), 0);
+                    break;
+                case "EpisodeNumber":
+                    episode.number = parseInt(parser.nextText(), 0);
+                    break;
+                case "absolute_number":
+                    episode.absoluteNumber = parseInt(parser.nextText(), 0);
+                    break;
+                case "SeasonNumber":
+                    episode.season = parseInt(parser.nextText(), 0);
+                    break;
+                case "DVD_episodenumber":
+                    episode.dvdNumber = parseDouble(parser.nextText());
+                    break;
+                case "FirstAired":
+                    episode.firstAired = trimOrNull(parser.nextText());
+                    break;
+                case "EpisodeName":
+                    episode.title = parser.nextText().trim();
+                    break;
+                case "Overview":
+                    episode.overview = parser.nextText().trim();
+                    break;
+                case "seasonid":
+                    episode.seasonTvdbId = parseInt(parser.nextText(), 0);
+                    break;
+                case "seriesid":
+                    episode.showTvdbId = parseInt(parser.nextText(), 0);
+                    break;
+                case "Director":
+                    episode.directors = parser.nextText().trim();
+                    break;
+                case "GuestStars":
+                    episode.guestStars = parser.nextText().trim();
+                    break;
+                case "Writer":
+                    episode.writers = parser.nextText().trim();
+                    break;
+                case "filename":
+                    episode.image = parser.nextText().trim();
+                    break;
+                case "IMDB_ID":
+                    episode.imdbId = parser.nextText().trim();
+                    break;
+                case "lastupdated":
+                    // system populated field, trimming not necessary
+                    episode.lastEdited = parseLong(parser.nextText());
+                    break;
+                default:
+                    skip(parser);
+                    break;
+            }
+        }
+    }
+
+    private static void skip(XmlPullParser parser) throws XmlPullParserException, IOException {
+        int depth = 1;
+        while (depth != 0) {
+            switch (parser.next()) {
+                case XmlPullParser.END_TAG:
+                    depth--;
+                    break;
+                case XmlPullParser.START_TAG:
+                    depth++;
+                    break;
+                case XmlPullParser.END_DOCUMENT:
+                    throw new XmlPullParserException("Unexpected end of document");
+            }
+        }
+    }
+
+    @Nullable
+    private static String trimOrNull(String text) {
+        String trimmed = text.trim();
+        return trimmed.length() == 0 ? null : trimmed;
+    }
+
+    /**
+     * Parses an int without boxing, returns the default value if the text is empty or not a
+     * number.
+     */
+    static int parseInt(String text, int defaultValue) {
+        text = text.trim();
+        if (text.length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static long parseLong(String text) {
+        if (text.length() == 0) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static double parseDouble(String text) {
+        text = text.trim();
+        if (text.length() == 0) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -5,12 +5,14 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
 import android.sax.Element;
 import android.sax.EndElementListener;
 import android.sax.EndTextElementListener;
 import android.sax.RootElement;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
 import android.text.format.DateUtils;
 import android.util.Xml;
@@ -22,7 +24,6 @@ import com.battlelancer.seriesguide.dataliberation.JsonExportTask.ShowStatusExpo
 import com.battlelancer.seriesguide.dataliberation.model.Show;
 import com.battlelancer.seriesguide.items.SearchResult;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
-import com.battlelancer.seriesguide.provider.SeriesGuideContract.Seasons;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.Shows;
 import com.battlelancer.seriesguide.settings.AppSettings;
 import com.battlelancer.seriesguide.settings.DisplaySettings;
@@ -56,23 +57,24 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.zip.ZipInputStream;
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
-import org.joda.time.DateTimeZone;
-import org.joda.time.LocalTime;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
+import org.xmlpull.v1.XmlPullParserException;
 import timber.log.Timber;
 
 /**
  * Provides access to the TheTVDb.com XML API throwing in some additional data from trakt.tv here
  * and there.
  */
-public class TvdbTools {
+public class TvdbTools implements TvdbUpdates.Feed {
 
     private static final String TVDB_MIRROR_BANNERS = "http://thetvdb.com/banners/";
 
@@ -82,6 +84,8 @@ public class TvdbTools {
 
     private static final String TVDB_API_GETSERIES = TVDB_API_URL + "GetSeries.php?seriesname=";
 
+    private static final String TVDB_API_UPDATES = TVDB_API_URL + "Updates.php?type=";
+
     private static final String TVDB_API_SERIES = TVDB_API_URL + BuildConfig.TVDB_API_KEY
             + "/series/";
 
@@ -112,6 +116,19 @@ public class TvdbTools {
         app.getServicesComponent().inject(this);
     }
 
+    /**
+     * Uses the given services instead of injecting them. Only supports getting show details.
+     */
+    @VisibleForTesting
+    public TvdbTools(SgApp app, Lazy<TheTvdbSeries> tvdbSeries,
+            Lazy<com.uwetrottmann.trakt5.services.Search> traktSearch,
+            Lazy<com.uwetrottmann.trakt5.services.Shows> traktShows) {
+        this.app = app;
+        this.tvdbSeries = tvdbSeries;
+        this.traktSearch = traktSearch;
+        this.traktShows = traktShows;
+    }
+
     /**
      * Builds a full url for a TVDb show poster using the given image path.
      */
@@ -185,7 +202,7 @@ public class TvdbTools {
         // get episodes and store everything to the database
         final ArrayList<ContentProviderOperation> batch = new ArrayList<>();
         batch.add(DBUtils.buildShowOp(app, show, true));
-        getEpisodesAndUpdateDatabase(batch, show, language);
+        applyShowUpdate(fetchEpisodes(batch, show, language, false));
 
         // restore episode flags...
         if (HexagonTools.isSignedIn(app)) {
@@ -221,14 +238,61 @@ public class TvdbTools {
         return true;
     }
 
+    /**
+     * Database changes to update a single show, built by {@link #fetchShowUpdate(int)} and
+     * stored using {@link #applyShowUpdate(ShowUpdate)}.
+     */
+    public static class ShowUpdate {
+
+        public final int showTvdbId;
+        final ArrayList<ContentProviderOperation> batch;
+        final ContentValues[] newEpisodesValues;
+        final EpisodeArchiveValidators validators;
+        /**
+         * If the episode archive was not modified since the last update, so there are no episode
+         * changes.
+         */
+        public final boolean isEpisodesNotModified;
+        /**
+         * How many existing episodes were not updated because their values did not change.
+         */
+        public final int skippedEpisodeUpdates;
+
+        ShowUpdate(int showTvdbId, ArrayList<ContentProviderOperation> batch,
+                ContentValues[] newEpisodesValues, EpisodeArchiveValidators validators,
+                boolean isEpisodesNotModified, int skippedEpisodeUpdates) {
+            this.showTvdbId = showTvdbId;
+            this.batch = batch;
+            this.newEpisodesValues = newEpisodesValues;
+            this.validators = validators;
+            this.isEpisodesNotModified = isEpisodesNotModified;
+            this.skippedEpisodeUpdates = skippedEpisodeUpdates;
+        }
+    }
+
     /**
      * Updates a show. Adds new, updates changed and removes orphaned episodes.
      */
     public void updateShow(int showTvdbId) throws TvdbException {
+        ShowUpdate update = fetchShowUpdate(showTvdbId);
+        if (update != null) {
+            applyShowUpdate(update);
+        }
+    }
+
+    /**
+     * Downloads show details and episodes and builds the database changes to update the show, but
+     * does not apply them. Only reads from the database (except to cache trakt ids), so may run
+     * concurrently for different shows.
+     *
+     * @return {@code null} if the show language could not be determined.
+     */
+    @Nullable
+    public ShowUpdate fetchShowUpdate(int showTvdbId) throws TvdbException {
         // determine which translation to get
         String language = getShowLanguage(app, showTvdbId);
         if (language == null) {
-            return;
+            return null;
         }
 
         final ArrayList<ContentProviderOperation> batch = new ArrayList<>();
@@ -238,7 +302,44 @@ public class TvdbTools {
 
         // get episodes in the language as returned in the TVDB show entry
         // the show might not be available in the desired language
-        getEpisodesAndUpdateDatabase(batch, show, show.language);
+        // skip if episodes have not changed since the last update
+        return fetchEpisodes(batch, show, show.language, true);
+    }
+
+    /**
+     * Applies the show and episode ops in a single transaction, then inserts all new episodes.
+     */
+    public void applyShowUpdate(@NonNull ShowUpdate update) throws TvdbException {
+        boolean isStored;
+        try {
+            isStored = DBUtils.applyInSingleTransaction(app, update.batch);
+        } catch (OperationApplicationException e) {
+            EpisodeArchiveValidators.clear(app, update.showTvdbId);
+            throw new TvdbException("applyShowUpdate: " + e.getMessage(), e);
+        }
+
+        // insert all new episodes in bulk
+        if (isStored && update.newEpisodesValues.length > 0) {
+            try {
+                app.getContentResolver()
+                        .bulkInsert(Episodes.CONTENT_URI, update.newEpisodesValues);
+            } catch (SQLiteException e) {
+                Timber.e(e, "applyShowUpdate: failed to insert episodes, database error.");
+                DBUtils.postDatabaseError(e);
+                isStored = false;
+            }
+        }
+
+        if (!isStored) {
+            // episodes may be partially stored, make sure the next update downloads them again
+            EpisodeArchiveValidators.clear(app, update.showTvdbId);
+            throw new TvdbException("applyShowUpdate: failed to store show " + update.showTvdbId);
+        }
+
+        // only now that episodes are stored, remember which archive version they are from
+        if (!update.isEpisodesNotModified) {
+            update.validators.save(app);
+        }
     }
 
     private static String getShowLanguage(Context context, int showTvdbId) {
@@ -369,7 +470,8 @@ public class TvdbTools {
             + 12 * DateUtils.HOUR_IN_MILLIS;
 
     /**
-     * Return list of show TVDb ids hitting a x-day limit.
+     * Return list of show TVDb ids hitting a x-day limit. Used if changes can not be determined
+     * using {@link TvdbUpdates}.
      */
     public static int[] deltaUpdateShows(long currentTime, Context context) {
         final List<Integer> updatableShowIds = new ArrayList<>();
@@ -407,27 +509,6 @@ public class TvdbTools {
         return showTvdbIds;
     }
 
-    /**
-     * Fetches episodes for the given show from TVDb, adds database ops for them. Then adds all
-     * information to the database.
-     */
-    private void getEpisodesAndUpdateDatabase(final ArrayList<ContentProviderOperation> batch,
-            Show show, String language) throws TvdbException {
-        // get ops for episodes of this show
-        ArrayList<ContentValues> importShowEpisodes = fetchEpisodes(batch, show, language);
-        ContentValues[] newEpisodesValues = new ContentValues[importShowEpisodes.size()];
-        newEpisodesValues = importShowEpisodes.toArray(newEpisodesValues);
-
-        try {
-            DBUtils.applyInSmallBatches(app, batch);
-        } catch (OperationApplicationException e) {
-            throw new TvdbException("getEpisodesAndUpdateDatabase: " + e.getMessage(), e);
-        }
-
-        // insert all new episodes in bulk
-        app.getContentResolver().bulkInsert(Episodes.CONTENT_URI, newEpisodesValues);
-    }
-
     /**
      * Like {@link #getShowDetails(int, String)}, but if signed in and available adds properties
      * stored on Hexagon.
@@ -473,26 +554,43 @@ public class TvdbTools {
      * Get show details from TVDb in the user preferred language. Tries to fetch additional
      * information from trakt.
      *
+     * <p> The trakt details, TVDb details and TVDb posters are requested concurrently, so this
+     * takes about as long as the slowest of them.
+     *
      * @param language A TVDb language code (ISO 639-1 two-letter format, see <a
      * href="http://www.thetvdb.com/wiki/index.php/API:languages.xml">TVDb wiki</a>). If not
      * supplied, TVDb falls back to English.
      */
     @NonNull
-    public Show getShowDetails(int showTvdbId, @NonNull String language) throws TvdbException {
+    public Show getShowDetails(final int showTvdbId, @NonNull final String language)
+            throws TvdbException {
         // try to get some details from trakt
-        com.uwetrottmann.trakt5.entities.Show traktShow = null;
-        // always look up the trakt id based on the TVDb id
-        // e.g. a TVDb id might be linked against the wrong trakt entry, then get fixed
-        Integer showTraktId = lookupShowTraktId(showTvdbId);
-        if (showTraktId != null) {
-            traktShow = SgTrakt.executeCall(app,
-                    traktShows.get().summary(String.valueOf(showTraktId), Extended.FULL),
-                    "get show summary"
-            );
-        }
+        Future<com.uwetrottmann.trakt5.entities.Show> traktShowRequest
+                = ConcurrentRequests.submit(
+                new Callable<com.uwetrottmann.trakt5.entities.Show>() {
+                    @Override
+                    public com.uwetrottmann.trakt5.entities.Show call() {
+                        return getTraktShow(showTvdbId);
+                    }
+                });
+        Future<String> posterRequest = ConcurrentRequests.submit(new Callable<String>() {
+            @Override
+            public String call() throws TvdbException {
+                return getPoster(showTvdbId, language);
+            }
+        });
 
         // get full show details from TVDb
-        final Show show = downloadAndParseShow(showTvdbId, language);
+        final Show show;
+        com.uwetrottmann.trakt5.entities.Show traktShow;
+        try {
+            show = downloadAndParseShow(showTvdbId, language);
+            show.poster = ConcurrentRequests.await(posterRequest, "getShowDetails: ");
+            traktShow = ConcurrentRequests.await(traktShowRequest, "getShowDetails: ");
+        } catch (TvdbException | RuntimeException e) {
+            ConcurrentRequests.cancel(traktShowRequest, posterRequest);
+            throw e;
+        }
 
         // fill in data from trakt
         if (traktShow != null) {
@@ -521,6 +619,37 @@ public class TvdbTools {
         return show;
     }
 
+    /**
+     * Get full show details from trakt, may return {@code null} if not found or a request failed.
+     */
+    @Nullable
+    private com.uwetrottmann.trakt5.entities.Show getTraktShow(int showTvdbId) {
+        // regularly look up the trakt id based on the TVDb id
+        // e.g. a TVDb id might be linked against the wrong trakt entry, then get fixed
+        Integer showTraktId = TraktIdCache.get(app, showTvdbId);
+        boolean isCached = showTraktId != null;
+        if (!isCached) {
+            showTraktId = lookupShowTraktId(showTvdbId);
+            if (showTraktId == null) {
+                return null;
+            }
+        }
+
+        com.uwetrottmann.trakt5.entities.Show traktShow = SgTrakt.executeCall(app,
+                traktShows.get().summary(String.valueOf(showTraktId), Extended.FULL),
+                "get show summary"
+        );
+        if (traktShow == null) {
+            if (isCached) {
+                // the cached id might be wrong, look it up next time
+                TraktIdCache.invalidate(app, showTvdbId);
+            }
+        } else if (!isCached) {
+            TraktIdCache.put(app, showTvdbId, showTraktId);
+        }
+        return traktShow;
+    }
+
     /**
      * Look up a show's trakt id, may return {@code null} if not found.
      */
@@ -549,7 +678,7 @@ public class TvdbTools {
      * Get a show from TVDb. Tries to fetch in the desired language, but will fall back to the
      * default entry if no translation exists. The returned entity will still have its <b>language
      * property set to the desired language</b>, which might not be the language of the actual
-     * content.
+     * content. Does not get the poster, see {@link #getPoster(int, String)}.
      */
     @NonNull
     private Show downloadAndParseShow(int showTvdbId, @NonNull String desiredLanguage)
@@ -601,7 +730,18 @@ public class TvdbTools {
             }
         }
 
-        // poster
+        return result;
+    }
+
+    /**
+     * Get the highest rated poster of a show from TVDb. Tries to get one for the desired language,
+     * but will fall back to the default posters if there are none.
+     *
+     * @return {@code null} if there is no poster.
+     */
+    @Nullable
+    private String getPoster(int showTvdbId, @NonNull String desiredLanguage)
+            throws TvdbException {
         retrofit2.Response<SeriesImageQueryResultResponse> posterResponse;
         posterResponse = getSeriesPosters(showTvdbId, desiredLanguage);
         if (posterResponse.code() == 404) {
@@ -610,10 +750,9 @@ public class TvdbTools {
         }
 
         if (posterResponse.isSuccessful()) {
-            result.poster = getHighestRatedPoster(posterResponse.body().data);
+            return getHighestRatedPoster(posterResponse.body().data);
         }
-
-        return result;
+        return null;
     }
 
     @NonNull
@@ -659,182 +798,140 @@ public class TvdbTools {
         return posters.get(highestRatedIndex).fileName;
     }
 
-    private ArrayList<ContentValues> fetchEpisodes(ArrayList<ContentProviderOperation> batch,
-            Show show, String language) throws TvdbException {
-        String url = TVDB_API_SERIES + show.tvdb_id + "/" + TVDB_PATH_ALL
-                + (language != null ? language + TVDB_EXTENSION_COMPRESSED : TVDB_FILE_DEFAULT);
-
-        return parseEpisodes(batch, show, url);
+    /**
+     * Returns the TVDb ids and last update time (in ms) of all local shows.
+     *
+     * @return {@code null} if the query failed.
+     */
+    @Nullable
+    public static HashMap<Integer, Long> getShowsLastUpdated(Context context) {
+        Cursor shows = context.getContentResolver().query(Shows.CONTENT_URI, new String[] {
+                Shows._ID, Shows.LASTUPDATED
+        }, null, null, null);
+        if (shows == null) {
+            return null;
+        }
+        HashMap<Integer, Long> showsLastUpdated = new HashMap<>(shows.getCount());
+        while (shows.moveToNext()) {
+            showsLastUpdated.put(shows.getInt(0), shows.getLong(1));
+        }
+        shows.close();
+        return showsLastUpdated;
     }
 
     /**
-     * Loads the given zipped XML and parses containing episodes to create an array of {@link
-     * ContentValues} for new episodes.<br> Adds update ops for updated episodes and delete ops for
-     * local orphaned episodes to the given {@link ContentProviderOperation} batch.
+     * Asks TheTVDB which series changed since the given server time.
      */
-    private ArrayList<ContentValues> parseEpisodes(final ArrayList<ContentProviderOperation> batch,
-            final Show show, String url) throws TvdbException {
-        final long dateLastMonthEpoch = (System.currentTimeMillis()
-                - (DateUtils.DAY_IN_MILLIS * 30)) / 1000;
-        final DateTimeZone showTimeZone = TimeTools.getDateTimeZone(show.release_timezone);
-        final LocalTime showReleaseTime = TimeTools.getShowReleaseTime(show.release_time);
-        final String deviceTimeZone = TimeZone.getDefault().getID();
-
-        RootElement root = new RootElement("Data");
-        Element episode = root.getChild("Episode");
-
-        final ArrayList<ContentValues> newEpisodesValues = new ArrayList<>();
-
-        final HashMap<Integer, Long> localEpisodeIds = DBUtils.getEpisodeMapForShow(app,
-                show.tvdb_id);
-        final HashMap<Integer, Long> removableEpisodeIds = new HashMap<>(
-                localEpisodeIds); // just copy episodes list, then remove valid ones
-        final HashSet<Integer> localSeasonIds = DBUtils.getSeasonIdsOfShow(app, show.tvdb_id);
-        // store updated seasons to avoid duplicate ops
-        final HashSet<Integer> seasonIdsToUpdate = new HashSet<>();
-        final ContentValues values = new ContentValues();
-
-        // set handlers for elements we want to react to
-        episode.setEndElementListener(new EndElementListener() {
-            public void end() {
-                Integer episodeId = values.getAsInteger(Episodes._ID);
-                if (episodeId == null || episodeId <= 0) {
-                    // invalid id, skip
-                    return;
-                }
+    @NonNull
+    @Override
+    public TvdbUpdates.ChangedShows getChangedShowsSince(long fromTimeSec) throws TvdbException {
+        return downloadUpdates("series&time=" + fromTimeSec, "getChangedShowsSince: ");
+    }
 
-                // don't clean up this episode
-                removableEpisodeIds.remove(episodeId);
-
-                // decide whether to insert or update
-                if (localEpisodeIds.containsKey(episodeId)) {
-                    /*
-                     * Update uses provider ops which take a long time. Only
-                     * update if episode was edited on TVDb or is not older than
-                     * a month (ensures show air time changes get stored).
-                     */
-                    Long lastEditEpoch = localEpisodeIds.get(episodeId);
-                    Long lastEditEpochNew = values.getAsLong(Episodes.LAST_EDITED);
-                    if (lastEditEpoch != null && lastEditEpochNew != null
-                            && (lastEditEpoch < lastEditEpochNew
-                            || dateLastMonthEpoch < lastEditEpoch)) {
-                        // complete update op for episode
-                        batch.add(DBUtils.buildEpisodeUpdateOp(values));
-                    }
-                } else {
-                    // episode does not exist, yet
-                    newEpisodesValues.add(new ContentValues(values));
-                }
+    @Override
+    public long getServerTime() throws TvdbException {
+        return downloadUpdates("none", "getServerTime: ").serverTimeSec;
+    }
 
-                Integer seasonId = values.getAsInteger(Seasons.REF_SEASON_ID);
-                if (seasonId != null && !seasonIdsToUpdate.contains(seasonId)) {
-                    // add insert/update op for season
-                    batch.add(DBUtils.buildSeasonOp(values, !localSeasonIds.contains(seasonId)));
-                    seasonIdsToUpdate.add(values.getAsInteger(Seasons.REF_SEASON_ID));
-                }
+    /**
+     * Downloads and parses the server time and any changed series from Updates.php.
+     *
+     * @param type The type parameter and any further parameters of the request.
+     */
+    @NonNull
+    private TvdbUpdates.ChangedShows downloadUpdates(String type, String logTag)
+            throws TvdbException {
+        final HashSet<Integer> showTvdbIds = new HashSet<>();
+        final long[] serverTime = new long[1];
 
-                values.clear();
-            }
-        });
-        episode.getChild("id").setEndTextElementListener(new EndTextElementListener() {
-            public void end(String body) {
-                values.put(Episodes._ID, body.trim());
-            }
-        });
-        episode.getChild("EpisodeNumber").setEndTextElementListener(new EndTextElementListener() {
-            public void end(String body) {
-                values.put(Episodes.NUMBER, body.trim());
-            }
-        });
-        episode.getChild("absolute_number").setEndTextElementListener(new EndTextElementListener() {
-            public void end(String body) {
-                values.put(Episodes.ABSOLUTE_NUMBER, body.trim());
-            }
-        });
-        episode.getChild("SeasonNumber").setEndTextElementListener(new EndTextElementListener() {
+        RootElement root = new RootElement("Items");
+        root.getChild("Time").setEndTextElementListener(new EndTextElementListener() {
+            @Override
             public void end(String body) {
-                values.put(Episodes.SEASON, body.trim());
-            }
-        });
-        episode.getChild("DVD_episodenumber").setEndTextElementListener(
-                new EndTextElementListener() {
-                    public void end(String body) {
-                        values.put(Episodes.DVDNUMBER, body.trim());
-                    }
+                try {
+                    serverTime[0] = Long.parseLong(body.trim());
+                } catch (NumberFormatException ignored) {
                 }
-        );
-        episode.getChild("FirstAired").setEndTextElementListener(new EndTextElementListener() {
-            public void end(String releaseDate) {
-                long releaseDateTime = TimeTools.parseEpisodeReleaseDate(app, showTimeZone,
-                        releaseDate, showReleaseTime, show.country, show.network, deviceTimeZone);
-                values.put(Episodes.FIRSTAIREDMS, releaseDateTime);
-            }
-        });
-        episode.getChild("EpisodeName").setEndTextElementListener(new EndTextElementListener() {
-            public void end(String body) {
-                values.put(Episodes.TITLE, body.trim());
-            }
-        });
-        episode.getChild("Overview").setEndTextElementListener(new EndTextElementListener() {
-            public void end(String body) {
-                values.put(Episodes.OVERVIEW, body.trim());
-            }
-        });
-        episode.getChild("seasonid").setEndTextElementListener(new EndTextElementListener() {
-            public void end(String body) {
-                values.put(Seasons.REF_SEASON_ID, body.trim());
-            }
-        });
-        episode.getChild("seriesid").setEndTextElementListener(new EndTextElementListener() {
-            public void end(String body) {
-                values.put(Shows.REF_SHOW_ID, body.trim());
-            }
-        });
-        episode.getChild("Director").setEndTextElementListener(new EndTextElementListener() {
-            public void end(String body) {
-                values.put(Episodes.DIRECTORS, body.trim());
-            }
-        });
-        episode.getChild("GuestStars").setEndTextElementListener(new EndTextElementListener() {
-            public void end(String body) {
-                values.put(Episodes.GUESTSTARS, body.trim());
             }
         });
-        episode.getChild("Writer").setEndTextElementListener(new EndTextElementListener() {
-            public void end(String body) {
-                values.put(Episodes.WRITERS, body.trim());
-            }
-        });
-        episode.getChild("filename").setEndTextElementListener(new EndTextElementListener() {
-            public void end(String body) {
-                values.put(Episodes.IMAGE, body.trim());
-            }
-        });
-        episode.getChild("IMDB_ID").setEndTextElementListener(new EndTextElementListener() {
-            public void end(String body) {
-                values.put(Episodes.IMDBID, body.trim());
-            }
-        });
-        episode.getChild("lastupdated").setEndTextElementListener(new EndTextElementListener() {
+        root.getChild("Series").setEndTextElementListener(new EndTextElementListener() {
+            @Override
             public void end(String body) {
-                // system populated field, trimming not necessary
                 try {
-                    values.put(Episodes.LAST_EDITED, Long.valueOf(body));
-                } catch (NumberFormatException e) {
-                    values.put(Episodes.LAST_EDITED, 0);
+                    showTvdbIds.add(Integer.valueOf(body.trim()));
+                } catch (NumberFormatException ignored) {
                 }
             }
         });
 
-        downloadAndParse(root.getContentHandler(), url, true, "parseEpisodes: ");
+        downloadAndParse(root.getContentHandler(), TVDB_API_UPDATES + type, false, logTag);
+
+        if (serverTime[0] == 0) {
+            throw new TvdbException(logTag + "no server time");
+        }
+        return new TvdbUpdates.ChangedShows(serverTime[0], showTvdbIds);
+    }
+
+    /**
+     * Fetches episodes for the given show from TVDb, adds database ops for them to the given batch.
+     *
+     * @param isRevalidate If the episodes should only be downloaded if they have changed since the
+     * last stored download. Otherwise always downloads them, e.g. when adding a show.
+     */
+    private ShowUpdate fetchEpisodes(ArrayList<ContentProviderOperation> batch, Show show,
+            String language, boolean isRevalidate) throws TvdbException {
+        String url = TVDB_API_SERIES + show.tvdb_id + "/" + TVDB_PATH_ALL
+                + (language != null ? language + TVDB_EXTENSION_COMPRESSED : TVDB_FILE_DEFAULT);
 
-        // add delete ops for leftover episodeIds in our db
-        for (Integer episodeId : removableEpisodeIds.keySet()) {
-            batch.add(ContentProviderOperation.newDelete(Episodes.buildEpisodeUri(episodeId))
-                    .build());
+        // episode release times depend on these show properties, so download again if they change
+        String episodeState = show.release_time + "|" + show.release_timezone + "|"
+                + show.country + "|" + show.network + "|" + TimeZone.getDefault().getID();
+        EpisodeArchiveValidators validators = isRevalidate
+                ? EpisodeArchiveValidators.get(app, show.tvdb_id, language, episodeState)
+                : EpisodeArchiveValidators.empty(show.tvdb_id, language, episodeState);
+
+        EpisodeOpsBuilder opsBuilder = parseEpisodes(batch, show, url, validators);
+        if (opsBuilder == null) {
+            Timber.d("fetchEpisodes: episodes of show %s not modified", show.tvdb_id);
+            return new ShowUpdate(show.tvdb_id, batch, new ContentValues[0], validators, true, 0);
         }
+        // add delete ops for leftover episodes in our db
+        ArrayList<ContentValues> newEpisodesValues = opsBuilder.finish();
+        return new ShowUpdate(show.tvdb_id, batch,
+                newEpisodesValues.toArray(new ContentValues[newEpisodesValues.size()]),
+                validators, false, opsBuilder.getSkippedUpdateCount());
+    }
+
+    /**
+     * Loads the given zipped XML and parses containing episodes to create an array of {@link
+     * ContentValues} for new episodes.<br> Adds update ops for changed episodes and delete ops for
+     * local orphaned episodes to the given {@link ContentProviderOperation} batch.
+     *
+     * @param validators Sent with the request, updated with those of the response.
+     * @return {@code null} if the server responded the file was not modified, nothing was parsed.
+     * Otherwise the builder, call {@link EpisodeOpsBuilder#finish()} to add delete ops.
+     */
+    @Nullable
+    private EpisodeOpsBuilder parseEpisodes(ArrayList<ContentProviderOperation> batch, Show show,
+            String url, EpisodeArchiveValidators validators) throws TvdbException {
+        final EpisodeOpsBuilder opsBuilder = new EpisodeOpsBuilder(app, show, batch,
+                DBUtils.getEpisodeMapForShow(app, show.tvdb_id),
+                DBUtils.getSeasonIdsOfShow(app, show.tvdb_id));
+
+        boolean isModified = downloadAndParse(new StreamParser() {
+            @Override
+            public void parse(InputStream input) throws XmlPullParserException, IOException {
+                new TvdbEpisodeParser().parse(input, opsBuilder);
+            }
+        }, url, true, validators, "parseEpisodes: ");
+        return isModified ? opsBuilder : null;
+    }
 
-        return newEpisodesValues;
+    /**
+     * Parses an XML document from a stream.
+     */
+    private interface StreamParser {
+        void parse(InputStream input) throws SAXException, XmlPullParserException, IOException;
     }
 
     /**
@@ -842,9 +939,37 @@ public class TvdbTools {
      * Xml#parse(InputStream, android.util.Xml.Encoding, ContentHandler)} using the given {@link
      * ContentHandler}.
      */
-    private void downloadAndParse(ContentHandler handler, String urlString, boolean isZipFile,
-            String logTag) throws TvdbException {
-        Request request = new Request.Builder().url(urlString).build();
+    private void downloadAndParse(final ContentHandler handler, String urlString,
+            boolean isZipFile, String logTag) throws TvdbException {
+        downloadAndParse(new StreamParser() {
+            @Override
+            public void parse(InputStream input) throws SAXException, IOException {
+                Xml.parse(input, Xml.Encoding.UTF_8, handler);
+            }
+        }, urlString, isZipFile, null, logTag);
+    }
+
+    /**
+     * Downloads the XML or ZIP file from the given URL, passing a valid response to the given
+     * {@link StreamParser}. If a ZIP file, only the first entry is parsed.
+     *
+     * @param validators If not {@code null}, makes a conditional request using the given
+     * validators, then updates them with those of the response.
+     * @return {@code false} if the server responded the file was not modified since the given
+     * validators were obtained, nothing was parsed.
+     */
+    private boolean downloadAndParse(StreamParser parser, String urlString, boolean isZipFile,
+            @Nullable EpisodeArchiveValidators validators, String logTag) throws TvdbException {
+        Request.Builder requestBuilder = new Request.Builder().url(urlString);
+        if (validators != null) {
+            if (!TextUtils.isEmpty(validators.etag)) {
+                requestBuilder.header("If-None-Match", validators.etag);
+            }
+            if (!TextUtils.isEmpty(validators.lastModified)) {
+                requestBuilder.header("If-Modified-Since", validators.lastModified);
+            }
+        }
+        Request request = requestBuilder.build();
 
         Response response;
         try {
@@ -853,8 +978,19 @@ public class TvdbTools {
             throw new TvdbException(logTag + e.getMessage(), e);
         }
 
+        if (response.code() == 304 && validators != null && !validators.isEmpty()) {
+            // not modified, keep the stored validators
+            response.close();
+            return false;
+        }
+
         ensureSuccessfulResponse(response, logTag);
 
+        if (validators != null) {
+            validators.etag = response.header("ETag");
+            validators.lastModified = response.header("Last-Modified");
+        }
+
         try {
             final InputStream input = response.body().byteStream();
             if (isZipFile) {
@@ -862,14 +998,14 @@ public class TvdbTools {
                 final ZipInputStream zipin = new ZipInputStream(input);
                 zipin.getNextEntry();
                 try {
-                    Xml.parse(zipin, Xml.Encoding.UTF_8, handler);
+                    parser.parse(zipin);
                 } finally {
                     //noinspection ThrowFromFinallyBlock
                     zipin.close();
                 }
             } else {
                 try {
-                    Xml.parse(input, Xml.Encoding.UTF_8, handler);
+                    parser.parse(input);
                 } finally {
                     if (input != null) {
                         //noinspection ThrowFromFinallyBlock
@@ -877,9 +1013,10 @@ public class TvdbTools {
                     }
                 }
             }
-        } catch (SAXException | IOException | AssertionError e) {
+        } catch (SAXException | XmlPullParserException | IOException | AssertionError e) {
             throw new TvdbException(logTag + e.getMessage(), e);
         }
+        return true;
     }
 
     private static void ensureSuccessfulResponse(Response response, String logTag)
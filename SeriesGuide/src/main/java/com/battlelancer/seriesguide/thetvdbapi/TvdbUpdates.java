@@ -0,0 +1,154 @@
+package com.battlelancer.seriesguide.thetvdbapi;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Picks shows to update in a delta sync based on which series TheTVDB reports as changed since
+ * the last sync, instead of based on how long ago a show was last updated.
+ */
+public class TvdbUpdates {
+
+    /**
+     * TheTVDB only reports changes of the last 30 days, stay well below.
+     */
+    static final long MAX_FEED_AGE_SEC = 28 * 24 * 60 * 60;
+
+    /**
+     * Even if TheTVDB reports no changes, update shows at least this often to get data not
+     * stored on TheTVDB (e.g. release times from trakt).
+     */
+    static final long MAX_STALE_MS = 28L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Source of series changed on TheTVDB, see {@link TvdbTools#getChangedShowsSince(long)}.
+     */
+    public interface Feed {
+        /**
+         * Returns the TVDb ids of all series changed since the given time.
+         *
+         * @param fromTimeSec A server time as returned by a previous call or by {@link
+         * #getServerTime()}.
+         */
+        @NonNull
+        ChangedShows getChangedShowsSince(long fromTimeSec) throws TvdbException;
+
+        /**
+         * Returns the current server time in Unix time (seconds).
+         */
+        long getServerTime() throws TvdbException;
+    }
+
+    public static class ChangedShows {
+
+        /** Server time of the response in Unix time (seconds), use for the next request. */
+        public final long serverTimeSec;
+        @NonNull public final Set<Integer> showTvdbIds;
+
+        public ChangedShows(long serverTimeSec, @NonNull Set<Integer> showTvdbIds) {
+            this.serverTimeSec = serverTimeSec;
+            this.showTvdbIds = showTvdbIds;
+        }
+    }
+
+    public static class Selection {
+
+        /** TVDb ids of local shows to update. */
+        @NonNull public final int[] showTvdbIds;
+        /**
+         * Server time to store once the selected shows were updated successfully, 0 if none.
+         */
+        public final long serverTimeSec;
+
+        public Selection(@NonNull int[] showTvdbIds, long serverTimeSec) {
+            this.showTvdbIds = showTvdbIds;
+            this.serverTimeSec = serverTimeSec;
+        }
+    }
+
+    private TvdbUpdates() {
+    }
+
+    /**
+     * Returns whether the feed can be asked for changes since the given time.
+     *
+     * @param lastServerTimeSec 0 if unknown.
+     */
+    static boolean isFeedUsable(long lastServerTimeSec, long currentTimeMs) {
+        return lastServerTimeSec > 0
+                && currentTimeMs / 1000 - lastServerTimeSec < MAX_FEED_AGE_SEC;
+    }
+
+    /**
+     * Selects the local shows that changed on TheTVDB since the last sync, plus any that have not
+     * been updated for {@link #MAX_STALE_MS}.
+     *
+     * @param localShows Maps TVDb ids of local shows to the time they were last updated.
+     * @param lastServerTimeSec Server time stored after the last successful delta sync, 0 if
+     * none.
+     * @return {@code null} if the feed can not be used and shows should be selected based on
+     * time thresholds instead.
+     */
+    @Nullable
+    public static Selection selectShows(@NonNull Feed feed, @NonNull Map<Integer, Long> localShows,
+            long lastServerTimeSec, long currentTimeMs) throws TvdbException {
+        if (!isFeedUsable(lastServerTimeSec, currentTimeMs)) {
+            return null;
+        }
+
+        ChangedShows changedShows = feed.getChangedShowsSince(lastServerTimeSec);
+
+        List<Integer> showsToUpdate = new ArrayList<>();
+        for (Map.Entry<Integer, Long> localShow : localShows.entrySet()) {
+            Integer showTvdbId = localShow.getKey();
+            Long lastUpdatedMs = localShow.getValue();
+            if (changedShows.showTvdbIds.contains(showTvdbId)
+                    || lastUpdatedMs == null
+                    || currentTimeMs - lastUpdatedMs > MAX_STALE_MS) {
+                showsToUpdate.add(showTvdbId);
+            }
+        }
+
+        int[] showTvdbIds = new int[showsToUpdate.size()];
+        for (int i = 0; i < showTvdbIds.length; i++) {
+            showTvdbIds[i] = showsToUpdate.get(i);
+        }
+        return new Selection(showTvdbIds, changedShows.serverTimeSec);
+    }
+
+    /**
+     * Selects shows to update if {@link #selectShows} can not use the feed, e.g. because
+     * requesting changes failed or there is no usable server time stored.
+     *
+     * <p> If the stored server time is still usable, selects the shows due based on time
+     * thresholds and keeps it, so the next delta sync still gets all changes since then.
+     *
+     * <p> Otherwise selects all local shows along with the current server time. The feed never
+     * reports changes made before that time, so it is only stored once all shows are updated.
+     *
+     * @param dueShowTvdbIds TVDb ids of local shows to update based on time thresholds.
+     * @param lastServerTimeSec Server time stored after the last successful delta sync, 0 if
+     * none.
+     */
+    @NonNull
+    public static Selection selectShowsWithoutFeed(@NonNull Feed feed,
+            @NonNull Map<Integer, Long> localShows, @NonNull int[] dueShowTvdbIds,
+            long lastServerTimeSec, long currentTimeMs) throws TvdbException {
+        if (isFeedUsable(lastServerTimeSec, currentTimeMs)) {
+            return new Selection(dueShowTvdbIds, 0);
+        }
+
+        long serverTimeSec = feed.getServerTime();
+        int[] showTvdbIds = new int[localShows.size()];
+        int i = 0;
+        for (Integer showTvdbId : localShows.keySet()) {
+            showTvdbIds[i] = showTvdbId;
+            i++;
+        }
+        return new Selection(showTvdbIds, serverTimeSec);
+    }
+}
@@ -23,6 +23,8 @@ import com.battlelancer.seriesguide.R;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.Shows;
 import com.battlelancer.seriesguide.provider.SeriesGuideDatabase;
 import com.battlelancer.seriesguide.sync.SgSyncAdapter;
+import com.battlelancer.seriesguide.thetvdbapi.EpisodeArchiveValidators;
+import com.battlelancer.seriesguide.util.DBUtils;
 import com.battlelancer.seriesguide.util.TaskManager;
 import com.battlelancer.seriesguide.util.Utils;
 import com.uwetrottmann.androidutils.AndroidUtils;
@@ -145,6 +147,9 @@ public class BackupDeleteActivity extends BaseActivity {
                 return null;
             }
 
+            // recent changes might still be in the write-ahead log file
+            DBUtils.checkpointDatabase(BackupDeleteActivity.this);
+
             String errorMsg = null;
             try {
                 file.createNewFile();
@@ -204,6 +209,8 @@ public class BackupDeleteActivity extends BaseActivity {
             File dbFile = getApplication().getDatabasePath(SeriesGuideDatabase.DATABASE_NAME);
 
             getApplication().deleteDatabase(SeriesGuideDatabase.DATABASE_NAME);
+            // episodes of the backup need to be downloaded again on the next update
+            EpisodeArchiveValidators.clearAll(BackupDeleteActivity.this);
 
             try {
                 dbFile.createNewFile();
@@ -11,7 +11,6 @@ import android.preference.PreferenceManager;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.text.format.DateUtils;
@@ -21,6 +20,7 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.PopupMenu;
@@ -29,11 +29,10 @@ import com.battlelancer.seriesguide.R;
 import com.battlelancer.seriesguide.SgApp;
 import com.battlelancer.seriesguide.adapters.CalendarAdapter;
 import com.battlelancer.seriesguide.enums.EpisodeFlags;
-import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
+import com.battlelancer.seriesguide.loaders.CalendarLoader;
 import com.battlelancer.seriesguide.settings.CalendarSettings;
 import com.battlelancer.seriesguide.settings.DisplaySettings;
 import com.battlelancer.seriesguide.ui.dialogs.CheckInDialogFragment;
-import com.battlelancer.seriesguide.util.DBUtils;
 import com.battlelancer.seriesguide.util.EpisodeTools;
 import com.battlelancer.seriesguide.util.TabClickEvent;
 import com.battlelancer.seriesguide.util.Utils;
@@ -56,11 +55,23 @@ public class CalendarFragment extends Fragment implements
     private static final int CONTEXT_CHECKIN_ID = 2;
     private static final int CONTEXT_COLLECTION_ADD_ID = 3;
     private static final int CONTEXT_COLLECTION_REMOVE_ID = 4;
+    private static final String ARG_PAGE = "page";
+    /**
+     * Start loading the next (or previous) page if less than this many items are below (or above)
+     * the visible ones.
+     */
+    private static final int PAGE_THRESHOLD = 20;
 
     private StickyGridHeadersGridView gridView;
     private CalendarAdapter adapter;
     private Handler handler;
     private String type;
+    private Long windowStart;
+    private Long windowEnd;
+    private boolean isAllLoaded;
+    private boolean isLoadingPage;
+    /** Episode to keep in place if loading a page drops or adds episodes above it. */
+    private long anchorEpisodeId = -1;
 
     /**
      * Data which has to be passed when creating {@link CalendarFragment}. All Bundle extras are
@@ -108,12 +119,12 @@ public class CalendarFragment extends Fragment implements
         // setup adapter
         adapter = new CalendarAdapter(getActivity());
         boolean infiniteScrolling = CalendarSettings.isInfiniteScrolling(getActivity());
-        adapter.setIsShowingHeaders(!infiniteScrolling);
 
         // setup grid view
         gridView.setAdapter(adapter);
         gridView.setOnItemClickListener(this);
         gridView.setOnItemLongClickListener(this);
+        gridView.setOnScrollListener(scrollListener);
         gridView.setFastScrollEnabled(infiniteScrolling);
 
         PreferenceManager.getDefaultSharedPreferences(getActivity())
@@ -316,6 +327,61 @@ public class CalendarFragment extends Fragment implements
         getLoaderManager().restartLoader(getLoaderId(), null, this);
     }
 
+    private void loadPage(int page) {
+        if (isLoadingPage) {
+            return;
+        }
+        isLoadingPage = true;
+        anchorEpisodeId = findFirstVisibleEpisodeId();
+        Bundle args = new Bundle();
+        args.putInt(ARG_PAGE, page);
+        getLoaderManager().restartLoader(getLoaderId(), args, this);
+    }
+
+    private long findFirstVisibleEpisodeId() {
+        int lastPosition = gridView.getLastVisiblePosition();
+        for (int position = gridView.getFirstVisiblePosition(); position <= lastPosition;
+                position++) {
+            long id = gridView.getItemIdAtPosition(position);
+            if (id > 0) {
+                // not a header or filler
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    private void scrollToEpisode(long episodeId) {
+        int count = gridView.getCount();
+        for (int position = 0; position < count; position++) {
+            if (gridView.getItemIdAtPosition(position) == episodeId) {
+                gridView.setSelection(position);
+                return;
+            }
+        }
+    }
+
+    private AbsListView.OnScrollListener scrollListener = new AbsListView.OnScrollListener() {
+        @Override
+        public void onScrollStateChanged(AbsListView view, int scrollState) {
+        }
+
+        @Override
+        public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                int totalItemCount) {
+            if (totalItemCount == 0) {
+                return;
+            }
+            if (!isAllLoaded
+                    && firstVisibleItem + visibleItemCount + PAGE_THRESHOLD >= totalItemCount) {
+                loadPage(CalendarLoader.NEXT_PAGE);
+            } else if (windowStart != null && firstVisibleItem < PAGE_THRESHOLD) {
+                // episodes before the window were dropped, load them again
+                loadPage(CalendarLoader.PREVIOUS_PAGE);
+            }
+        }
+    };
+
     private int getLoaderId() {
         return getArguments().getInt("loaderid");
     }
@@ -332,20 +398,32 @@ public class CalendarFragment extends Fragment implements
 
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         boolean isInfiniteScrolling = CalendarSettings.isInfiniteScrolling(getActivity());
-
-        // infinite or 30 days activity stream
-        String[][] queryArgs = DBUtils.buildActivityQuery(getActivity(), type,
-                isInfiniteScrolling ? -1 : 30);
+        int page = args != null ? args.getInt(ARG_PAGE) : CalendarLoader.RELOAD;
 
         // prevent upcoming/recent episodes from becoming stale
         schedulePeriodicDataRefresh(true);
 
-        return new CursorLoader(getActivity(), Episodes.CONTENT_URI_WITHSHOW,
-                CalendarAdapter.Query.PROJECTION, queryArgs[0][0], queryArgs[1], queryArgs[2][0]);
+        // reloads keep the current window, so the grid does not lose its scroll position
+        return new CalendarLoader(getActivity(), type, isInfiniteScrolling, windowStart,
+                windowEnd, isAllLoaded, page);
     }
 
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        adapter.swapCursor(data);
+        CalendarLoader calendarLoader = (CalendarLoader) loader;
+        Long previousWindowStart = windowStart;
+        windowStart = calendarLoader.getWindowStart();
+        windowEnd = calendarLoader.getWindowEnd();
+        isAllLoaded = calendarLoader.isAllLoaded();
+        isLoadingPage = false;
+        adapter.swapCursor(data, calendarLoader.getHeaders());
+
+        boolean isStartChanged = previousWindowStart == null ? windowStart != null
+                : !previousWindowStart.equals(windowStart);
+        if (isStartChanged && anchorEpisodeId > 0) {
+            // episodes above were dropped or added, keep the visible ones in place
+            scrollToEpisode(anchorEpisodeId);
+        }
+        anchorEpisodeId = -1;
     }
 
     public void onLoaderReset(Loader<Cursor> loader) {
@@ -375,13 +453,16 @@ public class CalendarFragment extends Fragment implements
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if (CalendarSettings.KEY_INFINITE_SCROLLING.equals(key)) {
             boolean infiniteScrolling = CalendarSettings.isInfiniteScrolling(getActivity());
-            adapter.setIsShowingHeaders(!infiniteScrolling);
             gridView.setFastScrollEnabled(infiniteScrolling);
         }
         if (CalendarSettings.KEY_ONLY_FAVORITE_SHOWS.equals(key)
                 || DisplaySettings.KEY_HIDE_SPECIALS.equals(key)
                 || DisplaySettings.KEY_NO_WATCHED_EPISODES.equals(key)
                 || CalendarSettings.KEY_INFINITE_SCROLLING.equals(key)) {
+            // start again with the first page
+            windowStart = null;
+            windowEnd = null;
+            isAllLoaded = false;
             onRequery();
         }
     }
@@ -4,17 +4,20 @@ import android.app.SearchManager;
 import android.content.Intent;
 import android.database.Cursor;
 import android.os.Bundle;
+import android.support.annotation.Nullable;
 import android.support.v4.app.ListFragment;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.ListView;
 import com.battlelancer.seriesguide.R;
 import com.battlelancer.seriesguide.adapters.SearchResultsAdapter;
-import com.battlelancer.seriesguide.provider.SeriesGuideContract.EpisodeSearch;
+import com.battlelancer.seriesguide.loaders.EpisodeSearchLoader;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.Shows;
 import com.battlelancer.seriesguide.util.TabClickEvent;
@@ -28,7 +31,13 @@ import org.greenrobot.eventbus.ThreadMode;
  */
 public class EpisodeSearchFragment extends ListFragment {
 
+    private static final String STATE_SEARCH_ARGS = "searchArgs";
+    private static final String STATE_RESULT_COUNT = "resultCount";
+
     private SearchResultsAdapter adapter;
+    private Bundle searchArgs;
+    /** How many results were loaded, to load as many again after a configuration change. */
+    private int resultCount;
 
     interface InitBundle {
         /** Set to pre-filter search results by show title. */
@@ -47,6 +56,24 @@ public class EpisodeSearchFragment extends ListFragment {
 
         adapter = new SearchResultsAdapter(getActivity());
         setListAdapter(adapter);
+        getListView().setOnScrollListener(loadMoreScrollListener);
+
+        if (savedInstanceState != null) {
+            searchArgs = savedInstanceState.getBundle(STATE_SEARCH_ARGS);
+            resultCount = savedInstanceState.getInt(STATE_RESULT_COUNT);
+            if (searchArgs != null) {
+                // re-connect to the existing loader or load as many results as before
+                getLoaderManager().initLoader(SearchActivity.EPISODES_LOADER_ID, searchArgs,
+                        searchLoaderCallbacks);
+            }
+        }
+    }
+
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBundle(STATE_SEARCH_ARGS, searchArgs);
+        outState.putInt(STATE_RESULT_COUNT, resultCount);
     }
 
     @Override
@@ -84,10 +111,56 @@ public class EpisodeSearchFragment extends ListFragment {
     }
 
     public void search(Bundle args) {
+        if (isSameSearch(searchArgs, args)) {
+            // e.g. search posted again after a configuration change, keep loaded results
+            return;
+        }
+        searchArgs = args;
+        resultCount = 0;
         getLoaderManager().restartLoader(SearchActivity.EPISODES_LOADER_ID, args,
                 searchLoaderCallbacks);
     }
 
+    private static boolean isSameSearch(@Nullable Bundle args, @Nullable Bundle otherArgs) {
+        if (args == null || otherArgs == null) {
+            return false;
+        }
+        return TextUtils.equals(args.getString(SearchManager.QUERY),
+                otherArgs.getString(SearchManager.QUERY))
+                && TextUtils.equals(getShowTitle(args), getShowTitle(otherArgs));
+    }
+
+    @Nullable
+    private static String getShowTitle(Bundle args) {
+        Bundle appData = args.getBundle(SearchManager.APP_DATA);
+        return appData != null ? appData.getString(InitBundle.SHOW_TITLE) : null;
+    }
+
+    /**
+     * Once scrolled close to the end of the results and there might be more, loads another page
+     * of results.
+     */
+    private OnScrollListener loadMoreScrollListener = new OnScrollListener() {
+        @Override
+        public void onScrollStateChanged(AbsListView view, int scrollState) {
+        }
+
+        @Override
+        public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                int totalItemCount) {
+            if (searchArgs == null || totalItemCount == 0
+                    || firstVisibleItem + visibleItemCount
+                    < totalItemCount - EpisodeSearchLoader.PAGE_SIZE / 5) {
+                return;
+            }
+            Loader<Cursor> loader = getLoaderManager()
+                    .getLoader(SearchActivity.EPISODES_LOADER_ID);
+            if (loader instanceof EpisodeSearchLoader) {
+                ((EpisodeSearchLoader) loader).loadNextPage();
+            }
+        }
+    };
+
     private LoaderCallbacks<Cursor> searchLoaderCallbacks = new LoaderCallbacks<Cursor>() {
         @Override
         public Loader<Cursor> onCreateLoader(int id, Bundle args) {
@@ -109,12 +182,13 @@ public class EpisodeSearchFragment extends ListFragment {
                 }
             }
 
-            return new CursorLoader(getActivity(), EpisodeSearch.CONTENT_URI_SEARCH,
-                    SearchQuery.PROJECTION, selection, selectionArgs, null);
+            return new EpisodeSearchLoader(getActivity(), SearchQuery.PROJECTION, selection,
+                    selectionArgs, resultCount);
         }
 
         @Override
         public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+            resultCount = data != null ? data.getCount() : 0;
             adapter.swapCursor(data);
         }
 
@@ -10,6 +10,7 @@ import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.media.RingtoneManager;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.CheckBoxPreference;
 import android.preference.ListPreference;
@@ -25,11 +26,13 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.StyleRes;
 import android.support.v4.app.TaskStackBuilder;
+import android.support.v4.os.AsyncTaskCompat;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.text.TextUtils;
 import android.view.MenuItem;
+import android.widget.Toast;
 import com.battlelancer.seriesguide.R;
 import com.battlelancer.seriesguide.appwidget.ListWidgetProvider;
 import com.battlelancer.seriesguide.backend.HexagonTools;
@@ -44,6 +47,8 @@ import com.battlelancer.seriesguide.settings.NotificationSettings;
 import com.battlelancer.seriesguide.settings.TraktCredentials;
 import com.battlelancer.seriesguide.settings.UpdateSettings;
 import com.battlelancer.seriesguide.sync.SgSyncAdapter;
+import com.battlelancer.seriesguide.ui.dialogs.ProviderStatsDialogFragment;
+import com.battlelancer.seriesguide.util.DBUtils;
 import com.battlelancer.seriesguide.util.Shadows;
 import com.battlelancer.seriesguide.util.ThemeUtils;
 import com.battlelancer.seriesguide.util.Utils;
@@ -63,6 +68,12 @@ public class SeriesGuidePreferences extends AppCompatActivity {
     // Preference keys
     private static final String KEY_CLEAR_CACHE = "clearCache";
 
+    private static final String KEY_REBUILD_SEARCH_INDEX = "rebuildSearchIndex";
+
+    private static final String KEY_CHECK_STATS = "checkStats";
+
+    private static final String KEY_PROVIDER_STATS = "providerStats";
+
     public static final String KEY_OFFSET = "com.battlelancer.seriesguide.timeoffset";
 
     public static final String KEY_DATABASEIMPORTED = "com.battlelancer.seriesguide.dbimported";
@@ -385,6 +396,60 @@ public class SeriesGuidePreferences extends AppCompatActivity {
                         }
                     });
 
+            // Repair episode search
+            findPreference(KEY_REBUILD_SEARCH_INDEX)
+                    .setOnPreferenceClickListener(new OnPreferenceClickListener() {
+                        @Override
+                        public boolean onPreferenceClick(Preference preference) {
+                            final Context context = getActivity().getApplicationContext();
+                            AsyncTaskCompat.executeParallel(new AsyncTask<Void, Void, Void>() {
+                                @Override
+                                protected Void doInBackground(Void... params) {
+                                    DBUtils.rebuildFtsTable(context);
+                                    return null;
+                                }
+
+                                @Override
+                                protected void onPostExecute(Void result) {
+                                    Toast.makeText(context, R.string.rebuild_search_index_done,
+                                            Toast.LENGTH_SHORT).show();
+                                }
+                            });
+                            return true;
+                        }
+                    });
+            findPreference(KEY_CHECK_STATS)
+                    .setOnPreferenceClickListener(new OnPreferenceClickListener() {
+                        @Override
+                        public boolean onPreferenceClick(Preference preference) {
+                            final Context context = getActivity().getApplicationContext();
+                            AsyncTaskCompat.executeParallel(new AsyncTask<Void, Void, Void>() {
+                                @Override
+                                protected Void doInBackground(Void... params) {
+                                    DBUtils.checkShowStats(context);
+                                    return null;
+                                }
+
+                                @Override
+                                protected void onPostExecute(Void result) {
+                                    Toast.makeText(context, R.string.check_stats_done,
+                                            Toast.LENGTH_SHORT).show();
+                                }
+                            });
+                            return true;
+                        }
+                    });
+            findPreference(KEY_PROVIDER_STATS)
+                    .setOnPreferenceClickListener(new OnPreferenceClickListener() {
+                        @Override
+                        public boolean onPreferenceClick(Preference preference) {
+                            new ProviderStatsDialogFragment().show(
+                                    ((AppCompatActivity) getActivity())
+                                            .getSupportFragmentManager(), "provider-stats");
+                            return true;
+                        }
+                    });
+
             // GA opt-out
             findPreference(AppSettings.KEY_GOOGLEANALYTICS).setOnPreferenceChangeListener(
                     new OnPreferenceChangeListener() {
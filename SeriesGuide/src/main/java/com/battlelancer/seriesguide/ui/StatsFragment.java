@@ -11,7 +11,6 @@ import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.os.AsyncTaskCompat;
 import android.text.format.DateUtils;
-import android.util.SparseIntArray;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -25,10 +24,9 @@ import butterknife.ButterKnife;
 import butterknife.Unbinder;
 import com.battlelancer.seriesguide.R;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract;
-import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract.ShowStats;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.Shows;
 import com.battlelancer.seriesguide.settings.DisplaySettings;
-import com.battlelancer.seriesguide.util.DBUtils;
 import com.battlelancer.seriesguide.util.ShareUtils;
 import com.battlelancer.seriesguide.util.ShowTools;
 import com.battlelancer.seriesguide.widgets.EmptyView;
@@ -359,9 +357,7 @@ public class StatsFragment extends Fragment {
         }
     }
 
-    private static class StatsTask extends AsyncTask<Void, StatsUpdateEvent, StatsUpdateEvent> {
-
-        private static final long PREVIEW_UPDATE_INTERVAL_MS = DateUtils.SECOND_IN_MILLIS;
+    private static class StatsTask extends AsyncTask<Void, Void, StatsUpdateEvent> {
 
         private final Context context;
 
@@ -385,8 +381,7 @@ public class StatsFragment extends Fragment {
             }
 
             // shows
-            SparseIntArray showRuntimes = processShows(resolver, stats);
-            if (showRuntimes == null) {
+            if (!processShows(resolver, stats)) {
                 return buildFailure(stats); // failed to process shows
             }
 
@@ -400,44 +395,6 @@ public class StatsFragment extends Fragment {
                 return buildFailure(stats); // failed to process episodes
             }
 
-            if (isCancelled()) {
-                return buildFailure(stats);
-            }
-
-            // report intermediate results before longest op
-            publishProgress(buildUpdate(stats));
-
-            // calculate runtime of watched episodes per show
-            long totalRuntimeMin = 0;
-            long previewTime = System.currentTimeMillis() + PREVIEW_UPDATE_INTERVAL_MS;
-            for (int i = 0, size = showRuntimes.size(); i < size; i++) {
-                int showTvdbId = showRuntimes.keyAt(i);
-                long runtimeOfShowMin = showRuntimes.valueAt(i);
-
-                int watchedEpisodesOfShowCount = DBUtils.getCountOf(resolver,
-                        Episodes.buildEpisodesOfShowUri(showTvdbId),
-                        Episodes.SELECTION_WATCHED
-                                + (includeSpecials ? "" : " AND " + Episodes.SELECTION_NO_SPECIALS),
-                        null, -1);
-                if (watchedEpisodesOfShowCount == -1) {
-                    // episode query failed, return what we have so far
-                    stats.episodesWatchedRuntime(totalRuntimeMin * DateUtils.MINUTE_IN_MILLIS);
-                    return buildFailure(stats);
-                }
-                // make sure we calculate with long here (first arg is long) to avoid overflows
-                long runtimeOfEpisodesMin = runtimeOfShowMin * watchedEpisodesOfShowCount;
-
-                totalRuntimeMin += runtimeOfEpisodesMin;
-                // post regular update of minimum
-                long currentTime = System.currentTimeMillis();
-                if (currentTime > previewTime) {
-                    previewTime = currentTime + PREVIEW_UPDATE_INTERVAL_MS;
-                    stats.episodesWatchedRuntime(totalRuntimeMin * DateUtils.MINUTE_IN_MILLIS);
-                    publishProgress(buildUpdate(stats));
-                }
-            }
-            stats.episodesWatchedRuntime(totalRuntimeMin * DateUtils.MINUTE_IN_MILLIS);
-
             // return final values
             return new StatsUpdateEvent(stats, true, true);
         }
@@ -446,15 +403,6 @@ public class StatsFragment extends Fragment {
             return new StatsUpdateEvent(stats, false, false);
         }
 
-        private static StatsUpdateEvent buildUpdate(Stats stats) {
-            return new StatsUpdateEvent(stats, false, true);
-        }
-
-        @Override
-        protected void onProgressUpdate(StatsUpdateEvent... values) {
-            EventBus.getDefault().post(values[0]);
-        }
-
         @Override
         protected void onPostExecute(StatsUpdateEvent event) {
             EventBus.getDefault().post(event);
@@ -487,25 +435,22 @@ public class StatsFragment extends Fragment {
             return true;
         }
 
-        @Nullable
-        private static SparseIntArray processShows(ContentResolver resolver, Stats stats) {
+        private static boolean processShows(ContentResolver resolver, Stats stats) {
             Cursor shows = resolver.query(Shows.CONTENT_URI,
                     new String[] {
                             Shows._ID, // 0
                             Shows.STATUS,
-                            Shows.NEXTEPISODE,
-                            Shows.RUNTIME // 3
+                            Shows.NEXTEPISODE // 2
                     }, null, null, null
             );
             if (shows == null) {
-                return null;
+                return false;
             }
 
             int continuing = 0;
             int withnext = 0;
             // count all shows
             int showsCount = shows.getCount();
-            SparseIntArray showRuntimes = new SparseIntArray(showsCount);
             while (shows.moveToNext()) {
                 // count continuing shows
                 if (shows.getInt(1) == ShowTools.Status.CONTINUING) {
@@ -515,41 +460,62 @@ public class StatsFragment extends Fragment {
                 if (shows.getInt(2) != ShowTools.Status.ENDED) {
                     withnext++;
                 }
-                // map show to its runtime
-                showRuntimes.put(shows.getInt(0), shows.getInt(3));
             }
             shows.close();
 
             stats.shows(showsCount)
                     .showsContinuing(continuing)
                     .showsWithNextEpisodes(withnext);
-            return showRuntimes;
+            return true;
         }
 
-        private boolean processEpisodes(ContentResolver resolver, Stats stats,
+        private static boolean processEpisodes(ContentResolver resolver, Stats stats,
                 boolean includeSpecials) {
-            // all episodes
-            int allEpisodesCount = DBUtils.getCountOf(resolver, Episodes.CONTENT_URI,
-                    includeSpecials ? null : Episodes.SELECTION_NO_SPECIALS, null, -1);
-            if (allEpisodesCount == -1) {
+            // sum up the stats of all shows, kept up to date by the database
+            Cursor query = resolver.query(ShowStats.CONTENT_URI,
+                    ShowStatsQuery.PROJECTION, null, null, null);
+            if (query == null) {
                 return false;
             }
-            stats.episodes(allEpisodesCount);
-
-            // watched episodes
-            int watchedEpisodesCount = DBUtils.getCountOf(resolver, Episodes.CONTENT_URI,
-                    Episodes.SELECTION_WATCHED
-                            + (includeSpecials ? "" : " AND " + Episodes.SELECTION_NO_SPECIALS),
-                    null, -1);
-            if (watchedEpisodesCount == -1) {
+            if (!query.moveToFirst()) {
+                query.close();
                 return false;
             }
-            stats.episodesWatched(watchedEpisodesCount);
+            long episodes = query.getLong(ShowStatsQuery.EPISODES);
+            long watched = query.getLong(ShowStatsQuery.WATCHED);
+            long watchedRuntimeMin = query.getLong(ShowStatsQuery.WATCHED_RUNTIME);
+            if (!includeSpecials) {
+                episodes -= query.getLong(ShowStatsQuery.SPECIALS);
+                watched -= query.getLong(ShowStatsQuery.WATCHED_SPECIALS);
+                watchedRuntimeMin -= query.getLong(ShowStatsQuery.WATCHED_SPECIALS_RUNTIME);
+            }
+            query.close();
 
+            stats.episodes((int) episodes)
+                    .episodesWatched((int) watched)
+                    .episodesWatchedRuntime(watchedRuntimeMin * DateUtils.MINUTE_IN_MILLIS);
             return true;
         }
     }
 
+    private interface ShowStatsQuery {
+        String[] PROJECTION = new String[] {
+                "SUM(" + ShowStats.EPISODES + ")",
+                "SUM(" + ShowStats.SPECIALS + ")",
+                "SUM(" + ShowStats.WATCHED + ")",
+                "SUM(" + ShowStats.WATCHED_SPECIALS + ")",
+                "SUM(" + ShowStats.RUNTIME + "*" + ShowStats.WATCHED + ")",
+                "SUM(" + ShowStats.RUNTIME + "*" + ShowStats.WATCHED_SPECIALS + ")"
+        };
+
+        int EPISODES = 0;
+        int SPECIALS = 1;
+        int WATCHED = 2;
+        int WATCHED_SPECIALS = 3;
+        int WATCHED_RUNTIME = 4;
+        int WATCHED_SPECIALS_RUNTIME = 5;
+    }
+
     private static class Stats {
         private int mShows;
         private int mShowsContinuing;
@@ -0,0 +1,66 @@
+package com.battlelancer.seriesguide.ui.dialogs;
+
+import android.app.Dialog;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.v7.app.AlertDialog;
+import android.support.v7.app.AppCompatDialogFragment;
+import android.util.TypedValue;
+import android.widget.ScrollView;
+import android.widget.TextView;
+import com.battlelancer.seriesguide.R;
+import com.battlelancer.seriesguide.provider.ProviderStats;
+import com.battlelancer.seriesguide.util.RequestScheduler;
+import com.battlelancer.seriesguide.util.Utils;
+
+/**
+ * Displays the {@link ProviderStats} and {@link RequestScheduler} reports, with options to share
+ * them or reset the {@link ProviderStats}.
+ */
+public class ProviderStatsDialogFragment extends AppCompatDialogFragment {
+
+    @NonNull
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        final String report = ProviderStats.getInstance().buildReport()
+                + "\nNetwork requests\n\n" + RequestScheduler.getInstance().buildReport();
+
+        int padding = getResources().getDimensionPixelSize(R.dimen.large_padding);
+        TextView textView = new TextView(getActivity());
+        textView.setPadding(padding, padding, padding, padding);
+        textView.setTextSize(TypedValue.COMPLEX_UNIT_SP, 10);
+        textView.setTypeface(Typeface.MONOSPACE);
+        textView.setTextIsSelectable(true);
+        textView.setText(report);
+        ScrollView scrollView = new ScrollView(getActivity());
+        scrollView.addView(textView);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        builder.setTitle(R.string.provider_stats);
+        builder.setView(scrollView);
+        builder.setPositiveButton(R.string.share, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                Intent intent = new Intent(Intent.ACTION_SEND);
+                intent.setType("text/plain");
+                intent.putExtra(Intent.EXTRA_SUBJECT, "SeriesGuide "
+                        + Utils.getVersion(getActivity()) + " performance");
+                intent.putExtra(Intent.EXTRA_TEXT, report);
+                Utils.tryStartActivity(getActivity(),
+                        Intent.createChooser(intent, getString(R.string.share)), true);
+            }
+        });
+        builder.setNeutralButton(R.string.clear, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                ProviderStats.getInstance().reset();
+            }
+        });
+        builder.setNegativeButton(R.string.dismiss, null);
+
+        return builder.create();
+    }
+}
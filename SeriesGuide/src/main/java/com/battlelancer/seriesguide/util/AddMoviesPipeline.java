@@ -0,0 +1,178 @@
+package com.battlelancer.seriesguide.util;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import com.battlelancer.seriesguide.items.MovieDetails;
+import com.battlelancer.seriesguide.provider.SeriesGuideContract;
+import com.battlelancer.seriesguide.settings.DisplaySettings;
+import com.battlelancer.seriesguide.sync.SgSyncAdapter.UpdateResult;
+import com.uwetrottmann.androidutils.AndroidUtils;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import timber.log.Timber;
+
+/**
+ * Adds movies by downloading the details of several movies at once on a bounded pool of worker
+ * threads, their requests are rate limited by {@link RequestScheduler}. Movies are inserted in
+ * batches of {@link #BATCH_SIZE} on the thread calling {@link #run(Set, Set)} as their downloads
+ * complete.
+ *
+ * <p> If stopped early, e.g. because connectivity is lost or sync is canceled, movies downloaded
+ * so far are still inserted. As callers only add movies missing locally, the next run continues
+ * with the remaining ones.
+ */
+class AddMoviesPipeline {
+
+    /** How many movies are downloaded at the same time. */
+    static final int CONCURRENCY = 4;
+    /** How many downloaded movies are inserted at once. */
+    static final int BATCH_SIZE = 50;
+
+    private static class FetchResult {
+        final int tmdbId;
+        final MovieDetails details;
+
+        FetchResult(int tmdbId, MovieDetails details) {
+            this.tmdbId = tmdbId;
+            this.details = details;
+        }
+    }
+
+    private final Context context;
+    private final MovieTools movieTools;
+    private volatile boolean isCanceled;
+
+    AddMoviesPipeline(Context context, MovieTools movieTools) {
+        this.context = context;
+        this.movieTools = movieTools;
+    }
+
+    /**
+     * Stops downloading further movies. Movies already downloaded are still inserted. {@link
+     * #run(Set, Set)} will return {@link UpdateResult#INCOMPLETE}.
+     */
+    void cancel() {
+        isCanceled = true;
+    }
+
+    /**
+     * Downloads and inserts the given movies, blocks until done. Stops early if canceled,
+     * connectivity is lost or the calling thread is interrupted.
+     *
+     * @param newCollectionMovies Movie TMDB ids to add to the collection.
+     * @param newWatchlistMovies Movie TMDB ids to add to the watchlist.
+     * @return {@link UpdateResult#INCOMPLETE} if stopped early or a download failed
+     * unexpectedly.
+     */
+    UpdateResult run(@NonNull Set<Integer> newCollectionMovies,
+            @NonNull Set<Integer> newWatchlistMovies) {
+        // build a single list of tmdb ids
+        Set<Integer> newMovies = new LinkedHashSet<>(newCollectionMovies);
+        newMovies.addAll(newWatchlistMovies);
+        if (newMovies.isEmpty()) {
+            return UpdateResult.SUCCESS;
+        }
+        List<Integer> tmdbIds = new ArrayList<>(newMovies);
+
+        final long startTime = SystemClock.elapsedRealtime();
+        final String languageCode = DisplaySettings.getMoviesLanguage(context);
+        BackgroundPool<FetchResult> pool = new BackgroundPool<>("AddMovies",
+                Math.min(CONCURRENCY, tmdbIds.size()), CONCURRENCY * 2);
+        int submitted = 0;
+        int addedCount = 0;
+        int skippedCount = 0;
+
+        UpdateResult resultCode = UpdateResult.SUCCESS;
+        List<MovieDetails> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            while (submitted < tmdbIds.size() || pool.hasInFlight()) {
+                if (isCanceled) {
+                    resultCode = UpdateResult.INCOMPLETE;
+                    break;
+                }
+                if (!AndroidUtils.isNetworkConnected(context)) {
+                    Timber.e("addMovies: no network connection");
+                    resultCode = UpdateResult.INCOMPLETE;
+                    break;
+                }
+
+                // keep workers busy
+                while (submitted < tmdbIds.size() && pool.canSubmit()) {
+                    pool.submit(buildFetchTask(languageCode, tmdbIds.get(submitted)));
+                    submitted++;
+                }
+
+                FetchResult result;
+                try {
+                    result = pool.take();
+                } catch (ExecutionException e) {
+                    // unexpected error, download failures are returned as incomplete details
+                    Timber.e(e.getCause(), "addMovies: downloading movie failed");
+                    resultCode = UpdateResult.INCOMPLETE;
+                    skippedCount++;
+                    continue;
+                }
+
+                MovieDetails movieDetails = result.details;
+                if (movieDetails.tmdbMovie() == null) {
+                    // skip if minimal values failed to load
+                    Timber.d("addMovies: downloaded movie %s incomplete, skipping",
+                            result.tmdbId);
+                    skippedCount++;
+                    continue;
+                }
+
+                // set flags
+                movieDetails.inCollection = newCollectionMovies.contains(result.tmdbId);
+                movieDetails.inWatchlist = newWatchlistMovies.contains(result.tmdbId);
+
+                batch.add(movieDetails);
+                if (batch.size() == BATCH_SIZE) {
+                    addedCount += insert(batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            // sync was canceled
+            resultCode = UpdateResult.INCOMPLETE;
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+        }
+
+        // also insert movies downloaded before stopping early
+        addedCount += insert(batch);
+
+        Timber.d("addMovies: added %s, skipped %s of %s movies in %s ms", addedCount,
+                skippedCount, tmdbIds.size(), SystemClock.elapsedRealtime() - startTime);
+        return resultCode;
+    }
+
+    private int insert(List<MovieDetails> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        int count = context.getContentResolver().bulkInsert(
+                SeriesGuideContract.Movies.CONTENT_URI,
+                MovieTools.buildMoviesContentValues(batch));
+        batch.clear();
+        return count;
+    }
+
+    private Callable<FetchResult> buildFetchTask(final String languageCode, final int tmdbId) {
+        return new Callable<FetchResult>() {
+            @Override
+            public FetchResult call() {
+                if (isCanceled) {
+                    // skipped, as if failed to load
+                    return new FetchResult(tmdbId, new MovieDetails());
+                }
+                return new FetchResult(tmdbId, movieTools.getMovieDetails(languageCode, tmdbId));
+            }
+        };
+    }
+}
@@ -0,0 +1,97 @@
+package com.battlelancer.seriesguide.util;
+
+import android.support.annotation.NonNull;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks of a single caller, e.g. downloads during sync, on a bounded pool of worker threads
+ * with minimum priority. Results are taken in the order tasks complete.
+ *
+ * <p> At most {@code maxInFlight} tasks may be submitted but not yet taken, to bound memory use
+ * if the caller handles results slower than they are produced. Not thread-safe, submit and take
+ * from the same thread. Call {@link #shutdown()} once done.
+ */
+public class BackgroundPool<T> {
+
+    private final ExecutorService executor;
+    private final CompletionService<T> completionService;
+    private final int maxInFlight;
+    private int inFlight;
+
+    /**
+     * @param name Name of the worker threads, for debugging.
+     * @param threadCount How many tasks to run at the same time, at least 1.
+     * @param maxInFlight How many tasks may be submitted but not yet taken.
+     */
+    public BackgroundPool(@NonNull String name, int threadCount, int maxInFlight) {
+        this.executor = newFixedThreadPool(name, threadCount);
+        this.completionService = new ExecutorCompletionService<>(executor);
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Creates a pool of the given number of threads with minimum priority, so they do not compete
+     * with the UI thread.
+     */
+    public static ExecutorService newFixedThreadPool(@NonNull final String name, int size) {
+        return Executors.newFixedThreadPool(Math.max(1, size), new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                        name + " #" + threadCount.incrementAndGet());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Whether another task may be submitted before taking a result.
+     */
+    public boolean canSubmit() {
+        return inFlight < maxInFlight;
+    }
+
+    /**
+     * Whether there are submitted tasks whose result was not yet taken.
+     */
+    public boolean hasInFlight() {
+        return inFlight > 0;
+    }
+
+    /**
+     * Runs the given task with the {@link RequestScheduler} priority of the calling thread.
+     */
+    public void submit(@NonNull Callable<T> task) {
+        completionService.submit(RequestScheduler.withCurrentPriority(task));
+        inFlight++;
+    }
+
+    /**
+     * Blocks until the next task completes and returns its result.
+     *
+     * @throws ExecutionException If the task threw an exception. Its result counts as taken.
+     */
+    public T take() throws InterruptedException, ExecutionException {
+        Future<T> future = completionService.take();
+        inFlight--;
+        return future.get();
+    }
+
+    /**
+     * Interrupts running tasks, tasks not yet started will not run.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,5 +1,7 @@
 package com.battlelancer.seriesguide.util;
 
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
 import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
@@ -13,6 +15,7 @@ import android.os.RemoteException;
 import android.provider.BaseColumns;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
 import android.text.format.DateUtils;
 import android.widget.Toast;
@@ -27,6 +30,8 @@ import com.battlelancer.seriesguide.provider.SeriesGuideContract;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.Episodes;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.Seasons;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract.Shows;
+import com.battlelancer.seriesguide.provider.SeriesGuideDatabase.Tables;
+import com.battlelancer.seriesguide.provider.SeriesGuideProvider;
 import com.battlelancer.seriesguide.settings.CalendarSettings;
 import com.battlelancer.seriesguide.settings.DisplaySettings;
 import com.battlelancer.seriesguide.ui.CalendarFragment.CalendarType;
@@ -35,6 +40,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import org.greenrobot.eventbus.EventBus;
 import timber.log.Timber;
 
@@ -109,7 +115,23 @@ public class DBUtils {
     }
 
     /**
-     * Triggers the rebuilding of the episode search table.
+     * Removes the given shows and their seasons, episodes, list items and activity in a single
+     * transaction.
+     *
+     * @return The number of removed shows, -1 if removing failed.
+     */
+    public static int removeShows(Context context, int[] showTvdbIds) {
+        String[] selectionArgs = new String[showTvdbIds.length];
+        for (int i = 0; i < showTvdbIds.length; i++) {
+            selectionArgs[i] = String.valueOf(showTvdbIds[i]);
+        }
+        return context.getContentResolver()
+                .delete(SeriesGuideContract.Shows.CONTENT_URI_REMOVE, null, selectionArgs);
+    }
+
+    /**
+     * Triggers the rebuilding of the episode search table. The search table is kept in sync with
+     * episodes by the database, so only use this to repair it.
      */
     public static void rebuildFtsTable(Context context) {
         Timber.d("Query to renew FTS table");
@@ -118,6 +140,25 @@ public class DBUtils {
                         null, null);
     }
 
+    /**
+     * Re-calculates the statistics of all shows. They are kept up to date by the database, so
+     * only use this to repair them.
+     */
+    public static void checkShowStats(Context context) {
+        Timber.d("Query to check show stats");
+        context.getContentResolver()
+                .query(SeriesGuideContract.ShowStats.CONTENT_URI_CHECK, null, null, null, null);
+    }
+
+    /**
+     * Copies all changes from the write-ahead log into the database file. Call before copying the
+     * database file, otherwise recent changes might be missing from the copy.
+     */
+    public static void checkpointDatabase(Context context) {
+        context.getContentResolver()
+                .query(SeriesGuideContract.CONTENT_URI_CHECKPOINT, null, null, null, null);
+    }
+
     interface UnwatchedQuery {
         String AIRED_SELECTION = Episodes.WATCHED + "=0 AND " + Episodes.FIRSTAIREDMS
                 + " !=-1 AND " + Episodes.FIRSTAIREDMS + "<=?";
@@ -125,65 +166,163 @@ public class DBUtils {
         String AIRED_SELECTION_NO_SPECIALS = AIRED_SELECTION
                 + " AND " + Episodes.SELECTION_NO_SPECIALS;
 
-        String FUTURE_SELECTION = Episodes.WATCHED + "=0 AND " + Episodes.FIRSTAIREDMS
-                + ">?";
-
         String NOAIRDATE_SELECTION = Episodes.WATCHED + "=0 AND "
                 + Episodes.FIRSTAIREDMS + "=-1";
 
         String SKIPPED_SELECTION = Episodes.WATCHED + "=" + EpisodeFlags.SKIPPED;
     }
 
+    /**
+     * Stored watch counters of seasons, and the same counters computed from episodes with {@link
+     * #buildSeasonCountsProjection(long)}. Column indexes are shared, except for the last one.
+     */
+    private interface SeasonCountsQuery {
+        String[] PROJECTION = new String[] {
+                Seasons._ID,
+                Seasons.TOTALCOUNT,
+                Seasons.WATCHCOUNT,
+                Seasons.UNAIREDCOUNT,
+                Seasons.NOAIRDATECOUNT,
+                Seasons.TAGS
+        };
+
+        int ID = 0;
+        int TOTAL = 1;
+        int UNWATCHED_AIRED = 2;
+        int UNWATCHED_FUTURE = 3;
+        int UNWATCHED_NO_RELEASE = 4;
+        /** Stored season tags. */
+        int TAGS = 5;
+        /** Count of skipped episodes, only when computed from episodes. */
+        int SKIPPED = 5;
+    }
+
+    /**
+     * Builds an aggregate projection that counts all, unwatched aired, unwatched future, unwatched
+     * without release date and skipped episodes in a single pass. Indexes match {@link
+     * SeasonCountsQuery}.
+     */
+    private static String[] buildSeasonCountsProjection(long currentTime) {
+        return new String[] {
+                Seasons.REF_SEASON_ID,
+                "COUNT(*)",
+                buildCountIf(Episodes.WATCHED + "=0 AND " + Episodes.FIRSTAIREDMS + "!=-1 AND "
+                        + Episodes.FIRSTAIREDMS + "<=" + currentTime),
+                buildCountIf(Episodes.WATCHED + "=0 AND " + Episodes.FIRSTAIREDMS + ">"
+                        + currentTime),
+                buildCountIf(UnwatchedQuery.NOAIRDATE_SELECTION),
+                buildCountIf(UnwatchedQuery.SKIPPED_SELECTION)
+        };
+    }
+
+    private static String buildCountIf(String condition) {
+        return "SUM(CASE WHEN " + condition + " THEN 1 ELSE 0 END)";
+    }
+
+    /**
+     * Builds season values from a row queried with {@link #buildSeasonCountsProjection(long)}.
+     */
+    private static ContentValues buildSeasonCounts(Cursor counts) {
+        // SUM returns NULL if there are no episodes, getInt then returns 0
+        final ContentValues values = new ContentValues();
+        values.put(Seasons.TOTALCOUNT, counts.getInt(SeasonCountsQuery.TOTAL));
+        values.put(Seasons.WATCHCOUNT, counts.getInt(SeasonCountsQuery.UNWATCHED_AIRED));
+        values.put(Seasons.UNAIREDCOUNT, counts.getInt(SeasonCountsQuery.UNWATCHED_FUTURE));
+        values.put(Seasons.NOAIRDATECOUNT, counts.getInt(SeasonCountsQuery.UNWATCHED_NO_RELEASE));
+        values.put(Seasons.TAGS, counts.getInt(SeasonCountsQuery.SKIPPED) > 0
+                ? SeasonTags.SKIPPED : SeasonTags.NONE);
+        return values;
+    }
+
     /**
      * Looks up the episodes of a given season and stores the count of all, unwatched and skipped
      * ones in the seasons watch counters.
      */
     public static void updateUnwatchedCount(Context context, String seasonid) {
         final ContentResolver resolver = context.getContentResolver();
-        final Uri uri = Episodes.buildEpisodesOfSeasonUri(seasonid);
 
-        // all a seasons episodes
-        final int totalCount = getCountOf(resolver, uri, null, null, -1);
-        if (totalCount == -1) {
+        // all counters with one aggregate query
+        final Cursor counts = resolver.query(Episodes.buildEpisodesOfSeasonUri(seasonid),
+                buildSeasonCountsProjection(TimeTools.getCurrentTime(context)), null, null,
+                null);
+        if (counts == null) {
             return;
         }
-
-        // unwatched, aired episodes
-        String[] customCurrentTimeArgs = { String.valueOf(TimeTools.getCurrentTime(context)) };
-        final int count = getCountOf(resolver, uri, UnwatchedQuery.AIRED_SELECTION,
-                customCurrentTimeArgs, -1);
-        if (count == -1) {
+        if (!counts.moveToFirst()) {
+            counts.close();
             return;
         }
+        final ContentValues update = buildSeasonCounts(counts);
+        counts.close();
+
+        resolver.update(Seasons.buildSeasonUri(seasonid), update, null, null);
+    }
+
+    /**
+     * Like {@link #updateUnwatchedCount(Context, String)}, but for all seasons of a show. Instead
+     * of querying each season, computes the counters of all seasons with a single aggregate query
+     * grouped by season. Only seasons whose counters changed are updated, in a single transaction.
+     */
+    public static void updateUnwatchedCountsOfShow(Context context, String showTvdbId) {
+        final ContentResolver resolver = context.getContentResolver();
 
-        // unwatched, aired in the future episodes
-        final int unairedCount = getCountOf(resolver, uri, UnwatchedQuery.FUTURE_SELECTION,
-                customCurrentTimeArgs, -1);
-        if (unairedCount == -1) {
+        // currently stored counters
+        final Cursor seasons = resolver.query(Seasons.buildSeasonsOfShowUri(showTvdbId),
+                SeasonCountsQuery.PROJECTION, null, null, null);
+        if (seasons == null) {
             return;
         }
+        final HashMap<String, ContentValues> storedCounts = new HashMap<>(seasons.getCount());
+        while (seasons.moveToNext()) {
+            final ContentValues values = new ContentValues();
+            values.put(Seasons.TOTALCOUNT, seasons.getInt(SeasonCountsQuery.TOTAL));
+            values.put(Seasons.WATCHCOUNT, seasons.getInt(SeasonCountsQuery.UNWATCHED_AIRED));
+            values.put(Seasons.UNAIREDCOUNT, seasons.getInt(SeasonCountsQuery.UNWATCHED_FUTURE));
+            values.put(Seasons.NOAIRDATECOUNT,
+                    seasons.getInt(SeasonCountsQuery.UNWATCHED_NO_RELEASE));
+            values.put(Seasons.TAGS, seasons.getString(SeasonCountsQuery.TAGS));
+            storedCounts.put(seasons.getString(SeasonCountsQuery.ID), values);
+        }
+        seasons.close();
 
-        // unwatched, no airdate
-        final int noAirDateCount = getCountOf(resolver, uri,
-                UnwatchedQuery.NOAIRDATE_SELECTION, null, -1);
-        if (noAirDateCount == -1) {
+        // counters of all seasons with one aggregate query
+        final Cursor counts = resolver.query(Episodes.buildEpisodesOfShowBySeasonUri(showTvdbId),
+                buildSeasonCountsProjection(TimeTools.getCurrentTime(context)), null, null,
+                null);
+        if (counts == null) {
             return;
         }
+        final HashMap<String, ContentValues> newCounts = new HashMap<>(counts.getCount());
+        while (counts.moveToNext()) {
+            newCounts.put(counts.getString(SeasonCountsQuery.ID), buildSeasonCounts(counts));
+        }
+        counts.close();
 
-        // any skipped episodes
-        int skippedCount = getCountOf(resolver, uri, UnwatchedQuery.SKIPPED_SELECTION, null,
-                -1);
-        if (skippedCount == -1) {
-            return;
+        final ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        for (Map.Entry<String, ContentValues> season : storedCounts.entrySet()) {
+            ContentValues update = newCounts.get(season.getKey());
+            if (update == null) {
+                // season without episodes
+                update = new ContentValues();
+                update.put(Seasons.TOTALCOUNT, 0);
+                update.put(Seasons.WATCHCOUNT, 0);
+                update.put(Seasons.UNAIREDCOUNT, 0);
+                update.put(Seasons.NOAIRDATECOUNT, 0);
+                update.put(Seasons.TAGS, SeasonTags.NONE);
+            }
+            if (!update.equals(season.getValue())) {
+                batch.add(ContentProviderOperation.newUpdate(
+                        Seasons.buildSeasonUri(season.getKey()))
+                        .withValues(update)
+                        .build());
+            }
         }
 
-        final ContentValues update = new ContentValues();
-        update.put(Seasons.WATCHCOUNT, count);
-        update.put(Seasons.UNAIREDCOUNT, unairedCount);
-        update.put(Seasons.NOAIRDATECOUNT, noAirDateCount);
-        update.put(Seasons.TAGS, skippedCount > 0 ? SeasonTags.SKIPPED : SeasonTags.NONE);
-        update.put(Seasons.TOTALCOUNT, totalCount);
-        resolver.update(Seasons.buildSeasonUri(seasonid), update, null, null);
+        try {
+            applyInSingleTransaction(context, batch);
+        } catch (OperationApplicationException e) {
+            Timber.e(e, "updateUnwatchedCountsOfShow: failed to update season counters.");
+        }
     }
 
     /**
@@ -483,15 +622,15 @@ public class DBUtils {
     }
 
     /**
-     * Returns the episode IDs and their last edit time for a given show as a efficiently searchable
-     * HashMap.
+     * Returns the episode IDs and their content hash (see {@link Episodes#CONTENT_HASH}) for a
+     * given show as a efficiently searchable HashMap.
      *
      * @return HashMap containing the shows existing episodes
      */
     public static HashMap<Integer, Long> getEpisodeMapForShow(Context context, int showTvdbId) {
         Cursor episodes = context.getContentResolver().query(
                 Episodes.buildEpisodesOfShowUri(showTvdbId), new String[] {
-                        Episodes._ID, Episodes.LAST_EDITED
+                        Episodes._ID, Episodes.CONTENT_HASH
                 }, null, null, null
         );
         HashMap<Integer, Long> episodeMap = new HashMap<>();
@@ -558,20 +697,66 @@ public class DBUtils {
         return op;
     }
 
-    private interface LastWatchedEpisodeQuery {
-        String[] PROJECTION = new String[] {
-                Qualified.SHOWS_ID,
-                Shows.LASTWATCHEDID,
-                Episodes.SEASON,
-                Episodes.NUMBER,
-                Episodes.FIRSTAIREDMS
-        };
+    /**
+     * Selects each show with its currently stored next episode values. Computes the new next
+     * episode and unwatched count of all shows in the same statement using correlated sub-queries
+     * against {@link Tables#EPISODES}, see {@link #buildNextEpisodeIdColumn(boolean, boolean,
+     * long)}.
+     */
+    private interface ShowsNextEpisodeQuery {
+        /** Alias of the episodes table inside the next episode sub-query. */
+        String NEXT = "nextep";
+        /** Alias of the episodes table inside the unwatched count sub-query. */
+        String UNWATCHED = "unwatchedep";
+
+        /**
+         * True if the show has no (or an incomplete) last watched episode. Then by default: no
+         * watched episodes, include all starting with special 0.
+         */
+        String NO_LAST_EPISODE = "(" + Tables.EPISODES + "." + Episodes.SEASON + " IS NULL OR "
+                + Tables.EPISODES + "." + Episodes.NUMBER + " IS NULL OR "
+                + Tables.EPISODES + "." + Episodes.FIRSTAIREDMS + " IS NULL)";
+
+        /**
+         * Unwatched, airing later or has a different number or season if airing the same time as
+         * the last watched episode.
+         */
+        String SELECT_NEXT = NEXT + "." + Shows.REF_SHOW_ID + "=" + Qualified.SHOWS_ID
+                + " AND " + NEXT + "." + Episodes.WATCHED + "=0 AND ("
+                + NO_LAST_EPISODE
+                + " OR (" + NEXT + "." + Episodes.FIRSTAIREDMS + "="
+                + Tables.EPISODES + "." + Episodes.FIRSTAIREDMS + " AND "
+                + "(" + NEXT + "." + Episodes.NUMBER + "!="
+                + Tables.EPISODES + "." + Episodes.NUMBER + " OR "
+                + NEXT + "." + Episodes.SEASON + "!=" + Tables.EPISODES + "." + Episodes.SEASON
+                + "))"
+                + " OR " + NEXT + "." + Episodes.FIRSTAIREDMS + ">"
+                + Tables.EPISODES + "." + Episodes.FIRSTAIREDMS + ")";
+
+        /**
+         * Air time, then lowest season, or if identical lowest episode number.
+         */
+        String SORTORDER = NEXT + "." + Episodes.FIRSTAIREDMS + " ASC,"
+                + NEXT + "." + Episodes.SEASON + " ASC,"
+                + NEXT + "." + Episodes.NUMBER + " ASC";
+
+        /**
+         * Like {@link UnwatchedQuery#AIRED_SELECTION_NO_SPECIALS}, release time is appended.
+         */
+        String SELECT_UNWATCHED = UNWATCHED + "." + Shows.REF_SHOW_ID + "=" + Qualified.SHOWS_ID
+                + " AND " + UNWATCHED + "." + Episodes.WATCHED + "=0"
+                + " AND " + UNWATCHED + "." + Episodes.SEASON + "!=0"
+                + " AND " + UNWATCHED + "." + Episodes.FIRSTAIREDMS + "!=-1"
+                + " AND " + UNWATCHED + "." + Episodes.FIRSTAIREDMS + "<=";
 
         int SHOW_TVDB_ID = 0;
-        int LAST_EPISODE_TVDB_ID = 1;
-        int LAST_EPISODE_SEASON = 2;
-        int LAST_EPISODE_NUMBER = 3;
-        int LAST_EPISODE_FIRST_RELEASE_MS = 4;
+        int NEXT_EPISODE = 1;
+        int NEXT_RELEASE_MS = 2;
+        int NEXT_TEXT = 3;
+        int NEXT_RELEASE_TEXT = 4;
+        int UNWATCHED_COUNT = 5;
+        int NEW_NEXT_EPISODE_ID = 6;
+        int NEW_UNWATCHED_COUNT = 7;
     }
 
     private interface NextEpisodesQuery {
@@ -583,24 +768,6 @@ public class DBUtils {
                 Episodes.TITLE
         };
 
-        /**
-         * Unwatched, airing later or has a different number or season if airing the same time.
-         */
-        String SELECT_NEXT = Episodes.WATCHED + "=0 AND ("
-                + "(" + Episodes.FIRSTAIREDMS + "=? AND "
-                + "(" + Episodes.NUMBER + "!=? OR " + Episodes.SEASON + "!=?)) "
-                + "OR " + Episodes.FIRSTAIREDMS + ">?)";
-
-        String SELECT_WITHAIRDATE = " AND " + Episodes.FIRSTAIREDMS + "!=-1";
-
-        String SELECT_ONLYFUTURE = " AND " + Episodes.FIRSTAIREDMS + ">=?";
-
-        /**
-         * Air time, then lowest season, or if identical lowest episode number.
-         */
-        String SORTORDER = Episodes.FIRSTAIREDMS + " ASC," + Episodes.SEASON + " ASC,"
-                + Episodes.NUMBER + " ASC";
-
         int ID = 0;
         int SEASON = 1;
         int NUMBER = 2;
@@ -608,18 +775,36 @@ public class DBUtils {
         int TITLE = 4;
     }
 
+    /**
+     * How many episode ids to look up with a single IN clause, stays well below the SQLite host
+     * parameter and expression depth limits.
+     */
+    private static final int NEXT_EPISODES_CHUNK_SIZE = 500;
+
     /**
      * Update next episode field and unwatched episode count for the given show. If no show id is
      * passed, will update next episodes for all shows.
      *
-     * @return If only one show was passed, the TVDb id of the new next episode. Otherwise -1.
+     * <p> Instead of querying each show individually, computes the next episode and unwatched
+     * count of all shows with one query, then loads the details of all next episodes with one
+     * more query (per {@link #NEXT_EPISODES_CHUNK_SIZE} shows). Only shows where any of the
+     * values changed are updated.
+     *
+     * @return If only one show was passed, the TVDb id of the new next episode (0 if there is
+     * none). Otherwise -1.
      */
     public static long updateLatestEpisode(Context context, Integer showTvdbIdToUpdate) {
-        // get a list of shows and their last watched episodes
+        final boolean isHidingSpecials = DisplaySettings.isHidingSpecials(context);
+        final boolean isNoReleasedEpisodes = DisplaySettings.isNoReleasedEpisodes(context);
+        final long currentTime = TimeTools.getCurrentTime(context);
+
+        // STEP 1: get shows with stored and new next episode id and unwatched count
+        final String[] projection = buildShowsNextEpisodeProjection(isHidingSpecials,
+                isNoReleasedEpisodes, currentTime);
         Cursor shows;
         try {
             shows = context.getContentResolver().query(Shows.CONTENT_URI_WITH_LAST_EPISODE,
-                    LastWatchedEpisodeQuery.PROJECTION,
+                    projection,
                     showTvdbIdToUpdate != null ?
                             Qualified.SHOWS_ID + "=" + showTvdbIdToUpdate : null,
                     null, null
@@ -634,132 +819,50 @@ public class DBUtils {
             Timber.e("Failed to update next episode values");
             return -1;
         }
-        final List<String[]> showsLastEpisodes = new ArrayList<>();
+        final List<ShowNextEpisode> showStates = new ArrayList<>(shows.getCount());
+        final List<Integer> nextEpisodeIds = new ArrayList<>(shows.getCount());
         while (shows.moveToNext()) {
-            showsLastEpisodes.add(
-                    new String[] {
-                            shows.getString(LastWatchedEpisodeQuery.SHOW_TVDB_ID), // 0
-                            shows.getString(LastWatchedEpisodeQuery.LAST_EPISODE_TVDB_ID), // 1
-                            shows.getString(LastWatchedEpisodeQuery.LAST_EPISODE_SEASON), // 2
-                            shows.getString(LastWatchedEpisodeQuery.LAST_EPISODE_NUMBER), // 3
-                            shows.getString(LastWatchedEpisodeQuery.LAST_EPISODE_FIRST_RELEASE_MS)
-                            // 4
-                    }
-            );
+            ShowNextEpisode state = new ShowNextEpisode(shows);
+            showStates.add(state);
+            if (state.newNextEpisodeId != 0) {
+                nextEpisodeIds.add(state.newNextEpisodeId);
+            }
         }
         shows.close();
 
-        // pre-build next episode selection
-        final boolean isNoReleasedEpisodes = DisplaySettings.isNoReleasedEpisodes(context);
-        final String nextEpisodeSelection = buildNextEpisodeSelection(
-                DisplaySettings.isHidingSpecials(context), isNoReleasedEpisodes);
-
-        // build updated next episode values for each show
-        int nextEpisodeTvdbId = -1;
-        final ContentValues newShowValues = new ContentValues();
-        final ArrayList<ContentProviderOperation> batch = new ArrayList<>();
-        final String currentTime = String.valueOf(TimeTools.getCurrentTime(context));
-        final boolean displayExactDate = DisplaySettings.isDisplayExactDate(context);
-        DisplaySettings.preventSpoilers(context);
-        for (String[] show : showsLastEpisodes) {
-            // STEP 1: get last watched episode details
-            final String showTvdbId = show[0];
-            final String lastEpisodeTvdbId = show[1];
-            String season = show[2];
-            String number = show[3];
-            String releaseTime = show[4];
-            if (TextUtils.isEmpty(lastEpisodeTvdbId)
-                    || season == null || number == null || releaseTime == null) {
-                // by default: no watched episodes, include all starting with special 0
-                season = "-1";
-                number = "-1";
-                releaseTime = String.valueOf(Long.MIN_VALUE);
-            }
-
-            // STEP 2: get episode released closest afterwards; or at the same time,
-            // but with a higher number
-            final String[] selectionArgs;
-            if (isNoReleasedEpisodes) {
-                // restrict to episodes with future release date
-                selectionArgs = new String[] {
-                        releaseTime, number, season, releaseTime, currentTime
-                };
-            } else {
-                // restrict to episodes with any valid air date
-                selectionArgs = new String[] {
-                        releaseTime, number, season, releaseTime
-                };
-            }
-            Cursor next;
-            try {
-                next = context.getContentResolver()
-                        .query(Episodes.buildEpisodesOfShowUri(showTvdbId),
-                                NextEpisodesQuery.PROJECTION, nextEpisodeSelection, selectionArgs,
-                                NextEpisodesQuery.SORTORDER);
-            } catch (SQLiteException e) {
-                next = null;
-                Timber.e(e, "updateLatestEpisode: next episode query failed.");
-                postDatabaseError(e);
-            }
-            if (next == null) {
+        // STEP 2: get details of all next episodes
+        final HashMap<Integer, ContentValues> nextEpisodeValues = new HashMap<>(
+                nextEpisodeIds.size());
+        for (int from = 0; from < nextEpisodeIds.size(); from += NEXT_EPISODES_CHUNK_SIZE) {
+            List<Integer> chunk = nextEpisodeIds.subList(from,
+                    Math.min(from + NEXT_EPISODES_CHUNK_SIZE, nextEpisodeIds.size()));
+            if (!queryNextEpisodeValues(context, chunk, nextEpisodeValues)) {
                 // abort completely on query failure
                 Timber.e("Failed to update next episode values");
                 return -1;
             }
+        }
 
-            // STEP 3: build updated next episode values
-            if (next.moveToFirst()) {
-                final String nextEpisodeString;
-                int seasonNumber = next.getInt(NextEpisodesQuery.SEASON);
-                int episodeNumber = next.getInt(NextEpisodesQuery.NUMBER);
-                if (DisplaySettings.preventSpoilers(context)) {
-                    // just the number, like '0x12'
-                    nextEpisodeString = TextTools.getEpisodeNumber(context,
-                            seasonNumber,
-                            episodeNumber);
-                } else {
-                    // next episode text, like '0x12 Episode Name'
-                    nextEpisodeString = TextTools.getNextEpisodeString(context,
-                            seasonNumber,
-                            episodeNumber,
-                            next.getString(NextEpisodesQuery.TITLE));
-                }
-
-                // next release date text, e.g. "in 15 mins (Fri)"
-                long releaseTimeNext = next.getLong(NextEpisodesQuery.FIRST_RELEASE_MS);
-                Date actualRelease = TimeTools.applyUserOffset(context, releaseTimeNext);
-                String dateTime = displayExactDate ?
-                        TimeTools.formatToLocalDateShort(context, actualRelease)
-                        : TimeTools.formatToLocalRelativeTime(context, actualRelease);
-                final String nextReleaseDateString = context.getString(
-                        R.string.release_date_and_day,
-                        dateTime,
-                        TimeTools.formatToLocalDay(actualRelease));
-
-                nextEpisodeTvdbId = next.getInt(NextEpisodesQuery.ID);
-                newShowValues.put(Shows.NEXTEPISODE, nextEpisodeTvdbId);
-                newShowValues.put(Shows.NEXTAIRDATEMS, releaseTimeNext);
-                newShowValues.put(Shows.NEXTTEXT, nextEpisodeString);
-                newShowValues.put(Shows.NEXTAIRDATETEXT, nextReleaseDateString);
-            } else {
+        // STEP 3: update only shows with changed next episode values
+        final ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        for (ShowNextEpisode state : showStates) {
+            ContentValues newValues = nextEpisodeValues.get(state.newNextEpisodeId);
+            if (newValues == null) {
                 // no next episode, set empty values
-                nextEpisodeTvdbId = 0;
-                newShowValues.put(Shows.NEXTEPISODE, "");
-                newShowValues.put(Shows.NEXTAIRDATEMS, UNKNOWN_NEXT_RELEASE_DATE);
-                newShowValues.put(Shows.NEXTTEXT, "");
-                newShowValues.put(Shows.NEXTAIRDATETEXT, "");
+                newValues = new ContentValues();
+                newValues.put(Shows.NEXTEPISODE, "");
+                newValues.put(Shows.NEXTAIRDATEMS, UNKNOWN_NEXT_RELEASE_DATE);
+                newValues.put(Shows.NEXTTEXT, "");
+                newValues.put(Shows.NEXTAIRDATETEXT, "");
+            }
+            if (state.isChanged(newValues)) {
+                ContentValues showValues = new ContentValues(newValues);
+                showValues.put(Shows.UNWATCHED_COUNT, state.newUnwatchedCount);
+                batch.add(ContentProviderOperation.newUpdate(
+                        Shows.buildShowUri(state.showTvdbId))
+                        .withValues(showValues)
+                        .build());
             }
-            next.close();
-
-            // STEP 4: get remaining episodes count
-            int unwatchedEpisodesCount = getUnwatchedEpisodesOfShow(context, showTvdbId);
-            newShowValues.put(Shows.UNWATCHED_COUNT, unwatchedEpisodesCount);
-
-            // update the show with the new next episode values
-            batch.add(ContentProviderOperation.newUpdate(Shows.buildShowUri(showTvdbId))
-                    .withValues(newShowValues)
-                    .build());
-            newShowValues.clear();
         }
 
         try {
@@ -768,73 +871,320 @@ public class DBUtils {
             Timber.e(e, "Failed to update next episode values");
             return -1;
         }
+        Timber.d("updateLatestEpisode: updated %s of %s shows", batch.size(), showStates.size());
+
+        if (showTvdbIdToUpdate != null && showStates.size() == 1) {
+            return showStates.get(0).newNextEpisodeId;
+        }
+        return -1;
+    }
 
-        return nextEpisodeTvdbId;
+    /**
+     * Builds the projection to query {@link Shows#CONTENT_URI_WITH_LAST_EPISODE} with, see {@link
+     * ShowsNextEpisodeQuery}. Visible to inspect the query plan of its sub-queries in tests.
+     */
+    @VisibleForTesting
+    public static String[] buildShowsNextEpisodeProjection(boolean isHidingSpecials,
+            boolean isNoReleasedEpisodes, long currentTime) {
+        return new String[] {
+                Qualified.SHOWS_ID,
+                Tables.SHOWS + "." + Shows.NEXTEPISODE,
+                Tables.SHOWS + "." + Shows.NEXTAIRDATEMS,
+                Tables.SHOWS + "." + Shows.NEXTTEXT,
+                Tables.SHOWS + "." + Shows.NEXTAIRDATETEXT,
+                Tables.SHOWS + "." + Shows.UNWATCHED_COUNT,
+                buildNextEpisodeIdColumn(isHidingSpecials, isNoReleasedEpisodes, currentTime),
+                "(SELECT COUNT(*) FROM " + Tables.EPISODES
+                        + " AS " + ShowsNextEpisodeQuery.UNWATCHED
+                        + " WHERE " + ShowsNextEpisodeQuery.SELECT_UNWATCHED + currentTime + ")"
+        };
     }
 
-    private static String buildNextEpisodeSelection(boolean isHidingSpecials,
-            boolean isNoReleasedEpisodes) {
-        StringBuilder nextEpisodeSelectionBuilder = new StringBuilder(
-                NextEpisodesQuery.SELECT_NEXT);
+    /**
+     * Builds a correlated sub-query column returning the TVDb id of the episode released closest
+     * after the last watched episode of a show; or at the same time, but with a different number.
+     * Returns {@code NULL} if there is none.
+     */
+    private static String buildNextEpisodeIdColumn(boolean isHidingSpecials,
+            boolean isNoReleasedEpisodes, long currentTime) {
+        String next = ShowsNextEpisodeQuery.NEXT;
+        StringBuilder column = new StringBuilder("(SELECT ")
+                .append(next).append('.').append(Episodes._ID)
+                .append(" FROM ").append(Tables.EPISODES).append(" AS ").append(next)
+                .append(" WHERE ").append(ShowsNextEpisodeQuery.SELECT_NEXT);
         if (isHidingSpecials) {
             // do not take specials into account
-            nextEpisodeSelectionBuilder.append(" AND ").append(Episodes.SELECTION_NO_SPECIALS);
+            column.append(" AND ").append(next).append('.').append(Episodes.SEASON).append("!=0");
         }
         if (isNoReleasedEpisodes) {
             // restrict to episodes with future release date
-            nextEpisodeSelectionBuilder.append(NextEpisodesQuery.SELECT_ONLYFUTURE);
+            column.append(" AND ").append(next).append('.').append(Episodes.FIRSTAIREDMS)
+                    .append(">=").append(currentTime);
         } else {
             // restrict to episodes with any valid air date
-            nextEpisodeSelectionBuilder.append(NextEpisodesQuery.SELECT_WITHAIRDATE);
+            column.append(" AND ").append(next).append('.').append(Episodes.FIRSTAIREDMS)
+                    .append("!=-1");
         }
-        return nextEpisodeSelectionBuilder.toString();
+        column.append(" ORDER BY ").append(ShowsNextEpisodeQuery.SORTORDER)
+                .append(" LIMIT 1)");
+        return column.toString();
+    }
+
+    /**
+     * Loads the given episodes and builds the next episode values of their show.
+     *
+     * @return {@code false} if the query failed.
+     */
+    private static boolean queryNextEpisodeValues(Context context, List<Integer> episodeIds,
+            HashMap<Integer, ContentValues> nextEpisodeValues) {
+        Cursor next;
+        try {
+            next = context.getContentResolver().query(Episodes.CONTENT_URI,
+                    NextEpisodesQuery.PROJECTION,
+                    Episodes._ID + " IN (" + TextUtils.join(",", episodeIds) + ")", null, null);
+        } catch (SQLiteException e) {
+            next = null;
+            Timber.e(e, "updateLatestEpisode: next episode query failed.");
+            postDatabaseError(e);
+        }
+        if (next == null) {
+            return false;
+        }
+
+        final boolean preventSpoilers = DisplaySettings.preventSpoilers(context);
+        final boolean displayExactDate = DisplaySettings.isDisplayExactDate(context);
+        while (next.moveToNext()) {
+            final String nextEpisodeString;
+            int seasonNumber = next.getInt(NextEpisodesQuery.SEASON);
+            int episodeNumber = next.getInt(NextEpisodesQuery.NUMBER);
+            if (preventSpoilers) {
+                // just the number, like '0x12'
+                nextEpisodeString = TextTools.getEpisodeNumber(context,
+                        seasonNumber,
+                        episodeNumber);
+            } else {
+                // next episode text, like '0x12 Episode Name'
+                nextEpisodeString = TextTools.getNextEpisodeString(context,
+                        seasonNumber,
+                        episodeNumber,
+                        next.getString(NextEpisodesQuery.TITLE));
+            }
+
+            // next release date text, e.g. "in 15 mins (Fri)"
+            long releaseTimeNext = next.getLong(NextEpisodesQuery.FIRST_RELEASE_MS);
+            Date actualRelease = TimeTools.applyUserOffset(context, releaseTimeNext);
+            String dateTime = displayExactDate ?
+                    TimeTools.formatToLocalDateShort(context, actualRelease)
+                    : TimeTools.formatToLocalRelativeTime(context, actualRelease);
+            final String nextReleaseDateString = context.getString(
+                    R.string.release_date_and_day,
+                    dateTime,
+                    TimeTools.formatToLocalDay(actualRelease));
+
+            int nextEpisodeTvdbId = next.getInt(NextEpisodesQuery.ID);
+            ContentValues values = new ContentValues();
+            values.put(Shows.NEXTEPISODE, String.valueOf(nextEpisodeTvdbId));
+            values.put(Shows.NEXTAIRDATEMS, releaseTimeNext);
+            values.put(Shows.NEXTTEXT, nextEpisodeString);
+            values.put(Shows.NEXTAIRDATETEXT, nextReleaseDateString);
+            nextEpisodeValues.put(nextEpisodeTvdbId, values);
+        }
+        next.close();
+        return true;
+    }
+
+    /**
+     * Stored and newly computed next episode values of a show, see {@link
+     * ShowsNextEpisodeQuery}.
+     */
+    private static class ShowNextEpisode {
+        final int showTvdbId;
+        final String nextEpisode;
+        final long nextReleaseMs;
+        final String nextText;
+        final String nextReleaseText;
+        final int unwatchedCount;
+        /** 0 if there is no next episode. */
+        final int newNextEpisodeId;
+        final int newUnwatchedCount;
+
+        ShowNextEpisode(Cursor query) {
+            showTvdbId = query.getInt(ShowsNextEpisodeQuery.SHOW_TVDB_ID);
+            nextEpisode = query.getString(ShowsNextEpisodeQuery.NEXT_EPISODE);
+            nextReleaseMs = query.getLong(ShowsNextEpisodeQuery.NEXT_RELEASE_MS);
+            nextText = query.getString(ShowsNextEpisodeQuery.NEXT_TEXT);
+            nextReleaseText = query.getString(ShowsNextEpisodeQuery.NEXT_RELEASE_TEXT);
+            unwatchedCount = query.getInt(ShowsNextEpisodeQuery.UNWATCHED_COUNT);
+            // getInt returns 0 for NULL
+            newNextEpisodeId = query.getInt(ShowsNextEpisodeQuery.NEW_NEXT_EPISODE_ID);
+            newUnwatchedCount = query.getInt(ShowsNextEpisodeQuery.NEW_UNWATCHED_COUNT);
+        }
+
+        boolean isChanged(ContentValues newValues) {
+            return unwatchedCount != newUnwatchedCount
+                    || nextReleaseMs != newValues.getAsLong(Shows.NEXTAIRDATEMS)
+                    || !TextUtils.equals(nextEpisode, newValues.getAsString(Shows.NEXTEPISODE))
+                    || !TextUtils.equals(nextText, newValues.getAsString(Shows.NEXTTEXT))
+                    || !TextUtils.equals(nextReleaseText,
+                    newValues.getAsString(Shows.NEXTAIRDATETEXT));
+        }
+    }
+
+    /**
+     * Applies a batch of {@link ContentProviderOperation} windows, see {@link
+     * #applyInWindows(ArrayList, int, BatchApplier)}.
+     */
+    public interface BatchApplier {
+        void apply(ArrayList<ContentProviderOperation> batch) throws OperationApplicationException;
     }
 
     /**
      * Applies a large {@link ContentProviderOperation} batch in smaller batches as not to overload
-     * the transaction cache.
+     * the transaction cache. Does not modify the given batch.
      */
-    public static void applyInSmallBatches(Context context,
+    public static void applyInSmallBatches(final Context context,
             ArrayList<ContentProviderOperation> batch) throws OperationApplicationException {
         // split into smaller batches to not overload transaction cache
         // see http://developer.android.com/reference/android/os/TransactionTooLargeException.html
-
-        ArrayList<ContentProviderOperation> smallBatch = new ArrayList<>();
-
-        while (!batch.isEmpty()) {
-            if (batch.size() <= SMALL_BATCH_SIZE) {
-                // small enough already? apply right away
+        applyInWindows(batch, SMALL_BATCH_SIZE, new BatchApplier() {
+            @Override
+            public void apply(ArrayList<ContentProviderOperation> batch)
+                    throws OperationApplicationException {
                 applyBatch(context, batch);
-                return;
             }
+        });
+    }
 
-            // take up to 50 elements out of batch
-            for (int count = 0; count < SMALL_BATCH_SIZE; count++) {
-                if (batch.isEmpty()) {
-                    break;
-                }
-                smallBatch.add(batch.remove(0));
+    /**
+     * Passes consecutive windows of at most the given size of the batch to the given applier, in
+     * order. If the batch is small enough it is passed as is. Does not modify the given batch.
+     */
+    public static void applyInWindows(ArrayList<ContentProviderOperation> batch, int windowSize,
+            BatchApplier applier) throws OperationApplicationException {
+        final int size = batch.size();
+        if (size <= windowSize) {
+            // small enough already? apply right away
+            if (size > 0) {
+                applier.apply(batch);
             }
+            return;
+        }
 
-            // apply small batch
-            applyBatch(context, smallBatch);
+        ArrayList<ContentProviderOperation> window = new ArrayList<>(windowSize);
+        for (int start = 0; start < size; start += windowSize) {
+            window.clear();
+            window.addAll(batch.subList(start, Math.min(start + windowSize, size)));
+            applier.apply(window);
+        }
+    }
 
-            // prepare for next small batch
-            smallBatch.clear();
+    /**
+     * Applies a large {@link ContentProviderOperation} batch in a single database transaction,
+     * letting other threads access the database every {@link #SMALL_BATCH_SIZE} ops. Changes
+     * before such a yield point are committed, so if an op fails only changes after the last
+     * yield point are rolled back.
+     *
+     * <p> This only works if the provider runs in this process (it does for this app), as then the
+     * batch does not have to be sent through a binder transaction. Otherwise falls back to {@link
+     * #applyInSmallBatches(Context, ArrayList)}.
+     *
+     * @return {@code false} if the batch failed with a database error, which is also posted as
+     * an error event.
+     */
+    public static boolean applyInSingleTransaction(final Context context,
+            ArrayList<ContentProviderOperation> batch) throws OperationApplicationException {
+        if (batch.isEmpty()) {
+            return true;
+        }
+        ContentProviderClient client = context.getContentResolver()
+                .acquireContentProviderClient(SgApp.CONTENT_AUTHORITY);
+        if (client == null) {
+            throw new IllegalStateException("SeriesGuideProvider not available");
+        }
+        try {
+            ContentProvider provider = client.getLocalContentProvider();
+            if (!(provider instanceof SeriesGuideProvider)) {
+                final boolean[] isSuccessful = { true };
+                applyInWindows(batch, SMALL_BATCH_SIZE, new BatchApplier() {
+                    @Override
+                    public void apply(ArrayList<ContentProviderOperation> batch)
+                            throws OperationApplicationException {
+                        if (!applyBatch(context, batch)) {
+                            isSuccessful[0] = false;
+                        }
+                    }
+                });
+                return isSuccessful[0];
+            }
+            try {
+                ((SeriesGuideProvider) provider).applyBatch(batch, SMALL_BATCH_SIZE);
+                return true;
+            } catch (SQLiteException e) {
+                Timber.e(e, "applyInSingleTransaction: failed, database error.");
+                postDatabaseError(e);
+                return false;
+            }
+        } finally {
+            client.release();
+        }
+    }
+
+    /**
+     * Updates episodes by their {@link Episodes#_ID} in a single database transaction, see {@link
+     * SeriesGuideProvider#bulkUpdate(Uri, ContentValues[])}. Each values must contain the id of
+     * the episode to update.
+     *
+     * <p> Like {@link #applyInSingleTransaction(Context, ArrayList)} falls back to {@link
+     * #applyInSmallBatches(Context, ArrayList)} if the provider does not run in this process.
+     */
+    public static void bulkUpdateEpisodes(Context context, List<ContentValues> values)
+            throws OperationApplicationException {
+        if (values.isEmpty()) {
+            return;
+        }
+        ContentProviderClient client = context.getContentResolver()
+                .acquireContentProviderClient(SgApp.CONTENT_AUTHORITY);
+        if (client == null) {
+            throw new IllegalStateException("SeriesGuideProvider not available");
+        }
+        try {
+            ContentProvider provider = client.getLocalContentProvider();
+            if (!(provider instanceof SeriesGuideProvider)) {
+                ArrayList<ContentProviderOperation> batch = new ArrayList<>(values.size());
+                for (ContentValues episodeValues : values) {
+                    batch.add(buildEpisodeUpdateOp(episodeValues));
+                }
+                applyInSmallBatches(context, batch);
+                return;
+            }
+            try {
+                ((SeriesGuideProvider) provider).bulkUpdate(Episodes.CONTENT_URI,
+                        values.toArray(new ContentValues[values.size()]));
+            } catch (SQLiteException e) {
+                Timber.e(e, "bulkUpdateEpisodes: failed, database error.");
+                postDatabaseError(e);
+            }
+        } finally {
+            client.release();
         }
     }
 
-    private static void applyBatch(Context context, ArrayList<ContentProviderOperation> batch)
+    /**
+     * @return {@code false} if the batch failed with a database error.
+     */
+    private static boolean applyBatch(Context context, ArrayList<ContentProviderOperation> batch)
             throws OperationApplicationException {
         try {
             context.getContentResolver()
                     .applyBatch(SgApp.CONTENT_AUTHORITY, batch);
+            return true;
         } catch (RemoteException e) {
             // not using a remote provider, so this should never happen. crash if it does.
             throw new RuntimeException("Problem applying batch operation", e);
         } catch (SQLiteException e) {
             Timber.e(e, "applyBatch: failed, database error.");
             postDatabaseError(e);
+            return false;
         }
     }
 
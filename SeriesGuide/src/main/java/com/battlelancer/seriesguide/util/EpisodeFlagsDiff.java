@@ -0,0 +1,176 @@
+package com.battlelancer.seriesguide.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.uwetrottmann.trakt5.entities.BaseEpisode;
+import com.uwetrottmann.trakt5.entities.BaseSeason;
+import com.uwetrottmann.trakt5.entities.BaseShow;
+import com.uwetrottmann.trakt5.entities.SyncEpisode;
+import com.uwetrottmann.trakt5.entities.SyncSeason;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares the watched or collected flags of the local episodes of a show with those of a trakt
+ * show. Local flags are added to a {@link ShowFlags} from a single scan of the episodes of a show
+ * (or the whole library), stored as bit sets of episode numbers per season.
+ *
+ * <p> Skipped episodes count as not watched: they are set watched if watched on trakt, but never
+ * set not watched or uploaded.
+ */
+public class EpisodeFlagsDiff {
+
+    /**
+     * Local episodes and which of them are flagged, by season number. Ignores negative season or
+     * episode numbers.
+     */
+    public static class ShowFlags {
+
+        final TreeMap<Integer, SeasonFlags> seasons = new TreeMap<>();
+
+        public void add(int season, int number, boolean isFlagged) {
+            if (season < 0 || number < 0) {
+                return;
+            }
+            SeasonFlags seasonFlags = seasons.get(season);
+            if (seasonFlags == null) {
+                seasonFlags = new SeasonFlags();
+                seasons.put(season, seasonFlags);
+            }
+            seasonFlags.episodes.set(number);
+            if (isFlagged) {
+                seasonFlags.flagged.set(number);
+            }
+        }
+
+        public boolean isEmpty() {
+            return seasons.isEmpty();
+        }
+    }
+
+    static class SeasonFlags {
+        final BitSet episodes = new BitSet();
+        final BitSet flagged = new BitSet();
+    }
+
+    /**
+     * Episode numbers by season number.
+     */
+    public static class SeasonEpisodes {
+        public final int season;
+        public final BitSet numbers;
+        /** If {@link #numbers} contains all local episodes of the season. */
+        public final boolean isWholeSeason;
+
+        SeasonEpisodes(int season, BitSet numbers, boolean isWholeSeason) {
+            this.season = season;
+            this.numbers = numbers;
+            this.isWholeSeason = isWholeSeason;
+        }
+    }
+
+    /** Local episodes to flag as they are flagged on trakt. */
+    public final List<SeasonEpisodes> toFlag = new ArrayList<>();
+    /** Flagged local episodes not flagged on trakt, if not an initial sync. */
+    public final List<SeasonEpisodes> toUnflag = new ArrayList<>();
+    /** Flagged local episodes not flagged on trakt, if an initial sync. */
+    public final List<SyncSeason> toUpload = new ArrayList<>();
+
+    private EpisodeFlagsDiff() {
+    }
+
+    /**
+     * @param traktShow If {@code null} treats all episodes as not flagged on trakt.
+     * @param isInitialSync If {@code true}, flagged episodes not flagged on trakt are uploaded
+     * instead of set not flagged.
+     */
+    @NonNull
+    public static EpisodeFlagsDiff diff(@NonNull ShowFlags local, @Nullable BaseShow traktShow,
+            boolean isInitialSync) {
+        TreeMap<Integer, BitSet> traktSeasons = buildTraktSeasons(traktShow);
+
+        EpisodeFlagsDiff diff = new EpisodeFlagsDiff();
+        BitSet none = new BitSet();
+        for (Map.Entry<Integer, SeasonFlags> entry : local.seasons.entrySet()) {
+            int season = entry.getKey();
+            SeasonFlags seasonFlags = entry.getValue();
+            BitSet traktEpisodes = traktSeasons.get(season);
+            if (traktEpisodes == null) {
+                traktEpisodes = none;
+            }
+
+            // local episodes flagged on trakt, but not locally
+            BitSet toFlag = (BitSet) seasonFlags.episodes.clone();
+            toFlag.and(traktEpisodes);
+            toFlag.andNot(seasonFlags.flagged);
+            if (!toFlag.isEmpty()) {
+                diff.toFlag.add(new SeasonEpisodes(season, toFlag,
+                        toFlag.equals(seasonFlags.episodes)));
+            }
+
+            // episodes flagged locally, but not on trakt
+            BitSet notOnTrakt = (BitSet) seasonFlags.flagged.clone();
+            notOnTrakt.andNot(traktEpisodes);
+            if (notOnTrakt.isEmpty()) {
+                continue;
+            }
+            if (isInitialSync) {
+                List<SyncEpisode> syncEpisodes = new ArrayList<>(notOnTrakt.cardinality());
+                for (int number = notOnTrakt.nextSetBit(0); number >= 0;
+                        number = notOnTrakt.nextSetBit(number + 1)) {
+                    syncEpisodes.add(new SyncEpisode().number(number));
+                }
+                diff.toUpload.add(new SyncSeason().number(season).episodes(syncEpisodes));
+            } else {
+                diff.toUnflag.add(new SeasonEpisodes(season, notOnTrakt,
+                        notOnTrakt.equals(seasonFlags.episodes)));
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * Ignores seasons and episodes missing required data, like {@link TraktTools} does.
+     */
+    private static TreeMap<Integer, BitSet> buildTraktSeasons(@Nullable BaseShow traktShow) {
+        TreeMap<Integer, BitSet> traktSeasons = new TreeMap<>();
+        if (traktShow == null || traktShow.seasons == null) {
+            return traktSeasons;
+        }
+        for (BaseSeason season : traktShow.seasons) {
+            if (season.number == null
+                    || season.episodes == null
+                    || season.episodes.isEmpty()) {
+                continue; // trakt season misses required data, skip.
+            }
+            BitSet episodes = new BitSet();
+            for (BaseEpisode episode : season.episodes) {
+                if (episode.number == null || episode.number < 0) {
+                    continue; // trakt episode misses required data, skip.
+                }
+                episodes.set(episode.number);
+            }
+            traktSeasons.put(season.number, episodes);
+        }
+        return traktSeasons;
+    }
+
+    /**
+     * Returns the numbers as a comma separated list, e.g. to use in an SQL {@code IN} clause.
+     */
+    @NonNull
+    public static String toNumberList(@NonNull BitSet numbers) {
+        StringBuilder list = new StringBuilder();
+        for (int number = numbers.nextSetBit(0); number >= 0;
+                number = numbers.nextSetBit(number + 1)) {
+            if (list.length() > 0) {
+                list.append(",");
+            }
+            list.append(number);
+        }
+        return list.toString();
+    }
+}
@@ -5,16 +5,15 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.OperationApplicationException;
 import android.database.Cursor;
-import android.net.Uri;
 import android.os.AsyncTask;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.os.AsyncTaskCompat;
 import android.support.v4.util.SparseArrayCompat;
-import android.text.TextUtils;
 import com.battlelancer.seriesguide.R;
 import com.battlelancer.seriesguide.SgApp;
+import com.battlelancer.seriesguide.backend.HexagonEpisodePages;
 import com.battlelancer.seriesguide.backend.HexagonTools;
 import com.battlelancer.seriesguide.backend.settings.HexagonSettings;
 import com.battlelancer.seriesguide.enums.EpisodeFlags;
@@ -37,7 +36,9 @@ import com.uwetrottmann.trakt5.services.Sync;
 import dagger.Lazy;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 import org.greenrobot.eventbus.EventBus;
 import retrofit2.Call;
@@ -442,100 +443,88 @@ public class EpisodeTools {
 
         /**
          * Downloads all episodes changed since the last time this was called and applies changes to
-         * the database.
+         * the database. The next page of episodes is downloaded while the current one is applied.
          */
         public static boolean flagsFromHexagon(Context context) {
-            List<Episode> episodes;
-            boolean hasMoreEpisodes = true;
-            String cursor = null;
             long currentTime = System.currentTimeMillis();
-            DateTime lastSyncTime = new DateTime(HexagonSettings.getLastEpisodesSyncTime(context));
+            final DateTime lastSyncTime = new DateTime(
+                    HexagonSettings.getLastEpisodesSyncTime(context));
 
             Timber.d("flagsFromHexagon: downloading changed episode flags since %s", lastSyncTime);
 
-            SparseArrayCompat<Long> showsLastWatchedMs = new SparseArrayCompat<>();
-            while (hasMoreEpisodes) {
-                try {
-                    Episodes episodesService = HexagonTools.getEpisodesService(context);
-                    if (episodesService == null) {
-                        return false;
-                    }
-
-                    Episodes.Get request = episodesService.get()
-                            .setUpdatedSince(lastSyncTime); // use default server limit
-                    if (!TextUtils.isEmpty(cursor)) {
-                        request.setCursor(cursor);
-                    }
-
-                    EpisodeList response = request.execute();
-                    if (response == null) {
-                        // we're done here
-                        Timber.d("flagsFromHexagon: response was null, done here");
-                        break;
-                    }
-
-                    episodes = response.getEpisodes();
-
-                    // check for more items
-                    if (response.getCursor() != null) {
-                        cursor = response.getCursor();
-                    } else {
-                        hasMoreEpisodes = false;
-                    }
-                } catch (IOException e) {
-                    HexagonTools.trackFailedRequest(context, "get updated episodes", e);
-                    return false;
-                }
-
-                if (episodes == null || episodes.size() == 0) {
-                    // nothing to do here
-                    break;
-                }
+            final Episodes episodesService = HexagonTools.getEpisodesService(context);
+            if (episodesService == null) {
+                return false;
+            }
+            HexagonEpisodePages pages = new HexagonEpisodePages(
+                    new HexagonEpisodePages.PageRequest() {
+                        @Override
+                        public EpisodeList execute(@Nullable String cursor) throws IOException {
+                            Episodes.Get request = episodesService.get()
+                                    .setUpdatedSince(lastSyncTime); // use default server limit
+                            if (cursor != null) {
+                                request.setCursor(cursor);
+                            }
+                            return request.execute();
+                        }
+                    });
 
-                // build batch of episode flag updates
-                ArrayList<ContentProviderOperation> batch = new ArrayList<>();
-                for (Episode episode : episodes) {
-                    ContentValues values = new ContentValues();
-                    Integer showTvdbId = episode.getShowTvdbId();
-                    Integer watchedFlag = episode.getWatchedFlag();
-                    if (watchedFlag != null) {
-                        values.put(SeriesGuideContract.Episodes.WATCHED, watchedFlag);
-                        // record the latest last watched time for a show
-                        if (!EpisodeTools.isUnwatched(watchedFlag)) {
-                            Long lastWatchedMs = showsLastWatchedMs.get(showTvdbId);
-                            // episodes returned in reverse chrono order, so just get the first time
-                            if (lastWatchedMs == null && episode.getUpdatedAt() != null) {
-                                long updatedAtMs = episode.getUpdatedAt().getValue();
-                                showsLastWatchedMs.put(showTvdbId, updatedAtMs);
+            SparseArrayCompat<Long> showsLastWatchedMs = new SparseArrayCompat<>();
+            SparseArrayCompat<Map<Long, Integer>> episodeIdsOfShows = new SparseArrayCompat<>();
+            try {
+                List<Episode> episodes;
+                while ((episodes = pages.next()) != null) {
+                    // build batch of episode flag updates
+                    ArrayList<ContentValues> batch = new ArrayList<>(episodes.size());
+                    for (Episode episode : episodes) {
+                        Integer showTvdbId = episode.getShowTvdbId();
+                        if (showTvdbId == null) {
+                            continue;
+                        }
+                        ContentValues values = new ContentValues();
+                        Integer watchedFlag = episode.getWatchedFlag();
+                        if (watchedFlag != null) {
+                            values.put(SeriesGuideContract.Episodes.WATCHED, watchedFlag);
+                            // record the latest last watched time for a show
+                            if (!EpisodeTools.isUnwatched(watchedFlag)) {
+                                Long lastWatchedMs = showsLastWatchedMs.get(showTvdbId);
+                                // episodes returned in reverse chrono order, take the first time
+                                if (lastWatchedMs == null && episode.getUpdatedAt() != null) {
+                                    long updatedAtMs = episode.getUpdatedAt().getValue();
+                                    showsLastWatchedMs.put(showTvdbId, updatedAtMs);
+                                }
                             }
                         }
-                    }
-                    if (episode.getIsInCollection() != null) {
-                        values.put(SeriesGuideContract.Episodes.COLLECTED,
-                                episode.getIsInCollection());
-                    }
+                        if (episode.getIsInCollection() != null) {
+                            values.put(SeriesGuideContract.Episodes.COLLECTED,
+                                    episode.getIsInCollection());
+                        }
 
-                    ContentProviderOperation op = ContentProviderOperation
-                            .newUpdate(SeriesGuideContract.Episodes.CONTENT_URI)
-                            .withSelection(SeriesGuideContract.Shows.REF_SHOW_ID + "="
-                                    + showTvdbId + " AND "
-                                    + SeriesGuideContract.Episodes.SEASON + "="
-                                    + episode.getSeasonNumber() + " AND "
-                                    + SeriesGuideContract.Episodes.NUMBER + "="
-                                    + episode.getEpisodeNumber(), null)
-                            .withValues(values)
-                            .build();
-
-                    batch.add(op);
-                }
+                        if (values.size() == 0) {
+                            continue;
+                        }
+                        if (!putEpisodeTvdbId(context, episodeIdsOfShows, showTvdbId, episode,
+                                values)) {
+                            continue; // show or episode not added
+                        }
+                        batch.add(values);
+                    }
 
-                // execute database update
-                try {
-                    DBUtils.applyInSmallBatches(context, batch);
-                } catch (OperationApplicationException e) {
-                    Timber.e(e, "flagsFromHexagon: failed to apply changed episode flag updates");
-                    return false;
+                    // execute database update
+                    DBUtils.bulkUpdateEpisodes(context, batch);
                 }
+            } catch (IOException e) {
+                HexagonTools.trackFailedRequest(context, "get updated episodes", e);
+                return false;
+            } catch (InterruptedException e) {
+                // sync was canceled
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (OperationApplicationException e) {
+                Timber.e(e, "flagsFromHexagon: failed to apply changed episode flag updates");
+                return false;
+            } finally {
+                pages.close();
             }
 
             if (!updateLastWatchedTimeOfShows(context, showsLastWatchedMs)) {
@@ -550,6 +539,61 @@ public class EpisodeTools {
             return true;
         }
 
+        /**
+         * Looks up the TVDB id of the given episode and puts it into the given values. The ids
+         * of all episodes of a show are loaded from the database the first time one of its
+         * episodes is looked up.
+         *
+         * @return {@code false} if the show or episode does not exist in the database.
+         */
+        private static boolean putEpisodeTvdbId(Context context,
+                SparseArrayCompat<Map<Long, Integer>> episodeIdsOfShows, int showTvdbId,
+                Episode episode, ContentValues values) {
+            Integer season = episode.getSeasonNumber();
+            Integer number = episode.getEpisodeNumber();
+            if (season == null || number == null) {
+                return false;
+            }
+            Map<Long, Integer> episodeIds = episodeIdsOfShows.get(showTvdbId);
+            if (episodeIds == null) {
+                episodeIds = getEpisodeIdsOfShow(context, showTvdbId);
+                episodeIdsOfShows.put(showTvdbId, episodeIds);
+            }
+            Integer episodeTvdbId = episodeIds.get(buildEpisodeKey(season, number));
+            if (episodeTvdbId == null) {
+                return false;
+            }
+            values.put(SeriesGuideContract.Episodes._ID, episodeTvdbId);
+            return true;
+        }
+
+        /**
+         * Returns the TVDB ids of all episodes of a show mapped by {@link #buildEpisodeKey(int,
+         * int)}.
+         */
+        private static Map<Long, Integer> getEpisodeIdsOfShow(Context context, int showTvdbId) {
+            Cursor query = context.getContentResolver().query(
+                    SeriesGuideContract.Episodes.buildEpisodesOfShowUri(showTvdbId),
+                    new String[] {
+                            SeriesGuideContract.Episodes._ID,
+                            SeriesGuideContract.Episodes.SEASON,
+                            SeriesGuideContract.Episodes.NUMBER
+                    }, null, null, null);
+            Map<Long, Integer> episodeIds = new HashMap<>();
+            if (query != null) {
+                while (query.moveToNext()) {
+                    episodeIds.put(buildEpisodeKey(query.getInt(1), query.getInt(2)),
+                            query.getInt(0));
+                }
+                query.close();
+            }
+            return episodeIds;
+        }
+
+        private static long buildEpisodeKey(int season, int number) {
+            return ((long) season << 32) | (number & 0xFFFFFFFFL);
+        }
+
         private static boolean updateLastWatchedTimeOfShows(Context context,
                 SparseArrayCompat<Long> showsLastWatchedMs) {
             if (showsLastWatchedMs.size() == 0) {
@@ -579,110 +623,98 @@ public class EpisodeTools {
 
         /**
          * Downloads watched, skipped or collected episodes of this show from Hexagon and applies
-         * those flags to episodes in the database.
+         * those flags to episodes in the database. The next page of episodes is downloaded while
+         * the current one is applied.
          *
          * @return Whether the download was successful and all changes were applied to the database.
          */
-        public static boolean flagsFromHexagon(Context context, int showTvdbId) {
+        public static boolean flagsFromHexagon(Context context, final int showTvdbId) {
             Timber.d("flagsFromHexagon: downloading episode flags for show %s", showTvdbId);
-            List<Episode> episodes;
-            boolean hasMoreEpisodes = true;
-            String cursor = null;
 
-            Uri episodesOfShowUri = SeriesGuideContract.Episodes.buildEpisodesOfShowUri(showTvdbId);
-            Long lastWatchedMs = null;
-            while (hasMoreEpisodes) {
-                // abort if connection is lost
-                if (!AndroidUtils.isNetworkConnected(context)) {
-                    Timber.e("flagsFromHexagon: no network connection");
-                    return false;
-                }
+            final Episodes episodesService = HexagonTools.getEpisodesService(context);
+            if (episodesService == null) {
+                return false;
+            }
+            HexagonEpisodePages pages = new HexagonEpisodePages(
+                    new HexagonEpisodePages.PageRequest() {
+                        @Override
+                        public EpisodeList execute(@Nullable String cursor) throws IOException {
+                            // build request
+                            Episodes.Get request = episodesService.get()
+                                    .setShowTvdbId(showTvdbId); // use default server limit
+                            if (cursor != null) {
+                                request.setCursor(cursor);
+                            }
+                            // execute request
+                            return request.execute();
+                        }
+                    });
 
-                try {
-                    Episodes episodesService = HexagonTools.getEpisodesService(context);
-                    if (episodesService == null) {
+            SparseArrayCompat<Map<Long, Integer>> episodeIdsOfShow = new SparseArrayCompat<>(1);
+            Long lastWatchedMs = null;
+            try {
+                while (true) {
+                    // abort if connection is lost
+                    if (!AndroidUtils.isNetworkConnected(context)) {
+                        Timber.e("flagsFromHexagon: no network connection");
                         return false;
                     }
 
-                    // build request
-                    Episodes.Get request = episodesService.get()
-                            .setShowTvdbId(showTvdbId); // use default server limit
-                    if (!TextUtils.isEmpty(cursor)) {
-                        request.setCursor(cursor);
-                    }
-
-                    // execute request
-                    EpisodeList response = request.execute();
-                    if (response == null) {
+                    List<Episode> episodes = pages.next();
+                    if (episodes == null) {
                         break;
                     }
 
-                    episodes = response.getEpisodes();
-
-                    // check for more items
-                    if (response.getCursor() != null) {
-                        cursor = response.getCursor();
-                    } else {
-                        hasMoreEpisodes = false;
-                    }
-                } catch (IOException e) {
-                    HexagonTools.trackFailedRequest(context, "get episodes of show", e);
-                    return false;
-                }
-
-                if (episodes == null || episodes.size() == 0) {
-                    // nothing to do here
-                    break;
-                }
-
-                // build batch of episode flag updates
-                ArrayList<ContentProviderOperation> batch = new ArrayList<>();
-                for (Episode episode : episodes) {
-                    ContentValues values = new ContentValues();
-                    if (episode.getWatchedFlag() != null
-                            && episode.getWatchedFlag() != EpisodeFlags.UNWATCHED) {
-                        values.put(SeriesGuideContract.Episodes.WATCHED, episode.getWatchedFlag());
-                        // record last watched time by taking latest updatedAt of watched/skipped
-                        DateTime updatedAt = episode.getUpdatedAt();
-                        if (updatedAt != null) {
-                            long lastWatchedMsNew = updatedAt.getValue();
-                            if (lastWatchedMs == null || lastWatchedMs < lastWatchedMsNew) {
-                                lastWatchedMs = lastWatchedMsNew;
+                    // build batch of episode flag updates
+                    ArrayList<ContentValues> batch = new ArrayList<>(episodes.size());
+                    for (Episode episode : episodes) {
+                        ContentValues values = new ContentValues();
+                        if (episode.getWatchedFlag() != null
+                                && episode.getWatchedFlag() != EpisodeFlags.UNWATCHED) {
+                            values.put(SeriesGuideContract.Episodes.WATCHED,
+                                    episode.getWatchedFlag());
+                            // record last watched time, take latest updatedAt of watched/skipped
+                            DateTime updatedAt = episode.getUpdatedAt();
+                            if (updatedAt != null) {
+                                long lastWatchedMsNew = updatedAt.getValue();
+                                if (lastWatchedMs == null || lastWatchedMs < lastWatchedMsNew) {
+                                    lastWatchedMs = lastWatchedMsNew;
+                                }
                             }
                         }
-                    }
-                    if (episode.getIsInCollection() != null
-                            && episode.getIsInCollection()) {
-                        values.put(SeriesGuideContract.Episodes.COLLECTED,
-                                episode.getIsInCollection());
-                    }
+                        if (episode.getIsInCollection() != null
+                                && episode.getIsInCollection()) {
+                            values.put(SeriesGuideContract.Episodes.COLLECTED,
+                                    episode.getIsInCollection());
+                        }
 
-                    if (values.size() == 0) {
-                        // skip if episode has neither a watched flag or is in collection
-                        continue;
+                        if (values.size() == 0) {
+                            // skip if episode has neither a watched flag or is in collection
+                            continue;
+                        }
+                        if (!putEpisodeTvdbId(context, episodeIdsOfShow, showTvdbId, episode,
+                                values)) {
+                            continue; // episode not added
+                        }
+                        batch.add(values);
                     }
 
-                    ContentProviderOperation op = ContentProviderOperation
-                            .newUpdate(episodesOfShowUri)
-                            .withSelection(SeriesGuideContract.Episodes.SEASON + "="
-                                    + episode.getSeasonNumber() + " AND "
-                                    + SeriesGuideContract.Episodes.NUMBER + "="
-                                    + episode.getEpisodeNumber(), null)
-                            .withValues(values)
-                            .build();
-
-                    batch.add(op);
-                }
-
-                // execute database update
-                try {
-                    DBUtils.applyInSmallBatches(context, batch);
-                } catch (OperationApplicationException e) {
-                    Timber.e(e,
-                            "flagsFromHexagon: failed to apply episode flag updates for show %s",
-                            showTvdbId);
-                    return false;
+                    // execute database update
+                    DBUtils.bulkUpdateEpisodes(context, batch);
                 }
+            } catch (IOException e) {
+                HexagonTools.trackFailedRequest(context, "get episodes of show", e);
+                return false;
+            } catch (InterruptedException e) {
+                // sync was canceled
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (OperationApplicationException e) {
+                Timber.e(e, "flagsFromHexagon: failed to apply episode flag updates for show %s",
+                        showTvdbId);
+                return false;
+            } finally {
+                pages.close();
             }
 
             //noinspection RedundantIfStatement
@@ -50,9 +50,9 @@ import com.uwetrottmann.trakt5.services.Sync;
 import dagger.Lazy;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -90,6 +90,8 @@ public class MovieTools {
     };
 
     private final Context context;
+    private final Set<AddMoviesPipeline> addMoviesPipelines = Collections.synchronizedSet(
+            new HashSet<AddMoviesPipeline>());
     @Inject Lazy<MoviesService> tmdbMovies;
     @Inject Lazy<Movies> traktMovies;
     @Inject Lazy<Search> traktSearch;
@@ -211,7 +213,7 @@ public class MovieTools {
         }
     }
 
-    private static ContentValues[] buildMoviesContentValues(List<MovieDetails> movies) {
+    static ContentValues[] buildMoviesContentValues(List<MovieDetails> movies) {
         ContentValues[] valuesArray = new ContentValues[movies.size()];
         int index = 0;
         for (MovieDetails movie : movies) {
@@ -756,7 +758,8 @@ public class MovieTools {
     }
 
     /**
-     * Adds new movies to the database.
+     * Adds new movies to the database, downloading several at once. See {@link
+     * AddMoviesPipeline}.
      *
      * @param newCollectionMovies Movie TMDB ids to add to the collection.
      * @param newWatchlistMovies Movie TMDB ids to add to the watchlist.
@@ -766,52 +769,25 @@ public class MovieTools {
         Timber.d("addMovies: %s to collection, %s to watchlist", newCollectionMovies.size(),
                 newWatchlistMovies.size());
 
-        // build a single list of tmdb ids
-        Set<Integer> newMovies = new HashSet<>();
-        for (Integer tmdbId : newCollectionMovies) {
-            newMovies.add(tmdbId);
-        }
-        for (Integer tmdbId : newWatchlistMovies) {
-            newMovies.add(tmdbId);
+        AddMoviesPipeline pipeline = new AddMoviesPipeline(context, this);
+        addMoviesPipelines.add(pipeline);
+        try {
+            return pipeline.run(newCollectionMovies, newWatchlistMovies);
+        } finally {
+            addMoviesPipelines.remove(pipeline);
         }
+    }
 
-        String languageCode = DisplaySettings.getMoviesLanguage(context);
-        List<MovieDetails> movies = new LinkedList<>();
-
-        // loop through ids
-        for (Iterator<Integer> iterator = newMovies.iterator(); iterator.hasNext(); ) {
-            int tmdbId = iterator.next();
-            if (!AndroidUtils.isNetworkConnected(context)) {
-                Timber.e("addMovies: no network connection");
-                return UpdateResult.INCOMPLETE;
-            }
-
-            // download movie data
-            MovieDetails movieDetails = getMovieDetails(languageCode, tmdbId);
-            if (movieDetails.tmdbMovie() == null) {
-                // skip if minimal values failed to load
-                Timber.d("addMovies: downloaded movie %s incomplete, skipping", tmdbId);
-                continue;
-            }
-
-            // set flags
-            movieDetails.inCollection = newCollectionMovies.contains(tmdbId);
-            movieDetails.inWatchlist = newWatchlistMovies.contains(tmdbId);
-
-            movies.add(movieDetails);
-
-            // add to database in batches of at most 10
-            if (movies.size() == 10 || !iterator.hasNext()) {
-                // insert into database
-                context.getContentResolver().bulkInsert(SeriesGuideContract.Movies.CONTENT_URI,
-                        buildMoviesContentValues(movies));
-
-                // start new batch
-                movies.clear();
+    /**
+     * Stops {@link #addMovies(Set, Set)} calls currently running, e.g. because sync was canceled.
+     * Movies downloaded so far are still added.
+     */
+    public void cancelAddingMovies() {
+        synchronized (addMoviesPipelines) {
+            for (AddMoviesPipeline pipeline : addMoviesPipelines) {
+                pipeline.cancel();
             }
         }
-
-        return UpdateResult.SUCCESS;
     }
 
     /**
@@ -825,7 +801,7 @@ public class MovieTools {
     /**
      * Download movie data from trakt and TMDb.
      */
-    private MovieDetails getMovieDetails(String languageCode, int movieTmdbId) {
+    MovieDetails getMovieDetails(String languageCode, int movieTmdbId) {
         MovieDetails details = new MovieDetails();
 
         // load ratings from trakt
@@ -0,0 +1,430 @@
+package com.battlelancer.seriesguide.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import timber.log.Timber;
+
+/**
+ * Schedules requests to TheTVDB, TMDb and trakt. Add as the first application interceptor.
+ *
+ * <ul>
+ * <li>Limits the request rate of each API with a token bucket, requests wait until a token is
+ * available.</li>
+ * <li>Requests of threads marked as background, e.g. during sync, wait while interactive requests
+ * are waiting and leave some tokens for them.</li>
+ * <li>A GET identical to one already in flight waits for and shares its response.</li>
+ * <li>On 429 (or 503 with Retry-After) responses holds back all requests to the API for the
+ * Retry-After time, then retries.</li>
+ * </ul>
+ *
+ * <p> Requests to other hosts are not scheduled. See {@link #buildReport()} for metrics.
+ */
+public class RequestScheduler implements Interceptor {
+
+    public static final String HOST_TMDB = "api.themoviedb.org";
+    public static final String HOST_TRAKT = "api.trakt.tv";
+    public static final String HOST_TVDB = "api.thetvdb.com";
+    /** Serves the XML API, e.g. episode archives and updates. */
+    public static final String HOST_TVDB_LEGACY = "thetvdb.com";
+
+    /** How often a request is retried at most if rate limited. */
+    static final int MAX_RETRIES = 2;
+    /** Longest Retry-After to wait for before retrying, if longer the response is returned. */
+    static final long MAX_RETRY_AFTER_MS = 30 * 1000;
+    /** If a rate limited response has no or an unsupported Retry-After value. */
+    static final long DEFAULT_RETRY_AFTER_MS = 10 * 1000;
+    /** Largest response body shared with identical requests. */
+    static final int MAX_SHARED_BODY_BYTES = 1024 * 1024;
+    /** Request headers that change the response, requests only share it if these are equal. */
+    private static final String[] RESPONSE_HEADERS = {
+            "Accept-Language", "Authorization", "If-None-Match", "If-Modified-Since"
+    };
+
+    private static final int INTERACTIVE = 0;
+    private static final int BACKGROUND = 1;
+
+    private static RequestScheduler _instance;
+    private static final ThreadLocal<Boolean> isBackground = new ThreadLocal<>();
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Map<String, InFlightRequest> inFlight = new HashMap<>();
+    private final AtomicLong sharedCount = new AtomicLong();
+    private final AtomicLong retriedCount = new AtomicLong();
+
+    /**
+     * A token bucket, also records how long requests had to wait for a token.
+     */
+    private static class Bucket {
+        final int capacity;
+        final double permitsPerNs;
+        /** Tokens background requests may not take, so interactive ones do not have to wait. */
+        final int reserve;
+        double tokens;
+        long lastRefillNs;
+        long blockedUntilNs;
+
+        final int[] waiting = new int[2];
+        int maxWaiting;
+        final long[] requestCount = new long[2];
+        final long[] waitCount = new long[2];
+        final long[] totalWaitNs = new long[2];
+        final long[] maxWaitNs = new long[2];
+
+        Bucket(int capacity, double permitsPerSecond) {
+            this.capacity = capacity;
+            this.permitsPerNs = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.reserve = capacity / 10;
+            this.tokens = capacity;
+            this.lastRefillNs = System.nanoTime();
+        }
+
+        /**
+         * Blocks until a token could be taken.
+         */
+        synchronized void acquire(boolean background) throws InterruptedException {
+            int priority = background ? BACKGROUND : INTERACTIVE;
+            long startNs = System.nanoTime();
+            waiting[priority]++;
+            maxWaiting = Math.max(maxWaiting, waiting[INTERACTIVE] + waiting[BACKGROUND]);
+            try {
+                while (true) {
+                    long nowNs = System.nanoTime();
+                    tokens = Math.min(capacity, tokens + (nowNs - lastRefillNs) * permitsPerNs);
+                    lastRefillNs = nowNs;
+
+                    long waitNs;
+                    if (nowNs < blockedUntilNs) {
+                        waitNs = blockedUntilNs - nowNs;
+                    } else {
+                        double required = background ? 1 + reserve : 1;
+                        boolean mayTake = !background || waiting[INTERACTIVE] == 0;
+                        if (mayTake && tokens >= required) {
+                            tokens -= 1;
+                            break;
+                        }
+                        waitNs = (long) (Math.max(0, required - tokens) / permitsPerNs);
+                    }
+                    // also woken up if another request took a token
+                    TimeUnit.NANOSECONDS.timedWait(this,
+                            Math.max(waitNs, TimeUnit.MILLISECONDS.toNanos(1)));
+                }
+            } finally {
+                waiting[priority]--;
+                notifyAll();
+            }
+
+            long waitedNs = System.nanoTime() - startNs;
+            requestCount[priority]++;
+            if (waitedNs >= TimeUnit.MILLISECONDS.toNanos(1)) {
+                waitCount[priority]++;
+            }
+            totalWaitNs[priority] += waitedNs;
+            maxWaitNs[priority] = Math.max(maxWaitNs[priority], waitedNs);
+        }
+
+        /**
+         * Holds back all requests for the given time, e.g. because the API rate limited a request.
+         */
+        synchronized void block(long durationMs) {
+            blockedUntilNs = Math.max(blockedUntilNs,
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMs));
+        }
+    }
+
+    /**
+     * A GET in flight which identical requests may wait for.
+     */
+    private static class InFlightRequest {
+        final CountDownLatch done = new CountDownLatch(1);
+        int followers;
+        @Nullable Response response;
+        @Nullable MediaType contentType;
+        @Nullable byte[] body;
+
+        void complete(@Nullable Response response, @Nullable byte[] body) {
+            this.response = response;
+            this.contentType = response != null && response.body() != null
+                    ? response.body().contentType() : null;
+            this.body = body;
+            done.countDown();
+        }
+
+        /**
+         * Waits for the request to complete, returns a copy of its response or null if it failed
+         * or its response can not be shared.
+         */
+        @Nullable
+        Response await(Request request) throws InterruptedIOException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Waiting for identical request interrupted");
+            }
+            if (response == null || body == null) {
+                return null;
+            }
+            return response.newBuilder()
+                    .request(request)
+                    .body(ResponseBody.create(contentType, body))
+                    .build();
+        }
+    }
+
+    /**
+     * Creates a scheduler without rate limits, see {@link #setRateLimit(String, int, double)}.
+     */
+    @VisibleForTesting
+    public RequestScheduler() {
+    }
+
+    public static synchronized RequestScheduler getInstance() {
+        if (_instance == null) {
+            _instance = new RequestScheduler();
+            // 40 requests every 10 seconds
+            _instance.setRateLimit(HOST_TMDB, 40, 4);
+            // 1000 requests every 5 minutes, use up to 900 to leave some for other clients
+            _instance.setRateLimit(HOST_TRAKT, 20, 3);
+            // no documented limit, just smooth out bursts
+            _instance.setRateLimit(HOST_TVDB, 20, 10);
+            _instance.shareRateLimit(HOST_TVDB_LEGACY, HOST_TVDB);
+        }
+        return _instance;
+    }
+
+    /**
+     * Limits requests to the given host to bursts of at most capacity requests, refilled at the
+     * given rate.
+     */
+    public void setRateLimit(@NonNull String host, int capacity, double permitsPerSecond) {
+        buckets.put(host, new Bucket(Math.max(1, capacity), permitsPerSecond));
+    }
+
+    /**
+     * Schedules requests to the given host together with those to a host with a rate limit, e.g.
+     * if an API is served by multiple hosts. Does nothing if the other host has no rate limit.
+     */
+    public void shareRateLimit(@NonNull String host, @NonNull String limitedHost) {
+        Bucket bucket = buckets.get(limitedHost);
+        if (bucket != null) {
+            buckets.put(host, bucket);
+        }
+    }
+
+    /**
+     * Marks requests made by the current thread as background requests, e.g. on a sync thread.
+     * Interactive requests are scheduled first.
+     */
+    public static void setBackground(boolean background) {
+        isBackground.set(background);
+    }
+
+    public static boolean isBackground() {
+        Boolean background = isBackground.get();
+        return background != null && background;
+    }
+
+    /**
+     * Returns a task that runs the given task with the background mark of the calling thread, e.g.
+     * to pass it on to a pooled thread.
+     */
+    @NonNull
+    public static <T> Callable<T> withCurrentPriority(@NonNull final Callable<T> task) {
+        final boolean background = isBackground();
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                boolean previous = isBackground();
+                setBackground(background);
+                try {
+                    return task.call();
+                } finally {
+                    setBackground(previous);
+                }
+            }
+        };
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Bucket bucket = buckets.get(request.url().host());
+        if (bucket == null) {
+            return chain.proceed(request); // not a scheduled API
+        }
+
+        // wait for an identical GET already in flight
+        String key = "GET".equals(request.method()) ? buildInFlightKey(request) : null;
+        InFlightRequest own = null;
+        if (key != null) {
+            InFlightRequest leader;
+            synchronized (inFlight) {
+                leader = inFlight.get(key);
+                if (leader == null) {
+                    own = new InFlightRequest();
+                    inFlight.put(key, own);
+                } else {
+                    leader.followers++;
+                }
+            }
+            if (leader != null) {
+                Response shared = leader.await(request);
+                if (shared != null) {
+                    sharedCount.incrementAndGet();
+                    return shared;
+                }
+                // identical request failed or response too large, make own request
+            }
+        }
+
+        Response response = null;
+        try {
+            response = proceed(chain, request, bucket);
+            return response;
+        } finally {
+            if (own != null) {
+                share(key, own, response);
+            }
+        }
+    }
+
+    /**
+     * Requests are only identical if also the headers that change the response, e.g. the
+     * language TheTVDB returns content in, are equal.
+     */
+    private static String buildInFlightKey(Request request) {
+        StringBuilder key = new StringBuilder(request.method())
+                .append(' ')
+                .append(request.url());
+        for (String header : RESPONSE_HEADERS) {
+            List<String> values = request.headers(header);
+            for (String value : values) {
+                key.append('\n').append(header).append(": ").append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    private Response proceed(Chain chain, Request request, Bucket bucket) throws IOException {
+        boolean background = isBackground();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                bucket.acquire(background);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Waiting for rate limit interrupted");
+            }
+
+            Response response = chain.proceed(request);
+            String retryAfter = response.header("Retry-After");
+            if (response.code() != 429 && (response.code() != 503 || retryAfter == null)) {
+                return response;
+            }
+
+            // rate limited, hold back all requests to this API
+            long retryAfterMs = parseRetryAfter(retryAfter);
+            bucket.block(retryAfterMs);
+            if (attempt >= MAX_RETRIES || retryAfterMs > MAX_RETRY_AFTER_MS) {
+                return response;
+            }
+            Timber.d("%s rate limited, retrying in %s ms", request.url().host(), retryAfterMs);
+            response.close();
+            retriedCount.incrementAndGet();
+        }
+    }
+
+    @VisibleForTesting
+    static long parseRetryAfter(@Nullable String retryAfter) {
+        if (retryAfter != null) {
+            try {
+                return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(retryAfter.trim())));
+            } catch (NumberFormatException ignored) {
+                // HTTP dates are not supported
+            }
+        }
+        return DEFAULT_RETRY_AFTER_MS;
+    }
+
+    private void share(String key, InFlightRequest own, @Nullable Response response) {
+        int followers;
+        synchronized (inFlight) {
+            inFlight.remove(key);
+            followers = own.followers;
+        }
+        byte[] body = null;
+        if (followers > 0 && response != null && response.body() != null) {
+            try {
+                // buffer the body without consuming it
+                body = response.peekBody(MAX_SHARED_BODY_BYTES + 1).bytes();
+                if (body.length > MAX_SHARED_BODY_BYTES) {
+                    body = null;
+                }
+            } catch (IOException e) {
+                body = null;
+            }
+        }
+        own.complete(response, body);
+    }
+
+    /**
+     * Returns a plain text report of the requests, waiting times and queue depth of each API.
+     */
+    @NonNull
+    public String buildReport() {
+        TreeMap<String, Bucket> sortedBuckets = new TreeMap<>(buckets);
+        List<String> lines = new ArrayList<>();
+        List<Bucket> reportedBuckets = new ArrayList<>();
+        for (Map.Entry<String, Bucket> entry : sortedBuckets.entrySet()) {
+            Bucket bucket = entry.getValue();
+            if (reportedBuckets.contains(bucket)) {
+                continue; // shared by multiple hosts, only report once
+            }
+            reportedBuckets.add(bucket);
+            synchronized (bucket) {
+                lines.add(String.format(Locale.US, "%s: waiting %d, max waiting %d",
+                        entry.getKey(), bucket.waiting[INTERACTIVE] + bucket.waiting[BACKGROUND],
+                        bucket.maxWaiting));
+                for (int priority : new int[] { INTERACTIVE, BACKGROUND }) {
+                    long count = bucket.requestCount[priority];
+                    lines.add(String.format(Locale.US,
+                            "  %s: %d requests, %d waited, avg wait %.1f ms, max wait %.1f ms",
+                            priority == INTERACTIVE ? "interactive" : "background", count,
+                            bucket.waitCount[priority],
+                            count == 0 ? 0 : toMs(bucket.totalWaitNs[priority]) / count,
+                            toMs(bucket.maxWaitNs[priority])));
+                }
+            }
+        }
+
+        StringBuilder report = new StringBuilder();
+        for (String line : lines) {
+            report.append(line).append("\n");
+        }
+        report.append("Shared responses: ").append(sharedCount.get())
+                .append(", retried: ").append(retriedCount.get()).append("\n");
+        return report.toString();
+    }
+
+    private static double toMs(long durationNs) {
+        return durationNs / 1000000.0;
+    }
+}
@@ -3,6 +3,7 @@ package com.battlelancer.seriesguide.util;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.text.TextUtils;
 import com.battlelancer.seriesguide.provider.SeriesGuideProvider;
 import java.util.ArrayList;
@@ -138,6 +139,48 @@ public class SelectionBuilder {
                 orderBy, limit);
     }
 
+    /**
+     * Build the SQL of a query using the current internal state as {@code WHERE} clause, for
+     * example to inspect its query plan. Selection arguments are not bound.
+     */
+    public String buildQuery(String[] columns, String groupBy, String orderBy) {
+        assertTable();
+        if (columns != null)
+            mapColumns(columns);
+        return SQLiteQueryBuilder.buildQueryString(false, mTable, columns, getSelection(),
+                groupBy, null, orderBy, null);
+    }
+
+    /**
+     * Build the SQL of an update using the current internal state as {@code WHERE} clause, for
+     * example to log it. Values and selection arguments are not bound.
+     */
+    public String buildUpdate(ContentValues values) {
+        assertTable();
+        StringBuilder sql = new StringBuilder("UPDATE ").append(mTable).append(" SET ");
+        int i = 0;
+        for (String column : values.keySet()) {
+            sql.append(i++ > 0 ? "," : "").append(column).append("=?");
+        }
+        return appendWhere(sql);
+    }
+
+    /**
+     * Build the SQL of a delete using the current internal state as {@code WHERE} clause, for
+     * example to log it. Selection arguments are not bound.
+     */
+    public String buildDelete() {
+        assertTable();
+        return appendWhere(new StringBuilder("DELETE FROM ").append(mTable));
+    }
+
+    private String appendWhere(StringBuilder sql) {
+        if (mSelection.length() > 0) {
+            sql.append(" WHERE ").append(mSelection);
+        }
+        return sql.toString();
+    }
+
     /**
      * Execute update using the current internal state as {@code WHERE} clause.
      */
@@ -25,6 +25,7 @@ import com.battlelancer.seriesguide.enums.Result;
 import com.battlelancer.seriesguide.items.SearchResult;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract;
 import com.battlelancer.seriesguide.sync.SgSyncAdapter;
+import com.battlelancer.seriesguide.thetvdbapi.EpisodeArchiveValidators;
 import com.battlelancer.seriesguide.util.tasks.AddShowToWatchlistTask;
 import com.battlelancer.seriesguide.util.tasks.RemoveShowFromWatchlistTask;
 import com.google.api.client.util.DateTime;
@@ -75,68 +76,40 @@ public class ShowTools {
      * @return One of {@link com.battlelancer.seriesguide.enums.NetworkResult}.
      */
     public int removeShow(int showTvdbId) {
+        return removeShows(new int[] { showTvdbId });
+    }
+
+    /**
+     * Removes the given shows and their seasons, episodes, list items and activity in a single
+     * database transaction. Sends isRemoved flags to Hexagon in a single request.
+     *
+     * @return One of {@link com.battlelancer.seriesguide.enums.NetworkResult}.
+     */
+    public int removeShows(int[] showTvdbIds) {
         if (HexagonTools.isSignedIn(context)) {
             if (!AndroidUtils.isNetworkConnected(context)) {
                 return NetworkResult.OFFLINE;
             }
             // send to cloud
-            sendIsRemoved(showTvdbId);
+            List<Show> shows = new LinkedList<>();
+            for (int showTvdbId : showTvdbIds) {
+                Show show = new Show();
+                show.setTvdbId(showTvdbId);
+                show.setIsRemoved(true);
+                shows.add(show);
+            }
+            uploadShowsAsync(shows);
         }
 
-        // remove database entries in stages, so if an earlier stage fails, user can at least try again
-        // also saves memory by applying batches early
-
-        // SEARCH DATABASE ENTRIES
-        final Cursor episodes = context.getContentResolver().query(
-                SeriesGuideContract.Episodes.buildEpisodesOfShowUri(showTvdbId), new String[] {
-                        SeriesGuideContract.Episodes._ID
-                }, null, null, null
-        );
-        if (episodes == null) {
-            // failed
+        if (DBUtils.removeShows(context, showTvdbIds) < 0) {
             return Result.ERROR;
         }
-        List<String> episodeTvdbIds = new LinkedList<>(); // need those for search entries
-        while (episodes.moveToNext()) {
-            episodeTvdbIds.add(episodes.getString(0));
-        }
-        episodes.close();
 
-        // remove episode search database entries
-        final ArrayList<ContentProviderOperation> batch = new ArrayList<>();
-        for (String episodeTvdbId : episodeTvdbIds) {
-            batch.add(ContentProviderOperation.newDelete(
-                    SeriesGuideContract.EpisodeSearch.buildDocIdUri(episodeTvdbId)).build());
-        }
-        try {
-            DBUtils.applyInSmallBatches(context, batch);
-        } catch (OperationApplicationException e) {
-            Timber.e(e, "Removing episode search entries failed");
-            return Result.ERROR;
-        }
-        batch.clear();
-
-        // ACTUAL ENTITY ENTRIES
-        // remove episodes, seasons and show
-        batch.add(ContentProviderOperation.newDelete(
-                SeriesGuideContract.Episodes.buildEpisodesOfShowUri(showTvdbId)).build());
-        batch.add(ContentProviderOperation.newDelete(
-                SeriesGuideContract.Seasons.buildSeasonsOfShowUri(showTvdbId)).build());
-        batch.add(ContentProviderOperation.newDelete(
-                SeriesGuideContract.Shows.buildShowUri(showTvdbId)).build());
-        try {
-            DBUtils.applyInSmallBatches(context, batch);
-        } catch (OperationApplicationException e) {
-            Timber.e(e, "Removing episodes, seasons and show failed");
-            return Result.ERROR;
+        // a re-added show should not re-use the old episode archive
+        for (int showTvdbId : showTvdbIds) {
+            EpisodeArchiveValidators.clear(context, showTvdbId);
         }
 
-        // make sure other loaders (activity, overview, details, search) are notified
-        context.getContentResolver().notifyChange(
-                SeriesGuideContract.Episodes.CONTENT_URI_WITHSHOW, null);
-        context.getContentResolver().notifyChange(
-                SeriesGuideContract.Shows.CONTENT_URI_FILTER, null);
-
         return Result.SUCCESS;
     }
 
@@ -287,8 +260,14 @@ public class ShowTools {
     }
 
     private void uploadShowAsync(Show show) {
+        List<Show> shows = new LinkedList<>();
+        shows.add(show);
+        uploadShowsAsync(shows);
+    }
+
+    private void uploadShowsAsync(List<Show> shows) {
         AsyncTaskCompat.executeParallel(
-                new ShowsUploadTask(context, show)
+                new ShowsUploadTask(context, shows)
         );
     }
 
@@ -296,19 +275,16 @@ public class ShowTools {
 
         private final Context mContext;
 
-        private final Show mShow;
+        private final List<Show> mShows;
 
-        public ShowsUploadTask(Context context, Show show) {
+        public ShowsUploadTask(Context context, List<Show> shows) {
             mContext = context;
-            mShow = show;
+            mShows = shows;
         }
 
         @Override
         protected Void doInBackground(Void... params) {
-            List<Show> shows = new LinkedList<>();
-            shows.add(mShow);
-
-            Upload.toHexagon(mContext, shows);
+            Upload.toHexagon(mContext, mShows);
 
             return null;
         }
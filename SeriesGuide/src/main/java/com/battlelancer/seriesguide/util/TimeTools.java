@@ -544,7 +544,10 @@ public class TimeTools {
         return dateTime.getTimeInMillis();
     }
 
-    private static int getUserOffset(Context context) {
+    /**
+     * Returns the number of hours the user wants release times to be offset by.
+     */
+    public static int getUserOffset(Context context) {
         try {
             return Integer.valueOf(PreferenceManager.getDefaultSharedPreferences(context)
                     .getString(SeriesGuidePreferences.KEY_OFFSET, "0"));
@@ -4,6 +4,7 @@ import android.content.ContentProviderOperation;
 import android.content.Context;
 import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.Build;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
@@ -18,9 +19,7 @@ import com.battlelancer.seriesguide.settings.TraktCredentials;
 import com.battlelancer.seriesguide.settings.TraktSettings;
 import com.battlelancer.seriesguide.traktapi.SgTrakt;
 import com.uwetrottmann.trakt5.TraktLink;
-import com.uwetrottmann.trakt5.entities.BaseEpisode;
 import com.uwetrottmann.trakt5.entities.BaseMovie;
-import com.uwetrottmann.trakt5.entities.BaseSeason;
 import com.uwetrottmann.trakt5.entities.BaseShow;
 import com.uwetrottmann.trakt5.entities.LastActivities;
 import com.uwetrottmann.trakt5.entities.LastActivityMore;
@@ -28,7 +27,6 @@ import com.uwetrottmann.trakt5.entities.RatedEpisode;
 import com.uwetrottmann.trakt5.entities.RatedMovie;
 import com.uwetrottmann.trakt5.entities.RatedShow;
 import com.uwetrottmann.trakt5.entities.ShowIds;
-import com.uwetrottmann.trakt5.entities.SyncEpisode;
 import com.uwetrottmann.trakt5.entities.SyncItems;
 import com.uwetrottmann.trakt5.entities.SyncResponse;
 import com.uwetrottmann.trakt5.entities.SyncSeason;
@@ -42,7 +40,6 @@ import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
@@ -493,29 +490,26 @@ public class TraktTools {
     }
 
     /**
-     * Downloads, uploads and sets watched and collected flags for episodes if they have changed on
-     * trakt (or {@code isInitialSync} is true).
+     * Downloads, uploads and sets watched or collected flags for episodes if they have changed on
+     * trakt (or {@code isInitialSync} is true). Watched and collected flags may be synced at the
+     * same time on different threads.
      *
      * @param isInitialSync If set, will upload any episodes flagged locally, but not flagged on
-     * trakt. If not set, all watched and collected (and only those, e.g. not skipped flag) flags
-     * will be removed prior to getting the actual flags from trakt (season by season).
+     * trakt. If not set, all watched or collected (and only those, e.g. not skipped flag) flags
+     * not on trakt will be removed.
      * @return Any of the {@link TraktTools} result codes.
      */
     public int syncEpisodeFlags(@NonNull HashSet<Integer> localShows,
-            @NonNull LastActivityMore activity, boolean isInitialSync) {
+            @NonNull LastActivityMore activity, boolean isInitialSync, @NonNull Flag flag) {
         if (!TraktCredentials.get(context).hasCredentials()) {
             return FAILED_CREDENTIALS;
         }
 
-        // watched episodes
-        int result = syncWatchedEpisodes(localShows, activity.watched_at, isInitialSync);
-        if (result < SUCCESS) {
-            return result; // failed to process watched episodes, give up.
+        if (flag == Flag.WATCHED) {
+            return syncWatchedEpisodes(localShows, activity.watched_at, isInitialSync);
+        } else {
+            return syncCollectedEpisodes(localShows, activity.collected_at, isInitialSync);
         }
-
-        // collected episodes
-        result = syncCollectedEpisodes(localShows, activity.collected_at, isInitialSync);
-        return result;
     }
 
     private int syncWatchedEpisodes(@NonNull HashSet<Integer> localShows,
@@ -630,8 +624,8 @@ public class TraktTools {
     }
 
     /**
-     * Similar to {@link #syncEpisodeFlags(HashSet, LastActivityMore, boolean)}, but only processes
-     * a single show and only downloads watched/collected episodes from trakt.
+     * Similar to {@link #syncEpisodeFlags(HashSet, LastActivityMore, boolean, Flag)}, but only
+     * processes a single show and only downloads watched/collected episodes from trakt.
      */
     public boolean storeEpisodeFlags(@Nullable HashMap<Integer, BaseShow> traktShows,
             int showTvdbId, @NonNull Flag flag) {
@@ -649,15 +643,46 @@ public class TraktTools {
             @NonNull HashSet<Integer> localShows, boolean isInitialSync, Flag flag) {
         HashMap<Integer, BaseShow> traktShows = buildTraktShowsMap(remoteShows);
 
+        // load local flags in a single scan: on initial syncs of all shows to upload flags of
+        // shows not on trakt, otherwise only of shows also on trakt
+        HashMap<Integer, EpisodeFlagsDiff.ShowFlags> localFlags;
+        if (isInitialSync) {
+            localFlags = queryLocalFlags(SeriesGuideContract.Episodes.CONTENT_URI, null, flag);
+        } else {
+            StringBuilder showsOnTrakt = new StringBuilder();
+            for (Integer localShow : localShows) {
+                if (traktShows.containsKey(localShow)) {
+                    if (showsOnTrakt.length() > 0) {
+                        showsOnTrakt.append(",");
+                    }
+                    showsOnTrakt.append(localShow);
+                }
+            }
+            localFlags = showsOnTrakt.length() == 0
+                    ? new HashMap<Integer, EpisodeFlagsDiff.ShowFlags>()
+                    : queryLocalFlags(SeriesGuideContract.Episodes.CONTENT_URI,
+                            SeriesGuideContract.Shows.REF_SHOW_ID + " IN (" + showsOnTrakt + ")",
+                            flag);
+        }
+        if (localFlags == null) {
+            return FAILED;
+        }
+
+        int result = SUCCESS;
         int uploadedShowsCount = 0;
         final ArrayList<ContentProviderOperation> batch = new ArrayList<>();
         for (Integer localShow : localShows) {
+            EpisodeFlagsDiff.ShowFlags showFlags = localFlags.get(localShow);
+            if (showFlags == null) {
+                showFlags = new EpisodeFlagsDiff.ShowFlags(); // show has no episodes
+            }
             if (traktShows.containsKey(localShow)) {
                 // show watched/collected on trakt
                 BaseShow traktShow = traktShows.get(localShow);
-                int result = processTraktSeasons(isInitialSync, localShow, traktShow, flag);
+                result = processTraktShow(isInitialSync, localShow, showFlags, traktShow, flag,
+                        batch);
                 if (result < SUCCESS) {
-                    return result; // processing seasons failed, give up.
+                    break; // processing show failed, give up.
                 }
                 if (flag == Flag.WATCHED) {
                     updateLastWatchedTime(localShow, traktShow, batch);
@@ -671,7 +696,11 @@ public class TraktTools {
                     if (isInitialSync) {
                         // upload all watched/collected episodes of the show
                         // do in between processing to stretch uploads over longer time periods
-                        uploadEpisodes(localShow, showTraktId, flag);
+                        List<SyncSeason> syncSeasons = EpisodeFlagsDiff.diff(showFlags, null,
+                                true).toUpload;
+                        if (syncSeasons.size() > 0) {
+                            uploadEpisodes(showTraktId, syncSeasons, flag);
+                        }
                         uploadedShowsCount++;
                     } else {
                         // set all watched/collected episodes of show not watched/collected
@@ -688,14 +717,14 @@ public class TraktTools {
         try {
             DBUtils.applyInSmallBatches(context, batch);
         } catch (OperationApplicationException e) {
-            Timber.e(e, "processTraktShows: failed to remove flag for %s.", flag.name);
+            Timber.e(e, "processTraktShows: failed to update %s flags.", flag.name);
         }
 
         if (uploadedShowsCount > 0) {
             Timber.d("processTraktShows: uploaded %s flags for %s complete shows.", flag.name,
                     localShows.size());
         }
-        return SUCCESS;
+        return result;
     }
 
     /**
@@ -722,148 +751,119 @@ public class TraktTools {
      */
     public int processTraktSeasons(boolean isInitialSync, int localShow,
             @NonNull BaseShow traktShow, @NonNull Flag flag) {
-        HashMap<Integer, BaseSeason> traktSeasons = buildTraktSeasonsMap(traktShow.seasons);
-
-        Cursor localSeasonsQuery = context.getContentResolver()
-                .query(SeriesGuideContract.Seasons.buildSeasonsOfShowUri(localShow),
-                        new String[] { SeriesGuideContract.Seasons._ID,
-                                SeriesGuideContract.Seasons.COMBINED }, null, null,
-                        null);
-        if (localSeasonsQuery == null) {
+        HashMap<Integer, EpisodeFlagsDiff.ShowFlags> localFlags = queryLocalFlags(
+                SeriesGuideContract.Episodes.buildEpisodesOfShowUri(localShow), null, flag);
+        if (localFlags == null) {
             return FAILED;
         }
-        final ArrayList<ContentProviderOperation> batch = new ArrayList<>();
-        List<SyncSeason> syncSeasons = new ArrayList<>();
-        while (localSeasonsQuery.moveToNext()) {
-            String seasonId = localSeasonsQuery.getString(0);
-            int seasonNumber = localSeasonsQuery.getInt(1);
-            if (traktSeasons.containsKey(seasonNumber)) {
-                // season watched/collected on trakt
-                if (!processTraktEpisodes(isInitialSync, seasonId,
-                        traktSeasons.get(seasonNumber), syncSeasons, flag)) {
-                    return FAILED;
-                }
-            } else {
-                // season not watched/collected on trakt
-                if (isInitialSync) {
-                    // schedule all watched/collected episodes of this season for upload
-                    SyncSeason syncSeason = buildSyncSeason(seasonId, seasonNumber, flag);
-                    if (syncSeason != null) {
-                        syncSeasons.add(syncSeason);
-                    }
-                } else {
-                    // set all watched/collected episodes of season not watched/collected
-                    batch.add(ContentProviderOperation.newUpdate(
-                            SeriesGuideContract.Episodes.buildEpisodesOfSeasonUri(seasonId))
-                            .withSelection(flag.clearFlagSelection, null)
-                            .withValue(flag.databaseColumn, flag.notFlaggedValue)
-                            .build());
-                }
-            }
+        EpisodeFlagsDiff.ShowFlags showFlags = localFlags.get(localShow);
+        if (showFlags == null) {
+            return SUCCESS; // show has no episodes
         }
-        localSeasonsQuery.close();
+
+        final ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        int result = processTraktShow(isInitialSync, localShow, showFlags, traktShow, flag, batch);
 
         try {
             DBUtils.applyInSmallBatches(context, batch);
         } catch (OperationApplicationException e) {
-            Timber.e(e, "Setting seasons unwatched failed.");
+            Timber.e(e, "processTraktSeasons: failed to update %s flags.", flag.name);
         }
 
-        if (syncSeasons.size() > 0) {
+        return result;
+    }
+
+    /**
+     * Adds ops to the batch to update the local flags to those on trakt. Uploads flagged episodes
+     * not flagged on trakt if this is an initial sync.
+     *
+     * @return Any of the {@link TraktTools} result codes.
+     */
+    private int processTraktShow(boolean isInitialSync, int localShow,
+            @NonNull EpisodeFlagsDiff.ShowFlags showFlags, @NonNull BaseShow traktShow,
+            @NonNull Flag flag, @NonNull ArrayList<ContentProviderOperation> batch) {
+        EpisodeFlagsDiff diff = EpisodeFlagsDiff.diff(showFlags, traktShow, isInitialSync);
+
+        // one op per season and change, the whole season if possible
+        for (EpisodeFlagsDiff.SeasonEpisodes seasonEpisodes : diff.toFlag) {
+            batch.add(ContentProviderOperation.newUpdate(
+                    SeriesGuideContract.Episodes.buildEpisodesOfShowUri(localShow))
+                    .withSelection(buildSeasonEpisodesSelection(seasonEpisodes), null)
+                    .withValue(flag.databaseColumn, flag.flaggedValue)
+                    .build());
+        }
+        for (EpisodeFlagsDiff.SeasonEpisodes seasonEpisodes : diff.toUnflag) {
+            // only ever remove flags of watched/collected episodes, e.g. never of skipped ones
+            batch.add(ContentProviderOperation.newUpdate(
+                    SeriesGuideContract.Episodes.buildEpisodesOfShowUri(localShow))
+                    .withSelection(buildSeasonEpisodesSelection(seasonEpisodes) + " AND "
+                            + flag.clearFlagSelection, null)
+                    .withValue(flag.databaseColumn, flag.notFlaggedValue)
+                    .build());
+        }
+
+        if (diff.toUpload.size() > 0) {
             // upload watched/collected episodes for this show
             Integer showTraktId = ShowTools.getShowTraktId(context, localShow);
             if (showTraktId == null) {
                 return FAILED; // show should have a trakt id, give up
             }
-            return uploadEpisodes(showTraktId, syncSeasons, flag);
+            return uploadEpisodes(showTraktId, diff.toUpload, flag);
         } else {
             return SUCCESS;
         }
     }
 
-    private boolean processTraktEpisodes(boolean isInitialSync,
-            String seasonId, BaseSeason traktSeason, List<SyncSeason> syncSeasons, Flag flag) {
-        HashSet<Integer> traktEpisodes = buildTraktEpisodesMap(traktSeason.episodes);
+    private static String buildSeasonEpisodesSelection(
+            EpisodeFlagsDiff.SeasonEpisodes seasonEpisodes) {
+        String selection = SeriesGuideContract.Episodes.SEASON + "=" + seasonEpisodes.season;
+        if (seasonEpisodes.isWholeSeason) {
+            return selection;
+        }
+        return selection + " AND " + SeriesGuideContract.Episodes.NUMBER + " IN ("
+                + EpisodeFlagsDiff.toNumberList(seasonEpisodes.numbers) + ")";
+    }
 
-        Cursor localEpisodesQuery = context.getContentResolver()
-                .query(SeriesGuideContract.Episodes.buildEpisodesOfSeasonUri(
-                        seasonId), new String[] {
-                        SeriesGuideContract.Episodes._ID,
+    /**
+     * Loads the watched/collected flags of the given episodes in a single scan.
+     *
+     * @return Flags by show TVDb id, or {@code null} if the query failed.
+     */
+    @Nullable
+    private HashMap<Integer, EpisodeFlagsDiff.ShowFlags> queryLocalFlags(@NonNull Uri episodesUri,
+            @Nullable String selection, @NonNull Flag flag) {
+        Cursor query = context.getContentResolver().query(episodesUri,
+                new String[] {
+                        SeriesGuideContract.Shows.REF_SHOW_ID,
+                        SeriesGuideContract.Episodes.SEASON,
                         SeriesGuideContract.Episodes.NUMBER,
-                        flag.databaseColumn }, null, null, null);
-        if (localEpisodesQuery == null) {
-            return false;
+                        flag.databaseColumn }, selection, null,
+                SeriesGuideContract.Shows.REF_SHOW_ID);
+        if (query == null) {
+            Timber.e("queryLocalFlags: query failed");
+            return null;
         }
-        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
-        List<SyncEpisode> syncEpisodes = new ArrayList<>();
-        int episodesAddFlagCount = 0;
-        int episodesRemoveFlagCount = 0;
-        while (localEpisodesQuery.moveToNext()) {
-            int episodeId = localEpisodesQuery.getInt(0);
-            int episodeNumber = localEpisodesQuery.getInt(1);
-            int flagValue = localEpisodesQuery.getInt(2);
-            boolean isFlagged = flag == Flag.WATCHED ?
-                    EpisodeTools.isWatched(flagValue) : EpisodeTools.isCollected(flagValue);
-            if (traktEpisodes.contains(episodeNumber)) {
-                // episode watched/collected on trakt
-                if (!isFlagged) {
-                    // set as watched/collected
-                    batch.add(ContentProviderOperation.newUpdate(
-                            SeriesGuideContract.Episodes.buildEpisodeUri(episodeId))
-                            .withValue(flag.databaseColumn, flag.flaggedValue)
-                            .build());
-                    episodesAddFlagCount++;
-                }
-            } else {
-                // episode not watched/collected on trakt
-                if (isFlagged) {
-                    if (isInitialSync) {
-                        // upload to trakt
-                        syncEpisodes.add(new SyncEpisode().number(episodeNumber));
-                    } else {
-                        // set as not watched/collected if it is currently watched/collected
-                        boolean isSkipped = flag == Flag.WATCHED && EpisodeTools.isSkipped(
-                                flagValue);
-                        if (!isSkipped) {
-                            batch.add(ContentProviderOperation.newUpdate(
-                                    SeriesGuideContract.Episodes.buildEpisodeUri(episodeId))
-                                    .withValue(flag.databaseColumn, flag.notFlaggedValue)
-                                    .build());
-                            episodesRemoveFlagCount++;
-                        }
-                    }
+        HashMap<Integer, EpisodeFlagsDiff.ShowFlags> localFlags = new HashMap<>();
+        int currentShow = 0;
+        EpisodeFlagsDiff.ShowFlags currentFlags = null;
+        while (query.moveToNext()) {
+            int showTvdbId = query.getInt(0);
+            // rows are grouped by show, only look up flags if it changes
+            if (currentFlags == null || currentShow != showTvdbId) {
+                currentShow = showTvdbId;
+                currentFlags = localFlags.get(showTvdbId);
+                if (currentFlags == null) {
+                    currentFlags = new EpisodeFlagsDiff.ShowFlags();
+                    localFlags.put(showTvdbId, currentFlags);
                 }
             }
+            int flagValue = query.getInt(3);
+            boolean isFlagged = flag == Flag.WATCHED ?
+                    EpisodeTools.isWatched(flagValue) : EpisodeTools.isCollected(flagValue);
+            currentFlags.add(query.getInt(1), query.getInt(2), isFlagged);
         }
-        int localEpisodeCount = localEpisodesQuery.getCount();
-        boolean addFlagToWholeSeason = episodesAddFlagCount == localEpisodeCount;
-        boolean removeFlagFromWholeSeason = episodesRemoveFlagCount == localEpisodeCount;
-        localEpisodesQuery.close();
-
-        // performance improvement especially on initial syncs:
-        // if setting the whole season as (not) watched/collected, replace with single db op
-        if (addFlagToWholeSeason || removeFlagFromWholeSeason) {
-            batch.clear();
-            batch.add(ContentProviderOperation.newUpdate(
-                    SeriesGuideContract.Episodes.buildEpisodesOfSeasonUri(seasonId))
-                    .withValue(flag.databaseColumn,
-                            addFlagToWholeSeason ? flag.flaggedValue : flag.notFlaggedValue)
-                    .build());
-        }
-
-        try {
-            DBUtils.applyInSmallBatches(context, batch);
-        } catch (OperationApplicationException e) {
-            Timber.e(e, "Episodes watched/collected values database update failed.");
-        }
-
-        if (syncEpisodes.size() > 0) {
-            syncSeasons.add(new SyncSeason()
-                    .number(traktSeason.number)
-                    .episodes(syncEpisodes));
-        }
-
-        return true;
+        query.close();
+        return localFlags;
     }
 
     @NonNull
@@ -882,62 +882,6 @@ public class TraktTools {
         return traktShowsMap;
     }
 
-    @NonNull
-    private static HashMap<Integer, BaseSeason> buildTraktSeasonsMap(List<BaseSeason> seasons) {
-        HashMap<Integer, BaseSeason> traktSeasonsMap = new HashMap<>(seasons.size());
-        for (BaseSeason season : seasons) {
-            if (season.number == null
-                    || season.episodes == null
-                    || season.episodes.isEmpty()) {
-                continue; // trakt season misses required data, skip.
-            }
-            traktSeasonsMap.put(season.number, season);
-        }
-        return traktSeasonsMap;
-    }
-
-    @NonNull
-    private static HashSet<Integer> buildTraktEpisodesMap(List<BaseEpisode> episodes) {
-        HashSet<Integer> traktEpisodesMap = new HashSet<>(episodes.size());
-        for (BaseEpisode episode : episodes) {
-            if (episode.number == null) {
-                continue; // trakt episode misses required data, skip.
-            }
-            traktEpisodesMap.add(episode.number);
-        }
-        return traktEpisodesMap;
-    }
-
-    /**
-     * Uploads all watched/collected episodes for the given show to trakt.
-     *
-     * @return Any of the {@link TraktTools} result codes.
-     */
-    private int uploadEpisodes(int showTvdbId, int showTraktId, Flag flag) {
-        // query for watched/collected episodes
-        Cursor localEpisodes = context.getContentResolver().query(
-                SeriesGuideContract.Episodes.buildEpisodesOfShowUri(showTvdbId),
-                EpisodesQuery.PROJECTION,
-                flag.flagSelection,
-                null,
-                SeriesGuideContract.Episodes.SORT_SEASON_ASC);
-        if (localEpisodes == null) {
-            Timber.e("uploadEpisodes: query failed");
-            return FAILED;
-        }
-
-        // build a list of watched/collected episodes
-        List<SyncSeason> syncSeasons = new LinkedList<>();
-        buildEpisodeList(localEpisodes, syncSeasons);
-        localEpisodes.close();
-
-        if (syncSeasons.size() == 0) {
-            return SUCCESS; // nothing to upload for this show
-        }
-
-        return uploadEpisodes(showTraktId, syncSeasons, flag);
-    }
-
     /**
      * Uploads all the given watched/collected episodes of the given show to trakt.
      *
@@ -974,59 +918,6 @@ public class TraktTools {
         return FAILED_API;
     }
 
-    /**
-     * @param episodesCursor Cursor of episodes sorted by season (ascending).
-     * @param seasons Empty list.
-     */
-    private static void buildEpisodeList(Cursor episodesCursor, List<SyncSeason> seasons) {
-        SyncSeason currentSeason = null;
-        while (episodesCursor.moveToNext()) {
-            int season = episodesCursor.getInt(EpisodesQuery.SEASON);
-            int episode = episodesCursor.getInt(EpisodesQuery.EPISODE);
-
-            // create new season if none exists or number has changed
-            if (currentSeason == null || currentSeason.number != season) {
-                currentSeason = new SyncSeason().number(season);
-                currentSeason.episodes = new LinkedList<>();
-                seasons.add(currentSeason);
-            }
-
-            // add episode
-            currentSeason.episodes.add(new SyncEpisode().number(episode));
-        }
-    }
-
-    /**
-     * Returns a list of watched/collected episodes of a season. Packaged ready for upload to
-     * trakt.
-     */
-    private SyncSeason buildSyncSeason(String seasonTvdbId, int seasonNumber, Flag flag) {
-        // query for watched/collected episodes of the given season
-        Cursor flaggedEpisodesQuery = context.getContentResolver().query(
-                SeriesGuideContract.Episodes.buildEpisodesOfSeasonUri(seasonTvdbId),
-                new String[] { SeriesGuideContract.Episodes.NUMBER },
-                flag.flagSelection,
-                null,
-                SeriesGuideContract.Episodes.SORT_NUMBER_ASC);
-        if (flaggedEpisodesQuery == null) {
-            // query failed
-            return null;
-        }
-
-        List<SyncEpisode> syncEpisodes = new ArrayList<>();
-        while (flaggedEpisodesQuery.moveToNext()) {
-            int episodeNumber = flaggedEpisodesQuery.getInt(0);
-            syncEpisodes.add(new SyncEpisode().number(episodeNumber));
-        }
-        flaggedEpisodesQuery.close();
-
-        if (syncEpisodes.size() == 0) {
-            return null; // no episodes watched/collected
-        }
-
-        return new SyncSeason().number(seasonNumber).episodes(syncEpisodes);
-    }
-
     public static String buildShowUrl(int showTvdbId) {
         return TraktLink.tvdb(showTvdbId) + "?id_type=show";
     }
@@ -1131,14 +1022,4 @@ public class TraktTools {
         }
         return null;
     }
-
-    public interface EpisodesQuery {
-
-        String[] PROJECTION = new String[] {
-                SeriesGuideContract.Episodes.SEASON, SeriesGuideContract.Episodes.NUMBER
-        };
-
-        int SEASON = 0;
-        int EPISODE = 1;
-    }
 }
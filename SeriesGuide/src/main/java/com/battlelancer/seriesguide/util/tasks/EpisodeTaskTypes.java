@@ -10,6 +10,7 @@ import android.text.format.DateUtils;
 import com.battlelancer.seriesguide.R;
 import com.battlelancer.seriesguide.appwidget.ListWidgetProvider;
 import com.battlelancer.seriesguide.enums.EpisodeFlags;
+import com.battlelancer.seriesguide.provider.NotificationCoalescer;
 import com.battlelancer.seriesguide.provider.SeriesGuideContract;
 import com.battlelancer.seriesguide.util.ActivityTools;
 import com.battlelancer.seriesguide.util.EpisodeTools;
@@ -183,15 +184,42 @@ public class EpisodeTaskTypes {
                 return;
             }
 
-            // build and execute query
-            ContentValues values = getContentValues();
-            context.getContentResolver().update(uri, values, getDatabaseSelection(), null);
+            // send the notification of the update together with the ones below, merged
+            NotificationCoalescer notifications = NotificationCoalescer.getInstance(context);
+            notifications.begin();
+            try {
+                // build and execute query
+                ContentValues values = getContentValues();
+                context.getContentResolver().update(uri, values, getDatabaseSelection(), null);
+
+                // only notify loaders that display the changed episodes
+                for (Uri notificationUri : getNotificationUris()) {
+                    notifications.notifyChange(notificationUri);
+                }
+            } finally {
+                notifications.end();
+            }
+        }
 
-            // notify the content provider for udpates
-            context.getContentResolver()
-                    .notifyChange(SeriesGuideContract.Episodes.CONTENT_URI, null);
-            context.getContentResolver()
-                    .notifyChange(SeriesGuideContract.ListItems.CONTENT_WITH_DETAILS_URI, null);
+        /**
+         * Returns the uris of loaders displaying the flagged episodes, besides {@link
+         * #getDatabaseUri()} which is notified by the update itself. By default all calendar,
+         * episode with show, season and list item loaders.
+         */
+        private List<Uri> getNotificationUris() {
+            List<Uri> uris = new ArrayList<>();
+            uris.add(SeriesGuideContract.Episodes.CONTENT_URI_WITHSHOW);
+            uris.add(getEpisodesOfSeasonNotificationUri());
+            uris.add(SeriesGuideContract.ListItems.CONTENT_WITH_DETAILS_URI);
+            return uris;
+        }
+
+        /**
+         * Returns the uri to notify loaders of episodes of a season with. By default the one of
+         * all seasons.
+         */
+        protected Uri getEpisodesOfSeasonNotificationUri() {
+            return SeriesGuideContract.Episodes.CONTENT_URI_OFSEASON_WITHSHOW;
         }
 
         public void onPostExecute() {
@@ -449,6 +477,15 @@ public class EpisodeTaskTypes {
                     String.valueOf(seasonTvdbId));
         }
 
+        /**
+         * Only episodes of this season changed, so only notifies loaders of them.
+         */
+        @Override
+        protected Uri getEpisodesOfSeasonNotificationUri() {
+            return SeriesGuideContract.Episodes.buildEpisodesOfSeasonWithShowUri(
+                    String.valueOf(seasonTvdbId));
+        }
+
         @Override
         protected ContentValues getContentValues() {
             ContentValues values = new ContentValues();
@@ -0,0 +1,99 @@
+package com.battlelancer.seriesguide.test;
+
+import com.battlelancer.seriesguide.thetvdbapi.ConcurrentRequests;
+import com.battlelancer.seriesguide.thetvdbapi.TvdbException;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks how {@link ConcurrentRequests} reports failures of requests against a local server. See
+ * {@code ShowDetailsRequestsTest} for running the requests of {@code TvdbTools.getShowDetails}.
+ */
+public class ConcurrentRequestsTest {
+
+    private MockWebServer server;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().startsWith("/error")) {
+                    return new MockResponse().setResponseCode(500);
+                }
+                return new MockResponse().setResponseCode(200).setBody("{}");
+            }
+        });
+        server.start();
+        client = new OkHttpClient();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void await_rethrowsTvdbException() {
+        Future<Integer> request = ConcurrentRequests.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                int code = get("/error");
+                throw new TvdbException("getSeries: " + code);
+            }
+        });
+
+        try {
+            ConcurrentRequests.await(request, "test: ");
+            fail("TvdbException expected");
+        } catch (TvdbException e) {
+            assertThat(e.getMessage()).isEqualTo("getSeries: 500");
+        }
+    }
+
+    @Test
+    public void await_wrapsOtherExceptions() {
+        Future<Integer> request = ConcurrentRequests.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                throw new IOException("connection lost");
+            }
+        });
+
+        try {
+            ConcurrentRequests.await(request, "test: ");
+            fail("TvdbException expected");
+        } catch (TvdbException e) {
+            assertThat(e.getMessage()).isEqualTo("test: connection lost");
+            assertThat(e.getCause()).isInstanceOf(IOException.class);
+        }
+    }
+
+    private int get(String path) throws IOException {
+        Response response = client.newCall(new Request.Builder()
+                .url(server.url(path))
+                .build()).execute();
+        try {
+            response.body().string();
+            return response.code();
+        } finally {
+            response.close();
+        }
+    }
+}
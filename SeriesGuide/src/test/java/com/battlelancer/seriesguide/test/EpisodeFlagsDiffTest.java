@@ -0,0 +1,106 @@
+package com.battlelancer.seriesguide.test;
+
+import com.battlelancer.seriesguide.util.EpisodeFlagsDiff;
+import com.uwetrottmann.trakt5.entities.BaseEpisode;
+import com.uwetrottmann.trakt5.entities.BaseSeason;
+import com.uwetrottmann.trakt5.entities.BaseShow;
+import com.uwetrottmann.trakt5.entities.SyncSeason;
+import java.util.ArrayList;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EpisodeFlagsDiffTest {
+
+    private EpisodeFlagsDiff.ShowFlags local;
+
+    /**
+     * Season 1: episodes 1-3, 1 flagged. Season 2: episodes 1-2, none flagged. Season 3: episodes
+     * 1-2, 2 flagged. Season 4: episode 1, not flagged (e.g. skipped).
+     */
+    @Before
+    public void buildLocalFlags() {
+        local = new EpisodeFlagsDiff.ShowFlags();
+        local.add(1, 1, true);
+        local.add(1, 2, false);
+        local.add(1, 3, false);
+        local.add(2, 1, false);
+        local.add(2, 2, false);
+        local.add(3, 1, false);
+        local.add(3, 2, true);
+        local.add(4, 1, false);
+    }
+
+    /**
+     * On trakt season 1: 2 and 5 (not local), season 2: 1 and 2, season 4 missing data.
+     */
+    private static BaseShow buildTraktShow() {
+        BaseShow show = new BaseShow();
+        show.seasons = new ArrayList<>();
+        show.seasons.add(season(1, 2, 5));
+        show.seasons.add(season(2, 1, 2));
+        show.seasons.add(season(4));
+        return show;
+    }
+
+    @Test
+    public void diff_mirrorsTrakt() {
+        EpisodeFlagsDiff diff = EpisodeFlagsDiff.diff(local, buildTraktShow(), false);
+
+        assertThat(diff.toFlag).hasSize(2);
+        assertThat(diff.toFlag.get(0).season).isEqualTo(1);
+        assertThat(EpisodeFlagsDiff.toNumberList(diff.toFlag.get(0).numbers)).isEqualTo("2");
+        assertThat(diff.toFlag.get(0).isWholeSeason).isFalse();
+        assertThat(diff.toFlag.get(1).season).isEqualTo(2);
+        assertThat(diff.toFlag.get(1).isWholeSeason).isTrue();
+
+        assertThat(diff.toUnflag).hasSize(2);
+        assertThat(diff.toUnflag.get(0).season).isEqualTo(1);
+        assertThat(EpisodeFlagsDiff.toNumberList(diff.toUnflag.get(0).numbers)).isEqualTo("1");
+        assertThat(diff.toUnflag.get(1).season).isEqualTo(3);
+        assertThat(EpisodeFlagsDiff.toNumberList(diff.toUnflag.get(1).numbers)).isEqualTo("2");
+
+        assertThat(diff.toUpload).isEmpty();
+    }
+
+    @Test
+    public void diff_initialSyncUploads() {
+        EpisodeFlagsDiff diff = EpisodeFlagsDiff.diff(local, buildTraktShow(), true);
+
+        assertThat(diff.toFlag).hasSize(2);
+        assertThat(diff.toUnflag).isEmpty();
+
+        assertThat(diff.toUpload).hasSize(2);
+        SyncSeason season1 = diff.toUpload.get(0);
+        assertThat(season1.number).isEqualTo(1);
+        assertThat(season1.episodes).hasSize(1);
+        assertThat(season1.episodes.get(0).number).isEqualTo(1);
+        SyncSeason season3 = diff.toUpload.get(1);
+        assertThat(season3.number).isEqualTo(3);
+        assertThat(season3.episodes.get(0).number).isEqualTo(2);
+    }
+
+    @Test
+    public void diff_notOnTrakt() {
+        EpisodeFlagsDiff diff = EpisodeFlagsDiff.diff(local, null, true);
+        assertThat(diff.toFlag).isEmpty();
+        assertThat(diff.toUpload).hasSize(2);
+
+        diff = EpisodeFlagsDiff.diff(new EpisodeFlagsDiff.ShowFlags(), buildTraktShow(), true);
+        assertThat(diff.toFlag).isEmpty();
+        assertThat(diff.toUpload).isEmpty();
+    }
+
+    private static BaseSeason season(int number, int... episodes) {
+        BaseSeason season = new BaseSeason();
+        season.number = number;
+        season.episodes = new ArrayList<>();
+        for (int episodeNumber : episodes) {
+            BaseEpisode episode = new BaseEpisode();
+            episode.number = episodeNumber;
+            season.episodes.add(episode);
+        }
+        return season;
+    }
+}
@@ -0,0 +1,118 @@
+package com.battlelancer.seriesguide.test;
+
+import android.support.annotation.Nullable;
+import com.battlelancer.seriesguide.backend.HexagonEpisodePages;
+import com.uwetrottmann.seriesguide.backend.episodes.model.Episode;
+import com.uwetrottmann.seriesguide.backend.episodes.model.EpisodeList;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class HexagonEpisodePagesTest {
+
+    @Test
+    public void next_returnsPagesInOrder() throws Exception {
+        FakePageRequest request = new FakePageRequest(3);
+        HexagonEpisodePages pages = new HexagonEpisodePages(request);
+        try {
+            for (int i = 0; i < 3; i++) {
+                List<Episode> episodes = pages.next();
+                assertThat(episodes).hasSize(1);
+                assertThat(episodes.get(0).getEpisodeNumber()).isEqualTo(i);
+            }
+            assertThat(pages.next()).isNull();
+        } finally {
+            pages.close();
+        }
+        assertThat(request.cursors).containsExactly(null, "1", "2");
+    }
+
+    @Test
+    public void next_prefetchesNextPage() throws Exception {
+        final CountDownLatch secondPageRequested = new CountDownLatch(1);
+        FakePageRequest request = new FakePageRequest(2) {
+            @Override
+            public EpisodeList execute(@Nullable String cursor) throws IOException {
+                if (cursor != null) {
+                    secondPageRequested.countDown();
+                }
+                return super.execute(cursor);
+            }
+        };
+        HexagonEpisodePages pages = new HexagonEpisodePages(request);
+        try {
+            assertThat(pages.next()).hasSize(1);
+            // without asking for it, the second page is downloaded
+            assertThat(secondPageRequested.await(5, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            pages.close();
+        }
+    }
+
+    @Test
+    public void next_throwsRequestFailure() throws Exception {
+        HexagonEpisodePages pages = new HexagonEpisodePages(new HexagonEpisodePages.PageRequest() {
+            @Override
+            public EpisodeList execute(@Nullable String cursor) throws IOException {
+                throw new IOException("offline");
+            }
+        });
+        try {
+            pages.next();
+            failBecauseExceptionWasNotThrown(IOException.class);
+        } catch (IOException e) {
+            assertThat(e).hasMessage("offline");
+        } finally {
+            pages.close();
+        }
+    }
+
+    @Test
+    public void next_stopsAtEmptyPage() throws Exception {
+        HexagonEpisodePages pages = new HexagonEpisodePages(new HexagonEpisodePages.PageRequest() {
+            @Override
+            public EpisodeList execute(@Nullable String cursor) throws IOException {
+                return new EpisodeList()
+                        .setEpisodes(Collections.<Episode>emptyList())
+                        .setCursor("more");
+            }
+        });
+        try {
+            assertThat(pages.next()).isNull();
+        } finally {
+            pages.close();
+        }
+    }
+
+    /**
+     * Returns the given number of pages with one episode each, numbered by page.
+     */
+    private static class FakePageRequest implements HexagonEpisodePages.PageRequest {
+
+        private final int pageCount;
+        final List<String> cursors = Collections.synchronizedList(new ArrayList<String>());
+
+        FakePageRequest(int pageCount) {
+            this.pageCount = pageCount;
+        }
+
+        @Override
+        public EpisodeList execute(@Nullable String cursor) throws IOException {
+            cursors.add(cursor);
+            int page = cursor == null ? 0 : Integer.parseInt(cursor);
+            EpisodeList list = new EpisodeList();
+            list.setEpisodes(Collections.singletonList(new Episode().setEpisodeNumber(page)));
+            if (page + 1 < pageCount) {
+                list.setCursor(String.valueOf(page + 1));
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.battlelancer.seriesguide.test;
+
+import com.battlelancer.seriesguide.provider.ProviderStats;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks {@link ProviderStats} histograms and its slow operation log. Passes no {@link
+ * android.net.Uri}s as they are not available in local tests.
+ */
+public class ProviderStatsTest {
+
+    private ProviderStats stats;
+
+    @Before
+    public void createStats() {
+        stats = new ProviderStats();
+    }
+
+    @Test
+    public void record_groupsByOperationAndMatch() {
+        stats.record(ProviderStats.QUERY, 100, null, ms(0), 3);
+        stats.record(ProviderStats.QUERY, 100, null, ms(3), 5);
+        stats.record(ProviderStats.QUERY, 200, null, ms(2000), 1);
+        stats.record(ProviderStats.UPDATE, 100, null, ms(1), 1);
+
+        List<ProviderStats.Entry> entries = stats.getEntries();
+        assertThat(entries).hasSize(3);
+        // most expensive first
+        ProviderStats.Entry slowest = entries.get(0);
+        assertThat(slowest.match).isEqualTo(200);
+        assertThat(slowest.buckets[slowest.buckets.length - 1]).isEqualTo(1);
+
+        ProviderStats.Entry query = entries.get(1);
+        assertThat(query.operation).isEqualTo(ProviderStats.QUERY);
+        assertThat(query.match).isEqualTo(100);
+        assertThat(query.count).isEqualTo(2);
+        assertThat(query.rows).isEqualTo(8);
+        assertThat(query.maxNs).isEqualTo(ms(3));
+        // < 1 ms and 2-4 ms buckets
+        assertThat(query.buckets[0]).isEqualTo(1);
+        assertThat(query.buckets[2]).isEqualTo(1);
+
+        stats.reset();
+        assertThat(stats.getEntries()).isEmpty();
+    }
+
+    @Test
+    public void recordSlow_keepsMostRecent() {
+        assertThat(stats.isSlow(ms(ProviderStats.SLOW_THRESHOLD_MS - 1))).isFalse();
+        assertThat(stats.isSlow(ms(ProviderStats.SLOW_THRESHOLD_MS))).isTrue();
+
+        for (int i = 0; i < ProviderStats.SLOW_LOG_SIZE + 5; i++) {
+            stats.recordSlow(ProviderStats.QUERY, null, ms(100), i, "SELECT " + i,
+                    new String[] { String.valueOf(i) });
+        }
+
+        List<ProviderStats.SlowOperation> operations = stats.getSlowOperations();
+        assertThat(operations).hasSize(ProviderStats.SLOW_LOG_SIZE);
+        assertThat(operations.get(0).rows).isEqualTo(ProviderStats.SLOW_LOG_SIZE + 4);
+        assertThat(operations.get(operations.size() - 1).rows).isEqualTo(5);
+        assertThat(stats.buildReport()).contains("SELECT " + (ProviderStats.SLOW_LOG_SIZE + 4))
+                .doesNotContain("SELECT 4\n");
+    }
+
+    private static long ms(long ms) {
+        return TimeUnit.MILLISECONDS.toNanos(ms);
+    }
+}
@@ -0,0 +1,192 @@
+package com.battlelancer.seriesguide.test;
+
+import android.support.annotation.Nullable;
+import com.battlelancer.seriesguide.util.RequestScheduler;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Sends requests through a {@link RequestScheduler} to a local server.
+ */
+public class RequestSchedulerTest {
+
+    private MockWebServer server;
+    private RequestScheduler scheduler;
+    private OkHttpClient client;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        scheduler = new RequestScheduler();
+        client = new OkHttpClient.Builder()
+                .addInterceptor(scheduler)
+                .build();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void rateLimit_spacesOutRequests() throws IOException {
+        // burst of 2, then 10 per second
+        scheduler.setRateLimit(server.getHostName(), 2, 10);
+        for (int i = 0; i < 5; i++) {
+            server.enqueue(new MockResponse().setBody("ok"));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            assertThat(get("/" + i)).isEqualTo("ok");
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertThat(elapsedMs).isGreaterThanOrEqualTo(250);
+        assertThat(scheduler.buildReport()).contains("interactive: 5 requests");
+    }
+
+    @Test
+    public void identicalRequests_shareResponse() throws Exception {
+        scheduler.setRateLimit(server.getHostName(), 10, 10);
+        server.enqueue(new MockResponse().setBody("shared")
+                .setHeadersDelay(500, TimeUnit.MILLISECONDS));
+        server.enqueue(new MockResponse().setBody("not shared"));
+
+        Future<String> first = executor.submit(getTask("/movie"));
+        // make sure the first request is in flight
+        Thread.sleep(100);
+        Future<String> second = executor.submit(getTask("/movie"));
+
+        assertThat(first.get()).isEqualTo("shared");
+        assertThat(second.get()).isEqualTo("shared");
+        assertThat(server.getRequestCount()).isEqualTo(1);
+        assertThat(scheduler.buildReport()).contains("Shared responses: 1");
+    }
+
+    @Test
+    public void differentLanguages_notShared() throws Exception {
+        scheduler.setRateLimit(server.getHostName(), 10, 10);
+        server.enqueue(new MockResponse().setBody("en")
+                .setHeadersDelay(500, TimeUnit.MILLISECONDS));
+        server.enqueue(new MockResponse().setBody("de"));
+
+        Future<String> first = executor.submit(getTask("/series", "en"));
+        // make sure the first request is in flight
+        Thread.sleep(100);
+        Future<String> second = executor.submit(getTask("/series", "de"));
+
+        assertThat(first.get()).isEqualTo("en");
+        assertThat(second.get()).isEqualTo("de");
+        assertThat(server.getRequestCount()).isEqualTo(2);
+        assertThat(scheduler.buildReport()).contains("Shared responses: 0");
+    }
+
+    @Test
+    public void rateLimited_retriesAfter() throws IOException {
+        scheduler.setRateLimit(server.getHostName(), 10, 10);
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1"));
+        server.enqueue(new MockResponse().setBody("ok"));
+
+        long start = System.nanoTime();
+        assertThat(get("/limited")).isEqualTo("ok");
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertThat(elapsedMs).isGreaterThanOrEqualTo(1000);
+        assertThat(server.getRequestCount()).isEqualTo(2);
+        assertThat(scheduler.buildReport()).contains("retried: 1");
+    }
+
+    @Test
+    public void otherHosts_notScheduled() throws IOException {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1"));
+
+        Response response = client.newCall(new Request.Builder()
+                .url(server.url("/limited"))
+                .build()).execute();
+        assertThat(response.code()).isEqualTo(429);
+        response.close();
+        assertThat(server.getRequestCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void legacyTvdbHost_scheduled() throws IOException {
+        // send the request to the local server once it passed the scheduler
+        OkHttpClient tvdbClient = new OkHttpClient.Builder()
+                .addInterceptor(RequestScheduler.getInstance())
+                .addInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(Chain chain) throws IOException {
+                        HttpUrl url = chain.request().url().newBuilder()
+                                .scheme("http")
+                                .host(server.getHostName())
+                                .port(server.getPort())
+                                .build();
+                        return chain.proceed(chain.request().newBuilder().url(url).build());
+                    }
+                })
+                .build();
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1"));
+        server.enqueue(new MockResponse().setBody("ok"));
+
+        Response response = tvdbClient.newCall(new Request.Builder()
+                .url("http://thetvdb.com/api/Updates.php?type=none")
+                .build()).execute();
+        try {
+            // retried, so scheduled
+            assertThat(response.body().string()).isEqualTo("ok");
+        } finally {
+            response.close();
+        }
+        assertThat(server.getRequestCount()).isEqualTo(2);
+    }
+
+    private Callable<String> getTask(String path) {
+        return getTask(path, null);
+    }
+
+    private Callable<String> getTask(final String path, @Nullable final String language) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return get(path, language);
+            }
+        };
+    }
+
+    private String get(String path) throws IOException {
+        return get(path, null);
+    }
+
+    private String get(String path, @Nullable String language) throws IOException {
+        Request.Builder request = new Request.Builder()
+                .url(server.url(path));
+        if (language != null) {
+            request.header("Accept-Language", language);
+        }
+        Response response = client.newCall(request.build()).execute();
+        try {
+            return response.body().string();
+        } finally {
+            response.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.battlelancer.seriesguide.test;
+
+import com.battlelancer.seriesguide.sync.SgSyncAdapter.UpdateResult;
+import com.battlelancer.seriesguide.sync.SyncPhases;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SyncPhasesTest {
+
+    @Test
+    public void run_phasesRunConcurrently() {
+        // each phase waits for the other one to start
+        final CountDownLatch started = new CountDownLatch(2);
+        SyncPhases phases = new SyncPhases(2, null)
+                .add("first", new AwaitingPhase(started))
+                .add("second", new AwaitingPhase(started));
+
+        assertThat(phases.run()).isEqualTo(UpdateResult.SUCCESS);
+        assertThat(phases.getResult("first")).isEqualTo(UpdateResult.SUCCESS);
+        assertThat(phases.getResult("second")).isEqualTo(UpdateResult.SUCCESS);
+    }
+
+    @Test
+    public void run_mergesResults() {
+        SyncPhases phases = new SyncPhases(2, null)
+                .add("success", new ResultPhase(UpdateResult.SUCCESS))
+                .add("incomplete", new ResultPhase(UpdateResult.INCOMPLETE))
+                .add("success again", new ResultPhase(UpdateResult.SUCCESS));
+
+        // a failed phase does not stop others
+        assertThat(phases.run()).isEqualTo(UpdateResult.INCOMPLETE);
+        assertThat(phases.getResult("incomplete")).isEqualTo(UpdateResult.INCOMPLETE);
+        assertThat(phases.getResult("success again")).isEqualTo(UpdateResult.SUCCESS);
+        assertThat(phases.getResult("missing")).isNull();
+
+        assertThat(new SyncPhases(2, null).run()).isEqualTo(UpdateResult.SUCCESS);
+    }
+
+    @Test
+    public void cancel_skipsPhases() {
+        SyncPhases phases = new SyncPhases(1, null)
+                .add("success", new ResultPhase(UpdateResult.SUCCESS));
+        phases.cancel();
+
+        assertThat(phases.run()).isEqualTo(UpdateResult.INCOMPLETE);
+        assertThat(phases.getResult("success")).isEqualTo(UpdateResult.INCOMPLETE);
+    }
+
+    private static class AwaitingPhase implements SyncPhases.Phase {
+
+        private final CountDownLatch started;
+
+        AwaitingPhase(CountDownLatch started) {
+            this.started = started;
+        }
+
+        @Override
+        public UpdateResult run() {
+            started.countDown();
+            try {
+                return started.await(5, TimeUnit.SECONDS)
+                        ? UpdateResult.SUCCESS : UpdateResult.INCOMPLETE;
+            } catch (InterruptedException e) {
+                return UpdateResult.INCOMPLETE;
+            }
+        }
+    }
+
+    private static class ResultPhase implements SyncPhases.Phase {
+
+        private final UpdateResult result;
+
+        ResultPhase(UpdateResult result) {
+            this.result = result;
+        }
+
+        @Override
+        public UpdateResult run() {
+            return result;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.battlelancer.seriesguide.test;
+
+import android.support.annotation.NonNull;
+import com.battlelancer.seriesguide.thetvdbapi.TvdbException;
+import com.battlelancer.seriesguide.thetvdbapi.TvdbUpdates;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TvdbUpdatesTest {
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000;
+    private static final long NOW_MS = 1483228800000L; // 2017-01-01
+    private static final long LAST_SYNC_SEC = NOW_MS / 1000 - 60 * 60;
+
+    /**
+     * Stands in for TheTVDB, reports a fixed set of changed series.
+     */
+    private static class FakeFeed implements TvdbUpdates.Feed {
+
+        private final HashSet<Integer> changedShows;
+        long requestedFromTime;
+        boolean isServerTimeRequested;
+
+        FakeFeed(Integer... changedShows) {
+            this.changedShows = new HashSet<>(Arrays.asList(changedShows));
+        }
+
+        @NonNull
+        @Override
+        public TvdbUpdates.ChangedShows getChangedShowsSince(long fromTimeSec) {
+            requestedFromTime = fromTimeSec;
+            return new TvdbUpdates.ChangedShows(NOW_MS / 1000, changedShows);
+        }
+
+        @Override
+        public long getServerTime() {
+            isServerTimeRequested = true;
+            return NOW_MS / 1000;
+        }
+    }
+
+    @Test
+    public void selectShows_onlyChangedLocalShows() throws TvdbException {
+        HashMap<Integer, Long> localShows = new HashMap<>();
+        localShows.put(1, NOW_MS - DAY_MS);
+        localShows.put(2, NOW_MS - 10 * DAY_MS);
+        localShows.put(3, NOW_MS - DAY_MS);
+        FakeFeed feed = new FakeFeed(1, 2, 99);
+
+        TvdbUpdates.Selection selection = TvdbUpdates.selectShows(feed, localShows,
+                LAST_SYNC_SEC, NOW_MS);
+
+        assertThat(feed.requestedFromTime).isEqualTo(LAST_SYNC_SEC);
+        assertThat(selection).isNotNull();
+        assertThat(selection.showTvdbIds).containsOnly(1, 2);
+        assertThat(selection.serverTimeSec).isEqualTo(NOW_MS / 1000);
+    }
+
+    @Test
+    public void selectShows_includesStaleShows() throws TvdbException {
+        HashMap<Integer, Long> localShows = new HashMap<>();
+        localShows.put(1, NOW_MS - 60 * DAY_MS);
+        localShows.put(2, NOW_MS - DAY_MS);
+
+        TvdbUpdates.Selection selection = TvdbUpdates.selectShows(new FakeFeed(), localShows,
+                LAST_SYNC_SEC, NOW_MS);
+
+        assertThat(selection).isNotNull();
+        assertThat(selection.showTvdbIds).containsOnly(1);
+    }
+
+    @Test
+    public void selectShows_fallsBackWithoutOrOnOldSyncTime() throws TvdbException {
+        HashMap<Integer, Long> localShows = new HashMap<>();
+        localShows.put(1, NOW_MS - DAY_MS);
+
+        assertThat(TvdbUpdates.selectShows(new FakeFeed(1), localShows, 0, NOW_MS)).isNull();
+        assertThat(TvdbUpdates.selectShows(new FakeFeed(1), localShows,
+                NOW_MS / 1000 - 40 * DAY_MS / 1000, NOW_MS)).isNull();
+    }
+
+    @Test
+    public void selectShowsWithoutFeed_keepsUsableSyncTime() throws TvdbException {
+        HashMap<Integer, Long> localShows = new HashMap<>();
+        localShows.put(1, NOW_MS - DAY_MS);
+        localShows.put(2, NOW_MS - 10 * DAY_MS);
+        FakeFeed feed = new FakeFeed();
+
+        // changes since the last sync must not be skipped
+        TvdbUpdates.Selection selection = TvdbUpdates.selectShowsWithoutFeed(feed, localShows,
+                new int[] { 2 }, LAST_SYNC_SEC, NOW_MS);
+        assertThat(selection.showTvdbIds).containsOnly(2);
+        assertThat(selection.serverTimeSec).isEqualTo(0);
+        assertThat(feed.isServerTimeRequested).isFalse();
+    }
+
+    @Test
+    public void selectShowsWithoutFeed_updatesAllToStartTracking() throws TvdbException {
+        HashMap<Integer, Long> localShows = new HashMap<>();
+        localShows.put(1, NOW_MS - DAY_MS);
+        localShows.put(2, NOW_MS - 10 * DAY_MS);
+
+        // without or with an expired sync time, earlier changes are only caught by updating all
+        for (long lastSyncSec : new long[] { 0, NOW_MS / 1000 - 40 * DAY_MS / 1000 }) {
+            TvdbUpdates.Selection selection = TvdbUpdates.selectShowsWithoutFeed(new FakeFeed(),
+                    localShows, new int[] { 2 }, lastSyncSec, NOW_MS);
+            assertThat(selection.showTvdbIds).containsOnly(1, 2);
+            assertThat(selection.serverTimeSec).isEqualTo(NOW_MS / 1000);
+        }
+    }
+}